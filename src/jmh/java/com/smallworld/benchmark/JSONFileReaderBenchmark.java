@@ -0,0 +1,61 @@
+package com.smallworld.benchmark;
+
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.Transaction;
+import com.smallworld.util.JSONFileReader;
+import com.smallworld.util.TransactionStreamAggregator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting the data in: the full Jackson parse behind every snapshot load, and the single-pass streaming
+ * aggregation over the same file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JSONFileReaderBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int rows;
+
+    private JSONFileReader reader;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = SyntheticTransactionGenerator.cachedDataset(rows);
+        reader = new JSONFileReader(file);
+    }
+
+    @Benchmark
+    public List<Transaction> loadDataFromJson() {
+        return reader.loadDataFromJson();
+    }
+
+    @Benchmark
+    public TransactionStreamAggregator aggregateStream() throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return TransactionDataFetcher.aggregateStream(in);
+        }
+    }
+}
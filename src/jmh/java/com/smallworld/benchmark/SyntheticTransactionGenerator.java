@@ -0,0 +1,185 @@
+package com.smallworld.benchmark;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.smallworld.util.JSONFileReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Writes {@code transactions.json}-shaped datasets of any size for the benchmarks. The data is skewed the way real
+ * traffic is: senders and beneficiaries follow a Zipf distribution, amounts are log-normal, a small set of risky
+ * clients carries most of the compliance issues, and a transaction with several issues is repeated once per issue.
+ * Transaction times start at {@link #FIRST_TRANSACTION_TIME} and advance with the mtn, about 25 seconds per
+ * transfer. The output only depends on the row count and the seed.
+ */
+public final class SyntheticTransactionGenerator {
+
+    public static final long DEFAULT_SEED = 42L;
+    /**
+     * 2024-01-01T00:00:00Z
+     */
+    public static final long FIRST_TRANSACTION_TIME = 1_704_067_200_000L;
+
+    private static final String[] FIRST_NAMES = {"Tom", "Arthur", "John", "Ada", "Polly", "Michael", "Grace",
+            "Alfie", "Aberama", "Luca", "Esme", "Lizzie", "Linda", "Finn", "Isaiah", "Jeremiah", "Johnny", "Charlie",
+            "Curly", "May", "Winston", "Oswald", "Billy", "Ruben"};
+    private static final String[] LAST_NAMES = {"Shelby", "Solomons", "Gold", "Changretta", "Gray", "Burgess",
+            "Campbell", "Churchill", "Mosley", "Boswell", "Kimber", "Jesus", "Carleton", "Stark", "Thorne", "Lee",
+            "Swann", "Sabini", "Strong", "Evans"};
+    private static final String[] ISSUE_MESSAGES = {"Looks like money laundering", "Never gonna give you up",
+            "Never gonna let you down", "Never gonna run around and desert you", "Sanctions list near match",
+            "Unusual velocity for sender", "Structuring below reporting threshold", "Beneficiary name mismatch"};
+
+    private static final double ZIPF_EXPONENT = 1.07;
+    private static final int RISKY_CLIENT_EVERY = 13;
+
+    private final int rows;
+    private final long seed;
+    private final int clientCount;
+    private final double[] clientCdf;
+
+    public SyntheticTransactionGenerator(int rows) {
+        this(rows, DEFAULT_SEED);
+    }
+
+    public SyntheticTransactionGenerator(int rows, long seed) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("rows must not be negative: " + rows);
+        }
+        this.rows = rows;
+        this.seed = seed;
+        this.clientCount = Math.max(10, rows / 20);
+        this.clientCdf = zipfCdf(clientCount);
+    }
+
+    /**
+     * Returns a dataset with the given number of rows, generating it into the temporary directory on first use
+     */
+    public static Path cachedDataset(int rows) throws IOException {
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "smallworld-jmh");
+        Path file = directory.resolve("transactions-" + rows + "-" + DEFAULT_SEED + "-timed.json");
+        if (Files.isRegularFile(file)) {
+            return file;
+        }
+        Files.createDirectories(directory);
+        Path partial = Files.createTempFile(directory, "transactions-" + rows, ".json.tmp");
+        new SyntheticTransactionGenerator(rows).write(partial);
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    public void write(Path file) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        try (JsonGenerator generator = JSONFileReader.objectMapper().getFactory()
+                .createGenerator(file.toFile(), JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartArray();
+            long firstMtn = 100_000L;
+            long mtn = firstMtn;
+            int issueId = 0;
+            int written = 0;
+            while (written < rows) {
+                mtn += 1 + random.nextInt(50);
+                int sender = nextClient(random);
+                // beneficiaries are skewed too, but towards different clients than the senders
+                int beneficiary = (nextClient(random) + clientCount / 2) % clientCount;
+                double amount = Math.min(1_000_000.0,
+                        Math.round(Math.exp(4.5 + 1.2 * nextGaussian(random)) * 100.0) / 100.0);
+                int issues = issueCount(random, sender % RISKY_CLIENT_EVERY == 0);
+                for (int i = 0; i < Math.max(1, issues) && written < rows; i++, written++) {
+                    generator.writeStartObject();
+                    generator.writeNumberField("mtn", mtn);
+                    generator.writeNumberField("amount", amount);
+                    generator.writeStringField("senderFullName", clientName(sender));
+                    generator.writeNumberField("senderAge", clientAge(sender));
+                    generator.writeStringField("beneficiaryFullName", clientName(beneficiary));
+                    generator.writeNumberField("beneficiaryAge", clientAge(beneficiary));
+                    generator.writeNumberField("transactionTime", FIRST_TRANSACTION_TIME + (mtn - firstMtn) * 1000);
+                    if (issues == 0) {
+                        generator.writeNullField("issueId");
+                        generator.writeBooleanField("issueSolved", true);
+                        generator.writeNullField("issueMessage");
+                    } else {
+                        generator.writeNumberField("issueId", ++issueId);
+                        generator.writeBooleanField("issueSolved", random.nextInt(10) < 7);
+                        generator.writeStringField("issueMessage",
+                                ISSUE_MESSAGES[random.nextInt(ISSUE_MESSAGES.length)]);
+                    }
+                    generator.writeEndObject();
+                }
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private static int issueCount(SplittableRandom random, boolean risky) {
+        if (random.nextInt(100) >= (risky ? 60 : 15)) {
+            return 0;
+        }
+        int roll = random.nextInt(100);
+        return roll < 80 ? 1 : roll < 95 ? 2 : 3;
+    }
+
+    private int nextClient(SplittableRandom random) {
+        double u = random.nextDouble();
+        int low = 0;
+        int high = clientCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (clientCdf[mid] < u) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double[] zipfCdf(int n) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static double nextGaussian(SplittableRandom random) {
+        // Box-Muller, SplittableRandom has no nextGaussian on Java 8
+        double u = 1.0 - random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * random.nextDouble());
+    }
+
+    private static String clientName(int client) {
+        int combinations = FIRST_NAMES.length * LAST_NAMES.length;
+        String name = FIRST_NAMES[client % FIRST_NAMES.length] + " "
+                + LAST_NAMES[(client / FIRST_NAMES.length) % LAST_NAMES.length];
+        return client < combinations ? name : name + " " + (client / combinations + 1);
+    }
+
+    private static int clientAge(int client) {
+        return 18 + (client * 31 + 7) % 70;
+    }
+
+    /**
+     * Usage: SyntheticTransactionGenerator rows output.json [seed]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticTransactionGenerator <rows> <output.json> [seed]");
+            System.exit(2);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        new SyntheticTransactionGenerator(Integer.parseInt(args[0]), seed).write(Paths.get(args[1]));
+    }
+}
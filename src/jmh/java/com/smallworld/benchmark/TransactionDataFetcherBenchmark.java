@@ -0,0 +1,172 @@
+package com.smallworld.benchmark;
+
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Transaction;
+import com.smallworld.data.WindowAggregate;
+import com.smallworld.query.Aggregate;
+import com.smallworld.query.QueryResult;
+import com.smallworld.sketch.HeavyHitter;
+import com.smallworld.util.JSONFileReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every public query of {@link TransactionDataFetcher} against a loaded snapshot. Loading happens once per trial,
+ * so these numbers are the steady-state cost of serving a request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TransactionDataFetcherBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int rows;
+
+    private TransactionDataFetcher fetcher;
+    /**
+     * The heaviest sender, so per-client lookups hit the longest postings list
+     */
+    private String topSender;
+    private String rareClient;
+    private int issueId;
+    private Set<Aggregate> allAggregates;
+    /**
+     * The last week of data, not aligned to any bucket, so days, hours and minutes are all merged
+     */
+    private long windowFrom;
+    private long windowTo;
+
+    @Setup
+    public void setUp() throws IOException {
+        fetcher = new TransactionDataFetcher(new JSONFileReader(SyntheticTransactionGenerator.cachedDataset(rows)));
+        ColumnarTransactionStore store = fetcher.getSnapshotManager().current().getStore();
+        topSender = fetcher.getTopSender().orElseThrow(IllegalStateException::new);
+        rareClient = store.getClients().decode(store.getClients().size() - 1);
+        for (int row = store.size() / 2; row < store.size() && issueId == 0; row++) {
+            issueId = store.issueId(row);
+        }
+        allAggregates = EnumSet.allOf(Aggregate.class);
+        windowTo = store.transactionTime(store.size() - 1) + 1;
+        windowFrom = windowTo - TimeUnit.DAYS.toMillis(7) + TimeUnit.MINUTES.toMillis(13);
+        // built here so the benchmarks measure queries, not the one-off rollup and sketches
+        fetcher.getSnapshotManager().current().getRollups();
+        fetcher.countUniqueClientsApproximately();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fetcher.getSnapshotManager().close();
+    }
+
+    @Benchmark
+    public double getTotalTransactionAmount() {
+        return fetcher.getTotalTransactionAmount();
+    }
+
+    @Benchmark
+    public double getTotalTransactionAmountSentBy() {
+        return fetcher.getTotalTransactionAmountSentBy(topSender);
+    }
+
+    @Benchmark
+    public double getMaxTransactionAmount() {
+        return fetcher.getMaxTransactionAmount();
+    }
+
+    @Benchmark
+    public long countUniqueClients() {
+        return fetcher.countUniqueClients();
+    }
+
+    @Benchmark
+    public boolean hasOpenComplianceIssues() {
+        return fetcher.hasOpenComplianceIssues(rareClient);
+    }
+
+    @Benchmark
+    public Map<String, ?> getTransactionsByBeneficiaryName() {
+        return fetcher.getTransactionsByBeneficiaryName();
+    }
+
+    @Benchmark
+    public Optional<Transaction> findTransactionByIssueId() {
+        return fetcher.findTransactionByIssueId(issueId);
+    }
+
+    @Benchmark
+    public List<Transaction> getTransactionsSentBy() {
+        return fetcher.getTransactionsSentBy(topSender);
+    }
+
+    @Benchmark
+    public Set<Integer> getUnsolvedIssueIds() {
+        return fetcher.getUnsolvedIssueIds();
+    }
+
+    @Benchmark
+    public List<String> getAllSolvedIssueMessages() {
+        return fetcher.getAllSolvedIssueMessages();
+    }
+
+    @Benchmark
+    public List<Transaction> getTop3TransactionsByAmount() {
+        return fetcher.getTop3TransactionsByAmount();
+    }
+
+    @Benchmark
+    public List<Transaction> getTopTransactionsByAmount() {
+        return fetcher.getTopTransactionsByAmount(100);
+    }
+
+    @Benchmark
+    public Optional<String> getTopSender() {
+        return fetcher.getTopSender();
+    }
+
+    @Benchmark
+    public long countUniqueClientsApproximately() {
+        return fetcher.countUniqueClientsApproximately();
+    }
+
+    @Benchmark
+    public double estimateTotalTransactionAmountSentBy() {
+        return fetcher.estimateTotalTransactionAmountSentBy(topSender);
+    }
+
+    @Benchmark
+    public List<HeavyHitter> getTopSendersApproximately() {
+        return fetcher.getTopSendersApproximately(10);
+    }
+
+    @Benchmark
+    public WindowAggregate getWindowSummary() {
+        return fetcher.getWindowSummary(windowFrom, windowTo);
+    }
+
+    @Benchmark
+    public QueryResult getSummary() {
+        return fetcher.getSummary(allAggregates);
+    }
+}
@@ -2,8 +2,39 @@ package com.smallworld;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.smallworld.data.ApproximateAggregates;
+import com.smallworld.data.BeneficiaryGroups;
+import com.smallworld.data.ClientExposure;
+import com.smallworld.data.ClientGraph;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Counterparty;
+import com.smallworld.data.LiveAggregates;
+import com.smallworld.data.NormalizedTransactions;
+import com.smallworld.data.ReachableClient;
+import com.smallworld.data.StringDictionary;
+import com.smallworld.data.TimeRollups;
 import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionIndexes;
+import com.smallworld.data.TransactionSnapshot;
+import com.smallworld.data.TransactionSnapshotManager;
+import com.smallworld.data.WindowAggregate;
+import com.smallworld.export.ExportOptions;
+import com.smallworld.export.ExportResult;
+import com.smallworld.export.TransactionExporter;
+import com.smallworld.metrics.LatencyHistogram;
+import com.smallworld.metrics.MetricsRegistry;
+import com.smallworld.query.Aggregate;
+import com.smallworld.query.QueryCompiler;
+import com.smallworld.query.QueryEngine;
+import com.smallworld.query.QueryGroup;
+import com.smallworld.query.QueryResult;
+import com.smallworld.query.ResultCache;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.sketch.ErrorBounds;
+import com.smallworld.sketch.HeavyHitter;
 import com.smallworld.util.JSONFileReader;
+import com.smallworld.util.StreamingTransactionReader;
+import com.smallworld.util.TransactionStreamAggregator;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.InputStream;
@@ -14,61 +45,369 @@ import java.util.Set;
 
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
 
 public class TransactionDataFetcher {
 
     JSONFileReader jsonFileReader;
 
+    private final TransactionSnapshotManager snapshotManager;
+
+    private final QueryEngine queryEngine = new QueryEngine();
+
+    private final ResultCache resultCache = new ResultCache();
+
+    private final QueryCompiler queryCompiler = new QueryCompiler();
+
+    private final TransactionExporter exporter = new TransactionExporter(queryCompiler);
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    private final LatencyHistogram getSummaryLatency = methodLatency("getSummary");
+    private final LatencyHistogram appendLatency = methodLatency("append");
+    private final LatencyHistogram appendAllLatency = methodLatency("appendAll");
+    private final LatencyHistogram getTotalTransactionAmountLatency = methodLatency("getTotalTransactionAmount");
+    private final LatencyHistogram getTotalTransactionAmountSentByLatency = methodLatency("getTotalTransactionAmountSentBy");
+    private final LatencyHistogram getMaxTransactionAmountLatency = methodLatency("getMaxTransactionAmount");
+    private final LatencyHistogram countUniqueClientsLatency = methodLatency("countUniqueClients");
+    private final LatencyHistogram hasOpenComplianceIssuesLatency = methodLatency("hasOpenComplianceIssues");
+    private final LatencyHistogram getTransactionsByBeneficiaryNameLatency = methodLatency("getTransactionsByBeneficiaryName");
+    private final LatencyHistogram getTransactionsReceivedByLatency = methodLatency("getTransactionsReceivedBy");
+    private final LatencyHistogram findTransactionByIssueIdLatency = methodLatency("findTransactionByIssueId");
+    private final LatencyHistogram getTransactionsSentByLatency = methodLatency("getTransactionsSentBy");
+    private final LatencyHistogram getUnsolvedIssueIdsLatency = methodLatency("getUnsolvedIssueIds");
+    private final LatencyHistogram getAllSolvedIssueMessagesLatency = methodLatency("getAllSolvedIssueMessages");
+    private final LatencyHistogram getTop3TransactionsByAmountLatency = methodLatency("getTop3TransactionsByAmount");
+    private final LatencyHistogram getTopTransactionsByAmountLatency = methodLatency("getTopTransactionsByAmount");
+    private final LatencyHistogram getTopSenderLatency = methodLatency("getTopSender");
+    private final LatencyHistogram getWindowSummaryLatency = methodLatency("getWindowSummary");
+    private final LatencyHistogram getTotalTransactionAmountInLastHoursLatency = methodLatency("getTotalTransactionAmountInLastHours");
+    private final LatencyHistogram getTopSenderTodayLatency = methodLatency("getTopSenderToday");
+    private final LatencyHistogram countUniqueClientsApproximatelyLatency = methodLatency("countUniqueClientsApproximately");
+    private final LatencyHistogram getTopSendersApproximatelyLatency = methodLatency("getTopSendersApproximately");
+    private final LatencyHistogram estimateTotalTransactionAmountSentByLatency = methodLatency("estimateTotalTransactionAmountSentBy");
+    private final LatencyHistogram queryLatency = methodLatency("query");
+    private final LatencyHistogram getCounterpartiesLatency = methodLatency("getCounterparties");
+    private final LatencyHistogram getExposureLatency = methodLatency("getExposure");
+    private final LatencyHistogram findReachableFlaggedClientsLatency = methodLatency("findReachableFlaggedClients");
+    private final LatencyHistogram exportLatency = methodLatency("export");
+
+    /**
+     * Source of "now" for the windowed queries
+     */
+    private volatile Clock clock = Clock.systemUTC();
+
+    /**
+     * When set, the per-client figures are served from sketches, see {@link #setApproximate(boolean)}
+     */
+    private volatile boolean approximate;
+    private volatile ErrorBounds sketchErrorBounds = ErrorBounds.DEFAULT;
+
+    /**
+     * When set, amounts and issues are counted once per row instead of once per transfer and issue, see
+     * {@link #setPerRowSemantics(boolean)}
+     */
+    private volatile boolean perRowSemantics;
+
 
     @Autowired
     public TransactionDataFetcher(JSONFileReader jsonFileReader) {
         this.jsonFileReader  = jsonFileReader;
+        this.snapshotManager = new TransactionSnapshotManager(jsonFileReader, metrics);
+        registerMetrics();
     }
 
+    private LatencyHistogram methodLatency(String method) {
+        return metrics.latency("smallworld_fetcher_latency_seconds", "Latency of TransactionDataFetcher methods",
+                "method", method);
+    }
+
+    private void registerMetrics() {
+        metrics.gauge("smallworld_cache_entries", "Entries in the result cache", resultCache::size);
+        metrics.gauge("smallworld_cache_max_entries", "Bound of the result cache", resultCache::getMaxEntries);
+        metrics.counter("smallworld_cache_hits_total", "Result cache hits", resultCache::getHits);
+        metrics.counter("smallworld_cache_misses_total", "Result cache misses", resultCache::getMisses);
+        metrics.counter("smallworld_cache_evictions_total", "Result cache evictions", resultCache::getEvictions);
+        metrics.counter("smallworld_cache_invalidations_total", "Result cache flushes caused by a data change",
+                resultCache::getInvalidations);
+        metrics.gauge("smallworld_query_plans", "Compiled ad-hoc query plans", queryCompiler::size);
+        metrics.counter("smallworld_query_plan_hits_total", "Ad-hoc queries served by a compiled plan",
+                queryCompiler::getHits);
+        metrics.counter("smallworld_query_plan_misses_total", "Ad-hoc queries that compiled a plan",
+                queryCompiler::getMisses);
+        metrics.counter("smallworld_export_rows_total", "Transactions written by exports", exporter::getRowsWritten);
+        metrics.counter("smallworld_export_bytes_total", "Bytes written by exports", exporter::getBytesWritten);
+    }
 
     /**
-     * Returns the sum of the amounts of all transactions
+     * Metrics of this fetcher, its snapshots and whatever else registers with it, such as the servlet
      */
-    public double getTotalTransactionAmount() throws UnsupportedOperationException {
-        List<Transaction> transactions = jsonFileReader.loadDataFromJson();
-        return transactions.stream().mapToDouble(Transaction::getAmount).sum();
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gives access to the snapshot lifecycle (reload, file watch)
+     */
+    public TransactionSnapshotManager getSnapshotManager() {
+        return snapshotManager;
+    }
+
+    /**
+     * Engine running the aggregate queries; its pool and parallel threshold can be tuned here
+     */
+    public QueryEngine getQueryEngine() {
+        return queryEngine;
+    }
+
+    /**
+     * Cache of the results that cost more than a lookup to produce; scalar figures are served from the live
+     * aggregates and bypass it
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Switches {@link #countUniqueClients()}, {@link #getTopSender()} and {@link #getTotalTransactionAmountSentBy}
+     * to their sketch-based estimates, whose memory does not grow with the number of clients
+     */
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    /**
+     * By default the total and the top transactions count every transfer once, however many issues repeat it, and
+     * the issue queries report every issue once. Setting this goes back to counting rows, as the source file lists
+     * them. Per-client figures are always per row
+     */
+    public void setPerRowSemantics(boolean perRowSemantics) {
+        this.perRowSemantics = perRowSemantics;
+    }
+
+    public boolean isPerRowSemantics() {
+        return perRowSemantics;
+    }
+
+    /**
+     * Accuracy of the sketches; changing it rebuilds them on the next approximate query
+     */
+    public void setSketchErrorBounds(ErrorBounds sketchErrorBounds) {
+        this.sketchErrorBounds = Objects.requireNonNull(sketchErrorBounds);
+    }
 
+    public ErrorBounds getSketchErrorBounds() {
+        return sketchErrorBounds;
+    }
+
+    /**
+     * Computes the requested aggregates with the same semantics as their own methods. Unless per-row semantics are
+     * on, the amounts, the top transactions and the issues are taken from the normalized transfers, and only the
+     * rest is computed in a single scan over the current snapshot
+     */
+    public QueryResult getSummary(Set<Aggregate> aggregates) {
+        long start = System.nanoTime();
+        try {
+            if (perRowSemantics) {
+                return cached("getSummary.perRow", new HashSet<>(aggregates),
+                        snapshot -> queryEngine.execute(snapshot.getStore(), aggregates));
+            }
+            return cached("getSummary", new HashSet<>(aggregates), snapshot -> transferSummary(snapshot, aggregates));
+        } finally {
+            getSummaryLatency.recordSince(start);
+        }
+    }
+
+    private QueryResult transferSummary(TransactionSnapshot snapshot, Set<Aggregate> aggregates) {
+        NormalizedTransactions normalized = snapshot.getNormalized();
+        Map<Aggregate, Object> values = new EnumMap<>(Aggregate.class);
+        Set<Aggregate> scanned = EnumSet.noneOf(Aggregate.class);
+        for (Aggregate aggregate : aggregates) {
+            switch (aggregate) {
+                case TOTAL_AMOUNT:
+                    values.put(aggregate, normalized.getTotalTransactionAmount());
+                    break;
+                case MAX_AMOUNT:
+                    values.put(aggregate, normalized.getMaxTransactionAmount());
+                    break;
+                case TOP3_TRANSACTIONS:
+                    values.put(aggregate, Collections.unmodifiableList(topTransfers(snapshot, 3)));
+                    break;
+                case UNSOLVED_ISSUE_IDS:
+                    values.put(aggregate, Collections.unmodifiableSet(normalized.getUnsolvedIssueIds()));
+                    break;
+                case SOLVED_ISSUE_MESSAGES:
+                    values.put(aggregate, Collections.unmodifiableList(normalized.getAllSolvedIssueMessages()));
+                    break;
+                default:
+                    scanned.add(aggregate);
+            }
+        }
+        if (!scanned.isEmpty()) {
+            values.putAll(queryEngine.execute(snapshot.getStore(), scanned).asMap());
+        }
+        return QueryResult.of(values);
+    }
+
+    /**
+     * Runs an ad-hoc filter, group-by and aggregate query over the rows of the current snapshot, as stored. The
+     * query is compiled once per shape and its result cached like the other scans
+     */
+    public List<QueryGroup> query(TransactionQuery query) {
+        long start = System.nanoTime();
+        try {
+            return cached("query", query, snapshot -> Collections.unmodifiableList(
+                    queryCompiler.compile(query).execute(snapshot.getStore(), snapshot.getPartitions(), query)));
+        } finally {
+            queryLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Plans of the ad-hoc queries, by shape
+     */
+    public QueryCompiler getQueryCompiler() {
+        return queryCompiler;
+    }
+
+    /**
+     * Computes total, max and top sender over a JSON array of transactions in one pass, without loading the whole
+     * array into memory. Meant for extracts too large to hold as a snapshot
+     */
+    public static TransactionStreamAggregator aggregateStream(InputStream jsonFile) throws IOException {
+        TransactionStreamAggregator aggregator = new TransactionStreamAggregator();
+        new StreamingTransactionReader().read(jsonFile, aggregator, true);
+        return aggregator;
+    }
+
+    /**
+     * Sketch-based counterpart of {@link #aggregateStream(InputStream)}: memory is fixed by the bounds whatever the
+     * number of clients, and the results of several files merge with {@link ApproximateAggregates#merge}
+     */
+    public static ApproximateAggregates approximateStream(InputStream jsonFile, ErrorBounds bounds) throws IOException {
+        ApproximateAggregates aggregates = new ApproximateAggregates(bounds);
+        new StreamingTransactionReader().read(jsonFile, aggregates, true);
+        return aggregates;
+    }
+
+    private <T> T approximately(Function<ApproximateAggregates, T> read) {
+        return snapshotManager.current().readApproximateAggregates(sketchErrorBounds, read);
+    }
+
+    private double approximateDouble(ToDoubleFunction<ApproximateAggregates> read) {
+        return snapshotManager.current().readApproximateDouble(sketchErrorBounds, read);
+    }
+
+    private long approximateLong(ToLongFunction<ApproximateAggregates> read) {
+        return snapshotManager.current().readApproximateLong(sketchErrorBounds, read);
+    }
+
+    /**
+     * Serves a result from the cache, computing it against the snapshot whose version the entry is filed under
+     */
+    private <T> T cached(String method, Object argument, Function<TransactionSnapshot, T> compute) {
+        TransactionSnapshot snapshot = snapshotManager.current();
+        return resultCache.get(snapshot.getVersion(), snapshot.getAppendCount(), method, argument,
+                () -> compute.apply(snapshot));
+    }
+
+    private LiveAggregates liveAggregates() {
+        return snapshotManager.current().getLiveAggregates();
+    }
 
+    /**
+     * Adds a transaction to the live data; every figure served by this fetcher is updated incrementally.
+     * Appended transactions are kept in memory and dropped on the next reload
+     */
+    public void append(Transaction transaction) {
+        long start = System.nanoTime();
+        try {
+            snapshotManager.current().append(transaction);
+        } finally {
+            appendLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Adds a batch of transactions, published atomically
+     */
+    public void appendAll(Collection<? extends Transaction> transactions) {
+        long start = System.nanoTime();
+        try {
+            snapshotManager.current().appendAll(transactions);
+        } finally {
+            appendAllLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the sum of the amounts of all transactions
+     */
+    public double getTotalTransactionAmount() throws UnsupportedOperationException {
+        long start = System.nanoTime();
+        try {
+            if (!perRowSemantics) {
+                return snapshotManager.current().getNormalized().getTotalTransactionAmount();
+            }
+            return liveAggregates().getTotalTransactionAmount();
+        } finally {
+            getTotalTransactionAmountLatency.recordSince(start);
+        }
     }
 
     /**
      * Returns the sum of the amounts of all transactions sent by the specified client
      */
     public double getTotalTransactionAmountSentBy(String senderFullName) throws UnsupportedOperationException  {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        return transactions.stream()
-                .filter(transaction -> transaction.getSenderFullName().equals(senderFullName))
-                .mapToDouble(Transaction::getAmount)
-                .sum();
+        long start = System.nanoTime();
+        try {
+            if (approximate) {
+                return approximateDouble(aggregates -> aggregates.estimateTotalTransactionAmountSentBy(senderFullName));
+            }
+            return liveAggregates().getTotalTransactionAmountSentBy(senderFullName);
+        } finally {
+            getTotalTransactionAmountSentByLatency.recordSince(start);
+        }
     }
 
     /**
      * Returns the highest transaction amount
      */
     public double getMaxTransactionAmount() throws UnsupportedOperationException {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        return transactions.stream()
-                .mapToDouble(Transaction::getAmount)
-                .max()
-                .orElse(0);
+        long start = System.nanoTime();
+        try {
+            return liveAggregates().getMaxTransactionAmount();
+        } finally {
+            getMaxTransactionAmountLatency.recordSince(start);
+        }
     }
 
     /**
      * Counts the number of unique clients that sent or received a transaction
      */
     public long countUniqueClients() throws UnsupportedOperationException {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        return transactions.stream()
-                .map(transaction -> transaction.getSenderFullName())
-                .distinct()
-                .count();
+        long start = System.nanoTime();
+        try {
+            if (approximate) {
+                return approximateLong(ApproximateAggregates::countUniqueClients);
+            }
+            return liveAggregates().countUniqueClients();
+        } finally {
+            countUniqueClientsLatency.recordSince(start);
+        }
     }
 
     /**
@@ -76,76 +415,385 @@ public class TransactionDataFetcher {
      * issue that has not been solved
      */
     public boolean hasOpenComplianceIssues(String clientFullName) throws UnsupportedOperationException  {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        return transactions.stream()
-                .filter(transaction -> transaction.getSenderFullName().equals(clientFullName)
-                        || transaction.getBeneficiaryFullName().equals(clientFullName))
-                .anyMatch(transaction -> !transaction.isIssueSolved());
+        long start = System.nanoTime();
+        try {
+            return liveAggregates().hasOpenComplianceIssues(clientFullName);
+        } finally {
+            hasOpenComplianceIssuesLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns all transactions indexed by beneficiary name, each beneficiary with all of its transactions in data
+     * order. Beneficiaries come in the order their names first appeared in the data, as sender or beneficiary, which
+     * is not always the order in which they first received; rows without a beneficiary are left out. The map is a
+     * view over the beneficiary postings and the appended rows that decodes one beneficiary's transactions at a time
+     * as it is read, so it is not cached
+     */
+    public Map<String, List<Transaction>> getTransactionsByBeneficiaryName() throws UnsupportedOperationException  {
+        long start = System.nanoTime();
+        try {
+            TransactionSnapshot snapshot = snapshotManager.current();
+            return new BeneficiaryGroups(snapshot.getStore(), snapshot.getIndexes());
+        } finally {
+            getTransactionsByBeneficiaryNameLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns all transactions received by the client, in data order
+     */
+    public List<Transaction> getTransactionsReceivedBy(String beneficiaryFullName) {
+        long start = System.nanoTime();
+        try {
+            return Transaction.copiesOf(cached("getTransactionsReceivedBy", beneficiaryFullName,
+                    snapshot -> Collections.unmodifiableList(transactionsReceivedBy(snapshot, beneficiaryFullName))));
+        } finally {
+            getTransactionsReceivedByLatency.recordSince(start);
+        }
+    }
+
+    private static List<Transaction> transactionsReceivedBy(TransactionSnapshot snapshot, String beneficiaryFullName) {
+        ColumnarTransactionStore store = snapshot.getStore();
+        TransactionIndexes indexes = snapshot.getIndexes();
+        int beneficiary = store.getClients().lookup(beneficiaryFullName);
+        if (beneficiary == StringDictionary.NULL_CODE) {
+            return Collections.emptyList();
+        }
+        List<Transaction> transactions = new ArrayList<>();
+        if (beneficiary < indexes.getIndexedClients()) {
+            for (int i = indexes.beneficiaryPostingsStart(beneficiary); i < indexes.beneficiaryPostingsEnd(beneficiary);
+                 i++) {
+                transactions.add(store.row(indexes.beneficiaryRow(i)));
+            }
+        }
+        for (int row = indexes.getIndexedRows(); row < store.size(); row++) {
+            if (store.beneficiaryCode(row) == beneficiary) {
+                transactions.add(store.row(row));
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Returns the transaction carrying the given compliance issue
+     */
+    public Optional<Transaction> findTransactionByIssueId(int issueId) {
+        long start = System.nanoTime();
+        try {
+            TransactionSnapshot snapshot = snapshotManager.current();
+            ColumnarTransactionStore store = snapshot.getStore();
+            TransactionIndexes indexes = snapshot.getIndexes();
+            int row = indexes.issueRow(issueId);
+            for (int tail = indexes.getIndexedRows(); row < 0 && tail < store.size(); tail++) {
+                if (store.issueId(tail) == issueId) {
+                    row = tail;
+                }
+            }
+            return row < 0 ? Optional.empty() : Optional.of(store.row(row));
+        } finally {
+            findTransactionByIssueIdLatency.recordSince(start);
+        }
     }
 
     /**
-     * Returns all transactions indexed by beneficiary name
+     * Returns all transactions sent by the client, in data order
      */
-    public Map<String, Transaction> getTransactionsByBeneficiaryName() throws UnsupportedOperationException  {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        return transactions.stream()
-                .collect(Collectors.toMap(Transaction::getBeneficiaryFullName, transaction -> transaction));
+    public List<Transaction> getTransactionsSentBy(String senderFullName) {
+        long start = System.nanoTime();
+        try {
+            return Transaction.copiesOf(cached("getTransactionsSentBy", senderFullName,
+                    snapshot -> Collections.unmodifiableList(transactionsSentBy(snapshot, senderFullName))));
+        } finally {
+            getTransactionsSentByLatency.recordSince(start);
+        }
+    }
 
+    private static List<Transaction> transactionsSentBy(TransactionSnapshot snapshot, String senderFullName) {
+        ColumnarTransactionStore store = snapshot.getStore();
+        TransactionIndexes indexes = snapshot.getIndexes();
+        int sender = store.getClients().lookup(senderFullName);
+        if (sender == StringDictionary.NULL_CODE) {
+            return Collections.emptyList();
+        }
+        List<Transaction> transactions = new ArrayList<>();
+        if (sender < indexes.getIndexedClients()) {
+            for (int i = indexes.senderPostingsStart(sender); i < indexes.senderPostingsEnd(sender); i++) {
+                transactions.add(store.row(indexes.senderRow(i)));
+            }
+        }
+        for (int row = indexes.getIndexedRows(); row < store.size(); row++) {
+            if (store.senderCode(row) == sender) {
+                transactions.add(store.row(row));
+            }
+        }
+        return transactions;
     }
 
     /**
      * Returns the identifiers of all open compliance issues
      */
     public Set<Integer> getUnsolvedIssueIds() throws UnsupportedOperationException {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        return transactions.stream()
-                .filter(transaction -> transaction.getIssueId() !=0 && !transaction.isIssueSolved())
-                .map(Transaction::getIssueId)
-                .collect(Collectors.toSet());
-
+        long start = System.nanoTime();
+        try {
+            if (!perRowSemantics) {
+                return cached("getUnsolvedIssueIds", null,
+                        snapshot -> Collections.unmodifiableSet(snapshot.getNormalized().getUnsolvedIssueIds()));
+            }
+            return cached("getUnsolvedIssueIds.perRow", null,
+                    snapshot -> Collections.unmodifiableSet(snapshot.getLiveAggregates().getUnsolvedIssueIds()));
+        } finally {
+            getUnsolvedIssueIdsLatency.recordSince(start);
+        }
     }
 
     /**
      * Returns a list of all solved issue messages
      */
     public List<String> getAllSolvedIssueMessages() throws UnsupportedOperationException {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        return transactions.stream()
-                .filter(transaction -> transaction.isIssueSolved())
-                .map(Transaction::getIssueMessage)
-                .collect(Collectors.toList());
-
+        long start = System.nanoTime();
+        try {
+            if (!perRowSemantics) {
+                return cached("getAllSolvedIssueMessages", null, snapshot ->
+                        Collections.unmodifiableList(snapshot.getNormalized().getAllSolvedIssueMessages()));
+            }
+            return cached("getAllSolvedIssueMessages.perRow", null,
+                    snapshot -> Collections.unmodifiableList(snapshot.getLiveAggregates().getAllSolvedIssueMessages()));
+        } finally {
+            getAllSolvedIssueMessagesLatency.recordSince(start);
+        }
     }
 
     /**
      * Returns the 3 transactions with the highest amount sorted by amount descending
      */
     public List<Transaction> getTop3TransactionsByAmount() throws UnsupportedOperationException {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        return transactions.stream()
-                .sorted(Comparator.comparing(Transaction::getAmount).reversed())
-                .limit(3)
-                .collect(Collectors.toList());
+        long start = System.nanoTime();
+        try {
+            return topTransactionsByAmount(3);
+        } finally {
+            getTop3TransactionsByAmountLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the k transactions with the highest amount sorted by amount descending; equal amounts keep their
+     * data order. A transfer repeated for several issues is returned once, by its first row, unless per-row
+     * semantics are on. Small k are answered from the top rows maintained while loading, larger ones with a
+     * bounded heap, over the transfers or over the rows of the partitions whose amounts are not all too small
+     */
+    public List<Transaction> getTopTransactionsByAmount(int k) {
+        long start = System.nanoTime();
+        try {
+            return topTransactionsByAmount(k);
+        } finally {
+            getTopTransactionsByAmountLatency.recordSince(start);
+        }
+    }
 
+    /**
+     * Shared by the top transaction methods, which each record their own latency
+     */
+    private List<Transaction> topTransactionsByAmount(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        if (!perRowSemantics) {
+            return Transaction.copiesOf(cached("getTopTransactionsByAmount", k,
+                    snapshot -> Collections.unmodifiableList(topTransfers(snapshot, k))));
+        }
+        return Transaction.copiesOf(cached("getTopTransactionsByAmount.perRow", k,
+                snapshot -> Collections.unmodifiableList(topTransactions(snapshot, k))));
+    }
+
+    private static List<Transaction> topTransfers(TransactionSnapshot snapshot, int k) {
+        NormalizedTransactions normalized = snapshot.getNormalized();
+        // taken after the tables, so that it covers every row they have folded in
+        ColumnarTransactionStore store = snapshot.getStore();
+        int[] rows = normalized.topTransferRows(store, k);
+        List<Transaction> top = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            top.add(store.row(row));
+        }
+        return top;
+    }
+
+    private List<Transaction> topTransactions(TransactionSnapshot snapshot, int k) {
+        ColumnarTransactionStore store = snapshot.getStore();
+        if (k > ColumnarTransactionStore.PRECOMPUTED_TOP_K) {
+            return queryEngine.topTransactions(store, k, snapshot.getPartitions());
+        }
+        int[] rows = store.topRows(k);
+        List<Transaction> top = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            top.add(store.row(row));
+        }
+        return top;
     }
 
     /**
-     * Returns the senderFullName of the sender with the most total sent amount
+     * Returns the senderFullName of the sender with the most total sent amount. On a tie the sender that appears
+     * first in the data wins
      */
     public Optional<String> getTopSender() throws UnsupportedOperationException {
-        List<Transaction> transactions    = jsonFileReader.loadDataFromJson();
-        Map<String, Double> senderTotalAmountMap = new HashMap<>();
-        for (Transaction transaction : transactions) {
-            String senderFullName = transaction.getSenderFullName();
-            double amount = transaction.getAmount();
-            senderTotalAmountMap.put(senderFullName, senderTotalAmountMap.getOrDefault(senderFullName, 0.0) + amount);
+        long start = System.nanoTime();
+        try {
+            if (approximate) {
+                return approximately(ApproximateAggregates::getTopSender);
+            }
+            return liveAggregates().getTopSender();
+        } finally {
+            getTopSenderLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Estimates the number of distinct clients, senders and beneficiaries, with a HyperLogLog, within the
+     * configured relative error
+     */
+    public long countUniqueClientsApproximately() {
+        long start = System.nanoTime();
+        try {
+            return approximateLong(ApproximateAggregates::countUniqueClients);
+        } finally {
+            countUniqueClientsApproximatelyLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the k senders with the highest estimated totals, heaviest first. Each estimate is at most its
+     * {@code maxError} above the true total, and any sender holding more than the configured share of the total
+     * amount is listed
+     */
+    public List<HeavyHitter> getTopSendersApproximately(int k) {
+        long start = System.nanoTime();
+        try {
+            if (k < 0) {
+                throw new IllegalArgumentException("k must not be negative: " + k);
+            }
+            return approximately(aggregates -> aggregates.getTopSenders(k));
+        } finally {
+            getTopSendersApproximatelyLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Estimates the total sent by the client with a Count-Min sketch; never below the true total
+     */
+    public double estimateTotalTransactionAmountSentBy(String senderFullName) {
+        long start = System.nanoTime();
+        try {
+            return approximateDouble(aggregates -> aggregates.estimateTotalTransactionAmountSentBy(senderFullName));
+        } finally {
+            estimateTotalTransactionAmountSentByLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns count, total, max, distinct clients and top sender of the transactions timed within
+     * {@code [fromMillis, toMillis)}, read from the time rollups. Transactions without a time are not counted
+     */
+    public WindowAggregate getWindowSummary(long fromMillis, long toMillis) {
+        long start = System.nanoTime();
+        try {
+            return snapshotManager.current().getRollups().window(fromMillis, toMillis);
+        } finally {
+            getWindowSummaryLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the sum of the amounts of the transactions of the last {@code hours} hours, the current minute included
+     */
+    public double getTotalTransactionAmountInLastHours(int hours) {
+        long start = System.nanoTime();
+        try {
+            if (hours < 0) {
+                throw new IllegalArgumentException("hours must not be negative: " + hours);
+            }
+            long to = TimeRollups.Granularity.MINUTE.floor(clock.millis()) + TimeRollups.Granularity.MINUTE.getMillis();
+            long from = to - hours * TimeRollups.Granularity.HOUR.getMillis();
+            return snapshotManager.current().getRollups().window(from, to).getTotalAmount();
+        } finally {
+            getTotalTransactionAmountInLastHoursLatency.recordSince(start);
         }
+    }
+
+    /**
+     * Returns the sender with the most total sent amount since midnight UTC
+     */
+    public Optional<String> getTopSenderToday() {
+        long start = System.nanoTime();
+        try {
+            long today = TimeRollups.Granularity.DAY.floor(clock.millis());
+            return Optional.ofNullable(snapshotManager.current().getRollups()
+                    .window(today, today + TimeRollups.Granularity.DAY.getMillis()).getTopSender());
+        } finally {
+            getTopSenderTodayLatency.recordSince(start);
+        }
+    }
+
+
+    /**
+     * Returns everyone the client sent money to or received money from, with the summed amounts each way, largest
+     * total first. Read from the client graph
+     */
+    public List<Counterparty> getCounterparties(String clientFullName) {
+        long start = System.nanoTime();
+        try {
+            return cached("getCounterparties", clientFullName,
+                    snapshot -> Collections.unmodifiableList(snapshot.getGraph().counterparties(clientFullName)));
+        } finally {
+            getCounterpartiesLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the client's total sent and received, and how much of it was with counterparties that have open
+     * compliance issues
+     */
+    public ClientExposure getExposure(String clientFullName) {
+        long start = System.nanoTime();
+        try {
+            return cached("getExposure", clientFullName, snapshot -> snapshot.getGraph().exposure(clientFullName));
+        } finally {
+            getExposureLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the clients with open compliance issues within {@code maxHops} transactions of the client, following
+     * money in the given direction, nearest first and each with a shortest chain of counterparties to it
+     */
+    public List<ReachableClient> findReachableFlaggedClients(String clientFullName, int maxHops,
+                                                             ClientGraph.Direction direction) {
+        long start = System.nanoTime();
+        try {
+            return cached("findReachableFlaggedClients", Arrays.asList(clientFullName, maxHops, direction),
+                    snapshot -> Collections.unmodifiableList(
+                            snapshot.getGraph().reachableFlaggedClients(clientFullName, maxHops, direction)));
+        } finally {
+            findReachableFlaggedClientsLatency.recordSince(start);
+        }
+    }
 
-        Optional<Map.Entry<String, Double>> topSenderEntry = senderTotalAmountMap.entrySet().stream()
-                .max(Comparator.comparing(Map.Entry::getValue));
 
-        return topSenderEntry.map(Map.Entry::getKey);
+    /**
+     * Writes the transactions the filter of the options matches, or all of them, to NDJSON or CSV part files in the
+     * directory, continuing an interrupted export of the same data from its checkpoints. Rows appended while the
+     * export runs are not included
+     */
+    public ExportResult export(Path directory, ExportOptions options) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return exporter.export(snapshotManager.current().getStore(), directory, options);
+        } finally {
+            exportLatency.recordSince(start);
+        }
+    }
 
+    public TransactionExporter getExporter() {
+        return exporter;
     }
 
 
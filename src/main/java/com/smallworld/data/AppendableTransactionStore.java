@@ -0,0 +1,242 @@
+package com.smallworld.data;
+
+import com.smallworld.util.TopKHeap;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Growable columns that accept new transactions at runtime. Appends are serialized by a writer lock and each one
+ * ends by publishing a new immutable {@link ColumnarTransactionStore} view covering every row written so far.
+ * Readers take {@link #current()} without locking and keep a consistent prefix of the data for as long as they use
+ * it: rows are only ever written past the end of published views, and a full array is copied, never resized in
+ * place.
+ */
+public final class AppendableTransactionStore {
+
+    private final Object writeLock = new Object();
+
+    private int size;
+    private long[] mtn;
+    private double[] amount;
+    private int[] senderCode;
+    private int[] senderAge;
+    private int[] beneficiaryCode;
+    private int[] beneficiaryAge;
+    private int[] issueId;
+    private BitSet issueSolved;
+    private int[] issueMessageCode;
+    private long[] transactionTime;
+    private final StringDictionary clients = new StringDictionary();
+    private final StringDictionary issueMessages = new StringDictionary();
+    private final TopKHeap top = new TopKHeap(ColumnarTransactionStore.PRECOMPUTED_TOP_K);
+    private int[] topRows = new int[0];
+    private boolean topChanged;
+
+    private volatile ColumnarTransactionStore current;
+
+    public AppendableTransactionStore() {
+        this(1024);
+    }
+
+    public AppendableTransactionStore(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        mtn = new long[capacity];
+        amount = new double[capacity];
+        senderCode = new int[capacity];
+        senderAge = new int[capacity];
+        beneficiaryCode = new int[capacity];
+        beneficiaryAge = new int[capacity];
+        issueId = new int[capacity];
+        // sized up front so setting a bit never reallocates the words a published view is reading
+        issueSolved = new BitSet(capacity);
+        issueMessageCode = new int[capacity];
+        transactionTime = new long[capacity];
+        current = publish();
+    }
+
+    /**
+     * Creates an appendable copy of a store, keeping its dictionary codes and row order
+     */
+    public static AppendableTransactionStore copyOf(ColumnarTransactionStore source) {
+        int rows = source.size();
+        AppendableTransactionStore store = new AppendableTransactionStore(rows);
+        synchronized (store.writeLock) {
+            for (int code = 0; code < source.getClients().size(); code++) {
+                store.clients.encode(source.getClients().decode(code));
+            }
+            for (int code = 0; code < source.getIssueMessages().size(); code++) {
+                store.issueMessages.encode(source.getIssueMessages().decode(code));
+            }
+            for (int row = 0; row < rows; row++) {
+                store.mtn[row] = source.mtn(row);
+                store.amount[row] = source.amount(row);
+                store.senderCode[row] = source.senderCode(row);
+                store.senderAge[row] = source.senderAge(row);
+                store.beneficiaryCode[row] = source.beneficiaryCode(row);
+                store.beneficiaryAge[row] = source.beneficiaryAge(row);
+                store.issueId[row] = source.issueId(row);
+                if (source.issueSolved(row)) {
+                    store.issueSolved.set(row);
+                }
+                store.issueMessageCode[row] = source.issueMessageCode(row);
+                store.transactionTime[row] = source.transactionTime(row);
+                if (store.top.offer(store.amount[row], row)) {
+                    store.topChanged = true;
+                }
+            }
+            store.size = rows;
+            store.publish();
+        }
+        return store;
+    }
+
+    /**
+     * Latest published view of the data
+     */
+    public ColumnarTransactionStore current() {
+        return current;
+    }
+
+    public int size() {
+        return current.size();
+    }
+
+    /**
+     * Appends one transaction and returns the view that contains it
+     */
+    public ColumnarTransactionStore append(Transaction transaction) {
+        synchronized (writeLock) {
+            write(transaction);
+            return publish();
+        }
+    }
+
+    /**
+     * Appends a batch under one lock acquisition and publishes it as a whole
+     */
+    public ColumnarTransactionStore appendAll(Collection<? extends Transaction> transactions) {
+        synchronized (writeLock) {
+            for (Transaction transaction : transactions) {
+                write(transaction);
+            }
+            return publish();
+        }
+    }
+
+    /**
+     * Appends every row of another store and publishes them as one batch. Client names and issue messages are
+     * re-encoded into this store's dictionaries, so the source may have been built independently
+     */
+    public ColumnarTransactionStore appendStore(ColumnarTransactionStore source) {
+        synchronized (writeLock) {
+            int[] clientCodes = remap(source.getClients(), clients);
+            int[] messageCodes = remap(source.getIssueMessages(), issueMessages);
+            int rows = source.size();
+            while (mtn.length < size + rows) {
+                grow();
+            }
+            for (int from = 0; from < rows; from++) {
+                int row = size++;
+                mtn[row] = source.mtn(from);
+                amount[row] = source.amount(from);
+                senderCode[row] = clientCodes[source.senderCode(from) + 1];
+                senderAge[row] = source.senderAge(from);
+                beneficiaryCode[row] = clientCodes[source.beneficiaryCode(from) + 1];
+                beneficiaryAge[row] = source.beneficiaryAge(from);
+                issueId[row] = source.issueId(from);
+                if (source.issueSolved(from)) {
+                    issueSolved.set(row);
+                }
+                issueMessageCode[row] = messageCodes[source.issueMessageCode(from) + 1];
+                transactionTime[row] = source.transactionTime(from);
+                if (top.offer(amount[row], row)) {
+                    topChanged = true;
+                }
+            }
+            return publish();
+        }
+    }
+
+    /**
+     * Maps every code of {@code from}, shifted by one so that {@link StringDictionary#NULL_CODE} lands on index 0,
+     * to the code of the same string in {@code to}
+     */
+    private static int[] remap(StringDictionary from, StringDictionary to) {
+        int[] codes = new int[from.size() + 1];
+        codes[0] = StringDictionary.NULL_CODE;
+        for (int code = 0; code < from.size(); code++) {
+            codes[code + 1] = to.encode(from.decode(code));
+        }
+        return codes;
+    }
+
+    /**
+     * Writes a row without making it visible; {@link #publish()} does that. Used for bulk loads
+     */
+    void appendUnpublished(Transaction transaction) {
+        synchronized (writeLock) {
+            write(transaction);
+        }
+    }
+
+    int pendingSize() {
+        synchronized (writeLock) {
+            return size;
+        }
+    }
+
+    ColumnarTransactionStore publish() {
+        synchronized (writeLock) {
+            if (topChanged) {
+                topRows = top.sortedRows();
+                topChanged = false;
+            }
+            ColumnarTransactionStore view = new HeapColumnarTransactionStore(size, mtn, amount, senderCode, senderAge,
+                    beneficiaryCode, beneficiaryAge, issueId, issueSolved, issueMessageCode, transactionTime,
+                    clients, issueMessages, topRows);
+            current = view;
+            return view;
+        }
+    }
+
+    private void write(Transaction transaction) {
+        if (size == mtn.length) {
+            grow();
+        }
+        int row = size++;
+        mtn[row] = transaction.getMtn();
+        amount[row] = transaction.getAmount();
+        senderCode[row] = clients.encode(transaction.getSenderFullName());
+        senderAge[row] = transaction.getSenderAge();
+        beneficiaryCode[row] = clients.encode(transaction.getBeneficiaryFullName());
+        beneficiaryAge[row] = transaction.getBeneficiaryAge();
+        issueId[row] = transaction.getIssueId();
+        if (transaction.isIssueSolved()) {
+            issueSolved.set(row);
+        }
+        issueMessageCode[row] = issueMessages.encode(transaction.getIssueMessage());
+        Long time = transaction.getTransactionTime();
+        transactionTime[row] = time == null ? ColumnarTransactionStore.NO_TIME : time;
+        if (top.offer(amount[row], row)) {
+            topChanged = true;
+        }
+    }
+
+    private void grow() {
+        int capacity = mtn.length + (mtn.length >> 1);
+        mtn = Arrays.copyOf(mtn, capacity);
+        amount = Arrays.copyOf(amount, capacity);
+        senderCode = Arrays.copyOf(senderCode, capacity);
+        senderAge = Arrays.copyOf(senderAge, capacity);
+        beneficiaryCode = Arrays.copyOf(beneficiaryCode, capacity);
+        beneficiaryAge = Arrays.copyOf(beneficiaryAge, capacity);
+        issueId = Arrays.copyOf(issueId, capacity);
+        BitSet grown = new BitSet(capacity);
+        grown.or(issueSolved);
+        issueSolved = grown;
+        issueMessageCode = Arrays.copyOf(issueMessageCode, capacity);
+        transactionTime = Arrays.copyOf(transactionTime, capacity);
+    }
+}
@@ -0,0 +1,189 @@
+package com.smallworld.data;
+
+import com.smallworld.sketch.CountMinSketch;
+import com.smallworld.sketch.ErrorBounds;
+import com.smallworld.sketch.HeavyHitter;
+import com.smallworld.sketch.HyperLogLog;
+import com.smallworld.sketch.SpaceSaving;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Sketch-based counterparts of the fetcher's per-client figures whose exact versions keep one entry per client:
+ * distinct clients ({@link HyperLogLog}), the heaviest senders by amount ({@link SpaceSaving}) and the total sent
+ * by any one client ({@link CountMinSketch}). Memory depends on the {@link ErrorBounds} only, never on the data.
+ * <p>
+ * Clients are identified by a hash of their name, so aggregates built over different partitions or files, even
+ * from different dictionaries, {@link #merge} into the aggregates of all of them. Rows come either from a store or,
+ * as a {@link Consumer}, from {@code StreamingTransactionReader}. Negative amounts count towards the totals, the
+ * per-sender ones included, but not towards the heaviest senders, whose summary only takes non-negative weights;
+ * a sender with refunds may rank higher than its net total. Not thread-safe; {@link TransactionSnapshot}
+ * serializes its updates.
+ */
+public final class ApproximateAggregates implements Consumer<Transaction> {
+
+    private final ErrorBounds bounds;
+    private final HyperLogLog distinctClients;
+    private final SpaceSaving topSenders;
+    private final CountMinSketch senderTotals;
+    private long count;
+    private double totalAmount;
+
+    /**
+     * Name hashes by client code of the last dictionary seen, so store rows are hashed once per client
+     */
+    private StringDictionary hashedDictionary;
+    private long[] clientHashes = new long[0];
+    private int hashedClients;
+
+    public ApproximateAggregates(ErrorBounds bounds) {
+        this.bounds = bounds;
+        this.distinctClients = bounds.newDistinctSketch();
+        this.topSenders = bounds.newHeavyHitterSketch();
+        this.senderTotals = bounds.newPointSketch();
+    }
+
+    public static ApproximateAggregates of(ColumnarTransactionStore store, ErrorBounds bounds) {
+        ApproximateAggregates aggregates = new ApproximateAggregates(bounds);
+        aggregates.addRows(store, 0, store.size());
+        return aggregates;
+    }
+
+    /**
+     * Folds the rows {@code [from, to)} of the view in
+     */
+    public void addRows(ColumnarTransactionStore store, int from, int to) {
+        StringDictionary clients = store.getClients();
+        if (clients != hashedDictionary) {
+            hashedDictionary = clients;
+            hashedClients = 0;
+        }
+        for (int row = from; row < to; row++) {
+            int sender = store.senderCode(row);
+            int beneficiary = store.beneficiaryCode(row);
+            if (beneficiary != StringDictionary.NULL_CODE) {
+                distinctClients.offerHash(clientHash(clients, beneficiary));
+            }
+            add(sender == StringDictionary.NULL_CODE ? null : clients.decode(sender),
+                    sender == StringDictionary.NULL_CODE ? 0 : clientHash(clients, sender), store.amount(row));
+        }
+    }
+
+    @Override
+    public void accept(Transaction transaction) {
+        String sender = transaction.getSenderFullName();
+        if (transaction.getBeneficiaryFullName() != null) {
+            distinctClients.offerHash(HyperLogLog.hash(transaction.getBeneficiaryFullName()));
+        }
+        add(sender, sender == null ? 0 : HyperLogLog.hash(sender), transaction.getAmount());
+    }
+
+    private void add(String sender, long senderHash, double amount) {
+        count++;
+        totalAmount += amount;
+        if (sender == null) {
+            return;
+        }
+        distinctClients.offerHash(senderHash);
+        if (amount >= 0) {
+            topSenders.offer(sender, amount);
+        }
+        senderTotals.add(senderHash, amount);
+    }
+
+    private long clientHash(StringDictionary clients, int code) {
+        if (code >= hashedClients) {
+            if (code >= clientHashes.length) {
+                clientHashes = Arrays.copyOf(clientHashes, Math.max(code + 1, clientHashes.length * 2));
+            }
+            for (; hashedClients <= code; hashedClients++) {
+                clientHashes[hashedClients] = HyperLogLog.hash(clients.decode(hashedClients));
+            }
+        }
+        return clientHashes[code];
+    }
+
+    /**
+     * Folds in aggregates built over other data with the same error bounds
+     */
+    public void merge(ApproximateAggregates other) {
+        if (!bounds.equals(other.bounds)) {
+            throw new IllegalArgumentException("Cannot merge aggregates built with " + other.bounds
+                    + " into aggregates built with " + bounds);
+        }
+        distinctClients.merge(other.distinctClients);
+        topSenders.merge(other.topSenders);
+        senderTotals.merge(other.senderTotals);
+        count += other.count;
+        totalAmount += other.totalAmount;
+    }
+
+    public ErrorBounds getBounds() {
+        return bounds;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotalTransactionAmount() {
+        return totalAmount;
+    }
+
+    /**
+     * Estimated number of distinct clients, senders and beneficiaries alike, within
+     * {@link #getUniqueClientsRelativeError()} (one standard error)
+     */
+    public long countUniqueClients() {
+        return distinctClients.estimate();
+    }
+
+    public double getUniqueClientsRelativeError() {
+        return distinctClients.getRelativeStandardError();
+    }
+
+    /**
+     * The k senders with the highest estimated totals, each with how much its estimate may be too high
+     */
+    public List<HeavyHitter> getTopSenders(int k) {
+        return topSenders.top(k);
+    }
+
+    /**
+     * Sender with the highest estimated total. Exact whenever the leader is ahead of the runner-up by more than
+     * {@link #getTopSendersMaxError()}
+     */
+    public Optional<String> getTopSender() {
+        return Optional.ofNullable(topSenders.topKey());
+    }
+
+    /**
+     * Bound on how much a top-sender estimate exceeds the true total
+     */
+    public double getTopSendersMaxError() {
+        return topSenders.getMaxError();
+    }
+
+    /**
+     * Upper estimate of the total sent by the client, see {@link #getTotalSentByMaxError()}
+     */
+    public double estimateTotalTransactionAmountSentBy(String senderFullName) {
+        return senderFullName == null ? 0 : senderTotals.estimate(HyperLogLog.hash(senderFullName));
+    }
+
+    /**
+     * Bound on how much a per-sender estimate exceeds the true total, holding with probability
+     * {@code 1 - pointFailureProbability}
+     */
+    public double getTotalSentByMaxError() {
+        return senderTotals.getMaxError();
+    }
+
+    public long estimatedBytes() {
+        return distinctClients.estimatedBytes() + topSenders.estimatedBytes() + senderTotals.estimatedBytes()
+                + 8L * clientHashes.length;
+    }
+}
@@ -0,0 +1,151 @@
+package com.smallworld.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Transactions of a store grouped by beneficiary, read from the beneficiary postings of its indexes and the rows
+ * appended after them. Nothing is decoded up front: a beneficiary's transactions are built from the store when its
+ * entry is read, so walking the whole grouping, to serialize it for example, holds one beneficiary's transactions at
+ * a time instead of a copy of the data. Beneficiaries come in dictionary order, that is in the order their names
+ * first appeared as a sender or a beneficiary; rows without a beneficiary are left out. The map is read-only and
+ * describes the store as it was when the map was created.
+ */
+public final class BeneficiaryGroups extends AbstractMap<String, List<Transaction>> {
+
+    private final ColumnarTransactionStore store;
+    private final TransactionIndexes indexes;
+    private final int clients;
+    /**
+     * Appended rows, CSR-style like the postings: the tail rows of client {@code c} are
+     * {@code tailRows[tailOffsets[c]] .. tailRows[tailOffsets[c + 1] - 1]}
+     */
+    private final int[] tailOffsets;
+    private final int[] tailRows;
+    private final int beneficiaries;
+
+    public BeneficiaryGroups(ColumnarTransactionStore store, TransactionIndexes indexes) {
+        this.store = store;
+        this.indexes = indexes;
+        this.clients = store.getClients().size();
+        int from = indexes.getIndexedRows();
+        int size = store.size();
+        tailOffsets = new int[clients + 1];
+        for (int row = from; row < size; row++) {
+            int beneficiary = store.beneficiaryCode(row);
+            if (beneficiary != StringDictionary.NULL_CODE) {
+                tailOffsets[beneficiary + 1]++;
+            }
+        }
+        for (int client = 0; client < clients; client++) {
+            tailOffsets[client + 1] += tailOffsets[client];
+        }
+        tailRows = new int[tailOffsets[clients]];
+        int[] fill = new int[clients];
+        for (int row = from; row < size; row++) {
+            int beneficiary = store.beneficiaryCode(row);
+            if (beneficiary != StringDictionary.NULL_CODE) {
+                tailRows[tailOffsets[beneficiary] + fill[beneficiary]++] = row;
+            }
+        }
+        int count = 0;
+        for (int client = 0; client < clients; client++) {
+            if (received(client) > 0) {
+                count++;
+            }
+        }
+        beneficiaries = count;
+    }
+
+    private int received(int client) {
+        int tail = tailOffsets[client + 1] - tailOffsets[client];
+        if (client >= indexes.getIndexedClients()) {
+            return tail;
+        }
+        return tail + indexes.beneficiaryPostingsEnd(client) - indexes.beneficiaryPostingsStart(client);
+    }
+
+    private List<Transaction> transactions(int client) {
+        List<Transaction> transactions = new ArrayList<>(received(client));
+        if (client < indexes.getIndexedClients()) {
+            for (int i = indexes.beneficiaryPostingsStart(client); i < indexes.beneficiaryPostingsEnd(client); i++) {
+                transactions.add(store.row(indexes.beneficiaryRow(i)));
+            }
+        }
+        for (int i = tailOffsets[client]; i < tailOffsets[client + 1]; i++) {
+            transactions.add(store.row(tailRows[i]));
+        }
+        return Collections.unmodifiableList(transactions);
+    }
+
+    private int codeOf(Object key) {
+        if (!(key instanceof String)) {
+            return StringDictionary.NULL_CODE;
+        }
+        int client = store.getClients().lookup((String) key);
+        return client >= clients || client != StringDictionary.NULL_CODE && received(client) == 0
+                ? StringDictionary.NULL_CODE : client;
+    }
+
+    @Override
+    public List<Transaction> get(Object key) {
+        int client = codeOf(key);
+        return client == StringDictionary.NULL_CODE ? null : transactions(client);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return codeOf(key) != StringDictionary.NULL_CODE;
+    }
+
+    @Override
+    public int size() {
+        return beneficiaries;
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<Transaction>>> entrySet() {
+        return new AbstractSet<Map.Entry<String, List<Transaction>>>() {
+            @Override
+            public Iterator<Map.Entry<String, List<Transaction>>> iterator() {
+                return new Iterator<Map.Entry<String, List<Transaction>>>() {
+                    private int next = advance(0);
+
+                    private int advance(int client) {
+                        while (client < clients && received(client) == 0) {
+                            client++;
+                        }
+                        return client;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < clients;
+                    }
+
+                    @Override
+                    public Map.Entry<String, List<Transaction>> next() {
+                        if (next >= clients) {
+                            throw new NoSuchElementException();
+                        }
+                        int client = next;
+                        next = advance(client + 1);
+                        return new SimpleImmutableEntry<>(store.getClients().decode(client), transactions(client));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return beneficiaries;
+            }
+        };
+    }
+}
@@ -0,0 +1,389 @@
+package com.smallworld.data;
+
+import com.smallworld.util.StreamingTransactionReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary form of a {@link ColumnarTransactionStore} that can be memory-mapped and queried without being
+ * deserialized. All values are little endian.
+ *
+ * <pre>
+ * header (64 bytes)
+ *   0  magic "SWTXSNAP"          8  int format version    12 int row count
+ *   16 int client count          20 int message count     24 int top row count    28 int dictionary length
+ *   32 long dictionary offset    40 long columns offset
+ *   48 long CRC32 of the column section
+ *   56 long CRC32 of header bytes 0..55 followed by the dictionary section
+ * dictionary section
+ *   clients then issue messages, each as int UTF-8 length + bytes; then the precomputed top rows as ints
+ * column section, every column padded to a multiple of 8 bytes
+ *   mtn long[n], amount double[n], senderCode, senderAge, beneficiaryCode, beneficiaryAge, issueId,
+ *   issueMessageCode int[n], issueSolved as long[(n + 63) / 64] bit words, transactionTime long[n] (epoch
+ *   milliseconds, {@link ColumnarTransactionStore#NO_TIME} when unknown)
+ * </pre>
+ *
+ * Each column is mapped on its own, so a column may not exceed 2 GB (about 268M rows).
+ */
+public final class BinarySnapshotFile {
+
+    public static final int FORMAT_VERSION = 2;
+
+    private static final byte[] MAGIC = "SWTXSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_BYTES = 64;
+    private static final int HEADER_CRC_OFFSET = 56;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private static final Logger logger = LoggerFactory.getLogger(BinarySnapshotFile.class);
+
+    private BinarySnapshotFile() {
+    }
+
+    /**
+     * Converts a JSON array of transactions into a binary snapshot, streaming the input
+     */
+    public static void convert(Path jsonFile, Path snapshotFile) throws IOException {
+        ColumnarTransactionStore.Builder builder = new ColumnarTransactionStore.Builder();
+        new StreamingTransactionReader().read(jsonFile, builder, true);
+        write(builder.build(), snapshotFile);
+    }
+
+    /**
+     * Writes the store to a temporary sibling of the file, forces it to disk and then moves it over the file in one
+     * step. The file may be mapped by a live snapshot, which keeps reading the old contents instead of seeing them
+     * truncated and rewritten under it, and a crash never leaves a half-written snapshot behind
+     */
+    public static void write(ColumnarTransactionStore store, Path file) throws IOException {
+        Path partial = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            writeTo(store, partial);
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    private static void writeTo(ColumnarTransactionStore store, Path file) throws IOException {
+        int rows = store.size();
+        byte[] dictionary = encodeDictionary(store);
+        long columnsOffset = align(HEADER_BYTES + dictionary.length);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(columnsOffset);
+            CRC32 columnsCrc = new CRC32();
+            ColumnWriter writer = new ColumnWriter(channel, columnsCrc);
+            for (int row = 0; row < rows; row++) {
+                writer.putLong(store.mtn(row));
+            }
+            writer.pad();
+            for (int row = 0; row < rows; row++) {
+                writer.putDouble(store.amount(row));
+            }
+            writer.pad();
+            for (int column = 0; column < 6; column++) {
+                for (int row = 0; row < rows; row++) {
+                    writer.putInt(intColumn(store, column, row));
+                }
+                writer.pad();
+            }
+            for (int word = 0; word < words(rows); word++) {
+                long bits = 0;
+                for (int bit = 0, row = word << 6; bit < 64 && row < rows; bit++, row++) {
+                    if (store.issueSolved(row)) {
+                        bits |= 1L << bit;
+                    }
+                }
+                writer.putLong(bits);
+            }
+            for (int row = 0; row < rows; row++) {
+                writer.putLong(store.transactionTime(row));
+            }
+            writer.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(FORMAT_VERSION).putInt(rows)
+                    .putInt(store.getClients().size()).putInt(store.getIssueMessages().size())
+                    .putInt(store.topRows(ColumnarTransactionStore.PRECOMPUTED_TOP_K).length).putInt(dictionary.length)
+                    .putLong(HEADER_BYTES).putLong(columnsOffset).putLong(columnsCrc.getValue());
+            CRC32 headerCrc = new CRC32();
+            headerCrc.update(header.array(), 0, HEADER_CRC_OFFSET);
+            headerCrc.update(dictionary);
+            header.putLong(headerCrc.getValue());
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer dictionaryBuffer = ByteBuffer.wrap(dictionary);
+            while (dictionaryBuffer.hasRemaining()) {
+                channel.write(dictionaryBuffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Tells whether a file starts with the snapshot magic, without validating the rest of it
+     */
+    public static boolean isSnapshot(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading until the magic is complete or the file ends
+            }
+            return !magic.hasRemaining() && Arrays.equals(MAGIC, magic.array());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps a snapshot file. The header and dictionary are always checksummed; the column section only when
+     * {@code verifyColumns} is set, since that reads the whole file
+     */
+    public static ColumnarTransactionStore map(Path file, boolean verifyColumns) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a transaction snapshot, file too short: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Not a transaction snapshot, bad magic: " + file);
+            }
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format version " + version + ": " + file);
+            }
+            int rows = header.getInt();
+            int clientCount = header.getInt();
+            int messageCount = header.getInt();
+            int topCount = header.getInt();
+            int dictionaryBytes = header.getInt();
+            long dictionaryOffset = header.getLong();
+            long columnsOffset = header.getLong();
+            long expectedColumnsCrc = header.getLong();
+            long expectedHeaderCrc = header.getLong();
+
+            if (dictionaryBytes < 0 || dictionaryOffset + dictionaryBytes > columnsOffset) {
+                throw new IOException("Snapshot is corrupt, bad dictionary length: " + file);
+            }
+            MappedByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset,
+                    dictionaryBytes);
+            CRC32 headerCrc = new CRC32();
+            ByteBuffer headerBytes = header.duplicate();
+            headerBytes.position(0);
+            headerBytes.limit(HEADER_CRC_OFFSET);
+            headerCrc.update(headerBytes);
+            headerCrc.update(dictionary.duplicate());
+            if (headerCrc.getValue() != expectedHeaderCrc) {
+                throw new IOException("Snapshot header checksum mismatch: " + file);
+            }
+
+            dictionary.order(ByteOrder.LITTLE_ENDIAN);
+            StringDictionary clients = decodeDictionary(dictionary, clientCount);
+            StringDictionary issueMessages = decodeDictionary(dictionary, messageCount);
+            int[] topRows = new int[topCount];
+            for (int i = 0; i < topCount; i++) {
+                topRows[i] = dictionary.getInt();
+            }
+
+            long position = columnsOffset;
+            ByteBuffer mtn = mapColumn(channel, position, 8L * rows);
+            position += align(8L * rows);
+            ByteBuffer amount = mapColumn(channel, position, 8L * rows);
+            position += align(8L * rows);
+            ByteBuffer[] ints = new ByteBuffer[6];
+            for (int column = 0; column < ints.length; column++) {
+                ints[column] = mapColumn(channel, position, 4L * rows);
+                position += align(4L * rows);
+            }
+            ByteBuffer solved = mapColumn(channel, position, 8L * words(rows));
+            position += 8L * words(rows);
+            ByteBuffer time = mapColumn(channel, position, 8L * rows);
+            position += 8L * rows;
+            if (position > channel.size()) {
+                throw new IOException("Snapshot is truncated: " + file);
+            }
+
+            if (verifyColumns) {
+                CRC32 columnsCrc = new CRC32();
+                for (long offset = columnsOffset; offset < position; offset += Integer.MAX_VALUE) {
+                    columnsCrc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                            Math.min(Integer.MAX_VALUE, position - offset)));
+                }
+                if (columnsCrc.getValue() != expectedColumnsCrc) {
+                    throw new IOException("Snapshot column checksum mismatch: " + file);
+                }
+            }
+
+            ColumnarTransactionStore store = new MappedColumnarTransactionStore(rows, mtn.asLongBuffer(),
+                    amount.asDoubleBuffer(), ints[0].asIntBuffer(), ints[1].asIntBuffer(), ints[2].asIntBuffer(),
+                    ints[3].asIntBuffer(), ints[4].asIntBuffer(), ints[5].asIntBuffer(), solved.asLongBuffer(),
+                    time.asLongBuffer(), clients, issueMessages, topRows, position - columnsOffset);
+            logger.info("Mapped " + rows + " rows from " + file + " in " + (System.nanoTime() - start) / 1_000 + " us");
+            return store;
+        }
+    }
+
+    private static ByteBuffer mapColumn(FileChannel channel, long position, long bytes) throws IOException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Column of " + bytes + " bytes exceeds the 2 GB mapping limit");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int intColumn(ColumnarTransactionStore store, int column, int row) {
+        switch (column) {
+            case 0:
+                return store.senderCode(row);
+            case 1:
+                return store.senderAge(row);
+            case 2:
+                return store.beneficiaryCode(row);
+            case 3:
+                return store.beneficiaryAge(row);
+            case 4:
+                return store.issueId(row);
+            default:
+                return store.issueMessageCode(row);
+        }
+    }
+
+    private static byte[] encodeDictionary(ColumnarTransactionStore store) {
+        int[] topRows = store.topRows(ColumnarTransactionStore.PRECOMPUTED_TOP_K);
+        byte[][] clients = utf8(store.getClients());
+        byte[][] messages = utf8(store.getIssueMessages());
+        int length = 4 * topRows.length;
+        for (byte[] value : clients) {
+            length += 4 + value.length;
+        }
+        for (byte[] value : messages) {
+            length += 4 + value.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] value : clients) {
+            buffer.putInt(value.length).put(value);
+        }
+        for (byte[] value : messages) {
+            buffer.putInt(value.length).put(value);
+        }
+        for (int row : topRows) {
+            buffer.putInt(row);
+        }
+        return buffer.array();
+    }
+
+    private static byte[][] utf8(StringDictionary dictionary) {
+        byte[][] values = new byte[dictionary.size()][];
+        for (int code = 0; code < values.length; code++) {
+            values[code] = dictionary.decode(code).getBytes(StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    private static StringDictionary decodeDictionary(ByteBuffer buffer, int count) {
+        StringDictionary dictionary = new StringDictionary();
+        for (int code = 0; code < count; code++) {
+            byte[] value = new byte[buffer.getInt()];
+            buffer.get(value);
+            dictionary.encode(new String(value, StandardCharsets.UTF_8));
+        }
+        return dictionary;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static int words(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    /**
+     * Buffers column values and writes them in large sequential chunks, updating the column checksum
+     */
+    private static final class ColumnWriter {
+        private final FileChannel channel;
+        private final CRC32 crc;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        ColumnWriter(FileChannel channel, CRC32 crc) {
+            this.channel = channel;
+            this.crc = crc;
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            written += 8;
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+            written += 8;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            written += 4;
+        }
+
+        void pad() throws IOException {
+            while ((written & 7) != 0) {
+                ensure(1);
+                buffer.put((byte) 0);
+                written++;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Command line converter: {@code BinarySnapshotFile <transactions.json> <transactions.snap>}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BinarySnapshotFile <transactions.json> <transactions.snap>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        convert(Paths.get(args[0]), Paths.get(args[1]));
+        logger.info("Converted " + args[0] + " to " + args[1] + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
@@ -0,0 +1,78 @@
+package com.smallworld.data;
+
+/**
+ * How much a client moved and how much of it was with counterparties that have open compliance issues, as reported
+ * by {@link ClientGraph}
+ */
+public final class ClientExposure {
+
+    private final String client;
+    private final double totalSent;
+    private final double totalReceived;
+    private final int counterparties;
+    private final int flaggedCounterparties;
+    private final double flaggedAmount;
+    private final boolean openIssues;
+
+    ClientExposure(String client, double totalSent, double totalReceived, int counterparties,
+                   int flaggedCounterparties, double flaggedAmount, boolean openIssues) {
+        this.client = client;
+        this.totalSent = totalSent;
+        this.totalReceived = totalReceived;
+        this.counterparties = counterparties;
+        this.flaggedCounterparties = flaggedCounterparties;
+        this.flaggedAmount = flaggedAmount;
+        this.openIssues = openIssues;
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public double getTotalSent() {
+        return totalSent;
+    }
+
+    public double getTotalReceived() {
+        return totalReceived;
+    }
+
+    /**
+     * Sent plus received
+     */
+    public double getTotalExposure() {
+        return totalSent + totalReceived;
+    }
+
+    public int getCounterparties() {
+        return counterparties;
+    }
+
+    /**
+     * Counterparties with a transaction whose issue is not solved
+     */
+    public int getFlaggedCounterparties() {
+        return flaggedCounterparties;
+    }
+
+    /**
+     * Amount sent to or received from flagged counterparties
+     */
+    public double getFlaggedAmount() {
+        return flaggedAmount;
+    }
+
+    /**
+     * Whether the client itself has a transaction whose issue is not solved
+     */
+    public boolean isOpenIssues() {
+        return openIssues;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientExposure{" + client + ", sent=" + totalSent + ", received=" + totalReceived
+                + ", counterparties=" + counterparties + ", flagged=" + flaggedCounterparties + ", flaggedAmount="
+                + flaggedAmount + ", openIssues=" + openIssues + "}";
+    }
+}
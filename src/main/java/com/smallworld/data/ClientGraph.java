@@ -0,0 +1,639 @@
+package com.smallworld.data;
+
+import com.smallworld.util.IntIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Who sent money to whom, as a directed graph over client codes: one edge per (sender, beneficiary) pair with the
+ * amounts of all their transactions summed, and a flag per client that has a transaction, sent or received, whose
+ * issue is not solved. Edges are stored CSR-style in both directions: the beneficiaries of client {@code c} are
+ * {@code outTargets[outOffsets[c]] .. outTargets[outOffsets[c + 1] - 1]} in ascending code order, and likewise its
+ * senders in the {@code in} arrays, so counterparty and exposure queries cost the client's degree and reachability
+ * is a breadth-first search instead of repeated scans of the rows.
+ * <p>
+ * A graph is immutable and covers the first {@link #getRows()} rows of a store. Rows appended later are taken in
+ * by {@link #update}: it returns a graph sharing these arrays plus a delta edge list of the appended rows, sorted by
+ * sender and by beneficiary, which queries merge into a client's edges as they read them. An update sorts only the
+ * rows appended since the graph it extends and merges them into that graph's delta, so it costs a copy of the delta
+ * plus the sort of the new rows, not a rebuild; since the delta is rebuilt into the arrays once it reaches an eighth
+ * of the rows they were built over, that copy stays a fraction of the graph. A query pays for the client's share of
+ * the delta.
+ */
+public final class ClientGraph {
+
+    /**
+     * Which edges a traversal follows: money sent, money received, or both
+     */
+    public enum Direction {
+        SENT, RECEIVED, BOTH
+    }
+
+    /**
+     * Appended rows below which the graph is extended with a delta rather than rebuilt
+     */
+    private static final int MIN_REBUILD_ROWS = 4096;
+
+    private final StringDictionary clients;
+    private final int rows;
+    private final int clientCount;
+    private final int activeClients;
+    private final int edgeCount;
+    private final int baseActiveClients;
+
+    /**
+     * Rows and clients the arrays below were built over; the delta covers rows {@code baseRows .. rows - 1}
+     */
+    private final int baseRows;
+    private final int baseClients;
+    private final boolean[] active;
+    private final Delta delta;
+
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final double[] outAmounts;
+    private final int[] outCounts;
+    private final int[] inOffsets;
+    private final int[] inSources;
+    private final double[] inAmounts;
+    private final int[] inCounts;
+    private final boolean[] openIssues;
+
+    private ClientGraph(ColumnarTransactionStore store) {
+        int size = store.size();
+        // read after the rows, so every code in them is below it
+        int nodes = store.getClients().size();
+        this.clients = store.getClients();
+        this.rows = size;
+        this.clientCount = nodes;
+        this.baseRows = size;
+        this.baseClients = nodes;
+        this.delta = null;
+        this.openIssues = new boolean[nodes];
+
+        boolean[] active = new boolean[nodes];
+        this.active = active;
+        int[] rawOffsets = new int[nodes + 1];
+        for (int row = 0; row < size; row++) {
+            int sender = store.senderCode(row);
+            int beneficiary = store.beneficiaryCode(row);
+            boolean open = !store.issueSolved(row);
+            if (sender != StringDictionary.NULL_CODE) {
+                active[sender] = true;
+                openIssues[sender] |= open;
+            }
+            if (beneficiary != StringDictionary.NULL_CODE) {
+                active[beneficiary] = true;
+                openIssues[beneficiary] |= open;
+            }
+            if (sender != StringDictionary.NULL_CODE && beneficiary != StringDictionary.NULL_CODE) {
+                rawOffsets[sender + 1]++;
+            }
+        }
+        int activeCount = 0;
+        for (int client = 0; client < nodes; client++) {
+            rawOffsets[client + 1] += rawOffsets[client];
+            activeCount += active[client] ? 1 : 0;
+        }
+        this.activeClients = activeCount;
+        this.baseActiveClients = activeCount;
+
+        // one entry per row, grouped by sender
+        int[] rawTargets = new int[rawOffsets[nodes]];
+        double[] rawAmounts = new double[rawOffsets[nodes]];
+        int[] fill = Arrays.copyOf(rawOffsets, nodes);
+        for (int row = 0; row < size; row++) {
+            int sender = store.senderCode(row);
+            int beneficiary = store.beneficiaryCode(row);
+            if (sender != StringDictionary.NULL_CODE && beneficiary != StringDictionary.NULL_CODE) {
+                int i = fill[sender]++;
+                rawTargets[i] = beneficiary;
+                rawAmounts[i] = store.amount(row);
+            }
+        }
+
+        // merged into one edge per pair: slot[b] is where sender s put its edge to b, valid while owner[b] == s
+        int[] slot = new int[nodes];
+        int[] owner = new int[nodes];
+        Arrays.fill(owner, -1);
+        int[] targets = new int[rawTargets.length];
+        double[] amounts = new double[rawTargets.length];
+        int[] counts = new int[rawTargets.length];
+        this.outOffsets = new int[nodes + 1];
+        int edges = 0;
+        for (int sender = 0; sender < nodes; sender++) {
+            int first = edges;
+            for (int i = rawOffsets[sender]; i < rawOffsets[sender + 1]; i++) {
+                int beneficiary = rawTargets[i];
+                if (owner[beneficiary] != sender) {
+                    owner[beneficiary] = sender;
+                    slot[beneficiary] = edges;
+                    targets[edges++] = beneficiary;
+                }
+                amounts[slot[beneficiary]] += rawAmounts[i];
+                counts[slot[beneficiary]]++;
+            }
+            sortByTarget(targets, amounts, counts, first, edges);
+            outOffsets[sender + 1] = edges;
+        }
+        this.edgeCount = edges;
+        this.outTargets = Arrays.copyOf(targets, edges);
+        this.outAmounts = Arrays.copyOf(amounts, edges);
+        this.outCounts = Arrays.copyOf(counts, edges);
+
+        // transposed; visiting senders in code order leaves every client's senders sorted
+        this.inOffsets = new int[nodes + 1];
+        for (int i = 0; i < edges; i++) {
+            inOffsets[outTargets[i] + 1]++;
+        }
+        for (int client = 0; client < nodes; client++) {
+            inOffsets[client + 1] += inOffsets[client];
+        }
+        this.inSources = new int[edges];
+        this.inAmounts = new double[edges];
+        this.inCounts = new int[edges];
+        int[] inFill = Arrays.copyOf(inOffsets, nodes);
+        for (int sender = 0; sender < nodes; sender++) {
+            for (int i = outOffsets[sender]; i < outOffsets[sender + 1]; i++) {
+                int j = inFill[outTargets[i]]++;
+                inSources[j] = sender;
+                inAmounts[j] = outAmounts[i];
+                inCounts[j] = outCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Same arrays as the base, with the rows it does not cover as a delta
+     */
+    private ClientGraph(ClientGraph base, ColumnarTransactionStore store) {
+        this.clients = base.clients;
+        this.rows = store.size();
+        this.clientCount = store.getClients().size();
+        this.baseRows = base.baseRows;
+        this.baseClients = base.baseClients;
+        this.active = base.active;
+        this.openIssues = base.openIssues;
+        this.outOffsets = base.outOffsets;
+        this.outTargets = base.outTargets;
+        this.outAmounts = base.outAmounts;
+        this.outCounts = base.outCounts;
+        this.inOffsets = base.inOffsets;
+        this.inSources = base.inSources;
+        this.inAmounts = base.inAmounts;
+        this.inCounts = base.inCounts;
+        this.delta = new Delta(base.delta, store, base.rows, rows);
+
+        int newClients = 0;
+        for (int i = base.delta == null ? 0 : base.delta.clientCount; i < delta.clientCount; i++) {
+            newClients += isBaseActive(delta.clients[i]) ? 0 : 1;
+        }
+        this.baseActiveClients = base.baseActiveClients;
+        this.activeClients = base.activeClients + newClients;
+        // distinct pairs of the new rows that neither the base nor the previous delta has an edge for
+        int newEdges = 0;
+        long[] added = delta.addedPairs;
+        long[] previous = base.delta == null ? new long[0] : base.delta.pairs;
+        for (int i = 0; i < added.length; i++) {
+            if (i > 0 && added[i] == added[i - 1] || Arrays.binarySearch(previous, added[i]) >= 0) {
+                continue;
+            }
+            int sender = (int) (added[i] >>> 32);
+            int beneficiary = (int) added[i];
+            if (sender >= baseClients || Arrays.binarySearch(outTargets, outOffsets[sender],
+                    outOffsets[sender + 1], beneficiary) < 0) {
+                newEdges++;
+            }
+        }
+        this.edgeCount = base.edgeCount + newEdges;
+    }
+
+    public static ClientGraph build(ColumnarTransactionStore store) {
+        return new ClientGraph(store);
+    }
+
+    /**
+     * A graph covering every row of the store, which must extend the one this graph was built from: this graph if
+     * it does already, otherwise one with the appended rows as a delta, or a rebuilt one once the delta has grown
+     * to an eighth of the rows the arrays cover
+     */
+    public ClientGraph update(ColumnarTransactionStore store) {
+        int size = store.size();
+        if (size <= rows) {
+            return this;
+        }
+        if (size - baseRows >= Math.max(MIN_REBUILD_ROWS, baseRows / 8)) {
+            return build(store);
+        }
+        return new ClientGraph(this, store);
+    }
+
+    private boolean isBaseActive(int client) {
+        return client < baseClients && active[client];
+    }
+
+    private boolean isFlagged(int client) {
+        return client < baseClients && openIssues[client] || delta != null && delta.flagged.containsKey(client);
+    }
+
+    /**
+     * Insertion sort of one sender's edges; degrees are small and mostly already in order
+     */
+    private static void sortByTarget(int[] targets, double[] amounts, int[] counts, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int target = targets[i];
+            double amount = amounts[i];
+            int count = counts[i];
+            int j = i - 1;
+            for (; j >= from && targets[j] > target; j--) {
+                targets[j + 1] = targets[j];
+                amounts[j + 1] = amounts[j];
+                counts[j + 1] = counts[j];
+            }
+            targets[j + 1] = target;
+            amounts[j + 1] = amount;
+            counts[j + 1] = count;
+        }
+    }
+
+    /**
+     * Code of the client, or {@link StringDictionary#NULL_CODE} if the graph does not know it
+     */
+    public int clientCode(String clientFullName) {
+        int code = clients.lookup(clientFullName);
+        return code < clientCount ? code : StringDictionary.NULL_CODE;
+    }
+
+    /**
+     * Edges of the client in one direction, sorted by the code of the other client: the run of the arrays, merged
+     * with the client's rows of the delta if it has any
+     */
+    private Edges edges(int client, boolean sent) {
+        int[] offsets = sent ? outOffsets : inOffsets;
+        int[] others = sent ? outTargets : inSources;
+        double[] amounts = sent ? outAmounts : inAmounts;
+        int[] counts = sent ? outCounts : inCounts;
+        int from = client < baseClients ? offsets[client] : 0;
+        int to = client < baseClients ? offsets[client + 1] : 0;
+        if (delta == null) {
+            return new Edges(others, amounts, counts, from, to);
+        }
+        long[] rowsByClient = sent ? delta.bySender : delta.byBeneficiary;
+        int first = Delta.firstOf(rowsByClient, client);
+        int last = Delta.firstOf(rowsByClient, client + 1);
+        if (first == last) {
+            return new Edges(others, amounts, counts, from, to);
+        }
+        // the delta rows of the client keyed by the other client, so equal ones are adjacent and in row order
+        long[] keyed = new long[last - first];
+        for (int i = first; i < last; i++) {
+            int row = (int) rowsByClient[i];
+            int other = sent ? delta.store.beneficiaryCode(row) : delta.store.senderCode(row);
+            keyed[i - first] = (long) other << 32 | row;
+        }
+        Arrays.sort(keyed);
+        int capacity = to - from + keyed.length;
+        Edges merged = new Edges(new int[capacity], new double[capacity], new int[capacity], 0, 0);
+        int base = from;
+        int k = 0;
+        while (base < to || k < keyed.length) {
+            int fromBase = base < to ? others[base] : Integer.MAX_VALUE;
+            int fromDelta = k < keyed.length ? (int) (keyed[k] >>> 32) : Integer.MAX_VALUE;
+            int other = Math.min(fromBase, fromDelta);
+            int edge = merged.to++;
+            merged.others[edge] = other;
+            if (fromBase == other) {
+                merged.amounts[edge] = amounts[base];
+                merged.counts[edge] = counts[base++];
+            }
+            for (; k < keyed.length && (int) (keyed[k] >>> 32) == other; k++) {
+                merged.amounts[edge] += delta.store.amount((int) keyed[k]);
+                merged.counts[edge]++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Everyone the client sent money to or received money from, with the amounts and number of transactions each
+     * way, largest total first
+     */
+    public List<Counterparty> counterparties(String clientFullName) {
+        int client = clientCode(clientFullName);
+        if (client == StringDictionary.NULL_CODE) {
+            return Collections.emptyList();
+        }
+        List<Counterparty> counterparties = new ArrayList<>();
+        Edges sentTo = edges(client, true);
+        Edges receivedFrom = edges(client, false);
+        // both lists are sorted by code, so they are merged like sorted runs
+        int out = sentTo.from;
+        int in = receivedFrom.from;
+        while (out < sentTo.to || in < receivedFrom.to) {
+            int to = out < sentTo.to ? sentTo.others[out] : Integer.MAX_VALUE;
+            int from = in < receivedFrom.to ? receivedFrom.others[in] : Integer.MAX_VALUE;
+            int other = Math.min(to, from);
+            double sent = 0;
+            double received = 0;
+            int transactions = 0;
+            if (to == other) {
+                sent = sentTo.amounts[out];
+                transactions += sentTo.counts[out++];
+            }
+            if (from == other) {
+                received = receivedFrom.amounts[in];
+                transactions += receivedFrom.counts[in++];
+            }
+            counterparties.add(new Counterparty(clients.decode(other), sent, received, transactions,
+                    isFlagged(other)));
+        }
+        counterparties.sort((a, b) -> Double.compare(b.getSentAmount() + b.getReceivedAmount(),
+                a.getSentAmount() + a.getReceivedAmount()));
+        return counterparties;
+    }
+
+    /**
+     * Totals of the client's edges, and how much of them involve counterparties with open issues. A client the
+     * graph does not know has no exposure
+     */
+    public ClientExposure exposure(String clientFullName) {
+        int client = clientCode(clientFullName);
+        if (client == StringDictionary.NULL_CODE) {
+            return new ClientExposure(clientFullName, 0, 0, 0, 0, 0, false);
+        }
+        Edges sentTo = edges(client, true);
+        Edges receivedFrom = edges(client, false);
+        double sent = 0;
+        double received = 0;
+        double flaggedAmount = 0;
+        int counterparties = 0;
+        int flagged = 0;
+        // merged like in counterparties, counting each counterparty once without building the list
+        int out = sentTo.from;
+        int in = receivedFrom.from;
+        while (out < sentTo.to || in < receivedFrom.to) {
+            int to = out < sentTo.to ? sentTo.others[out] : Integer.MAX_VALUE;
+            int from = in < receivedFrom.to ? receivedFrom.others[in] : Integer.MAX_VALUE;
+            int other = Math.min(to, from);
+            double amount = 0;
+            if (to == other) {
+                amount += sentTo.amounts[out];
+                sent += sentTo.amounts[out++];
+            }
+            if (from == other) {
+                amount += receivedFrom.amounts[in];
+                received += receivedFrom.amounts[in++];
+            }
+            counterparties++;
+            if (isFlagged(other)) {
+                flagged++;
+                flaggedAmount += amount;
+            }
+        }
+        return new ClientExposure(clientFullName, sent, received, counterparties, flagged, flaggedAmount,
+                isFlagged(client));
+    }
+
+    /**
+     * Clients with open issues reachable from the client in at most {@code maxHops} edges, nearest first, each with
+     * one shortest path to it. The client itself is not reported
+     */
+    public List<ReachableClient> reachableFlaggedClients(String clientFullName, int maxHops, Direction direction) {
+        if (maxHops < 0) {
+            throw new IllegalArgumentException("maxHops must not be negative: " + maxHops);
+        }
+        int start = clientCode(clientFullName);
+        if (start == StringDictionary.NULL_CODE) {
+            return Collections.emptyList();
+        }
+        boolean sent = direction != Direction.RECEIVED;
+        boolean received = direction != Direction.SENT;
+        int[] parent = new int[clientCount];
+        Arrays.fill(parent, -1);
+        int[] queue = new int[clientCount];
+        int[] hops = new int[clientCount];
+        parent[start] = start;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        List<ReachableClient> reachable = new ArrayList<>();
+        while (head < tail) {
+            int client = queue[head++];
+            if (client != start && isFlagged(client)) {
+                reachable.add(new ReachableClient(clients.decode(client), hops[client], path(parent, client)));
+            }
+            if (hops[client] == maxHops) {
+                continue;
+            }
+            if (sent) {
+                Edges edges = edges(client, true);
+                for (int i = edges.from; i < edges.to; i++) {
+                    tail = visit(edges.others[i], client, parent, hops, queue, tail);
+                }
+            }
+            if (received) {
+                Edges edges = edges(client, false);
+                for (int i = edges.from; i < edges.to; i++) {
+                    tail = visit(edges.others[i], client, parent, hops, queue, tail);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private static int visit(int next, int from, int[] parent, int[] hops, int[] queue, int tail) {
+        if (parent[next] != -1) {
+            return tail;
+        }
+        parent[next] = from;
+        hops[next] = hops[from] + 1;
+        queue[tail] = next;
+        return tail + 1;
+    }
+
+    private List<String> path(int[] parent, int client) {
+        List<String> path = new ArrayList<>();
+        for (int node = client; ; node = parent[node]) {
+            path.add(clients.decode(node));
+            if (parent[node] == node) {
+                break;
+            }
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    public boolean hasOpenIssues(String clientFullName) {
+        int client = clientCode(clientFullName);
+        return client != StringDictionary.NULL_CODE && isFlagged(client);
+    }
+
+    /**
+     * Number of distinct clients that sent or received a transaction
+     */
+    public int getClientCount() {
+        return activeClients;
+    }
+
+    /**
+     * Number of distinct (sender, beneficiary) pairs
+     */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Number of rows covered; rows appended to the store after the graph was built are not in it
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    public long estimatedBytes() {
+        return 4L * (outOffsets.length + inOffsets.length) + (4L + 8L + 4L) * (outTargets.length + inSources.length)
+                + openIssues.length + active.length + (delta == null ? 0 : delta.estimatedBytes());
+    }
+
+    /**
+     * A run of edges: the other clients, with the amounts and transaction counts, at {@code from .. to - 1}
+     */
+    private static final class Edges {
+
+        final int[] others;
+        final double[] amounts;
+        final int[] counts;
+        final int from;
+        int to;
+
+        Edges(int[] others, double[] amounts, int[] counts, int from, int to) {
+            this.others = others;
+            this.amounts = amounts;
+            this.counts = counts;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * The rows a graph's arrays do not cover, as edge lists sorted by client: entries are {@code client << 32 | row}
+     * for the rows with both a sender and a beneficiary, so a client's rows are one run, in row order
+     */
+    private static final class Delta {
+
+        final ColumnarTransactionStore store;
+        final long[] bySender;
+        final long[] byBeneficiary;
+        /**
+         * {@code sender << 32 | beneficiary} of every edge row, sorted
+         */
+        final long[] pairs;
+        /**
+         * The pairs of the rows this delta added to the one it extends, sorted
+         */
+        final long[] addedPairs;
+        /**
+         * Distinct clients of the rows in order of first appearance, the first {@code clientCount} entries, and
+         * those of them with a transaction whose issue is not solved
+         */
+        private final IntIntHashMap seen;
+        int[] clients;
+        int clientCount;
+        final IntIntHashMap flagged;
+
+        /**
+         * The delta of rows {@code [from, to)} added to the previous delta, which covers the rows before
+         * {@code from} and is left as it is; null to start a delta at {@code from}
+         */
+        Delta(Delta previous, ColumnarTransactionStore store, int from, int to) {
+            this.store = store;
+            if (previous == null) {
+                seen = new IntIntHashMap(16);
+                clients = new int[16];
+                flagged = new IntIntHashMap(16);
+            } else {
+                seen = new IntIntHashMap(previous.seen);
+                clients = previous.clients.clone();
+                clientCount = previous.clientCount;
+                flagged = new IntIntHashMap(previous.flagged);
+            }
+            int edges = 0;
+            for (int row = from; row < to; row++) {
+                int sender = store.senderCode(row);
+                int beneficiary = store.beneficiaryCode(row);
+                boolean open = !store.issueSolved(row);
+                addClient(sender, open);
+                addClient(beneficiary, open);
+                if (sender != StringDictionary.NULL_CODE && beneficiary != StringDictionary.NULL_CODE) {
+                    edges++;
+                }
+            }
+            long[] bySender = new long[edges];
+            long[] byBeneficiary = new long[edges];
+            long[] pairs = new long[edges];
+            int edge = 0;
+            for (int row = from; row < to; row++) {
+                int sender = store.senderCode(row);
+                int beneficiary = store.beneficiaryCode(row);
+                if (sender != StringDictionary.NULL_CODE && beneficiary != StringDictionary.NULL_CODE) {
+                    bySender[edge] = (long) sender << 32 | row;
+                    byBeneficiary[edge] = (long) beneficiary << 32 | row;
+                    pairs[edge++] = (long) sender << 32 | beneficiary;
+                }
+            }
+            Arrays.sort(bySender);
+            Arrays.sort(byBeneficiary);
+            Arrays.sort(pairs);
+            this.addedPairs = pairs;
+            if (previous == null) {
+                this.bySender = bySender;
+                this.byBeneficiary = byBeneficiary;
+                this.pairs = pairs;
+            } else {
+                this.bySender = merge(previous.bySender, bySender);
+                this.byBeneficiary = merge(previous.byBeneficiary, byBeneficiary);
+                this.pairs = merge(previous.pairs, pairs);
+            }
+        }
+
+        private static long[] merge(long[] left, long[] right) {
+            long[] merged = new long[left.length + right.length];
+            int l = 0;
+            int r = 0;
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] = r == right.length || l < left.length && left[l] <= right[r] ? left[l++] : right[r++];
+            }
+            return merged;
+        }
+
+        private void addClient(int client, boolean open) {
+            if (client == StringDictionary.NULL_CODE) {
+                return;
+            }
+            if (seen.putIfAbsent(client, clientCount)) {
+                if (clientCount == clients.length) {
+                    clients = Arrays.copyOf(clients, clientCount * 2);
+                }
+                clients[clientCount++] = client;
+            }
+            if (open) {
+                flagged.putIfAbsent(client, 0);
+            }
+        }
+
+        /**
+         * Index of the first entry of the client, or of the next client, in a sorted edge list
+         */
+        static int firstOf(long[] rowsByClient, int client) {
+            int i = Arrays.binarySearch(rowsByClient, (long) client << 32);
+            return i >= 0 ? i : -(i + 1);
+        }
+
+        long estimatedBytes() {
+            return 8L * (bySender.length + byBeneficiary.length + pairs.length + addedPairs.length)
+                    + 4L * clients.length + seen.estimatedBytes() + flagged.estimatedBytes();
+        }
+    }
+}
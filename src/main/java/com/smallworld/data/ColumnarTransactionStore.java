@@ -0,0 +1,173 @@
+package com.smallworld.data;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * Column-oriented, primitive-typed copy of the transaction data. Every field lives in its own array, names and
+ * issue messages are dictionary encoded, and {@code issueSolved} is a bit set, so a full scan walks a few dense
+ * arrays instead of chasing one object per row. Sender and beneficiary share one dictionary: a client has the
+ * same code in both columns.
+ *
+ * <p>An instance is an immutable view of the first {@link #size()} rows. Columns live either in heap arrays, which
+ * may be longer and shared with an {@link AppendableTransactionStore} that keeps appending past the end of the
+ * view, or in memory-mapped segments of a {@link BinarySnapshotFile}. Rows inside a view never change. Use
+ * {@link Builder} or {@link #of(List)} to create one.
+ */
+public abstract class ColumnarTransactionStore {
+
+    /**
+     * Number of highest-amount rows kept up to date while rows are appended, so small top-K queries need no scan
+     */
+    public static final int PRECOMPUTED_TOP_K = 16;
+
+    /**
+     * Value of the time column for a transaction that has no time
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private final int size;
+    private final StringDictionary clients;
+    private final StringDictionary issueMessages;
+    private final int[] topRows;
+
+    ColumnarTransactionStore(int size, StringDictionary clients, StringDictionary issueMessages, int[] topRows) {
+        this.size = size;
+        this.clients = clients;
+        this.issueMessages = issueMessages;
+        this.topRows = topRows;
+    }
+
+    public static ColumnarTransactionStore of(List<Transaction> transactions) {
+        return new AppendableTransactionStore(transactions.size()).appendAll(transactions);
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    public abstract long mtn(int row);
+
+    public abstract double amount(int row);
+
+    public abstract int senderCode(int row);
+
+    public abstract int senderAge(int row);
+
+    public abstract int beneficiaryCode(int row);
+
+    public abstract int beneficiaryAge(int row);
+
+    public abstract int issueId(int row);
+
+    public abstract boolean issueSolved(int row);
+
+    public abstract int issueMessageCode(int row);
+
+    /**
+     * Epoch milliseconds of the transaction, or {@link #NO_TIME}
+     */
+    public abstract long transactionTime(int row);
+
+    /**
+     * Dictionary shared by the sender and beneficiary columns
+     */
+    public final StringDictionary getClients() {
+        return clients;
+    }
+
+    public final StringDictionary getIssueMessages() {
+        return issueMessages;
+    }
+
+    /**
+     * Rows of the (at most {@link #PRECOMPUTED_TOP_K}) highest amounts, best first, ties in row order
+     */
+    public final int[] topRows(int k) {
+        if (k > PRECOMPUTED_TOP_K) {
+            throw new IllegalArgumentException("Only the top " + PRECOMPUTED_TOP_K + " rows are precomputed");
+        }
+        return Arrays.copyOf(topRows, Math.min(k, topRows.length));
+    }
+
+    /**
+     * Materializes one row as a {@link Transaction}
+     */
+    public final Transaction row(int row) {
+        long time = transactionTime(row);
+        return new Transaction(mtn(row), amount(row), clients.decode(senderCode(row)), senderAge(row),
+                clients.decode(beneficiaryCode(row)), beneficiaryAge(row), issueId(row), issueSolved(row),
+                issueMessages.decode(issueMessageCode(row)), time == NO_TIME ? null : time);
+    }
+
+    /**
+     * Read-only list view that materializes rows on access. Nothing is copied up front
+     */
+    public final List<Transaction> asList() {
+        return new RowList();
+    }
+
+    /**
+     * Approximate heap used by the columns and dictionaries. Memory-mapped columns are not counted
+     */
+    public abstract long estimatedBytes();
+
+    /**
+     * Bytes of column data held outside the heap
+     */
+    public long mappedBytes() {
+        return 0;
+    }
+
+    private final class RowList extends AbstractList<Transaction> implements RandomAccess {
+        @Override
+        public Transaction get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return row(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Single-threaded helper to build a store row by row. Also usable as a consumer of
+     * {@code StreamingTransactionReader} in record-reuse mode, since every field is copied out of the record
+     */
+    public static final class Builder implements Consumer<Transaction> {
+        private final AppendableTransactionStore store;
+
+        public Builder() {
+            this(1024);
+        }
+
+        public Builder(int expectedSize) {
+            store = new AppendableTransactionStore(expectedSize);
+        }
+
+        @Override
+        public void accept(Transaction transaction) {
+            add(transaction);
+        }
+
+        public Builder add(Transaction transaction) {
+            store.appendUnpublished(transaction);
+            return this;
+        }
+
+        public int size() {
+            return store.pendingSize();
+        }
+
+        public ColumnarTransactionStore build() {
+            return store.publish();
+        }
+    }
+}
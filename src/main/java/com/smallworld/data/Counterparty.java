@@ -0,0 +1,59 @@
+package com.smallworld.data;
+
+/**
+ * One client on the other side of another client's transactions, as reported by {@link ClientGraph}
+ */
+public final class Counterparty {
+
+    private final String name;
+    private final double sentAmount;
+    private final double receivedAmount;
+    private final int transactions;
+    private final boolean openIssues;
+
+    Counterparty(String name, double sentAmount, double receivedAmount, int transactions, boolean openIssues) {
+        this.name = name;
+        this.sentAmount = sentAmount;
+        this.receivedAmount = receivedAmount;
+        this.transactions = transactions;
+        this.openIssues = openIssues;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Total the client sent to this counterparty
+     */
+    public double getSentAmount() {
+        return sentAmount;
+    }
+
+    /**
+     * Total the client received from this counterparty
+     */
+    public double getReceivedAmount() {
+        return receivedAmount;
+    }
+
+    /**
+     * Number of transactions between the two, both ways
+     */
+    public int getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Whether the counterparty has a transaction, with anyone, whose issue is not solved
+     */
+    public boolean isOpenIssues() {
+        return openIssues;
+    }
+
+    @Override
+    public String toString() {
+        return "Counterparty{" + name + ", sent=" + sentAmount + ", received=" + receivedAmount + ", transactions="
+                + transactions + ", openIssues=" + openIssues + "}";
+    }
+}
@@ -0,0 +1,93 @@
+package com.smallworld.data;
+
+import java.util.BitSet;
+
+/**
+ * {@link ColumnarTransactionStore} backed by heap arrays, created by {@link AppendableTransactionStore}
+ */
+final class HeapColumnarTransactionStore extends ColumnarTransactionStore {
+
+    private final long[] mtn;
+    private final double[] amount;
+    private final int[] senderCode;
+    private final int[] senderAge;
+    private final int[] beneficiaryCode;
+    private final int[] beneficiaryAge;
+    private final int[] issueId;
+    private final BitSet issueSolved;
+    private final int[] issueMessageCode;
+    private final long[] transactionTime;
+
+    HeapColumnarTransactionStore(int size, long[] mtn, double[] amount, int[] senderCode, int[] senderAge,
+                                 int[] beneficiaryCode, int[] beneficiaryAge, int[] issueId, BitSet issueSolved,
+                                 int[] issueMessageCode, long[] transactionTime, StringDictionary clients,
+                                 StringDictionary issueMessages, int[] topRows) {
+        super(size, clients, issueMessages, topRows);
+        this.mtn = mtn;
+        this.amount = amount;
+        this.senderCode = senderCode;
+        this.senderAge = senderAge;
+        this.beneficiaryCode = beneficiaryCode;
+        this.beneficiaryAge = beneficiaryAge;
+        this.issueId = issueId;
+        this.issueSolved = issueSolved;
+        this.issueMessageCode = issueMessageCode;
+        this.transactionTime = transactionTime;
+    }
+
+    @Override
+    public long mtn(int row) {
+        return mtn[row];
+    }
+
+    @Override
+    public double amount(int row) {
+        return amount[row];
+    }
+
+    @Override
+    public int senderCode(int row) {
+        return senderCode[row];
+    }
+
+    @Override
+    public int senderAge(int row) {
+        return senderAge[row];
+    }
+
+    @Override
+    public int beneficiaryCode(int row) {
+        return beneficiaryCode[row];
+    }
+
+    @Override
+    public int beneficiaryAge(int row) {
+        return beneficiaryAge[row];
+    }
+
+    @Override
+    public int issueId(int row) {
+        return issueId[row];
+    }
+
+    @Override
+    public boolean issueSolved(int row) {
+        return issueSolved.get(row);
+    }
+
+    @Override
+    public int issueMessageCode(int row) {
+        return issueMessageCode[row];
+    }
+
+    @Override
+    public long transactionTime(int row) {
+        return transactionTime[row];
+    }
+
+    @Override
+    public long estimatedBytes() {
+        long columns = mtn.length * (8L * 3 + 4L * 6) + mtn.length / 8;
+        return columns + getClients().estimatedBytes() + getIssueMessages().estimatedBytes();
+    }
+}
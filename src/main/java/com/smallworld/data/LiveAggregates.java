@@ -0,0 +1,245 @@
+package com.smallworld.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The fetcher's figures kept up to date row by row instead of being recomputed per query: running total and max,
+ * per-sender totals (which also give the top sender), the distinct clients, per-client open issue counts and the
+ * unsolved and solved issue sets. Per-client state lives in a table indexed by the store's dictionary code, so a
+ * row is folded in without decoding or hashing a name. Counters are striped adders, a client's slot is filled once
+ * under a lock and then read without one, so several writers can add rows at once and readers never block.
+ */
+public final class LiveAggregates {
+
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder totalAmount = new DoubleAdder();
+    private final DoubleAccumulator maxAmount = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+    private final LongAdder distinctClients = new LongAdder();
+    private final Set<Integer> unsolvedIssueIds = ConcurrentHashMap.newKeySet();
+    private final List<String> solvedIssueMessages = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Per client code, or null for a code no row has used yet. Slots are only filled, and the table only replaced
+     * by a larger copy, under clientsLock
+     */
+    private volatile AtomicReferenceArray<ClientTotals> byCode = new AtomicReferenceArray<>(64);
+    private final Object clientsLock = new Object();
+    /**
+     * Dictionary of the latest rows folded in, to look names up in; the dictionaries of a snapshot's stores agree
+     * on every code they share
+     */
+    private volatile StringDictionary clients = new StringDictionary();
+
+    private final Object leaderLock = new Object();
+    private volatile ClientTotals topSender;
+
+    /**
+     * Running figures of one client. The client code orders senders by first appearance, which breaks ties. The
+     * client's {@link #getTopSender()} result is made once, so reading the leader allocates nothing
+     */
+    private static final class ClientTotals {
+        private final int code;
+        private final DoubleAdder sent = new DoubleAdder();
+        private final LongAdder openIssues = new LongAdder();
+        private final Optional<String> asTopSender;
+        /**
+         * Whether the client has sent anything; only senders can lead
+         */
+        private volatile boolean hasSent;
+
+        ClientTotals(String name, int code) {
+            this.code = code;
+            this.asTopSender = Optional.of(name);
+        }
+
+        boolean beats(ClientTotals other) {
+            double mine = sent.sum();
+            double theirs = other.sent.sum();
+            return mine > theirs || (mine == theirs && code < other.code);
+        }
+    }
+
+    /**
+     * Builds the aggregates of every row of the store
+     */
+    public static LiveAggregates of(ColumnarTransactionStore store) {
+        LiveAggregates aggregates = new LiveAggregates();
+        aggregates.addRows(store, 0, store.size());
+        return aggregates;
+    }
+
+    /**
+     * Folds the rows {@code [from, to)} of the view in. Safe to call from several threads for disjoint ranges
+     */
+    public void addRows(ColumnarTransactionStore store, int from, int to) {
+        StringDictionary dictionary = store.getClients();
+        if (dictionary.size() >= clients.size()) {
+            clients = dictionary;
+        }
+        for (int row = from; row < to; row++) {
+            double amount = store.amount(row);
+            count.increment();
+            totalAmount.add(amount);
+            maxAmount.accumulate(amount);
+
+            int senderCode = store.senderCode(row);
+            int beneficiaryCode = store.beneficiaryCode(row);
+            ClientTotals sender = senderCode == StringDictionary.NULL_CODE ? null : client(dictionary, senderCode);
+            ClientTotals beneficiary = beneficiaryCode == StringDictionary.NULL_CODE
+                    ? null : client(dictionary, beneficiaryCode);
+            if (sender != null) {
+                sender.hasSent = true;
+                sender.sent.add(amount);
+                updateTopSender(sender, amount);
+            }
+
+            int issueId = store.issueId(row);
+            boolean solved = store.issueSolved(row);
+            if (!solved) {
+                if (sender != null) {
+                    sender.openIssues.increment();
+                }
+                if (beneficiary != null && beneficiary != sender) {
+                    beneficiary.openIssues.increment();
+                }
+            }
+            if (issueId != 0) {
+                if (solved) {
+                    solvedIssueMessages.add(store.getIssueMessages().decode(store.issueMessageCode(row)));
+                } else {
+                    unsolvedIssueIds.add(issueId);
+                }
+            }
+        }
+    }
+
+    /**
+     * The client's figures, created the first time a row uses its code
+     */
+    private ClientTotals client(StringDictionary dictionary, int code) {
+        AtomicReferenceArray<ClientTotals> table = byCode;
+        ClientTotals client = code < table.length() ? table.get(code) : null;
+        if (client != null) {
+            return client;
+        }
+        synchronized (clientsLock) {
+            table = byCode;
+            if (code >= table.length()) {
+                AtomicReferenceArray<ClientTotals> grown = new AtomicReferenceArray<>(
+                        Math.max(code + 1, table.length() * 2));
+                for (int i = 0; i < table.length(); i++) {
+                    grown.set(i, table.get(i));
+                }
+                byCode = grown;
+                table = grown;
+            }
+            client = table.get(code);
+            if (client == null) {
+                client = new ClientTotals(dictionary.decode(code), code);
+                table.set(code, client);
+                distinctClients.increment();
+            }
+            return client;
+        }
+    }
+
+    private ClientTotals lookup(String clientFullName) {
+        if (clientFullName == null) {
+            return null;
+        }
+        int code = clients.lookup(clientFullName);
+        AtomicReferenceArray<ClientTotals> table = byCode;
+        return code == StringDictionary.NULL_CODE || code >= table.length() ? null : table.get(code);
+    }
+
+    /**
+     * Totals only grow while amounts are positive, so the leader can only be overtaken by the sender that was
+     * just updated, and a sender that neither leads nor beats the leader skips the lock. The leader itself always
+     * takes it: another thread may be replacing it with a sender it has just overtaken again, and the comparison
+     * made under the lock after that thread's is the one that sees both totals. A negative amount may demote the
+     * leader, in which case it is searched again
+     */
+    private void updateTopSender(ClientTotals updated, double amount) {
+        ClientTotals current = topSender;
+        if (amount >= 0 && current != null && current != updated && !updated.beats(current)) {
+            return;
+        }
+        synchronized (leaderLock) {
+            ClientTotals leader = topSender;
+            if (amount < 0 && leader == updated) {
+                topSender = findTopSender();
+            } else if (leader == null || (leader != updated && updated.beats(leader))) {
+                topSender = updated;
+            }
+        }
+    }
+
+    private ClientTotals findTopSender() {
+        AtomicReferenceArray<ClientTotals> table = byCode;
+        ClientTotals best = null;
+        for (int code = 0; code < table.length(); code++) {
+            ClientTotals candidate = table.get(code);
+            if (candidate != null && candidate.hasSent && (best == null || candidate.beats(best))) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getTotalTransactionAmount() {
+        return totalAmount.sum();
+    }
+
+    /**
+     * Highest amount seen, or 0 if there are no rows
+     */
+    public double getMaxTransactionAmount() {
+        return count.sum() == 0 ? 0 : maxAmount.get();
+    }
+
+    public double getTotalTransactionAmountSentBy(String senderFullName) {
+        ClientTotals sender = lookup(senderFullName);
+        return sender == null ? 0 : sender.sent.sum();
+    }
+
+    /**
+     * Number of distinct clients, senders and beneficiaries alike
+     */
+    public long countUniqueClients() {
+        return distinctClients.sum();
+    }
+
+    public boolean hasOpenComplianceIssues(String clientFullName) {
+        ClientTotals client = lookup(clientFullName);
+        return client != null && client.openIssues.sum() > 0;
+    }
+
+    public Set<Integer> getUnsolvedIssueIds() {
+        return new HashSet<>(unsolvedIssueIds);
+    }
+
+    public List<String> getAllSolvedIssueMessages() {
+        synchronized (solvedIssueMessages) {
+            return new ArrayList<>(solvedIssueMessages);
+        }
+    }
+
+    public Optional<String> getTopSender() {
+        ClientTotals leader = topSender;
+        return leader == null ? Optional.empty() : leader.asTopSender;
+    }
+}
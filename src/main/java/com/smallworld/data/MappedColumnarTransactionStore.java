@@ -0,0 +1,105 @@
+package com.smallworld.data;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * {@link ColumnarTransactionStore} reading its columns straight from memory-mapped segments of a
+ * {@link BinarySnapshotFile}. Nothing is copied onto the heap except the dictionaries; pages are faulted in by the
+ * OS as queries touch them. Absolute buffer reads are used throughout, so the buffers can be shared by any number
+ * of threads.
+ */
+final class MappedColumnarTransactionStore extends ColumnarTransactionStore {
+
+    private final LongBuffer mtn;
+    private final DoubleBuffer amount;
+    private final IntBuffer senderCode;
+    private final IntBuffer senderAge;
+    private final IntBuffer beneficiaryCode;
+    private final IntBuffer beneficiaryAge;
+    private final IntBuffer issueId;
+    private final IntBuffer issueMessageCode;
+    private final LongBuffer issueSolvedWords;
+    private final LongBuffer transactionTime;
+    private final long mappedBytes;
+
+    MappedColumnarTransactionStore(int size, LongBuffer mtn, DoubleBuffer amount, IntBuffer senderCode,
+                                   IntBuffer senderAge, IntBuffer beneficiaryCode, IntBuffer beneficiaryAge,
+                                   IntBuffer issueId, IntBuffer issueMessageCode, LongBuffer issueSolvedWords,
+                                   LongBuffer transactionTime, StringDictionary clients,
+                                   StringDictionary issueMessages, int[] topRows, long mappedBytes) {
+        super(size, clients, issueMessages, topRows);
+        this.mtn = mtn;
+        this.amount = amount;
+        this.senderCode = senderCode;
+        this.senderAge = senderAge;
+        this.beneficiaryCode = beneficiaryCode;
+        this.beneficiaryAge = beneficiaryAge;
+        this.issueId = issueId;
+        this.issueMessageCode = issueMessageCode;
+        this.issueSolvedWords = issueSolvedWords;
+        this.transactionTime = transactionTime;
+        this.mappedBytes = mappedBytes;
+    }
+
+    @Override
+    public long mtn(int row) {
+        return mtn.get(row);
+    }
+
+    @Override
+    public double amount(int row) {
+        return amount.get(row);
+    }
+
+    @Override
+    public int senderCode(int row) {
+        return senderCode.get(row);
+    }
+
+    @Override
+    public int senderAge(int row) {
+        return senderAge.get(row);
+    }
+
+    @Override
+    public int beneficiaryCode(int row) {
+        return beneficiaryCode.get(row);
+    }
+
+    @Override
+    public int beneficiaryAge(int row) {
+        return beneficiaryAge.get(row);
+    }
+
+    @Override
+    public int issueId(int row) {
+        return issueId.get(row);
+    }
+
+    @Override
+    public boolean issueSolved(int row) {
+        return (issueSolvedWords.get(row >>> 6) & (1L << row)) != 0;
+    }
+
+    @Override
+    public int issueMessageCode(int row) {
+        return issueMessageCode.get(row);
+    }
+
+    @Override
+    public long transactionTime(int row) {
+        return transactionTime.get(row);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return getClients().estimatedBytes() + getIssueMessages().estimatedBytes();
+    }
+
+    @Override
+    public long mappedBytes() {
+        return mappedBytes;
+    }
+}
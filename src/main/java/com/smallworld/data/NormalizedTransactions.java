@@ -0,0 +1,280 @@
+package com.smallworld.data;
+
+import com.smallworld.util.IntIntHashMap;
+import com.smallworld.util.LongIntHashMap;
+import com.smallworld.util.TopKHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The rows of a {@link ColumnarTransactionStore} split back into the two tables they were joined from: transfers,
+ * keyed by mtn, and compliance issues. The source repeats a transfer once per issue, so per-row figures count a
+ * transfer with three issues three times; the transfer table holds it once.
+ * <p>
+ * Rows with the same mtn belong to the same transfer when their amount, parties, ages and time agree too. A row
+ * that reuses an mtn with different transfer fields is kept as a transfer of its own rather than dropped. Each
+ * transfer is represented by its first row. An issue is identified by its id, and its first row wins; issues are
+ * indexed as open or solved, so listing either kind costs the number of such issues, not a scan.
+ * <p>
+ * Rows are folded in with {@link #addRows}, in order and exactly once, by one writer at a time. Each call ends by
+ * publishing an immutable view of the figures, the top transfers and the issue lists through a volatile field, so
+ * reads take no lock and never wait behind a fold. The tables only grow, and the arrays a view refers to are never
+ * written below its counts. Looking up an issue by id reads the writer's hash map and is the one synchronized read.
+ */
+public final class NormalizedTransactions {
+
+    private static final int NONE = -1;
+
+    private final LongIntHashMap firstTransferByMtn = new LongIntHashMap(1024);
+    /**
+     * Per transfer: its first row, and the next transfer reusing the same mtn or {@link #NONE}
+     */
+    private int[] transferRows = new int[1024];
+    private int[] nextWithSameMtn = new int[1024];
+    private int transferCount;
+    private double totalAmount;
+    private double maxAmount = Double.NEGATIVE_INFINITY;
+    private final TopKHeap top = new TopKHeap(ColumnarTransactionStore.PRECOMPUTED_TOP_K);
+
+    private final IntIntHashMap issuesById = new IntIntHashMap(64);
+    private int[] issueIds = new int[64];
+    private String[] issueMessages = new String[64];
+    private int[] issueTransfers = new int[64];
+    private int issueCount;
+    private int[] openIssues = new int[64];
+    private int openCount;
+    private int[] solvedIssues = new int[64];
+    private int solvedCount;
+
+    private int rows;
+    private int[] topRows = new int[0];
+
+    private volatile Published published = new Published(this);
+
+    public static NormalizedTransactions of(ColumnarTransactionStore store) {
+        NormalizedTransactions normalized = new NormalizedTransactions();
+        normalized.addRows(store, 0, store.size());
+        return normalized;
+    }
+
+    /**
+     * Folds the rows {@code [from, to)} of the view in; {@code from} must be the number of rows folded so far
+     */
+    public synchronized void addRows(ColumnarTransactionStore store, int from, int to) {
+        if (from != rows) {
+            throw new IllegalArgumentException("Expected rows from " + rows + " but got " + from);
+        }
+        boolean topChanged = false;
+        for (int row = from; row < to; row++) {
+            int transfers = transferCount;
+            int transfer = transferOf(store, row);
+            if (transferCount > transfers) {
+                topChanged |= top.offer(store.amount(row), row);
+            }
+            int issueId = store.issueId(row);
+            if (issueId != 0 && issuesById.putIfAbsent(issueId, issueCount)) {
+                addIssue(issueId, store.getIssueMessages().decode(store.issueMessageCode(row)), transfer,
+                        store.issueSolved(row));
+            }
+        }
+        rows = to;
+        if (topChanged) {
+            topRows = top.sortedRows();
+        }
+        published = new Published(this);
+    }
+
+    /**
+     * Finds the transfer of the row, registering a new one if no earlier row describes the same transfer
+     */
+    private int transferOf(ColumnarTransactionStore store, int row) {
+        long mtn = store.mtn(row);
+        int first = firstTransferByMtn.get(mtn, NONE);
+        int last = NONE;
+        for (int transfer = first; transfer != NONE; transfer = nextWithSameMtn[transfer]) {
+            if (sameTransfer(store, transferRows[transfer], row)) {
+                return transfer;
+            }
+            last = transfer;
+        }
+        if (transferCount == transferRows.length) {
+            transferRows = Arrays.copyOf(transferRows, transferCount * 2);
+            nextWithSameMtn = Arrays.copyOf(nextWithSameMtn, transferCount * 2);
+        }
+        int transfer = transferCount++;
+        transferRows[transfer] = row;
+        nextWithSameMtn[transfer] = NONE;
+        if (last == NONE) {
+            firstTransferByMtn.put(mtn, transfer);
+        } else {
+            nextWithSameMtn[last] = transfer;
+        }
+        double amount = store.amount(row);
+        totalAmount += amount;
+        maxAmount = Math.max(maxAmount, amount);
+        return transfer;
+    }
+
+    private static boolean sameTransfer(ColumnarTransactionStore store, int row, int other) {
+        return Double.compare(store.amount(row), store.amount(other)) == 0
+                && store.senderCode(row) == store.senderCode(other)
+                && store.beneficiaryCode(row) == store.beneficiaryCode(other)
+                && store.senderAge(row) == store.senderAge(other)
+                && store.beneficiaryAge(row) == store.beneficiaryAge(other)
+                && store.transactionTime(row) == store.transactionTime(other);
+    }
+
+    private void addIssue(int issueId, String message, int transfer, boolean solved) {
+        if (issueCount == issueIds.length) {
+            issueIds = Arrays.copyOf(issueIds, issueCount * 2);
+            issueMessages = Arrays.copyOf(issueMessages, issueCount * 2);
+            issueTransfers = Arrays.copyOf(issueTransfers, issueCount * 2);
+        }
+        int issue = issueCount++;
+        issueIds[issue] = issueId;
+        issueMessages[issue] = message;
+        issueTransfers[issue] = transfer;
+        if (solved) {
+            if (solvedCount == solvedIssues.length) {
+                solvedIssues = Arrays.copyOf(solvedIssues, solvedCount * 2);
+            }
+            solvedIssues[solvedCount++] = issue;
+        } else {
+            if (openCount == openIssues.length) {
+                openIssues = Arrays.copyOf(openIssues, openCount * 2);
+            }
+            openIssues[openCount++] = issue;
+        }
+    }
+
+    /**
+     * Sum of the amounts of all transfers, each counted once
+     */
+    public double getTotalTransactionAmount() {
+        return published.totalAmount;
+    }
+
+    /**
+     * Highest transfer amount, or 0 if there are no transfers
+     */
+    public double getMaxTransactionAmount() {
+        Published view = published;
+        return view.transferCount == 0 ? 0 : view.maxAmount;
+    }
+
+    /**
+     * First rows of the {@code k} transfers with the highest amounts, best first, ties in row order. Small
+     * {@code k} are served from the top transfers kept while folding, larger ones read the amounts of every
+     * transfer's row in the store, which must cover every row folded in
+     */
+    public int[] topTransferRows(ColumnarTransactionStore store, int k) {
+        Published view = published;
+        if (k <= ColumnarTransactionStore.PRECOMPUTED_TOP_K) {
+            return Arrays.copyOf(view.topRows, Math.min(k, view.topRows.length));
+        }
+        TopKHeap heap = new TopKHeap(k);
+        for (int transfer = 0; transfer < view.transferCount; transfer++) {
+            int row = view.transferRows[transfer];
+            heap.offer(store.amount(row), row);
+        }
+        return heap.sortedRows();
+    }
+
+    /**
+     * Ids of the issues that are not solved
+     */
+    public Set<Integer> getUnsolvedIssueIds() {
+        Published view = published;
+        Set<Integer> ids = new HashSet<>(Math.max(16, view.openCount * 2));
+        for (int i = 0; i < view.openCount; i++) {
+            ids.add(view.issueIds[view.openIssues[i]]);
+        }
+        return ids;
+    }
+
+    /**
+     * Messages of the solved issues, in the order the issues first appeared
+     */
+    public List<String> getAllSolvedIssueMessages() {
+        Published view = published;
+        List<String> messages = new ArrayList<>(view.solvedCount);
+        for (int i = 0; i < view.solvedCount; i++) {
+            messages.add(view.issueMessages[view.solvedIssues[i]]);
+        }
+        return messages;
+    }
+
+    /**
+     * First row of the transfer carrying the issue, or -1
+     */
+    public synchronized int transferRowOfIssue(int issueId) {
+        int issue = issuesById.get(issueId, NONE);
+        return issue == NONE ? NONE : transferRows[issueTransfers[issue]];
+    }
+
+    public int getTransferCount() {
+        return published.transferCount;
+    }
+
+    public int getIssueCount() {
+        return published.issueCount;
+    }
+
+    public int getOpenIssueCount() {
+        return published.openCount;
+    }
+
+    /**
+     * Number of rows folded in
+     */
+    public int getRows() {
+        return published.rows;
+    }
+
+    public synchronized long estimatedBytes() {
+        return firstTransferByMtn.estimatedBytes() + issuesById.estimatedBytes()
+                + 4L * (transferRows.length + nextWithSameMtn.length)
+                + 4L * (issueIds.length + issueTransfers.length + openIssues.length + solvedIssues.length)
+                + 8L * issueMessages.length;
+    }
+
+    /**
+     * What the readers see: the counts and figures as of the end of one {@link #addRows}, with the arrays they index
+     */
+    private static final class Published {
+
+        final int rows;
+        final int transferCount;
+        final double totalAmount;
+        final double maxAmount;
+        final int[] topRows;
+        final int[] transferRows;
+        final int issueCount;
+        final int[] issueIds;
+        final String[] issueMessages;
+        final int[] openIssues;
+        final int openCount;
+        final int[] solvedIssues;
+        final int solvedCount;
+
+        Published(NormalizedTransactions tables) {
+            rows = tables.rows;
+            transferCount = tables.transferCount;
+            totalAmount = tables.totalAmount;
+            maxAmount = tables.maxAmount;
+            topRows = tables.topRows;
+            transferRows = tables.transferRows;
+            issueCount = tables.issueCount;
+            issueIds = tables.issueIds;
+            issueMessages = tables.issueMessages;
+            openIssues = tables.openIssues;
+            openCount = tables.openCount;
+            solvedIssues = tables.solvedIssues;
+            solvedCount = tables.solvedCount;
+        }
+    }
+}
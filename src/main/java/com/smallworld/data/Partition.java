@@ -0,0 +1,44 @@
+package com.smallworld.data;
+
+/**
+ * Rows {@code [fromRow, toRow)} of a snapshot that were loaded from one partition file, with the statistics of
+ * that file. Queries use the statistics to skip partitions that cannot contribute to their result.
+ */
+public final class Partition {
+
+    private final String name;
+    private final int fromRow;
+    private final int toRow;
+    private final PartitionStats stats;
+
+    public Partition(String name, int fromRow, int toRow, PartitionStats stats) {
+        this.name = name;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+        this.stats = stats;
+    }
+
+    /**
+     * File name of the partition, relative to its directory
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getFromRow() {
+        return fromRow;
+    }
+
+    public int getToRow() {
+        return toRow;
+    }
+
+    public PartitionStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "Partition{" + name + ", rows " + fromRow + ".." + toRow + "}";
+    }
+}
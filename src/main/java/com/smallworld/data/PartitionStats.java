@@ -0,0 +1,103 @@
+package com.smallworld.data;
+
+import com.smallworld.sketch.BloomFilter;
+import com.smallworld.sketch.HyperLogLog;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Metadata of one partition file, enough to tell without reading the rows that the partition cannot matter to a
+ * query: the amount and time ranges of its transactions and a Bloom filter of its senders. Kept next to the file
+ * as JSON and only trusted while the file still has the size and modification time recorded here.
+ */
+@Data
+@NoArgsConstructor
+public class PartitionStats {
+
+    /**
+     * False positive rate of the sender filter
+     */
+    public static final double SENDER_FALSE_POSITIVE_RATE = 0.01;
+
+    private long sourceBytes;
+    private long sourceModifiedMillis;
+    private int rows;
+    private double minAmount;
+    private double maxAmount;
+    /**
+     * Range of the transaction times, {@link ColumnarTransactionStore#NO_TIME} when no row has a time
+     */
+    private long minTime;
+    private long maxTime;
+    private int bloomHashes;
+    private long[] senderBloom;
+
+    /**
+     * Computes the statistics of a whole store
+     */
+    public static PartitionStats of(ColumnarTransactionStore store, long sourceBytes, long sourceModifiedMillis) {
+        PartitionStats stats = new PartitionStats();
+        stats.sourceBytes = sourceBytes;
+        stats.sourceModifiedMillis = sourceModifiedMillis;
+        stats.rows = store.size();
+        double minAmount = Double.POSITIVE_INFINITY;
+        double maxAmount = Double.NEGATIVE_INFINITY;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = ColumnarTransactionStore.NO_TIME;
+        boolean[] senders = new boolean[store.getClients().size()];
+        int senderCount = 0;
+        for (int row = 0; row < store.size(); row++) {
+            double amount = store.amount(row);
+            minAmount = Math.min(minAmount, amount);
+            maxAmount = Math.max(maxAmount, amount);
+            long time = store.transactionTime(row);
+            if (time != ColumnarTransactionStore.NO_TIME) {
+                minTime = Math.min(minTime, time);
+                maxTime = Math.max(maxTime, time);
+            }
+            int sender = store.senderCode(row);
+            if (sender != StringDictionary.NULL_CODE && !senders[sender]) {
+                senders[sender] = true;
+                senderCount++;
+            }
+        }
+        BloomFilter bloom = BloomFilter.forExpected(senderCount, SENDER_FALSE_POSITIVE_RATE);
+        for (int code = 0; code < senders.length; code++) {
+            if (senders[code]) {
+                bloom.put(HyperLogLog.hash(store.getClients().decode(code)));
+            }
+        }
+        stats.minAmount = stats.rows == 0 ? 0 : minAmount;
+        stats.maxAmount = stats.rows == 0 ? 0 : maxAmount;
+        stats.minTime = maxTime == ColumnarTransactionStore.NO_TIME ? ColumnarTransactionStore.NO_TIME : minTime;
+        stats.maxTime = maxTime;
+        stats.bloomHashes = bloom.getHashes();
+        stats.senderBloom = bloom.getBits();
+        return stats;
+    }
+
+    /**
+     * Whether these statistics were computed from a file of this size and modification time
+     */
+    public boolean describes(long fileBytes, long fileModifiedMillis) {
+        return sourceBytes == fileBytes && sourceModifiedMillis == fileModifiedMillis && senderBloom != null
+                && senderBloom.length > 0 && bloomHashes > 0;
+    }
+
+    /**
+     * False means the partition certainly holds no transaction sent by this client
+     */
+    public boolean mightContainSender(String senderFullName) {
+        if (senderFullName == null || rows == 0) {
+            return false;
+        }
+        return new BloomFilter(senderBloom, bloomHashes).mightContain(HyperLogLog.hash(senderFullName));
+    }
+
+    /**
+     * Whether some transaction of the partition may fall into {@code [fromMillis, toMillis]}
+     */
+    public boolean mightOverlap(long fromMillis, long toMillis) {
+        return maxTime != ColumnarTransactionStore.NO_TIME && maxTime >= fromMillis && minTime <= toMillis;
+    }
+}
@@ -0,0 +1,41 @@
+package com.smallworld.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A client with open compliance issues found by {@link ClientGraph#reachableFlaggedClients}, with a shortest chain
+ * of counterparties leading to it
+ */
+public final class ReachableClient {
+
+    private final String name;
+    private final int hops;
+    private final List<String> path;
+
+    ReachableClient(String name, int hops, List<String> path) {
+        this.name = name;
+        this.hops = hops;
+        this.path = Collections.unmodifiableList(path);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getHops() {
+        return hops;
+    }
+
+    /**
+     * Clients from the start of the search to this one, both included
+     */
+    public List<String> getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "ReachableClient{" + name + ", hops=" + hops + ", path=" + path + "}";
+    }
+}
@@ -0,0 +1,74 @@
+package com.smallworld.data;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps each distinct string to a dense int code, in order of first appearance, so that columns can store one int
+ * per row instead of a String reference. {@code null} is encoded as {@link #NULL_CODE}.
+ *
+ * <p>New codes are assigned by one writer at a time while any number of readers look codes up or decode them.
+ */
+public final class StringDictionary {
+
+    public static final int NULL_CODE = -1;
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private volatile int size;
+
+    /**
+     * Returns the code of the value, assigning the next free one if it has not been seen yet
+     */
+    public synchronized int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = size;
+            String[] current = values;
+            if (code == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[code] = value;
+            values = current;
+            size = code + 1;
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the value, or {@link #NULL_CODE} if it is not in the dictionary
+     */
+    public int lookup(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        return code == null ? NULL_CODE : code;
+    }
+
+    public String decode(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rough heap footprint: the strings themselves plus the hash map and array holding them
+     */
+    public long estimatedBytes() {
+        String[] current = values;
+        int count = size;
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += 40 + 2L * current[i].length();
+        }
+        return bytes + count * (48L + 16L) + 8L * current.length;
+    }
+}
@@ -0,0 +1,349 @@
+package com.smallworld.data;
+
+import com.smallworld.sketch.HyperLogLog;
+import com.smallworld.util.IntDoubleHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-minute, per-hour and per-day buckets of the timed transactions, each holding count, sum and max of the
+ * amounts, a {@link HyperLogLog} of the clients involved and the total of every sender. A window query merges the
+ * few coarsest buckets that tile the window instead of scanning rows: a 30-day window costs at most 30 day buckets,
+ * 2 x 23 hour buckets and 2 x 59 minute buckets. Buckets are aligned to UTC and windows to whole minutes.
+ * <p>
+ * Fine buckets are only kept for a while behind the newest transaction: minutes for
+ * {@link #DEFAULT_MINUTE_RETENTION_MILLIS} and hours for {@link #DEFAULT_HOUR_RETENTION_MILLIS}, days for ever.
+ * Older parts of a window are answered by the enclosing coarser bucket, which makes the answer cover a little
+ * more than was asked. Transactions without a time are not rolled up. Rows are added by one writer at a time;
+ * reads and writes are serialized on the instance.
+ */
+public final class TimeRollups {
+
+    public static final long DEFAULT_MINUTE_RETENTION_MILLIS = 2L * 24 * 60 * 60 * 1000;
+    public static final long DEFAULT_HOUR_RETENTION_MILLIS = 90L * 24 * 60 * 60 * 1000;
+    /**
+     * Window ends are clamped to this distance from the epoch, about 146 million years, so that aligning them to a
+     * bucket never overflows
+     */
+    public static final long TIME_LIMIT_MILLIS = Long.MAX_VALUE / 2;
+
+    public enum Granularity {
+        MINUTE(60_000L, 8), HOUR(3_600_000L, 11), DAY(86_400_000L, 14);
+
+        private final long millis;
+        /**
+         * Sketch precision of the buckets; minute buckets are the most numerous and hold the fewest clients
+         */
+        private final int sketchPrecision;
+
+        Granularity(long millis, int sketchPrecision) {
+            this.millis = millis;
+            this.sketchPrecision = sketchPrecision;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Start of the bucket containing the time
+         */
+        public long floor(long timeMillis) {
+            return Math.floorDiv(timeMillis, millis) * millis;
+        }
+    }
+
+    private static final Granularity[] GRANULARITIES = Granularity.values();
+
+    private static final class Bucket {
+        long count;
+        double sum;
+        double max = Double.NEGATIVE_INFINITY;
+        final HyperLogLog clients;
+        final IntDoubleHashMap senderTotals = new IntDoubleHashMap(4);
+
+        Bucket(Granularity granularity) {
+            clients = new HyperLogLog(granularity.sketchPrecision);
+        }
+    }
+
+    private final Map<Granularity, TreeMap<Long, Bucket>> buckets = new EnumMap<>(Granularity.class);
+    private final long[] retentionMillis;
+    /**
+     * Per granularity, buckets starting before this time have been dropped
+     */
+    private final long[] horizon = new long[GRANULARITIES.length];
+    private long newest = Long.MIN_VALUE;
+    private long timedRows;
+    private long untimedRows;
+    /**
+     * Latest dictionary seen; codes never change meaning, so it decodes the senders of every bucket
+     */
+    private StringDictionary clients = new StringDictionary();
+    private long[] clientHashes = new long[0];
+    private int hashedClients;
+
+    public TimeRollups() {
+        this(DEFAULT_MINUTE_RETENTION_MILLIS, DEFAULT_HOUR_RETENTION_MILLIS);
+    }
+
+    public TimeRollups(long minuteRetentionMillis, long hourRetentionMillis) {
+        retentionMillis = new long[]{minuteRetentionMillis, hourRetentionMillis, Long.MAX_VALUE};
+        for (Granularity granularity : GRANULARITIES) {
+            buckets.put(granularity, new TreeMap<>());
+            horizon[granularity.ordinal()] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Rolls up every row of the store
+     */
+    public static TimeRollups of(ColumnarTransactionStore store) {
+        TimeRollups rollups = new TimeRollups();
+        rollups.addRows(store, 0, store.size());
+        return rollups;
+    }
+
+    /**
+     * Folds the rows {@code [from, to)} of the view in
+     */
+    public synchronized void addRows(ColumnarTransactionStore store, int from, int to) {
+        clients = store.getClients();
+        for (int row = from; row < to; row++) {
+            long time = store.transactionTime(row);
+            if (time == ColumnarTransactionStore.NO_TIME) {
+                untimedRows++;
+                continue;
+            }
+            timedRows++;
+            newest = Math.max(newest, time);
+            double amount = store.amount(row);
+            int sender = store.senderCode(row);
+            int beneficiary = store.beneficiaryCode(row);
+            for (Granularity granularity : GRANULARITIES) {
+                long start = granularity.floor(time);
+                if (start < horizon[granularity.ordinal()]) {
+                    continue;
+                }
+                Bucket bucket = buckets.get(granularity).computeIfAbsent(start, key -> new Bucket(granularity));
+                bucket.count++;
+                bucket.sum += amount;
+                bucket.max = Math.max(bucket.max, amount);
+                if (sender != StringDictionary.NULL_CODE) {
+                    bucket.clients.offerHash(clientHash(sender));
+                    bucket.senderTotals.add(sender, amount);
+                }
+                if (beneficiary != StringDictionary.NULL_CODE) {
+                    bucket.clients.offerHash(clientHash(beneficiary));
+                }
+            }
+        }
+        prune();
+    }
+
+    /**
+     * Hash of the client's name rather than of its code, so sketches stay comparable across snapshots
+     */
+    private long clientHash(int code) {
+        if (code >= hashedClients) {
+            if (code >= clientHashes.length) {
+                clientHashes = Arrays.copyOf(clientHashes, Math.max(code + 1, clientHashes.length * 2));
+            }
+            for (; hashedClients <= code; hashedClients++) {
+                clientHashes[hashedClients] = HyperLogLog.hash(clients.decode(hashedClients));
+            }
+        }
+        return clientHashes[code];
+    }
+
+    private void prune() {
+        if (newest == Long.MIN_VALUE) {
+            return;
+        }
+        for (Granularity granularity : GRANULARITIES) {
+            long retention = retentionMillis[granularity.ordinal()];
+            if (retention == Long.MAX_VALUE) {
+                continue;
+            }
+            long cutoff = granularity.floor(newest - retention);
+            if (cutoff > horizon[granularity.ordinal()]) {
+                buckets.get(granularity).headMap(cutoff).clear();
+                horizon[granularity.ordinal()] = cutoff;
+            }
+        }
+    }
+
+    /**
+     * Aggregates the transactions with {@code fromMillis <= time < toMillis}. Both ends are rounded down to the
+     * minute, and times beyond {@link #TIME_LIMIT_MILLIS} from the epoch are clamped to it. Only buckets that exist
+     * are visited, so the cost follows the data in the window rather than its length
+     */
+    public synchronized WindowAggregate window(long fromMillis, long toMillis) {
+        if (toMillis < fromMillis) {
+            throw new IllegalArgumentException("window ends before it starts: " + fromMillis + " > " + toMillis);
+        }
+        long from = Granularity.MINUTE.floor(clamp(fromMillis));
+        long to = Granularity.MINUTE.floor(clamp(toMillis));
+        Cover cover = new Cover(from, to);
+        // the coarsest aligned buckets tile the window: minutes up to the first hour, hours up to the first day,
+        // whole days, then hours and minutes again up to the end
+        long hourFrom = ceil(Granularity.HOUR, from);
+        long hourTo = Granularity.HOUR.floor(to);
+        long dayFrom = ceil(Granularity.DAY, from);
+        long dayTo = Granularity.DAY.floor(to);
+        if (dayFrom <= dayTo) {
+            cover(Granularity.MINUTE, from, hourFrom, cover);
+            cover(Granularity.HOUR, hourFrom, dayFrom, cover);
+            cover(Granularity.DAY, dayFrom, dayTo, cover);
+            cover(Granularity.HOUR, dayTo, hourTo, cover);
+            cover(Granularity.MINUTE, hourTo, to, cover);
+        } else if (hourFrom <= hourTo) {
+            cover(Granularity.MINUTE, from, hourFrom, cover);
+            cover(Granularity.HOUR, hourFrom, hourTo, cover);
+            cover(Granularity.MINUTE, hourTo, to, cover);
+        } else {
+            cover(Granularity.MINUTE, from, to, cover);
+        }
+        List<Bucket> buckets = cover.buckets;
+        int precision = cover.precision;
+        boolean exact = cover.exact;
+        long coveredFrom = cover.from;
+        long coveredTo = cover.to;
+
+        long count = 0;
+        double sum = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        HyperLogLog distinct = new HyperLogLog(buckets.isEmpty() ? Granularity.DAY.sketchPrecision : precision);
+        IntDoubleHashMap senderTotals = new IntDoubleHashMap(16);
+        for (Bucket bucket : buckets) {
+            count += bucket.count;
+            sum += bucket.sum;
+            max = Math.max(max, bucket.max);
+            distinct.merge(bucket.clients);
+            senderTotals.addAll(bucket.senderTotals);
+        }
+        TopSender top = new TopSender();
+        senderTotals.forEach(top);
+        return new WindowAggregate(coveredFrom, coveredTo, count, sum, count == 0 ? 0 : max,
+                distinct.estimate(), distinct.getRelativeStandardError(),
+                top.code == StringDictionary.NULL_CODE ? null : clients.decode(top.code), top.total, exact);
+    }
+
+    /**
+     * Adds the buckets of the granularity starting in {@code [from, to)}, which are aligned to it. The part before
+     * the granularity's horizon has been pruned and is answered by the enclosing coarser buckets instead, which
+     * take precedence up to their end and may widen the window. Whatever such a bucket already covered is skipped
+     */
+    private void cover(Granularity granularity, long from, long to, Cover cover) {
+        from = Math.max(from, cover.reached);
+        if (from >= to) {
+            return;
+        }
+        long horizon = this.horizon[granularity.ordinal()];
+        if (from < horizon) {
+            Granularity coarser = GRANULARITIES[granularity.ordinal() + 1];
+            long coarseFrom = coarser.floor(from);
+            long coarseTo = ceil(coarser, Math.min(to, horizon));
+            cover.exact = false;
+            cover.from = Math.min(cover.from, coarseFrom);
+            cover.to = Math.max(cover.to, coarseTo);
+            cover(coarser, coarseFrom, coarseTo, cover);
+            from = coarseTo;
+            if (from >= to) {
+                return;
+            }
+        }
+        for (Bucket bucket : buckets.get(granularity).subMap(from, to).values()) {
+            cover.buckets.add(bucket);
+            cover.precision = Math.min(cover.precision, granularity.sketchPrecision);
+        }
+        cover.reached = to;
+    }
+
+    /**
+     * Start of the first bucket of the granularity at or after the time; saturates instead of overflowing
+     */
+    private static long ceil(Granularity granularity, long timeMillis) {
+        long floor = granularity.floor(timeMillis);
+        if (floor == timeMillis) {
+            return floor;
+        }
+        return floor > Long.MAX_VALUE - granularity.millis ? Long.MAX_VALUE : floor + granularity.millis;
+    }
+
+    private static long clamp(long timeMillis) {
+        return Math.max(-TIME_LIMIT_MILLIS, Math.min(TIME_LIMIT_MILLIS, timeMillis));
+    }
+
+    /**
+     * Buckets picked for one window, and the span they actually cover
+     */
+    private static final class Cover {
+        final List<Bucket> buckets = new ArrayList<>();
+        int precision = HyperLogLog.MAX_PRECISION;
+        boolean exact = true;
+        long from;
+        long to;
+        /** End of the buckets added so far */
+        long reached = Long.MIN_VALUE;
+
+        Cover(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Highest total, the lower client code (the sender seen first) winning ties
+     */
+    private static final class TopSender implements IntDoubleHashMap.EntryConsumer {
+        int code = StringDictionary.NULL_CODE;
+        double total;
+
+        @Override
+        public void accept(int sender, double senderTotal) {
+            if (code == StringDictionary.NULL_CODE || senderTotal > total || (senderTotal == total && sender < code)) {
+                code = sender;
+                total = senderTotal;
+            }
+        }
+    }
+
+    /**
+     * Start of the oldest bucket still kept at the granularity, or null if it has none
+     */
+    public synchronized Long getOldestBucket(Granularity granularity) {
+        TreeMap<Long, Bucket> kept = buckets.get(granularity);
+        return kept.isEmpty() ? null : kept.firstKey();
+    }
+
+    public synchronized int bucketCount(Granularity granularity) {
+        return buckets.get(granularity).size();
+    }
+
+    public synchronized long getTimedRows() {
+        return timedRows;
+    }
+
+    /**
+     * Rows that carry no time and are therefore in no bucket
+     */
+    public synchronized long getUntimedRows() {
+        return untimedRows;
+    }
+
+    public synchronized long estimatedBytes() {
+        long bytes = 8L * clientHashes.length;
+        for (TreeMap<Long, Bucket> kept : buckets.values()) {
+            for (Bucket bucket : kept.values()) {
+                bytes += 96 + bucket.clients.estimatedBytes() + bucket.senderTotals.estimatedBytes();
+            }
+        }
+        return bytes;
+    }
+}
@@ -1,8 +1,11 @@
 package com.smallworld.data;
 
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Data
@@ -20,6 +23,33 @@ public class Transaction {
     private int issueId;
     private boolean issueSolved;
     private String issueMessage;
-}
+    /**
+     * When the transfer happened, in epoch milliseconds (UTC); null when the source does not say. Read from JSON as
+     * a number or as an ISO-8601 string
+     */
+    @JsonDeserialize(using = TransactionTime.Deserializer.class)
+    private Long transactionTime;
+
+    public Transaction(long mtn, double amount, String senderFullName, int senderAge, String beneficiaryFullName,
+                       int beneficiaryAge, int issueId, boolean issueSolved, String issueMessage) {
+        this(mtn, amount, senderFullName, senderAge, beneficiaryFullName, beneficiaryAge, issueId, issueSolved,
+                issueMessage, null);
+    }
 
+    public Transaction(Transaction other) {
+        this(other.mtn, other.amount, other.senderFullName, other.senderAge, other.beneficiaryFullName,
+                other.beneficiaryAge, other.issueId, other.issueSolved, other.issueMessage, other.transactionTime);
+    }
 
+    /**
+     * Read-only list of copies of the transactions, for handing out ones a cache keeps: transactions are mutable,
+     * and a caller changing its own must not change what the next caller is given
+     */
+    public static List<Transaction> copiesOf(List<Transaction> transactions) {
+        List<Transaction> copies = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            copies.add(new Transaction(transaction));
+        }
+        return Collections.unmodifiableList(copies);
+    }
+}
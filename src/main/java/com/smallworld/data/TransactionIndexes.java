@@ -0,0 +1,123 @@
+package com.smallworld.data;
+
+import com.smallworld.util.IntIntHashMap;
+
+/**
+ * Secondary indexes over a {@link ColumnarTransactionStore}, built once when a snapshot is created so that they are
+ * always consistent with the data they describe. They cover the first {@link #getIndexedRows()} rows; rows appended
+ * later have to be looked at separately. Postings are stored CSR-style: the rows of client {@code c} are
+ * {@code rows[offsets[c]] .. rows[offsets[c + 1] - 1]}, in row order.
+ */
+public final class TransactionIndexes {
+
+    private final int[] senderOffsets;
+    private final int[] senderRows;
+    private final int[] beneficiaryOffsets;
+    private final int[] beneficiaryRows;
+    private final IntIntHashMap issueRows;
+    private final int indexedRows;
+
+    private TransactionIndexes(ColumnarTransactionStore store) {
+        int clients = store.getClients().size();
+        int size = store.size();
+        indexedRows = size;
+
+        senderOffsets = new int[clients + 1];
+        beneficiaryOffsets = new int[clients + 1];
+        issueRows = new IntIntHashMap(16);
+
+        for (int row = 0; row < size; row++) {
+            int sender = store.senderCode(row);
+            int beneficiary = store.beneficiaryCode(row);
+            if (sender != StringDictionary.NULL_CODE) {
+                senderOffsets[sender + 1]++;
+            }
+            if (beneficiary != StringDictionary.NULL_CODE) {
+                beneficiaryOffsets[beneficiary + 1]++;
+            }
+            int issueId = store.issueId(row);
+            if (issueId != 0) {
+                issueRows.putIfAbsent(issueId, row);
+            }
+        }
+        for (int client = 0; client < clients; client++) {
+            senderOffsets[client + 1] += senderOffsets[client];
+            beneficiaryOffsets[client + 1] += beneficiaryOffsets[client];
+        }
+
+        senderRows = new int[senderOffsets[clients]];
+        beneficiaryRows = new int[beneficiaryOffsets[clients]];
+        int[] senderFill = new int[clients];
+        int[] beneficiaryFill = new int[clients];
+        for (int row = 0; row < size; row++) {
+            int sender = store.senderCode(row);
+            if (sender != StringDictionary.NULL_CODE) {
+                senderRows[senderOffsets[sender] + senderFill[sender]++] = row;
+            }
+            int beneficiary = store.beneficiaryCode(row);
+            if (beneficiary != StringDictionary.NULL_CODE) {
+                beneficiaryRows[beneficiaryOffsets[beneficiary] + beneficiaryFill[beneficiary]++] = row;
+            }
+        }
+    }
+
+    public static TransactionIndexes build(ColumnarTransactionStore store) {
+        return new TransactionIndexes(store);
+    }
+
+    public int senderPostingsStart(int client) {
+        return senderOffsets[client];
+    }
+
+    public int senderPostingsEnd(int client) {
+        return senderOffsets[client + 1];
+    }
+
+    /**
+     * Row at position {@code i} of the concatenated sender postings
+     */
+    public int senderRow(int i) {
+        return senderRows[i];
+    }
+
+    public int beneficiaryPostingsStart(int client) {
+        return beneficiaryOffsets[client];
+    }
+
+    public int beneficiaryPostingsEnd(int client) {
+        return beneficiaryOffsets[client + 1];
+    }
+
+    public int beneficiaryRow(int i) {
+        return beneficiaryRows[i];
+    }
+
+    /**
+     * Row of the first transaction carrying the issue, or -1
+     */
+    public int issueRow(int issueId) {
+        return issueRows.get(issueId, -1);
+    }
+
+    /**
+     * Number of rows covered; rows appended to the store after the indexes were built are not in them
+     */
+    public int getIndexedRows() {
+        return indexedRows;
+    }
+
+    /**
+     * Number of client codes covered; clients first seen in appended rows have higher codes
+     */
+    public int getIndexedClients() {
+        return senderOffsets.length - 1;
+    }
+
+    /**
+     * Approximate heap used by all indexes
+     */
+    public long estimatedBytes() {
+        return 4L * (senderOffsets.length + senderRows.length + beneficiaryOffsets.length + beneficiaryRows.length)
+                + issueRows.estimatedBytes();
+    }
+}
@@ -0,0 +1,319 @@
+package com.smallworld.data;
+
+import com.smallworld.sketch.ErrorBounds;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * One generation of the transaction data, from a load until the next reload. Queries grab the current snapshot
+ * once and read a {@link ColumnarTransactionStore} view of it, so neither a concurrent reload nor concurrent appends
+ * change the rows under a running query. Appended rows are kept in memory only and are dropped by the next reload.
+ */
+public final class TransactionSnapshot {
+
+    @Getter
+    private final long version;
+    @Getter
+    private final long loadedAtMillis;
+    /**
+     * Data as loaded; may be memory-mapped and therefore read-only
+     */
+    private final ColumnarTransactionStore loaded;
+    /**
+     * Created on the first append, by copying the loaded data onto the heap if it is not there already
+     */
+    private volatile AppendableTransactionStore appendable;
+    private final Object lazyLock = new Object();
+    private volatile TransactionIndexes indexes;
+    private volatile LiveAggregates liveAggregates;
+    private volatile TimeRollups rollups;
+    private volatile NormalizedTransactions normalized;
+    private volatile ClientGraph graph;
+    private final Object approximateLock = new Object();
+    /**
+     * Orders append batches, which are published and folded into the normalized tables one at a time. Readers of
+     * the tables never take it
+     */
+    private final Object appendLock = new Object();
+    /**
+     * Guarded by approximateLock, and folded up to {@code approximateRows} rows of the store
+     */
+    private ApproximateAggregates approximate;
+    private int approximateRows;
+    private final AtomicLong appends = new AtomicLong();
+    private final List<Partition> partitions;
+
+    public TransactionSnapshot(long version, List<Transaction> transactions) {
+        this.version = version;
+        this.loadedAtMillis = System.currentTimeMillis();
+        this.appendable = new AppendableTransactionStore(transactions.size());
+        this.loaded = appendable.appendAll(transactions);
+        this.indexes = TransactionIndexes.build(loaded);
+        this.liveAggregates = LiveAggregates.of(loaded);
+        this.graph = ClientGraph.build(loaded);
+        this.partitions = Collections.emptyList();
+    }
+
+    /**
+     * Takes over a store assembled from partition files, see {@link #getPartitions()}. Indexes, live aggregates and
+     * the client graph are built up front, as for parsed JSON
+     */
+    public TransactionSnapshot(long version, AppendableTransactionStore store, List<Partition> partitions) {
+        this.version = version;
+        this.loadedAtMillis = System.currentTimeMillis();
+        this.appendable = store;
+        this.loaded = store.current();
+        this.indexes = TransactionIndexes.build(loaded);
+        this.liveAggregates = LiveAggregates.of(loaded);
+        this.graph = ClientGraph.build(loaded);
+        this.partitions = Collections.unmodifiableList(new ArrayList<>(partitions));
+    }
+
+    /**
+     * Wraps an already built store, typically one mapped from a {@link BinarySnapshotFile}. Indexes and live
+     * aggregates are built on first use, so creating the snapshot costs nothing beyond the store itself
+     */
+    public TransactionSnapshot(long version, ColumnarTransactionStore store) {
+        this.version = version;
+        this.loadedAtMillis = System.currentTimeMillis();
+        this.loaded = store;
+        this.partitions = Collections.emptyList();
+    }
+
+    /**
+     * Partitions the loaded rows came from, in row order; empty when the data was not read from partition files.
+     * Rows appended later belong to no partition
+     */
+    public List<Partition> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Latest view of the data, including rows appended since the load
+     */
+    public ColumnarTransactionStore getStore() {
+        AppendableTransactionStore store = appendable;
+        return store == null ? loaded : store.current();
+    }
+
+    /**
+     * Built over the rows present at load time, see {@link TransactionIndexes#getIndexedRows()}
+     */
+    public TransactionIndexes getIndexes() {
+        TransactionIndexes built = indexes;
+        if (built == null) {
+            synchronized (lazyLock) {
+                built = indexes;
+                if (built == null) {
+                    built = TransactionIndexes.build(loaded);
+                    indexes = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Whether the indexes have been built yet
+     */
+    public boolean isIndexed() {
+        return indexes != null;
+    }
+
+    public LiveAggregates getLiveAggregates() {
+        LiveAggregates built = liveAggregates;
+        if (built == null) {
+            synchronized (lazyLock) {
+                built = liveAggregates;
+                if (built == null) {
+                    built = LiveAggregates.of(loaded);
+                    liveAggregates = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Time buckets of the data, built on first use and then kept up to date by appends
+     */
+    public TimeRollups getRollups() {
+        TimeRollups built = rollups;
+        if (built == null) {
+            synchronized (lazyLock) {
+                built = rollups;
+                if (built == null) {
+                    built = TimeRollups.of(loaded);
+                    rollups = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Transfer and issue tables of the data, built on first use and then kept up to date by appends
+     */
+    public NormalizedTransactions getNormalized() {
+        NormalizedTransactions built = normalized;
+        if (built == null) {
+            synchronized (lazyLock) {
+                built = normalized;
+                if (built == null) {
+                    built = NormalizedTransactions.of(loaded);
+                    normalized = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Client graph covering every row of the store. It is immutable; after appends the next call extends it with the
+     * appended rows as a delta, and rebuilds it only once the delta has grown large
+     */
+    public ClientGraph getGraph() {
+        ColumnarTransactionStore store = getStore();
+        ClientGraph built = graph;
+        if (built == null || built.getRows() < store.size()) {
+            synchronized (lazyLock) {
+                built = graph;
+                if (built == null) {
+                    built = ClientGraph.build(store);
+                    graph = built;
+                } else if (built.getRows() < store.size()) {
+                    built = built.update(store);
+                    graph = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Runs a read against the sketch-based aggregates, built on first use with the given bounds (and rebuilt if the
+     * bounds change). Rows appended since the previous read are folded in first, so appends themselves never pay
+     * for the sketches. Reads are serialized, the sketches are not thread-safe
+     */
+    public <T> T readApproximateAggregates(ErrorBounds bounds, Function<ApproximateAggregates, T> read) {
+        synchronized (approximateLock) {
+            return read.apply(approximateAggregates(bounds));
+        }
+    }
+
+    /**
+     * {@link #readApproximateAggregates} for a double, without boxing it
+     */
+    public double readApproximateDouble(ErrorBounds bounds, ToDoubleFunction<ApproximateAggregates> read) {
+        synchronized (approximateLock) {
+            return read.applyAsDouble(approximateAggregates(bounds));
+        }
+    }
+
+    /**
+     * {@link #readApproximateAggregates} for a long, without boxing it
+     */
+    public long readApproximateLong(ErrorBounds bounds, ToLongFunction<ApproximateAggregates> read) {
+        synchronized (approximateLock) {
+            return read.applyAsLong(approximateAggregates(bounds));
+        }
+    }
+
+    /**
+     * Brings the sketches up to date with the store; callers hold approximateLock
+     */
+    private ApproximateAggregates approximateAggregates(ErrorBounds bounds) {
+        if (approximate == null || !approximate.getBounds().equals(bounds)) {
+            approximate = new ApproximateAggregates(bounds);
+            approximateRows = 0;
+        }
+        ColumnarTransactionStore store = getStore();
+        if (approximateRows < store.size()) {
+            approximate.addRows(store, approximateRows, store.size());
+            approximateRows = store.size();
+        }
+        return approximate;
+    }
+
+    private AppendableTransactionStore appendable() {
+        AppendableTransactionStore store = appendable;
+        if (store == null) {
+            synchronized (lazyLock) {
+                store = appendable;
+                if (store == null) {
+                    store = AppendableTransactionStore.copyOf(loaded);
+                    appendable = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Row view over the columnar store; rows are materialized on access
+     */
+    public List<Transaction> getTransactions() {
+        return getStore().asList();
+    }
+
+    public int size() {
+        return getStore().size();
+    }
+
+    public void append(Transaction transaction) {
+        appendAll(Collections.singletonList(transaction));
+    }
+
+    /**
+     * Adds transactions to the live data. The rows are published atomically as one batch, then folded into the
+     * live aggregates, time rollups and normalized tables outside the writer lock
+     */
+    public void appendAll(Collection<? extends Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        // built before the rows go in, so the new rows are folded in exactly once
+        LiveAggregates aggregates = getLiveAggregates();
+        TimeRollups timeRollups = getRollups();
+        NormalizedTransactions tables = getNormalized();
+        ColumnarTransactionStore view;
+        synchronized (appendLock) {
+            // the tables need the rows in order, so batches are published and folded into them one at a time
+            view = appendable().appendAll(transactions);
+            tables.addRows(view, view.size() - transactions.size(), view.size());
+        }
+        int to = view.size();
+        aggregates.addRows(view, to - transactions.size(), to);
+        timeRollups.addRows(view, to - transactions.size(), to);
+        appends.incrementAndGet();
+    }
+
+    /**
+     * Changes whenever the data changes, through a reload or an append
+     */
+    public String getDataVersion() {
+        return version + "." + getAppendCount();
+    }
+
+    /**
+     * Number of append batches applied since the load; together with the version it identifies the data
+     */
+    public long getAppendCount() {
+        return appends.get();
+    }
+
+    /**
+     * Approximate heap used by the data and its indexes
+     */
+    public long estimatedBytes() {
+        return getStore().estimatedBytes() + getIndexes().estimatedBytes();
+    }
+}
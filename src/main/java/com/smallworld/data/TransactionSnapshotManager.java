@@ -0,0 +1,260 @@
+package com.smallworld.data;
+
+import com.smallworld.metrics.LatencyHistogram;
+import com.smallworld.metrics.MetricsRegistry;
+import com.smallworld.source.JsonFileTransactionSource;
+import com.smallworld.source.SourceData;
+import com.smallworld.source.TransactionSource;
+import com.smallworld.util.JSONFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Holds the current {@link TransactionSnapshot}. The data is read from a {@link TransactionSource} once, on first
+ * access, and then only again when {@link #reload()} is called or, in watch mode, when the source changes. Readers
+ * never lock: they read the reference and keep using that snapshot, while a reload builds the next one on the side
+ * and swaps it in atomically. A reload that fails keeps the previous snapshot.
+ */
+public class TransactionSnapshotManager implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionSnapshotManager.class);
+
+    private volatile TransactionSource source;
+    private final MetricsRegistry metrics;
+    private final AtomicReference<TransactionSnapshot> current = new AtomicReference<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final Object loadLock = new Object();
+
+    private volatile WatchService watchService;
+    private volatile Thread watchThread;
+
+    private final LatencyHistogram binaryLoadLatency;
+    private final LongAdder rowsLoaded;
+    private final LongAdder bytesLoaded;
+    private final LongAdder partitionsSkipped;
+
+    public TransactionSnapshotManager(JSONFileReader jsonFileReader) {
+        this(jsonFileReader, new MetricsRegistry());
+    }
+
+    public TransactionSnapshotManager(JSONFileReader jsonFileReader, MetricsRegistry metrics) {
+        this(new JsonFileTransactionSource(jsonFileReader), metrics);
+    }
+
+    public TransactionSnapshotManager(TransactionSource source, MetricsRegistry metrics) {
+        this.source = source;
+        this.metrics = metrics;
+        this.binaryLoadLatency = loadLatency(SourceData.BINARY);
+        this.rowsLoaded = metrics.counter("smallworld_ingest_rows_total", "Rows loaded into snapshots");
+        this.bytesLoaded = metrics.counter("smallworld_ingest_bytes_total",
+                "Bytes parsed from JSON sources or mapped from binary snapshots");
+        this.partitionsSkipped = metrics.counter("smallworld_ingest_partitions_skipped_total",
+                "Partition files not loaded because their metadata ruled them out");
+        metrics.gauge("smallworld_snapshot_version", "Version of the snapshot being served",
+                () -> loadedOr(TransactionSnapshot::getVersion));
+        metrics.gauge("smallworld_snapshot_rows", "Rows in the snapshot being served, appends included",
+                () -> loadedOr(TransactionSnapshot::size));
+        metrics.gauge("smallworld_snapshot_heap_bytes", "Approximate heap used by the snapshot columns",
+                () -> loadedOr(snapshot -> snapshot.getStore().estimatedBytes()));
+        metrics.gauge("smallworld_snapshot_mapped_bytes", "Bytes of the snapshot mapped from a binary file",
+                () -> loadedOr(snapshot -> snapshot.getStore().mappedBytes()));
+        metrics.gauge("smallworld_snapshot_clients", "Distinct client names in the snapshot dictionary",
+                () -> loadedOr(snapshot -> snapshot.getStore().getClients().size()));
+        metrics.gauge("smallworld_index_bytes", "Approximate heap used by the snapshot indexes, 0 until built",
+                () -> loadedOr(snapshot -> snapshot.isIndexed() ? snapshot.getIndexes().estimatedBytes() : 0));
+    }
+
+    private LatencyHistogram loadLatency(String format) {
+        return metrics.latency("smallworld_snapshot_load_seconds",
+                "Time to produce a snapshot, from reading the source to having it queryable", "format", format);
+    }
+
+    /**
+     * Reads a figure of the current snapshot for a gauge, without triggering a load
+     */
+    private double loadedOr(ToDoubleFunction<TransactionSnapshot> figure) {
+        TransactionSnapshot snapshot = current.get();
+        return snapshot == null ? 0 : figure.applyAsDouble(snapshot);
+    }
+
+    /**
+     * Returns the current snapshot, loading it first if nothing has been loaded yet
+     */
+    public TransactionSnapshot current() {
+        TransactionSnapshot snapshot = current.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (loadLock) {
+            snapshot = current.get();
+            if (snapshot == null) {
+                snapshot = load();
+                current.set(snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Re-reads the source and atomically replaces the current snapshot. Queries already running keep the old one
+     */
+    public TransactionSnapshot reload() {
+        synchronized (loadLock) {
+            TransactionSnapshot snapshot = load();
+            current.set(snapshot);
+            logger.info("Loaded transaction snapshot v" + snapshot.getVersion() + " with " + snapshot.size() + " rows, "
+                    + snapshot.getStore().estimatedBytes() + " bytes of data on heap and "
+                    + snapshot.getStore().mappedBytes() + " bytes mapped");
+            return snapshot;
+        }
+    }
+
+    /**
+     * Replaces the current snapshot with one memory-mapped from a {@link BinarySnapshotFile}. The columns stay off
+     * heap and nothing is parsed, so this takes milliseconds regardless of the number of rows
+     */
+    public TransactionSnapshot loadBinarySnapshot(Path file) throws IOException {
+        long start = System.nanoTime();
+        ColumnarTransactionStore store = mapBinary(file);
+        binaryLoadLatency.recordSince(start);
+        synchronized (loadLock) {
+            TransactionSnapshot snapshot = new TransactionSnapshot(versions.incrementAndGet(), store);
+            current.set(snapshot);
+            logger.info("Loaded transaction snapshot v" + snapshot.getVersion() + " with " + snapshot.size()
+                    + " rows from " + file + ", " + store.mappedBytes() + " bytes mapped");
+            return snapshot;
+        }
+    }
+
+    private TransactionSnapshot load() {
+        long start = System.nanoTime();
+        SourceData data;
+        try {
+            data = source.read();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error: " + e.getMessage());
+            TransactionSnapshot previous = current.get();
+            return previous != null ? previous
+                    : new TransactionSnapshot(versions.incrementAndGet(), Collections.<Transaction>emptyList());
+        }
+        metrics.latency("smallworld_ingest_parse_seconds", "Time to read and parse the source", "format",
+                data.getFormat()).recordSince(start);
+        rowsLoaded.add(data.getRows());
+        bytesLoaded.add(data.getBytesRead());
+        partitionsSkipped.add(data.getSkippedPartitions());
+        TransactionSnapshot snapshot = data.toSnapshot(versions.incrementAndGet());
+        loadLatency(data.getFormat()).recordSince(start);
+        return snapshot;
+    }
+
+    private ColumnarTransactionStore mapBinary(Path file) throws IOException {
+        ColumnarTransactionStore store = BinarySnapshotFile.map(file, false);
+        rowsLoaded.add(store.size());
+        bytesLoaded.add(store.mappedBytes());
+        return store;
+    }
+
+    /**
+     * Starts a background thread that reloads the snapshot whenever the source changes.
+     * Has no effect if the data does not come from the local filesystem or if already watching
+     */
+    public synchronized boolean startWatching() throws IOException {
+        if (watchThread != null) {
+            return true;
+        }
+        TransactionSource watched = source;
+        Path directory = watched.watchDirectory();
+        if (directory == null) {
+            logger.info("Transaction data is not a local file, file watch disabled");
+            return false;
+        }
+
+        WatchService service = FileSystems.getDefault().newWatchService();
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+        Thread thread = new Thread(() -> watch(service, watched), "transaction-snapshot-watcher");
+        thread.setDaemon(true);
+        watchService = service;
+        watchThread = thread;
+        thread.start();
+        logger.info("Watching " + directory + " for changes");
+        return true;
+    }
+
+    private void watch(WatchService service, TransactionSource watched) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path && watched.affectedBy((Path) event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (RuntimeException e) {
+                        logger.error("Error: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized void stopWatching() {
+        Thread thread = watchThread;
+        WatchService service = watchService;
+        watchThread = null;
+        watchService = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                logger.error("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    public TransactionSource getSource() {
+        return source;
+    }
+
+    /**
+     * Switches to another source; takes effect with the next {@link #reload()}. A running watch keeps watching the
+     * previous source until it is restarted
+     */
+    public void setSource(TransactionSource source) {
+        this.source = source;
+    }
+
+    public boolean isWatching() {
+        return watchThread != null;
+    }
+
+    @Override
+    public void close() {
+        stopWatching();
+    }
+}
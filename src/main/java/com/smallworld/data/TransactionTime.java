@@ -0,0 +1,76 @@
+package com.smallworld.data;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parsing of the optional transaction time. Times are kept as epoch milliseconds in UTC; the JSON may carry them as
+ * a number of milliseconds or as an ISO-8601 string, with or without an offset (UTC is assumed when there is none),
+ * or as a plain date, meaning midnight UTC.
+ */
+public final class TransactionTime {
+
+    private TransactionTime() {
+    }
+
+    /**
+     * Parses epoch milliseconds or an ISO-8601 date-time or date
+     *
+     * @throws IllegalArgumentException if the text is neither
+     */
+    public static long parse(String text) {
+        String value = text.trim();
+        try {
+            if (!value.isEmpty() && (Character.isDigit(value.charAt(0)) || value.charAt(0) == '-')
+                    && value.chars().skip(1).allMatch(Character::isDigit)) {
+                return Long.parseLong(value);
+            }
+            if (value.length() == 10) {
+                return LocalDate.parse(value).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+            }
+            if (value.endsWith("Z") || value.lastIndexOf('+') > 0 || value.lastIndexOf('-') > 9) {
+                return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(value).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("invalid transaction time '" + text + "'", e);
+        }
+    }
+
+    /**
+     * Jackson binding of {@link Transaction#getTransactionTime()}
+     */
+    public static final class Deserializer extends JsonDeserializer<Long> {
+        @Override
+        public Long deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return read(parser);
+        }
+    }
+
+    /**
+     * Reads the time at the parser's current token, which must not be null
+     */
+    public static long read(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return parse(parser.getText());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        throw new IOException("Expected a transaction time but found " + token);
+    }
+}
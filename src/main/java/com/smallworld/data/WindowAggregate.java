@@ -0,0 +1,91 @@
+package com.smallworld.data;
+
+/**
+ * Figures of the transactions whose time falls into a window, as served by {@link TimeRollups}. The distinct client
+ * count comes from a sketch and is exact only for small counts; {@link #getDistinctClientsRelativeError()} gives its
+ * standard error. When the window reaches back past the retention of the fine-grained buckets it is widened to the
+ * enclosing coarser buckets and {@link #isExact()} is false.
+ */
+public final class WindowAggregate {
+
+    private final long fromMillis;
+    private final long toMillis;
+    private final long count;
+    private final double totalAmount;
+    private final double maxAmount;
+    private final long distinctClients;
+    private final double distinctClientsRelativeError;
+    private final String topSender;
+    private final double topSenderAmount;
+    private final boolean exact;
+
+    WindowAggregate(long fromMillis, long toMillis, long count, double totalAmount, double maxAmount,
+                    long distinctClients, double distinctClientsRelativeError, String topSender,
+                    double topSenderAmount, boolean exact) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.count = count;
+        this.totalAmount = totalAmount;
+        this.maxAmount = maxAmount;
+        this.distinctClients = distinctClients;
+        this.distinctClientsRelativeError = distinctClientsRelativeError;
+        this.topSender = topSender;
+        this.topSenderAmount = topSenderAmount;
+        this.exact = exact;
+    }
+
+    /**
+     * Start of the window, inclusive, aligned to the buckets that answered it
+     */
+    public long getFromMillis() {
+        return fromMillis;
+    }
+
+    /**
+     * End of the window, exclusive, aligned to the buckets that answered it
+     */
+    public long getToMillis() {
+        return toMillis;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotalAmount() {
+        return totalAmount;
+    }
+
+    /**
+     * Highest amount in the window, or 0 if it holds no transaction
+     */
+    public double getMaxAmount() {
+        return maxAmount;
+    }
+
+    /**
+     * Estimated number of distinct senders and beneficiaries
+     */
+    public long getDistinctClients() {
+        return distinctClients;
+    }
+
+    public double getDistinctClientsRelativeError() {
+        return distinctClientsRelativeError;
+    }
+
+    /**
+     * Sender with the highest total in the window, null if it holds no transaction
+     */
+    public String getTopSender() {
+        return topSender;
+    }
+
+    public double getTopSenderAmount() {
+        return topSenderAmount;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+}
@@ -0,0 +1,31 @@
+package com.smallworld.export;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Progress of one part file, kept next to it as JSON after every batch: the rows before {@link #getNextRow()} are
+ * in the first {@link #getBytes()} bytes of the file, which were forced to disk before the checkpoint was written.
+ * Only trusted for an export with the same {@link #getFingerprint() fingerprint}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportCheckpoint {
+
+    /**
+     * The rows, format and filter of the part, so that another export does not resume from this one
+     */
+    private String fingerprint;
+    private int nextRow;
+    /**
+     * Rows written so far, that is the rows before {@link #getNextRow()} the filter matched
+     */
+    private long rows;
+    private long bytes;
+    /**
+     * Set once the part file has its final name
+     */
+    private boolean complete;
+}
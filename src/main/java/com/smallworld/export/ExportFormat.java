@@ -0,0 +1,26 @@
+package com.smallworld.export;
+
+/**
+ * File format of an export
+ */
+public enum ExportFormat {
+    /**
+     * One JSON object per line with the fields of {@link com.smallworld.data.Transaction}; a directory of these files
+     * can be loaded again by {@link com.smallworld.source.DirectoryTransactionSource}
+     */
+    NDJSON("ndjson"),
+    /**
+     * Comma separated values with a header line, quoted as in RFC 4180; missing values are empty
+     */
+    CSV("csv");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
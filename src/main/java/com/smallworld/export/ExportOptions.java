@@ -0,0 +1,171 @@
+package com.smallworld.export;
+
+import com.smallworld.query.TransactionQuery;
+
+/**
+ * How {@link TransactionExporter} writes an export: the format, whether to gzip, the filter, and how the rows are
+ * split into part files and batches.
+ */
+public final class ExportOptions {
+
+    public static final String DEFAULT_PREFIX = "transactions";
+    /**
+     * Rows encoded per write; a batch of them is held in memory per writer, and a checkpoint is written after each
+     */
+    public static final int DEFAULT_BATCH_ROWS = 65_536;
+
+    private final ExportFormat format;
+    private final boolean gzip;
+    private final TransactionQuery filter;
+    private final int writers;
+    private final int parts;
+    private final int batchRows;
+    private final String prefix;
+    private final boolean resume;
+
+    private ExportOptions(Builder builder) {
+        this.format = builder.format;
+        this.gzip = builder.gzip;
+        this.filter = builder.filter;
+        this.writers = builder.writers;
+        this.parts = builder.parts == 0 ? builder.writers : builder.parts;
+        this.batchRows = builder.batchRows;
+        this.prefix = builder.prefix;
+        this.resume = builder.resume;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public ExportFormat getFormat() {
+        return format;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Query whose filters select the rows to export, null for all rows; its grouping and metrics are ignored
+     */
+    public TransactionQuery getFilter() {
+        return filter;
+    }
+
+    public int getWriters() {
+        return writers;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    public int getBatchRows() {
+        return batchRows;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Name of a part file, such as {@code transactions-00003.ndjson.gz}
+     */
+    public String fileName(int part) {
+        return String.format("%s-%05d.%s%s", prefix, part, format.getExtension(), gzip ? ".gz" : "");
+    }
+
+    @Override
+    public String toString() {
+        return "ExportOptions{" + format + (gzip ? ".gz" : "") + ", filter=" + filter + ", writers=" + writers
+                + ", parts=" + parts + ", batchRows=" + batchRows + ", prefix=" + prefix + ", resume=" + resume + "}";
+    }
+
+    public static final class Builder {
+        private ExportFormat format = ExportFormat.NDJSON;
+        private boolean gzip;
+        private TransactionQuery filter;
+        private int writers = Runtime.getRuntime().availableProcessors();
+        private int parts;
+        private int batchRows = DEFAULT_BATCH_ROWS;
+        private String prefix = DEFAULT_PREFIX;
+        private boolean resume = true;
+
+        private Builder() {
+        }
+
+        public Builder format(ExportFormat format) {
+            if (format == null) {
+                throw new IllegalArgumentException("format must not be null");
+            }
+            this.format = format;
+            return this;
+        }
+
+        public Builder gzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+
+        public Builder filter(TransactionQuery filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * Part files written at the same time
+         */
+        public Builder writers(int writers) {
+            if (writers < 1) {
+                throw new IllegalArgumentException("writers must be positive: " + writers);
+            }
+            this.writers = writers;
+            return this;
+        }
+
+        /**
+         * Number of part files, each covering a contiguous range of rows; defaults to the number of writers
+         */
+        public Builder parts(int parts) {
+            if (parts < 1) {
+                throw new IllegalArgumentException("parts must be positive: " + parts);
+            }
+            this.parts = parts;
+            return this;
+        }
+
+        public Builder batchRows(int batchRows) {
+            if (batchRows < 1) {
+                throw new IllegalArgumentException("batchRows must be positive: " + batchRows);
+            }
+            this.batchRows = batchRows;
+            return this;
+        }
+
+        public Builder prefix(String prefix) {
+            if (prefix == null || prefix.isEmpty() || prefix.contains("/") || prefix.contains("\\")) {
+                throw new IllegalArgumentException("prefix must be a non-empty file name: " + prefix);
+            }
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * Whether to continue the parts of an interrupted export from their checkpoints; when off every part is
+         * written from the start
+         */
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public ExportOptions build() {
+            return new ExportOptions(this);
+        }
+    }
+}
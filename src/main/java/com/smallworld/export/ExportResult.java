@@ -0,0 +1,71 @@
+package com.smallworld.export;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What an export wrote; also the content of its manifest file
+ */
+public final class ExportResult {
+
+    private final ExportFormat format;
+    private final boolean gzip;
+    private final List<ExportedPart> parts;
+    private final long rows;
+    private final long bytes;
+    private final long elapsedMillis;
+
+    ExportResult(ExportFormat format, boolean gzip, List<ExportedPart> parts, long elapsedMillis) {
+        this.format = format;
+        this.gzip = gzip;
+        this.parts = Collections.unmodifiableList(parts);
+        long rows = 0;
+        long bytes = 0;
+        for (ExportedPart part : parts) {
+            rows += part.getRows();
+            bytes += part.getBytes();
+        }
+        this.rows = rows;
+        this.bytes = bytes;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public ExportFormat getFormat() {
+        return format;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * The part files in row order
+     */
+    public List<ExportedPart> getParts() {
+        return parts;
+    }
+
+    /**
+     * Transactions written, over all parts
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Size of the written files, compressed if gzipped
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportResult{" + format + (gzip ? ".gz" : "") + ", parts=" + parts.size() + ", rows=" + rows
+                + ", bytes=" + bytes + ", elapsedMillis=" + elapsedMillis + "}";
+    }
+}
@@ -0,0 +1,68 @@
+package com.smallworld.export;
+
+/**
+ * One file written by an export
+ */
+public final class ExportedPart {
+
+    private final String file;
+    private final int fromRow;
+    private final int toRow;
+    private final long rows;
+    private final long bytes;
+    private final boolean resumed;
+
+    ExportedPart(String file, int fromRow, int toRow, long rows, long bytes, boolean resumed) {
+        this.file = file;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+        this.rows = rows;
+        this.bytes = bytes;
+        this.resumed = resumed;
+    }
+
+    /**
+     * Name of the file in the export directory
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * First row of the store the part covers
+     */
+    public int getFromRow() {
+        return fromRow;
+    }
+
+    /**
+     * Row after the last row of the store the part covers
+     */
+    public int getToRow() {
+        return toRow;
+    }
+
+    /**
+     * Transactions written, those of the covered rows the filter matched
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Whether the part was continued from, or completed by, an earlier interrupted export
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportedPart{" + file + ", rows " + fromRow + ".." + toRow + ", written=" + rows + ", bytes=" + bytes
+                + ", resumed=" + resumed + "}";
+    }
+}
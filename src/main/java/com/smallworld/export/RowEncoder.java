@@ -0,0 +1,183 @@
+package com.smallworld.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.StringDictionary;
+import com.smallworld.util.JSONFileReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes rows of a store straight from its columns into a {@link BatchBuffer}, without building a
+ * {@link com.smallworld.data.Transaction} per row. One encoder per part file; not thread-safe.
+ */
+abstract class RowEncoder {
+
+    /**
+     * Field names, in the order of {@link com.smallworld.data.Transaction}
+     */
+    static final String[] FIELDS = {"mtn", "amount", "senderFullName", "senderAge", "beneficiaryFullName",
+            "beneficiaryAge", "issueId", "issueSolved", "issueMessage", "transactionTime"};
+
+    final ColumnarTransactionStore store;
+    final BatchBuffer out;
+
+    RowEncoder(ColumnarTransactionStore store, BatchBuffer out) {
+        this.store = store;
+        this.out = out;
+    }
+
+    static RowEncoder of(ExportFormat format, ColumnarTransactionStore store, BatchBuffer out) throws IOException {
+        return format == ExportFormat.CSV ? new Csv(store, out) : new Ndjson(store, out);
+    }
+
+    /**
+     * Writes what comes before the first row of a file
+     */
+    abstract void header() throws IOException;
+
+    abstract void encode(int row) throws IOException;
+
+    /**
+     * Moves anything the encoder still holds into the buffer; called before the buffer is written out
+     */
+    void flush() throws IOException {
+    }
+
+    private static final class Ndjson extends RowEncoder {
+        private final JsonGenerator generator;
+
+        Ndjson(ColumnarTransactionStore store, BatchBuffer out) throws IOException {
+            super(store, out);
+            this.generator = JSONFileReader.objectMapper().getFactory().createGenerator(out);
+            // lines are ended explicitly, so no separator between the root values
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        void header() {
+        }
+
+        @Override
+        void encode(int row) throws IOException {
+            ColumnarTransactionStore store = this.store;
+            JsonGenerator generator = this.generator;
+            generator.writeStartObject();
+            generator.writeNumberField(FIELDS[0], store.mtn(row));
+            generator.writeNumberField(FIELDS[1], store.amount(row));
+            generator.writeStringField(FIELDS[2], store.getClients().decode(store.senderCode(row)));
+            generator.writeNumberField(FIELDS[3], store.senderAge(row));
+            generator.writeStringField(FIELDS[4], store.getClients().decode(store.beneficiaryCode(row)));
+            generator.writeNumberField(FIELDS[5], store.beneficiaryAge(row));
+            generator.writeNumberField(FIELDS[6], store.issueId(row));
+            generator.writeBooleanField(FIELDS[7], store.issueSolved(row));
+            generator.writeStringField(FIELDS[8], store.getIssueMessages().decode(store.issueMessageCode(row)));
+            long time = store.transactionTime(row);
+            if (time == ColumnarTransactionStore.NO_TIME) {
+                generator.writeNullField(FIELDS[9]);
+            } else {
+                generator.writeNumberField(FIELDS[9], time);
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        void flush() throws IOException {
+            generator.flush();
+        }
+    }
+
+    private static final class Csv extends RowEncoder {
+        private static final byte[] EMPTY = new byte[0];
+
+        /**
+         * Quoted UTF-8 bytes of the names and messages by dictionary code, encoded on first use: a name repeats on
+         * many rows
+         */
+        private byte[][] clients = new byte[0][];
+        private byte[][] messages = new byte[0][];
+
+        Csv(ColumnarTransactionStore store, BatchBuffer out) {
+            super(store, out);
+        }
+
+        @Override
+        void header() {
+            out.writeAscii(String.join(",", FIELDS));
+            out.write('\n');
+        }
+
+        @Override
+        void encode(int row) {
+            ColumnarTransactionStore store = this.store;
+            BatchBuffer out = this.out;
+            out.writeAscii(Long.toString(store.mtn(row)));
+            out.write(',');
+            out.writeAscii(Double.toString(store.amount(row)));
+            out.write(',');
+            out.write(client(store.senderCode(row)));
+            out.write(',');
+            out.writeAscii(Integer.toString(store.senderAge(row)));
+            out.write(',');
+            out.write(client(store.beneficiaryCode(row)));
+            out.write(',');
+            out.writeAscii(Integer.toString(store.beneficiaryAge(row)));
+            out.write(',');
+            out.writeAscii(Integer.toString(store.issueId(row)));
+            out.write(',');
+            out.writeAscii(store.issueSolved(row) ? "true" : "false");
+            out.write(',');
+            out.write(message(store.issueMessageCode(row)));
+            out.write(',');
+            long time = store.transactionTime(row);
+            if (time != ColumnarTransactionStore.NO_TIME) {
+                out.writeAscii(Long.toString(time));
+            }
+            out.write('\n');
+        }
+
+        private byte[] client(int code) {
+            if (code == StringDictionary.NULL_CODE) {
+                return EMPTY;
+            }
+            if (code >= clients.length) {
+                clients = Arrays.copyOf(clients, Math.max(code + 1, store.getClients().size()));
+            }
+            byte[] field = clients[code];
+            if (field == null) {
+                field = clients[code] = quote(store.getClients().decode(code));
+            }
+            return field;
+        }
+
+        private byte[] message(int code) {
+            if (code == StringDictionary.NULL_CODE) {
+                return EMPTY;
+            }
+            if (code >= messages.length) {
+                messages = Arrays.copyOf(messages, Math.max(code + 1, store.getIssueMessages().size()));
+            }
+            byte[] field = messages[code];
+            if (field == null) {
+                field = messages[code] = quote(store.getIssueMessages().decode(code));
+            }
+            return field;
+        }
+
+        /**
+         * The value as a CSV field: quoted, with quotes doubled, when it holds a separator, quote or line break
+         */
+        static byte[] quote(String value) {
+            boolean quoted = value.isEmpty();
+            for (int i = 0; i < value.length() && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            String field = quoted ? '"' + value.replace("\"", "\"\"") + '"' : value;
+            return field.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.smallworld.export;
+
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.query.QueryCompiler;
+import com.smallworld.query.QueryPlan;
+import com.smallworld.util.JSONFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the rows of a store, optionally filtered, into NDJSON or CSV part files. The rows present when the export
+ * starts are split into contiguous ranges, one part file each, and the parts are written in parallel. Every writer
+ * encodes a batch of rows from the columns into a reused buffer and appends it with one channel write, so memory
+ * stays at one batch per writer however many rows are exported.
+ * <p>
+ * A part is written to a {@code .partial} file and renamed when complete. After every batch the file is forced to
+ * disk and a {@code .checkpoint} file records how far it got; an export interrupted by a crash or a failed disk is
+ * continued from there by running it again with the same options over the same data. Gzipped parts are written as
+ * one gzip member per batch, which readers see as one stream, so a part can be cut back to its last checkpoint and
+ * continued. When all parts are done a {@code .manifest} file lists them and the checkpoints are removed.
+ * <p>
+ * The checkpoints only identify the export by the row ranges, format and filter, so the export directory should be
+ * dedicated to one export of one data set.
+ */
+public final class TransactionExporter {
+
+    public static final String PARTIAL_SUFFIX = ".partial";
+    public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    private static final int GZIP_BUFFER_BYTES = 1 << 16;
+    /**
+     * Initial buffer space per row of a batch; the buffer grows when rows are longer
+     */
+    private static final int BYTES_PER_ROW = 128;
+    private static final int MAX_INITIAL_BATCH_BYTES = 1 << 24;
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExporter.class);
+
+    private final QueryCompiler compiler;
+
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public TransactionExporter(QueryCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Exports the rows the store holds now into the directory, creating it if needed
+     */
+    public ExportResult export(ColumnarTransactionStore store, Path directory, ExportOptions options)
+            throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        int size = store.size();
+        int parts = options.getParts();
+        List<PartTask> tasks = new ArrayList<>(parts);
+        for (int part = 0; part < parts; part++) {
+            int from = (int) ((long) size * part / parts);
+            int to = (int) ((long) size * (part + 1) / parts);
+            tasks.add(new PartTask(store, size, directory, options, part, from, to));
+        }
+        List<ExportedPart> written = runAll(tasks, options.getWriters(), directory);
+        ExportResult result = new ExportResult(options.getFormat(), options.isGzip(), written,
+                (System.nanoTime() - start) / 1_000_000);
+        writeManifest(directory.resolve(options.getPrefix() + MANIFEST_SUFFIX), result);
+        for (PartTask task : tasks) {
+            Files.deleteIfExists(task.checkpointFile);
+        }
+        logger.info("Exported " + result.getRows() + " transactions to " + parts + " parts in " + directory + ", "
+                + result.getBytes() + " bytes in " + result.getElapsedMillis() + " ms");
+        return result;
+    }
+
+    private static List<ExportedPart> runAll(List<PartTask> tasks, int writers, Path directory) throws IOException {
+        if (tasks.size() <= 1 || writers == 1) {
+            List<ExportedPart> written = new ArrayList<>(tasks.size());
+            for (PartTask task : tasks) {
+                written.add(task.call());
+            }
+            return written;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(writers, tasks.size()), daemonThreads());
+        try {
+            List<Future<ExportedPart>> futures = new ArrayList<>(tasks.size());
+            for (PartTask task : tasks) {
+                futures.add(executor.submit(task::call));
+            }
+            List<ExportedPart> written = new ArrayList<>(tasks.size());
+            for (Future<ExportedPart> future : futures) {
+                written.add(future.get());
+            }
+            return written;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting to " + directory, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not export to " + directory, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "transaction-export-writer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Transactions written by all exports so far, counted as batches reach the disk
+     */
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Writing one part file
+     */
+    private final class PartTask {
+        private final ColumnarTransactionStore store;
+        private final ExportOptions options;
+        private final int part;
+        private final int from;
+        private final int to;
+        private final String fileName;
+        private final Path file;
+        private final Path partialFile;
+        private final Path checkpointFile;
+        private final String fingerprint;
+
+        PartTask(ColumnarTransactionStore store, int size, Path directory, ExportOptions options, int part, int from,
+                 int to) {
+            this.store = store;
+            this.options = options;
+            this.part = part;
+            this.from = from;
+            this.to = to;
+            this.fileName = options.fileName(part);
+            this.file = directory.resolve(fileName);
+            this.partialFile = directory.resolve(fileName + PARTIAL_SUFFIX);
+            this.checkpointFile = directory.resolve(fileName + CHECKPOINT_SUFFIX);
+            this.fingerprint = "rows " + from + ".." + to + " of " + size + ", " + options.getFormat()
+                    + (options.isGzip() ? ".gz" : "") + ", filter=" + options.getFilter();
+        }
+
+        ExportedPart call() throws IOException {
+            ExportCheckpoint checkpoint = options.isResume() ? readCheckpoint() : null;
+            if (checkpoint != null && checkpoint.isComplete()) {
+                if (Files.isRegularFile(file) && Files.size(file) == checkpoint.getBytes()) {
+                    return new ExportedPart(fileName, from, to, checkpoint.getRows(), checkpoint.getBytes(), true);
+                }
+                checkpoint = null;
+            }
+            if (checkpoint != null && !(Files.isRegularFile(partialFile)
+                    && Files.size(partialFile) >= checkpoint.getBytes())) {
+                logger.warn("Restarting export part " + fileName + ": its partial file is shorter than its checkpoint");
+                checkpoint = null;
+            }
+            boolean resumed = checkpoint != null;
+            int row = resumed ? checkpoint.getNextRow() : from;
+            long rows = resumed ? checkpoint.getRows() : 0;
+            long bytes = resumed ? checkpoint.getBytes() : 0;
+
+            QueryPlan.RowFilter filter = options.getFilter() == null ? null
+                    : compiler.compile(options.getFilter()).bind(store, options.getFilter());
+            if (filter != null && !filter.isSatisfiable()) {
+                row = to;
+            }
+            int batchRows = options.getBatchRows();
+            BatchBuffer batch = new BatchBuffer((int) Math.min(MAX_INITIAL_BATCH_BYTES,
+                    (long) Math.min(batchRows, Math.max(1, to - from)) * BYTES_PER_ROW));
+            BatchBuffer compressed = options.isGzip() ? new BatchBuffer(GZIP_BUFFER_BYTES) : null;
+            RowEncoder encoder = RowEncoder.of(options.getFormat(), store, batch);
+            if (!resumed) {
+                encoder.header();
+            }
+            try (FileChannel channel = FileChannel.open(partialFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                // whatever was written after the checkpoint is written again
+                channel.truncate(bytes);
+                channel.position(bytes);
+                do {
+                    int end = (int) Math.min(to, (long) row + batchRows);
+                    long matched = 0;
+                    for (; row < end; row++) {
+                        if (filter == null || filter.matches(row)) {
+                            encoder.encode(row);
+                            matched++;
+                        }
+                    }
+                    encoder.flush();
+                    long batchBytes = write(channel, batch, compressed);
+                    batch.reset();
+                    channel.force(false);
+                    rows += matched;
+                    bytes += batchBytes;
+                    rowsWritten.add(matched);
+                    bytesWritten.add(batchBytes);
+                    writeCheckpoint(new ExportCheckpoint(fingerprint, row, rows, bytes, false));
+                } while (row < to);
+            }
+            Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeCheckpoint(new ExportCheckpoint(fingerprint, to, rows, bytes, true));
+            return new ExportedPart(fileName, from, to, rows, bytes, resumed);
+        }
+
+        /**
+         * Appends the batch, as its own gzip member when compressing; an empty batch writes nothing
+         */
+        private long write(FileChannel channel, BatchBuffer batch, BatchBuffer compressed) throws IOException {
+            if (batch.size() == 0) {
+                return 0;
+            }
+            if (compressed == null) {
+                return batch.writeTo(channel);
+            }
+            compressed.reset();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, GZIP_BUFFER_BYTES)) {
+                batch.copyTo(gzip);
+            }
+            return compressed.writeTo(channel);
+        }
+
+        /**
+         * The part's checkpoint, or null if there is none for this export
+         */
+        private ExportCheckpoint readCheckpoint() {
+            if (!Files.isRegularFile(checkpointFile)) {
+                return null;
+            }
+            try {
+                ExportCheckpoint checkpoint = JSONFileReader.objectMapper().readValue(checkpointFile.toFile(),
+                        ExportCheckpoint.class);
+                if (!fingerprint.equals(checkpoint.getFingerprint())
+                        || checkpoint.getNextRow() < from || checkpoint.getNextRow() > to) {
+                    logger.info("Ignoring checkpoint " + checkpointFile + " of another export");
+                    return null;
+                }
+                return checkpoint;
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable checkpoint " + checkpointFile + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        private void writeCheckpoint(ExportCheckpoint checkpoint) throws IOException {
+            Path partial = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            JSONFileReader.objectMapper().writeValue(partial.toFile(), checkpoint);
+            Files.move(partial, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public String toString() {
+            return "part " + part + " (" + fileName + ")";
+        }
+    }
+
+    private static void writeManifest(Path manifest, ExportResult result) throws IOException {
+        Path partial = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        JSONFileReader.objectMapper().writerWithDefaultPrettyPrinter().writeValue(partial.toFile(), result);
+        Files.move(partial, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
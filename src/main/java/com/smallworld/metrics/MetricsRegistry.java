@@ -0,0 +1,158 @@
+package com.smallworld.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Named counters, gauges and latency summaries, rendered in the Prometheus text exposition format. Metrics are
+ * registered once, when the component that updates them is set up, and the hot path only touches the returned
+ * {@link LongAdder} or {@link LatencyHistogram}. Registering the same name and label again returns the existing
+ * metric. Every metric family has at most one label.
+ */
+public final class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public LongAdder counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public LongAdder counter(String name, String help, String label, String labelValue) {
+        return (LongAdder) family(name, help, Type.COUNTER, label).child(labelValue, LongAdder::new);
+    }
+
+    /**
+     * Registers a counter whose value is maintained elsewhere, for example by a cache
+     */
+    public void counter(String name, String help, DoubleSupplier value) {
+        family(name, help, Type.COUNTER, null).child(null, () -> value);
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        gauge(name, help, null, null, value);
+    }
+
+    public void gauge(String name, String help, String label, String labelValue, DoubleSupplier value) {
+        family(name, help, Type.GAUGE, label).child(labelValue, () -> value);
+    }
+
+    /**
+     * Registers a latency summary; values are recorded in nanoseconds and exposed in seconds
+     */
+    public LatencyHistogram latency(String name, String help, String label, String labelValue) {
+        return (LatencyHistogram) family(name, help, Type.SUMMARY, label).child(labelValue, LatencyHistogram::new);
+    }
+
+    private Family family(String name, String help, Type type, String label) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type, label));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        try {
+            writePrometheusText(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    public void writePrometheusText(Appendable out) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.prometheusName).append('\n');
+            for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                String labelValue = child.getKey().isEmpty() ? null : child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof LatencyHistogram) {
+                    LatencyHistogram histogram = (LatencyHistogram) metric;
+                    for (double quantile : QUANTILES) {
+                        sample(out, name, family.label, labelValue, "quantile", String.valueOf(quantile),
+                                histogram.getValueAtQuantile(quantile) / NANOS_PER_SECOND);
+                    }
+                    sample(out, name + "_sum", family.label, labelValue, null, null,
+                            histogram.getSumNanos() / NANOS_PER_SECOND);
+                    sample(out, name + "_count", family.label, labelValue, null, null, histogram.getCount());
+                } else if (metric instanceof LongAdder) {
+                    sample(out, name, family.label, labelValue, null, null, ((LongAdder) metric).sum());
+                } else {
+                    sample(out, name, family.label, labelValue, null, null, ((DoubleSupplier) metric).getAsDouble());
+                }
+            }
+        }
+    }
+
+    private static void sample(Appendable out, String name, String label, String labelValue, String extraLabel,
+                               String extraValue, double value) throws IOException {
+        out.append(name);
+        boolean labelled = label != null && labelValue != null;
+        if (labelled || extraLabel != null) {
+            out.append('{');
+            if (labelled) {
+                out.append(label).append("=\"").append(escape(labelValue)).append('"');
+            }
+            if (extraLabel != null) {
+                out.append(labelled ? "," : "").append(extraLabel).append("=\"").append(extraValue).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append(Long.toString((long) value));
+        } else {
+            out.append(Double.toString(value));
+        }
+        out.append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), SUMMARY("summary");
+
+        private final String prometheusName;
+
+        Type(String prometheusName) {
+            this.prometheusName = prometheusName;
+        }
+    }
+
+    private static final class Family {
+        private final String help;
+        private final Type type;
+        private final String label;
+        /**
+         * Keyed by label value, the empty string standing for an unlabelled metric
+         */
+        private final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+        Family(String help, Type type, String label) {
+            this.help = help;
+            this.type = type;
+            this.label = label;
+        }
+
+        Object child(String labelValue, Supplier<Object> factory) {
+            return children.computeIfAbsent(labelValue == null ? "" : labelValue, key -> factory.get());
+        }
+    }
+}
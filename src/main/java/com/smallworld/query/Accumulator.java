@@ -0,0 +1,24 @@
+package com.smallworld.query;
+
+import com.smallworld.data.ColumnarTransactionStore;
+
+/**
+ * Running state of one aggregate. Accumulators read rows straight from the columns of a
+ * {@link ColumnarTransactionStore}, are fed rows in order and can be merged, so a dataset can be split into
+ * consecutive partitions, accumulated separately and combined afterwards.
+ *
+ * @param <R> type of the final result
+ */
+public interface Accumulator<R> {
+
+    void accept(ColumnarTransactionStore store, int row);
+
+    /**
+     * Folds the state of another accumulator of the same aggregate into this one. {@code other} must have been fed
+     * the rows that come after the rows fed to this accumulator, which keeps order dependent results (ties in top-N
+     * and top sender, message order) identical to a single sequential scan.
+     */
+    void merge(Accumulator<R> other);
+
+    R result();
+}
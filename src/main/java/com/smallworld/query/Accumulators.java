@@ -0,0 +1,253 @@
+package com.smallworld.query;
+
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.StringDictionary;
+import com.smallworld.data.Transaction;
+import com.smallworld.util.TopKHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Accumulator implementations backing {@link Aggregate}
+ */
+final class Accumulators {
+
+    private Accumulators() {
+    }
+
+    /**
+     * Compensated (Kahan) sum, the same algorithm {@code DoubleStream.sum()} uses
+     */
+    static final class TotalAmount implements Accumulator<Double> {
+        private double sum;
+        private double compensation;
+        private double simpleSum;
+
+        @Override
+        public void accept(ColumnarTransactionStore store, int row) {
+            double amount = store.amount(row);
+            simpleSum += amount;
+            addCompensated(amount);
+        }
+
+        private void addCompensated(double value) {
+            double y = value - compensation;
+            double t = sum + y;
+            compensation = (t - sum) - y;
+            sum = t;
+        }
+
+        @Override
+        public void merge(Accumulator<Double> other) {
+            TotalAmount that = (TotalAmount) other;
+            addCompensated(that.sum);
+            addCompensated(-that.compensation);
+            simpleSum += that.simpleSum;
+        }
+
+        @Override
+        public Double result() {
+            double total = sum - compensation;
+            if (Double.isNaN(total) && Double.isInfinite(simpleSum)) {
+                return simpleSum;
+            }
+            return total;
+        }
+    }
+
+    static final class MaxAmount implements Accumulator<Double> {
+        private boolean seen;
+        private double max;
+
+        @Override
+        public void accept(ColumnarTransactionStore store, int row) {
+            double amount = store.amount(row);
+            if (!seen || amount > max) {
+                max = amount;
+                seen = true;
+            }
+        }
+
+        @Override
+        public void merge(Accumulator<Double> other) {
+            MaxAmount that = (MaxAmount) other;
+            if (that.seen && (!seen || that.max > max)) {
+                max = that.max;
+                seen = true;
+            }
+        }
+
+        @Override
+        public Double result() {
+            return seen ? max : 0;
+        }
+    }
+
+    /**
+     * Distinct client codes, senders and beneficiaries alike, tracked as bits instead of a set of names
+     */
+    static final class UniqueClients implements Accumulator<Long> {
+        private final BitSet clients = new BitSet();
+        private boolean nullClient;
+
+        @Override
+        public void accept(ColumnarTransactionStore store, int row) {
+            add(store.senderCode(row));
+            add(store.beneficiaryCode(row));
+        }
+
+        private void add(int client) {
+            if (client == StringDictionary.NULL_CODE) {
+                nullClient = true;
+            } else {
+                clients.set(client);
+            }
+        }
+
+        @Override
+        public void merge(Accumulator<Long> other) {
+            UniqueClients that = (UniqueClients) other;
+            clients.or(that.clients);
+            nullClient |= that.nullClient;
+        }
+
+        @Override
+        public Long result() {
+            return (long) clients.cardinality() + (nullClient ? 1 : 0);
+        }
+    }
+
+    static final class UnsolvedIssueIds implements Accumulator<Set<Integer>> {
+        private final Set<Integer> issueIds = new LinkedHashSet<>();
+
+        @Override
+        public void accept(ColumnarTransactionStore store, int row) {
+            int issueId = store.issueId(row);
+            if (issueId != 0 && !store.issueSolved(row)) {
+                issueIds.add(issueId);
+            }
+        }
+
+        @Override
+        public void merge(Accumulator<Set<Integer>> other) {
+            issueIds.addAll(((UnsolvedIssueIds) other).issueIds);
+        }
+
+        @Override
+        public Set<Integer> result() {
+            return issueIds;
+        }
+    }
+
+    static final class SolvedIssueMessages implements Accumulator<List<String>> {
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void accept(ColumnarTransactionStore store, int row) {
+            if (store.issueId(row) != 0 && store.issueSolved(row)) {
+                messages.add(store.getIssueMessages().decode(store.issueMessageCode(row)));
+            }
+        }
+
+        @Override
+        public void merge(Accumulator<List<String>> other) {
+            messages.addAll(((SolvedIssueMessages) other).messages);
+        }
+
+        @Override
+        public List<String> result() {
+            return messages;
+        }
+    }
+
+    /**
+     * Keeps the rows of the {@code limit} highest amounts in a bounded heap, O(n log k) and without boxing. Equal
+     * amounts rank in row order, like a stable sort. Rows are only materialized as {@link Transaction}s for the
+     * final result
+     */
+    static final class TopTransactions implements Accumulator<List<Transaction>> {
+        private final ColumnarTransactionStore store;
+        private final TopKHeap heap;
+
+        TopTransactions(ColumnarTransactionStore store, int limit) {
+            this.store = store;
+            this.heap = new TopKHeap(limit);
+        }
+
+        @Override
+        public void accept(ColumnarTransactionStore store, int row) {
+            heap.offer(store.amount(row), row);
+        }
+
+        @Override
+        public void merge(Accumulator<List<Transaction>> other) {
+            heap.merge(((TopTransactions) other).heap);
+        }
+
+        @Override
+        public List<Transaction> result() {
+            int[] rows = heap.sortedRows();
+            List<Transaction> top = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                top.add(store.row(row));
+            }
+            return top;
+        }
+    }
+
+    /**
+     * Sums amounts per sender into an array indexed by client code. Only a strictly greater total takes the lead,
+     * and codes follow first appearance in the data, so on a tie the client that appears first wins
+     */
+    static final class TopSender implements Accumulator<Optional<String>> {
+        private final StringDictionary clients;
+        private double[] senderTotals;
+        private final BitSet senders = new BitSet();
+
+        TopSender(ColumnarTransactionStore store) {
+            this.clients = store.getClients();
+            this.senderTotals = new double[clients.size()];
+        }
+
+        @Override
+        public void accept(ColumnarTransactionStore store, int row) {
+            int sender = store.senderCode(row);
+            if (sender == StringDictionary.NULL_CODE) {
+                return;
+            }
+            senderTotals[sender] += store.amount(row);
+            senders.set(sender);
+        }
+
+        @Override
+        public void merge(Accumulator<Optional<String>> other) {
+            TopSender that = (TopSender) other;
+            if (that.senderTotals.length > senderTotals.length) {
+                senderTotals = Arrays.copyOf(senderTotals, that.senderTotals.length);
+            }
+            for (int sender = that.senders.nextSetBit(0); sender >= 0; sender = that.senders.nextSetBit(sender + 1)) {
+                senderTotals[sender] += that.senderTotals[sender];
+            }
+            senders.or(that.senders);
+        }
+
+        @Override
+        public Optional<String> result() {
+            int topSender = StringDictionary.NULL_CODE;
+            double topAmount = 0;
+            for (int sender = senders.nextSetBit(0); sender >= 0; sender = senders.nextSetBit(sender + 1)) {
+                if (topSender == StringDictionary.NULL_CODE || senderTotals[sender] > topAmount) {
+                    topSender = sender;
+                    topAmount = senderTotals[sender];
+                }
+            }
+            return Optional.ofNullable(clients.decode(topSender));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.smallworld.query;
+
+import com.smallworld.data.ColumnarTransactionStore;
+
+import java.util.function.Function;
+
+/**
+ * The aggregates the {@link QueryEngine} knows how to compute, each mapped to the accumulator that computes it
+ */
+public enum Aggregate {
+    TOTAL_AMOUNT("totalTransactionAmount", store -> new Accumulators.TotalAmount()),
+    MAX_AMOUNT("maxTransactionAmount", store -> new Accumulators.MaxAmount()),
+    UNIQUE_CLIENTS("countUniqueClients", store -> new Accumulators.UniqueClients()),
+    UNSOLVED_ISSUE_IDS("unsolvedIssueIds", store -> new Accumulators.UnsolvedIssueIds()),
+    SOLVED_ISSUE_MESSAGES("solvedIssueMessages", store -> new Accumulators.SolvedIssueMessages()),
+    TOP3_TRANSACTIONS("top3TransactionsByAmount", store -> new Accumulators.TopTransactions(store, 3)),
+    TOP_SENDER("topSender", Accumulators.TopSender::new);
+
+    private final String key;
+    private final Function<ColumnarTransactionStore, Accumulator<?>> factory;
+
+    Aggregate(String key, Function<ColumnarTransactionStore, Accumulator<?>> factory) {
+        this.key = key;
+        this.factory = factory;
+    }
+
+    /**
+     * Name used for this aggregate in requests and responses
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public Accumulator<?> newAccumulator(ColumnarTransactionStore store) {
+        return factory.apply(store);
+    }
+
+    public static Aggregate fromKey(String key) {
+        for (Aggregate aggregate : values()) {
+            if (aggregate.key.equalsIgnoreCase(key) || aggregate.name().equalsIgnoreCase(key)) {
+                return aggregate;
+            }
+        }
+        throw new IllegalArgumentException("Unknown aggregate: " + key);
+    }
+}
@@ -0,0 +1,70 @@
+package com.smallworld.query;
+
+import com.smallworld.data.ColumnarTransactionStore;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Feeds every row to the accumulators of several aggregates, so they are all computed in the same scan
+ */
+final class FusedAccumulator implements Accumulator<QueryResult> {
+
+    private final Map<Aggregate, Accumulator<?>> accumulators;
+    private final Accumulator<?>[] fused;
+
+    FusedAccumulator(ColumnarTransactionStore store, Set<Aggregate> aggregates) {
+        this(newAccumulators(store, aggregates));
+    }
+
+    FusedAccumulator(Map<Aggregate, Accumulator<?>> accumulators) {
+        this.accumulators = accumulators;
+        this.fused = accumulators.values().toArray(new Accumulator<?>[0]);
+    }
+
+    static Map<Aggregate, Accumulator<?>> newAccumulators(ColumnarTransactionStore store, Set<Aggregate> aggregates) {
+        Map<Aggregate, Accumulator<?>> accumulators = new EnumMap<>(Aggregate.class);
+        for (Aggregate aggregate : aggregates) {
+            accumulators.put(aggregate, aggregate.newAccumulator(store));
+        }
+        return accumulators;
+    }
+
+    @Override
+    public void accept(ColumnarTransactionStore store, int row) {
+        for (Accumulator<?> accumulator : fused) {
+            accumulator.accept(store, row);
+        }
+    }
+
+    @Override
+    public void merge(Accumulator<QueryResult> other) {
+        merge(accumulators, ((FusedAccumulator) other).accumulators);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static void merge(Map<Aggregate, Accumulator<?>> left, Map<Aggregate, Accumulator<?>> right) {
+        for (Map.Entry<Aggregate, Accumulator<?>> entry : right.entrySet()) {
+            Accumulator target = left.get(entry.getKey());
+            if (target == null) {
+                left.put(entry.getKey(), entry.getValue());
+            } else {
+                target.merge(entry.getValue());
+            }
+        }
+    }
+
+    Map<Aggregate, Accumulator<?>> getAccumulators() {
+        return accumulators;
+    }
+
+    @Override
+    public QueryResult result() {
+        Map<Aggregate, Object> values = new EnumMap<>(Aggregate.class);
+        for (Map.Entry<Aggregate, Accumulator<?>> entry : accumulators.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().result());
+        }
+        return new QueryResult(values);
+    }
+}
@@ -0,0 +1,73 @@
+package com.smallworld.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiles {@link TransactionQuery queries} into {@link QueryPlan plans} and keeps the most recently used plans by
+ * shape, so that a dashboard re-running the same question with other values reuses its plan.
+ */
+public final class QueryCompiler {
+
+    public static final int DEFAULT_MAX_PLANS = 256;
+
+    private final int maxPlans;
+    private final LinkedHashMap<String, QueryPlan> plans;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public QueryCompiler() {
+        this(DEFAULT_MAX_PLANS);
+    }
+
+    public QueryCompiler(int maxPlans) {
+        if (maxPlans < 1) {
+            throw new IllegalArgumentException("maxPlans must be positive: " + maxPlans);
+        }
+        this.maxPlans = maxPlans;
+        this.plans = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+                return size() > QueryCompiler.this.maxPlans;
+            }
+        };
+    }
+
+    /**
+     * Returns the plan for the query's shape, compiling it on first use
+     */
+    public QueryPlan compile(TransactionQuery query) {
+        String shape = query.shape();
+        synchronized (plans) {
+            QueryPlan plan = plans.get(shape);
+            if (plan != null) {
+                hits.increment();
+                return plan;
+            }
+            misses.increment();
+            plan = new QueryPlan(query);
+            plans.put(shape, plan);
+            return plan;
+        }
+    }
+
+    public int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    public int getMaxPlans() {
+        return maxPlans;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
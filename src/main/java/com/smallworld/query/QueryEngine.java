@@ -0,0 +1,246 @@
+package com.smallworld.query;
+
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Partition;
+import com.smallworld.data.Transaction;
+import com.smallworld.util.TopKHeap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Computes any subset of the fetcher's aggregates in a single scan of the data: every row is read once and fed to
+ * the accumulator of each requested aggregate.
+ *
+ * <p>The rows are always cut into the same chunks, whose size depends only on the number of rows, and the partial
+ * results are always merged in chunk order. Above {@link #getParallelThreshold()} rows the chunks are accumulated
+ * concurrently on a {@link ForkJoinPool}; because chunking and merge order do not change, parallel results are
+ * bit-for-bit identical to sequential ones, floating point sums and tie-breaking included.
+ */
+public class QueryEngine {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1_000_000;
+
+    static final int MIN_CHUNK_ROWS = 16_384;
+    static final int MAX_CHUNKS = 64;
+
+    private volatile ForkJoinPool pool;
+    private volatile int parallelThreshold;
+
+    public QueryEngine() {
+        this(ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    public QueryEngine(ForkJoinPool pool, int parallelThreshold) {
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Runs one fused scan over the transactions, computing every requested aggregate
+     */
+    public QueryResult execute(ColumnarTransactionStore store, Set<Aggregate> aggregates) {
+        return execute(store, s -> new FusedAccumulator(s, aggregates));
+    }
+
+    public QueryResult execute(ColumnarTransactionStore store, Aggregate... aggregates) {
+        return execute(store, toSet(aggregates));
+    }
+
+    /**
+     * Returns the {@code k} transactions with the highest amount, sorted by amount descending. Transactions with
+     * the same amount keep their data order
+     */
+    public List<Transaction> topTransactions(ColumnarTransactionStore store, int k) {
+        return execute(store, s -> new Accumulators.TopTransactions(s, k));
+    }
+
+    /**
+     * Same result as {@link #topTransactions(ColumnarTransactionStore, int)}, reading only the partitions that can
+     * still contribute: they are visited by descending maximum amount, and once {@code k} rows are kept the first
+     * partition whose maximum is below the worst of them ends the search. Rows past the last partition, appended
+     * after the load, are always read
+     */
+    public List<Transaction> topTransactions(ColumnarTransactionStore store, int k, List<Partition> partitions) {
+        if (partitions.isEmpty()) {
+            return topTransactions(store, k);
+        }
+        List<Partition> byMaxAmount = new ArrayList<>(partitions);
+        byMaxAmount.sort(Comparator.comparingDouble((Partition p) -> p.getStats().getMaxAmount()).reversed());
+        TopKHeap heap = new TopKHeap(k);
+        int partitionedRows = 0;
+        for (Partition partition : partitions) {
+            partitionedRows = Math.max(partitionedRows, partition.getToRow());
+        }
+        for (int row = partitionedRows; row < store.size(); row++) {
+            heap.offer(store.amount(row), row);
+        }
+        for (Partition partition : byMaxAmount) {
+            if (heap.isFull() && partition.getStats().getMaxAmount() < heap.worstAmount()) {
+                break;
+            }
+            for (int row = partition.getFromRow(); row < partition.getToRow(); row++) {
+                heap.offer(store.amount(row), row);
+            }
+        }
+        int[] rows = heap.sortedRows();
+        List<Transaction> top = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            top.add(store.row(row));
+        }
+        return top;
+    }
+
+    /**
+     * Scans the whole store with accumulators created by {@code factory}, one per chunk, and returns the merged
+     * result. Runs in parallel from {@link #getParallelThreshold()} rows
+     */
+    public <R> R execute(ColumnarTransactionStore store, Function<ColumnarTransactionStore, Accumulator<R>> factory) {
+        int size = store.size();
+        int chunkRows = chunkRows(size);
+        int chunks = size == 0 ? 1 : (size + chunkRows - 1) / chunkRows;
+        if (chunks > 1 && size >= parallelThreshold && pool.getParallelism() > 1) {
+            return accumulateParallel(store, factory, chunkRows, chunks).result();
+        }
+        Accumulator<R> result = accumulate(store, factory, 0, Math.min(chunkRows, size));
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            int from = chunk * chunkRows;
+            result.merge(accumulate(store, factory, from, Math.min(from + chunkRows, size)));
+        }
+        return result.result();
+    }
+
+    static int chunkRows(int size) {
+        return Math.max(MIN_CHUNK_ROWS, (size + MAX_CHUNKS - 1) / MAX_CHUNKS);
+    }
+
+    private static <R> Accumulator<R> accumulate(ColumnarTransactionStore store,
+                                                 Function<ColumnarTransactionStore, Accumulator<R>> factory,
+                                                 int from, int to) {
+        Accumulator<R> accumulator = factory.apply(store);
+        for (int row = from; row < to; row++) {
+            accumulator.accept(store, row);
+        }
+        return accumulator;
+    }
+
+    private <R> Accumulator<R> accumulateParallel(ColumnarTransactionStore store,
+                                                  Function<ColumnarTransactionStore, Accumulator<R>> factory,
+                                                  int chunkRows, int chunks) {
+        // only ever holds accumulators made by the factory
+        @SuppressWarnings("unchecked")
+        Accumulator<R>[] partials = (Accumulator<R>[]) new Accumulator<?>[chunks];
+        pool.invoke(new ChunkTask<>(store, factory, chunkRows, partials, 0, chunks));
+        Accumulator<R> result = partials[0];
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            result.merge(partials[chunk]);
+            partials[chunk] = null;
+        }
+        return result;
+    }
+
+    /**
+     * Splits a range of chunks in halves until a single chunk is left, which is then accumulated into its slot
+     */
+    private static final class ChunkTask<R> extends RecursiveAction {
+        private final ColumnarTransactionStore store;
+        private final Function<ColumnarTransactionStore, Accumulator<R>> factory;
+        private final int chunkRows;
+        private final Accumulator<R>[] partials;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(ColumnarTransactionStore store, Function<ColumnarTransactionStore, Accumulator<R>> factory,
+                  int chunkRows, Accumulator<R>[] partials, int fromChunk, int toChunk) {
+            this.store = store;
+            this.factory = factory;
+            this.chunkRows = chunkRows;
+            this.partials = partials;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk == 1) {
+                int from = fromChunk * chunkRows;
+                partials[fromChunk] = accumulate(store, factory, from, Math.min(from + chunkRows, store.size()));
+                return;
+            }
+            int middle = (fromChunk + toChunk) >>> 1;
+            invokeAll(new ChunkTask<>(store, factory, chunkRows, partials, fromChunk, middle),
+                    new ChunkTask<>(store, factory, chunkRows, partials, middle, toChunk));
+        }
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Number of rows from which queries run in parallel
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Accumulates the rows in {@code [from, to)}. The returned accumulators can be merged with those of the
+     * following range through {@link #merge(Map, Map)}
+     */
+    public Map<Aggregate, Accumulator<?>> accumulate(ColumnarTransactionStore store, int from, int to,
+                                                     Set<Aggregate> aggregates) {
+        FusedAccumulator accumulator = new FusedAccumulator(store, aggregates);
+        for (int row = from; row < to; row++) {
+            accumulator.accept(store, row);
+        }
+        return accumulator.getAccumulators();
+    }
+
+    /**
+     * Merges {@code right} (covering later rows) into {@code left} and returns {@code left}
+     */
+    public Map<Aggregate, Accumulator<?>> merge(Map<Aggregate, Accumulator<?>> left,
+                                                Map<Aggregate, Accumulator<?>> right) {
+        FusedAccumulator.merge(left, right);
+        return left;
+    }
+
+    public QueryResult finish(Map<Aggregate, Accumulator<?>> accumulators) {
+        return new FusedAccumulator(accumulators).result();
+    }
+
+    public static Set<Aggregate> toSet(Aggregate... aggregates) {
+        return aggregates.length == 0 ? EnumSet.allOf(Aggregate.class) : EnumSet.of(aggregates[0], aggregates);
+    }
+
+    /**
+     * Parses aggregate keys, e.g. from a request parameter. An empty collection selects every aggregate
+     */
+    public static Set<Aggregate> parse(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return EnumSet.allOf(Aggregate.class);
+        }
+        Set<Aggregate> aggregates = EnumSet.noneOf(Aggregate.class);
+        for (String key : keys) {
+            aggregates.add(Aggregate.fromKey(key.trim()));
+        }
+        return aggregates;
+    }
+}
@@ -0,0 +1,160 @@
+package com.smallworld.query;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.smallworld.data.Transaction;
+
+import com.smallworld.util.TopKHeap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One group of a {@link TransactionQuery} result. Only the requested metrics are set, the others are null; min, max
+ * and avg are null as well for a group without rows
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class QueryGroup {
+
+    private final String key;
+    private final Long count;
+    private final Double sum;
+    private final Double min;
+    private final Double max;
+    private final Double avg;
+    private final List<Transaction> top;
+
+    QueryGroup(String key, Long count, Double sum, Double min, Double max, Double avg, List<Transaction> top) {
+        this.key = key;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.avg = avg;
+        this.top = top;
+    }
+
+    /**
+     * "all" without grouping, otherwise the client name, the issue state (none, open, solved) or the age band, such
+     * as "20-29"
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public Long getCount() {
+        return count;
+    }
+
+    public Double getSum() {
+        return sum;
+    }
+
+    public Double getMin() {
+        return min;
+    }
+
+    public Double getMax() {
+        return max;
+    }
+
+    public Double getAvg() {
+        return avg;
+    }
+
+    /**
+     * The group's transactions with the highest amounts, best first, ties in data order. Each call returns new
+     * copies, as results are cached
+     */
+    public List<Transaction> getTop() {
+        return top == null ? null : Transaction.copiesOf(top);
+    }
+
+    /**
+     * Combines the groups computed by the shards of a sharded deployment, each run with {@link
+     * TransactionQuery#partial()}, into the result of the query over all their rows. Counts and sums add up, minima
+     * and maxima are kept, averages are recomputed from them and the top transactions of a group are the best of
+     * every shard's. Issue states and age bands come in key order; clients in order of first appearance, shard by
+     * shard, and equal amounts in the top lists in shard order
+     */
+    public static List<QueryGroup> merge(TransactionQuery query, List<List<QueryGroup>> partials) {
+        Map<String, Partial> byKey = new LinkedHashMap<>();
+        for (List<QueryGroup> groups : partials) {
+            for (QueryGroup group : groups) {
+                byKey.computeIfAbsent(group.key, key -> new Partial()).add(group);
+            }
+        }
+        List<Map.Entry<String, Partial>> entries = new ArrayList<>(byKey.entrySet());
+        TransactionQuery.GroupBy groupBy = query.getGroupBy();
+        if (groupBy == TransactionQuery.GroupBy.ISSUE_STATE) {
+            entries.sort(Comparator.comparingInt(entry ->
+                    TransactionQuery.IssueState.valueOf(entry.getKey().toUpperCase(Locale.ROOT)).ordinal()));
+        } else if (groupBy == TransactionQuery.GroupBy.SENDER_AGE_BAND
+                || groupBy == TransactionQuery.GroupBy.BENEFICIARY_AGE_BAND) {
+            entries.sort(Comparator.comparingInt(entry ->
+                    Integer.parseInt(entry.getKey().substring(0, entry.getKey().indexOf('-')))));
+        }
+        Set<TransactionQuery.Metric> metrics = query.getMetrics();
+        List<QueryGroup> merged = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Partial> entry : entries) {
+            Partial partial = entry.getValue();
+            long count = partial.count;
+            merged.add(new QueryGroup(entry.getKey(),
+                    metrics.contains(TransactionQuery.Metric.COUNT) ? count : null,
+                    metrics.contains(TransactionQuery.Metric.SUM) ? partial.sum : null,
+                    metrics.contains(TransactionQuery.Metric.MIN) && count > 0 ? partial.min : null,
+                    metrics.contains(TransactionQuery.Metric.MAX) && count > 0 ? partial.max : null,
+                    metrics.contains(TransactionQuery.Metric.AVG) && count > 0 ? partial.sum / count : null,
+                    metrics.contains(TransactionQuery.Metric.TOP) ? partial.top(query.getTopK()) : null));
+        }
+        return merged;
+    }
+
+    /**
+     * One group as merged so far
+     */
+    private static final class Partial {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private final List<Transaction> candidates = new ArrayList<>();
+
+        void add(QueryGroup group) {
+            count += group.count == null ? 0 : group.count;
+            sum += group.sum == null ? 0 : group.sum;
+            min = group.min == null ? min : Math.min(min, group.min);
+            max = group.max == null ? max : Math.max(max, group.max);
+            if (group.top != null) {
+                candidates.addAll(group.top);
+            }
+        }
+
+        List<Transaction> top(int k) {
+            if (candidates.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // candidates are in shard order, which the heap keeps for equal amounts
+            TopKHeap heap = new TopKHeap(k);
+            for (int i = 0; i < candidates.size(); i++) {
+                heap.offer(candidates.get(i).getAmount(), i);
+            }
+            List<Transaction> top = new ArrayList<>(heap.size());
+            for (int i : heap.sortedRows()) {
+                top.add(candidates.get(i));
+            }
+            return top;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryGroup{key=" + key + ", count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max
+                + ", avg=" + avg + ", top=" + top + "}";
+    }
+}
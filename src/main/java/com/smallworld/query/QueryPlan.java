@@ -0,0 +1,425 @@
+package com.smallworld.query;
+
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Partition;
+import com.smallworld.data.PartitionStats;
+import com.smallworld.data.StringDictionary;
+import com.smallworld.data.Transaction;
+import com.smallworld.util.TopKHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A {@link TransactionQuery} compiled for its {@link TransactionQuery#shape() shape}. Which filters the shape has is
+ * decided when the plan is built; their values are bound into primitive fields of a {@link RowFilter} once per
+ * execution, and a row is tested by plain comparisons against them, the two ends of a range in one branch, with no
+ * call per filter. The group key is chosen once per scan, which runs a loop written for that key. Binding the values
+ * at execution lets every query of the same shape share the plan.
+ * <p>
+ * Per-group figures live in primitive arrays indexed by the group key (client code, issue state or age band), and a
+ * {@link TopKHeap} per group is only created when the top transactions are asked for; nothing is allocated per row.
+ * Partitions whose statistics rule out the amount, sender or time filters are not read. Rows are taken as stored, so
+ * a transfer repeated for several issues counts once per row.
+ */
+public final class QueryPlan {
+
+    private static final int INITIAL_GROUPS = 16;
+    /**
+     * Age bands past this one are folded into it, so an absurd age cannot grow the group arrays without bound
+     */
+    private static final int LAST_AGE_BAND = 199;
+
+    private static final int ISSUE_NONE = 0;
+    private static final int ISSUE_OPEN = 1;
+    private static final int ISSUE_SOLVED = 2;
+
+    private final String shape;
+
+    private final boolean filterMinAmount;
+    private final boolean filterMaxAmount;
+    private final boolean filterSender;
+    private final boolean filterBeneficiary;
+    private final boolean filterSenderAge;
+    private final boolean filterBeneficiaryAge;
+    private final boolean filterIssue;
+    private final boolean filterTime;
+
+    private final TransactionQuery.GroupBy groupBy;
+
+    private final boolean keepCount;
+    private final boolean keepSum;
+    private final boolean keepMin;
+    private final boolean keepMax;
+    private final boolean keepAvg;
+    private final boolean keepTop;
+
+    QueryPlan(TransactionQuery query) {
+        this.shape = query.shape();
+        this.filterMinAmount = query.getMinAmount() != null;
+        this.filterMaxAmount = query.getMaxAmount() != null;
+        this.filterSender = query.getSender() != null;
+        this.filterBeneficiary = query.getBeneficiary() != null;
+        this.filterSenderAge = query.getMinSenderAge() != null || query.getMaxSenderAge() != null;
+        this.filterBeneficiaryAge = query.getMinBeneficiaryAge() != null || query.getMaxBeneficiaryAge() != null;
+        this.filterIssue = query.getIssueState() != null;
+        this.filterTime = query.getFromMillis() != null || query.getToMillis() != null;
+        this.groupBy = query.getGroupBy();
+        Set<TransactionQuery.Metric> metrics = query.getMetrics();
+        this.keepCount = metrics.contains(TransactionQuery.Metric.COUNT);
+        this.keepSum = metrics.contains(TransactionQuery.Metric.SUM);
+        this.keepMin = metrics.contains(TransactionQuery.Metric.MIN);
+        this.keepMax = metrics.contains(TransactionQuery.Metric.MAX);
+        this.keepAvg = metrics.contains(TransactionQuery.Metric.AVG);
+        this.keepTop = metrics.contains(TransactionQuery.Metric.TOP);
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    /**
+     * Runs the query over the store, skipping the partitions that cannot match. Rows past the last partition, appended
+     * after the load, are always read. Groups come in key order: client codes in order of first appearance, issue
+     * states as none, open, solved, and age bands ascending, ages from {@code LAST_AGE_BAND * ageBand} on sharing
+     * the last band; groups without rows are left out, except the single group of an ungrouped query
+     *
+     * @throws IllegalArgumentException if the query does not have the shape of this plan
+     */
+    public List<QueryGroup> execute(ColumnarTransactionStore store, List<Partition> partitions,
+                                    TransactionQuery query) {
+        if (!shape.equals(query.shape())) {
+            throw new IllegalArgumentException("Query " + query + " does not have the shape " + shape);
+        }
+        Execution execution = new Execution(store, query);
+        if (execution.filter.satisfiable) {
+            int partitionedRows = 0;
+            for (Partition partition : partitions) {
+                partitionedRows = Math.max(partitionedRows, partition.getToRow());
+                if (mightMatch(partition.getStats(), query)) {
+                    execution.scan(partition.getFromRow(), partition.getToRow());
+                }
+            }
+            execution.scan(partitionedRows, store.size());
+        }
+        return execution.result();
+    }
+
+    private boolean mightMatch(PartitionStats stats, TransactionQuery query) {
+        if (stats.getRows() == 0) {
+            return false;
+        }
+        if (filterMinAmount && stats.getMaxAmount() < query.getMinAmount()) {
+            return false;
+        }
+        if (filterMaxAmount && stats.getMinAmount() > query.getMaxAmount()) {
+            return false;
+        }
+        if (filterSender && !stats.mightContainSender(query.getSender())) {
+            return false;
+        }
+        return !filterTime || stats.mightOverlap(fromMillis(query), toMillis(query));
+    }
+
+    private static long fromMillis(TransactionQuery query) {
+        return query.getFromMillis() == null ? Long.MIN_VALUE : query.getFromMillis();
+    }
+
+    private static long toMillis(TransactionQuery query) {
+        return query.getToMillis() == null ? Long.MAX_VALUE : query.getToMillis();
+    }
+
+    private static int issueState(ColumnarTransactionStore store, int row) {
+        if (!store.issueSolved(row)) {
+            return ISSUE_OPEN;
+        }
+        return store.issueId(row) == 0 ? ISSUE_NONE : ISSUE_SOLVED;
+    }
+
+    private static int ageBand(int age, int ageBand) {
+        return Math.min(Math.max(0, age) / ageBand, LAST_AGE_BAND);
+    }
+
+    /**
+     * The plan's filters with the values of one query bound, for callers that stream the matching rows instead of
+     * aggregating them
+     *
+     * @throws IllegalArgumentException if the query does not have the shape of this plan
+     */
+    public RowFilter bind(ColumnarTransactionStore store, TransactionQuery query) {
+        if (!shape.equals(query.shape())) {
+            throw new IllegalArgumentException("Query " + query + " does not have the shape " + shape);
+        }
+        return new RowFilter(store, query);
+    }
+
+    /**
+     * The filter values of one query, tested against rows of one store. A range missing one end is bound with the
+     * widest value of the column at that end, so both ends are compared in one test
+     */
+    public final class RowFilter {
+        private final ColumnarTransactionStore store;
+        private final boolean filterAmount;
+        private final double minAmount;
+        private final double maxAmount;
+        private final int senderCode;
+        private final int beneficiaryCode;
+        private final int minSenderAge;
+        private final int maxSenderAge;
+        private final int minBeneficiaryAge;
+        private final int maxBeneficiaryAge;
+        private final int issueState;
+        private final long fromMillis;
+        private final long toMillis;
+        /**
+         * False when a filter names a client the data does not know, so no row can match
+         */
+        private final boolean satisfiable;
+
+        private RowFilter(ColumnarTransactionStore store, TransactionQuery query) {
+            this.store = store;
+            StringDictionary clients = store.getClients();
+            this.filterAmount = filterMinAmount || filterMaxAmount;
+            this.minAmount = filterMinAmount ? query.getMinAmount() : Double.NEGATIVE_INFINITY;
+            this.maxAmount = filterMaxAmount ? query.getMaxAmount() : Double.POSITIVE_INFINITY;
+            this.senderCode = filterSender ? clients.lookup(query.getSender()) : StringDictionary.NULL_CODE;
+            this.beneficiaryCode = filterBeneficiary
+                    ? clients.lookup(query.getBeneficiary()) : StringDictionary.NULL_CODE;
+            this.minSenderAge = query.getMinSenderAge() == null ? Integer.MIN_VALUE : query.getMinSenderAge();
+            this.maxSenderAge = query.getMaxSenderAge() == null ? Integer.MAX_VALUE : query.getMaxSenderAge();
+            this.minBeneficiaryAge = query.getMinBeneficiaryAge() == null
+                    ? Integer.MIN_VALUE : query.getMinBeneficiaryAge();
+            this.maxBeneficiaryAge = query.getMaxBeneficiaryAge() == null
+                    ? Integer.MAX_VALUE : query.getMaxBeneficiaryAge();
+            this.issueState = filterIssue ? query.getIssueState().ordinal() : ISSUE_NONE;
+            this.fromMillis = fromMillis(query);
+            this.toMillis = toMillis(query);
+            this.satisfiable = !(filterSender && senderCode == StringDictionary.NULL_CODE)
+                    && !(filterBeneficiary && beneficiaryCode == StringDictionary.NULL_CODE);
+        }
+
+        /**
+         * False when no row can match, so the caller need not scan at all
+         */
+        public boolean isSatisfiable() {
+            return satisfiable;
+        }
+
+        public boolean matches(int row) {
+            ColumnarTransactionStore store = this.store;
+            if (filterAmount) {
+                double amount = store.amount(row);
+                if (!(amount >= minAmount && amount <= maxAmount)) {
+                    return false;
+                }
+            }
+            if (filterSender && store.senderCode(row) != senderCode) {
+                return false;
+            }
+            if (filterBeneficiary && store.beneficiaryCode(row) != beneficiaryCode) {
+                return false;
+            }
+            if (filterSenderAge) {
+                int age = store.senderAge(row);
+                if (age < minSenderAge || age > maxSenderAge) {
+                    return false;
+                }
+            }
+            if (filterBeneficiaryAge) {
+                int age = store.beneficiaryAge(row);
+                if (age < minBeneficiaryAge || age > maxBeneficiaryAge) {
+                    return false;
+                }
+            }
+            if (filterIssue && QueryPlan.issueState(store, row) != issueState) {
+                return false;
+            }
+            if (filterTime) {
+                long time = store.transactionTime(row);
+                return time != ColumnarTransactionStore.NO_TIME && time >= fromMillis && time <= toMillis;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * State of one run: the bound filter and the per-group figures
+     */
+    private final class Execution {
+        private final ColumnarTransactionStore store;
+        private final RowFilter filter;
+        private final int ageBand;
+        private final int topK;
+
+        private int groupCount;
+        private long[] counts = new long[INITIAL_GROUPS];
+        private double[] sums = new double[INITIAL_GROUPS];
+        private double[] mins = filled(INITIAL_GROUPS, Double.POSITIVE_INFINITY);
+        private double[] maxs = filled(INITIAL_GROUPS, Double.NEGATIVE_INFINITY);
+        private TopKHeap[] tops = new TopKHeap[INITIAL_GROUPS];
+
+        Execution(ColumnarTransactionStore store, TransactionQuery query) {
+            this.store = store;
+            this.filter = new RowFilter(store, query);
+            this.ageBand = query.getAgeBand();
+            this.topK = query.getTopK();
+            if (groupBy == TransactionQuery.GroupBy.NONE) {
+                groupCount = 1;
+            }
+        }
+
+        /**
+         * Folds the matching rows of {@code [from, to)} in, with the loop of the plan's group key. Clients are
+         * shifted by one so that a missing name has index 0, and negative ages fall into the first band
+         */
+        void scan(int from, int to) {
+            ColumnarTransactionStore store = this.store;
+            RowFilter filter = this.filter;
+            int ageBand = this.ageBand;
+            switch (groupBy) {
+                case SENDER:
+                    for (int row = from; row < to; row++) {
+                        if (filter.matches(row)) {
+                            add(store.senderCode(row) + 1, row);
+                        }
+                    }
+                    break;
+                case BENEFICIARY:
+                    for (int row = from; row < to; row++) {
+                        if (filter.matches(row)) {
+                            add(store.beneficiaryCode(row) + 1, row);
+                        }
+                    }
+                    break;
+                case ISSUE_STATE:
+                    for (int row = from; row < to; row++) {
+                        if (filter.matches(row)) {
+                            add(issueState(store, row), row);
+                        }
+                    }
+                    break;
+                case SENDER_AGE_BAND:
+                    for (int row = from; row < to; row++) {
+                        if (filter.matches(row)) {
+                            add(ageBand(store.senderAge(row), ageBand), row);
+                        }
+                    }
+                    break;
+                case BENEFICIARY_AGE_BAND:
+                    for (int row = from; row < to; row++) {
+                        if (filter.matches(row)) {
+                            add(ageBand(store.beneficiaryAge(row), ageBand), row);
+                        }
+                    }
+                    break;
+                default:
+                    for (int row = from; row < to; row++) {
+                        if (filter.matches(row)) {
+                            add(0, row);
+                        }
+                    }
+            }
+        }
+
+        private void add(int group, int row) {
+            if (group >= groupCount) {
+                addGroups(group + 1);
+            }
+            double amount = store.amount(row);
+            counts[group]++;
+            sums[group] += amount;
+            if (amount < mins[group]) {
+                mins[group] = amount;
+            }
+            if (amount > maxs[group]) {
+                maxs[group] = amount;
+            }
+            if (keepTop) {
+                TopKHeap heap = tops[group];
+                if (heap == null) {
+                    heap = tops[group] = new TopKHeap(topK);
+                }
+                heap.offer(amount, row);
+            }
+        }
+
+        private void addGroups(int count) {
+            if (count > counts.length) {
+                int capacity = Math.max(count, counts.length * 2);
+                int old = counts.length;
+                counts = Arrays.copyOf(counts, capacity);
+                sums = Arrays.copyOf(sums, capacity);
+                mins = Arrays.copyOf(mins, capacity);
+                maxs = Arrays.copyOf(maxs, capacity);
+                tops = Arrays.copyOf(tops, capacity);
+                Arrays.fill(mins, old, capacity, Double.POSITIVE_INFINITY);
+                Arrays.fill(maxs, old, capacity, Double.NEGATIVE_INFINITY);
+            }
+            groupCount = count;
+        }
+
+        List<QueryGroup> result() {
+            if (groupCount == 0) {
+                return Collections.emptyList();
+            }
+            List<QueryGroup> groups = new ArrayList<>();
+            for (int group = 0; group < groupCount; group++) {
+                long count = counts[group];
+                if (count == 0 && groupBy != TransactionQuery.GroupBy.NONE) {
+                    continue;
+                }
+                groups.add(new QueryGroup(key(group),
+                        keepCount ? count : null,
+                        keepSum ? sums[group] : null,
+                        keepMin && count > 0 ? mins[group] : null,
+                        keepMax && count > 0 ? maxs[group] : null,
+                        keepAvg && count > 0 ? sums[group] / count : null,
+                        keepTop ? top(group) : null));
+            }
+            return groups;
+        }
+
+        private String key(int group) {
+            switch (groupBy) {
+                case SENDER:
+                case BENEFICIARY:
+                    return store.getClients().decode(group - 1);
+                case ISSUE_STATE:
+                    return TransactionQuery.IssueState.values()[group].name().toLowerCase(Locale.ROOT);
+                case SENDER_AGE_BAND:
+                case BENEFICIARY_AGE_BAND:
+                    long first = (long) group * ageBand;
+                    return group == LAST_AGE_BAND ? first + "+" : first + "-" + (first + ageBand - 1);
+                default:
+                    return "all";
+            }
+        }
+
+        private List<Transaction> top(int group) {
+            if (tops[group] == null) {
+                return Collections.emptyList();
+            }
+            int[] rows = tops[group].sortedRows();
+            List<Transaction> top = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                top.add(store.row(row));
+            }
+            return top;
+        }
+    }
+
+    private static double[] filled(int length, double value) {
+        double[] values = new double[length];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlan{" + shape + "}";
+    }
+}
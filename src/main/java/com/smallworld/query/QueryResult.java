@@ -0,0 +1,82 @@
+package com.smallworld.query;
+
+import com.smallworld.data.Transaction;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Results of one {@link QueryEngine} run, keyed by aggregate. Getters of aggregates that were not requested throw
+ * {@link IllegalStateException}. Results are cached and shared, so the top transactions are handed out as copies
+ */
+public class QueryResult {
+
+    private final Map<Aggregate, Object> values;
+
+    QueryResult(Map<Aggregate, Object> values) {
+        this.values = Collections.unmodifiableMap(new EnumMap<>(values));
+    }
+
+    /**
+     * Wraps aggregates computed elsewhere, such as those answered from the normalized transfers rather than a scan
+     */
+    public static QueryResult of(Map<Aggregate, Object> values) {
+        return new QueryResult(values);
+    }
+
+    public Map<Aggregate, Object> asMap() {
+        if (!values.containsKey(Aggregate.TOP3_TRANSACTIONS)) {
+            return values;
+        }
+        Map<Aggregate, Object> copy = new EnumMap<>(values);
+        copy.put(Aggregate.TOP3_TRANSACTIONS, getTop3TransactionsByAmount());
+        return Collections.unmodifiableMap(copy);
+    }
+
+    public boolean contains(Aggregate aggregate) {
+        return values.containsKey(aggregate);
+    }
+
+    public double getTotalTransactionAmount() {
+        return (Double) get(Aggregate.TOTAL_AMOUNT);
+    }
+
+    public double getMaxTransactionAmount() {
+        return (Double) get(Aggregate.MAX_AMOUNT);
+    }
+
+    public long countUniqueClients() {
+        return (Long) get(Aggregate.UNIQUE_CLIENTS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Set<Integer> getUnsolvedIssueIds() {
+        return (Set<Integer>) get(Aggregate.UNSOLVED_ISSUE_IDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> getAllSolvedIssueMessages() {
+        return (List<String>) get(Aggregate.SOLVED_ISSUE_MESSAGES);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Transaction> getTop3TransactionsByAmount() {
+        return Transaction.copiesOf((List<Transaction>) get(Aggregate.TOP3_TRANSACTIONS));
+    }
+
+    @SuppressWarnings("unchecked")
+    public Optional<String> getTopSender() {
+        return (Optional<String>) get(Aggregate.TOP_SENDER);
+    }
+
+    private Object get(Aggregate aggregate) {
+        if (!values.containsKey(aggregate)) {
+            throw new IllegalStateException(aggregate.getKey() + " was not requested");
+        }
+        return values.get(aggregate);
+    }
+}
@@ -0,0 +1,174 @@
+package com.smallworld.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Size-bounded LRU cache of query results, keyed by method and argument and tied to a data version. The version is
+ * the snapshot version plus the number of appends to it; the first lookup with a newer version drops every entry,
+ * so a result is never served for data other than the one it was computed on. Lookups with an older version, from
+ * queries still running on a replaced snapshot, bypass the cache.
+ * <p>
+ * Values are computed outside the lock, so two concurrent misses on the same key may both compute. Cached values are
+ * shared between callers and must not be modified.
+ */
+public final class ResultCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final Object NULL = new Object();
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<Key, Object> entries = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+    private volatile int maxEntries;
+    private long snapshotVersion = Long.MIN_VALUE;
+    private long appendCount = Long.MIN_VALUE;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ResultCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public ResultCache(int maxEntries) {
+        setMaxEntries(maxEntries);
+    }
+
+    /**
+     * Returns the cached result of {@code method(argument)} for the given data version, computing it on a miss.
+     * The version must be read before the data the computation uses, so that a result is never filed under a newer
+     * version than the data it saw
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(long snapshotVersion, long appendCount, String method, Object argument, Supplier<T> compute) {
+        Key key = new Key(method, argument);
+        boolean cacheable;
+        synchronized (lock) {
+            cacheable = advanceTo(snapshotVersion, appendCount);
+            if (cacheable) {
+                Object cached = entries.get(key);
+                if (cached != null) {
+                    hits.increment();
+                    return cached == NULL ? null : (T) cached;
+                }
+            }
+        }
+        misses.increment();
+        T value = compute.get();
+        if (cacheable) {
+            synchronized (lock) {
+                if (this.snapshotVersion == snapshotVersion && this.appendCount == appendCount) {
+                    entries.put(key, value == null ? NULL : value);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Moves the cache to the given version if it is newer, dropping all entries. Returns false for older versions
+     */
+    private boolean advanceTo(long snapshotVersion, long appendCount) {
+        if (snapshotVersion == this.snapshotVersion && appendCount == this.appendCount) {
+            return true;
+        }
+        if (snapshotVersion < this.snapshotVersion
+                || (snapshotVersion == this.snapshotVersion && appendCount < this.appendCount)) {
+            return false;
+        }
+        if (!entries.isEmpty()) {
+            entries.clear();
+            invalidations.increment();
+        }
+        this.snapshotVersion = snapshotVersion;
+        this.appendCount = appendCount;
+        return true;
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Changes the bound; a smaller bound takes effect as new entries are added
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Number of times the cache was emptied because the data changed
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    private static final class Key {
+        private final String method;
+        private final Object argument;
+
+        Key(String method, Object argument) {
+            this.method = method;
+            this.argument = argument;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return method.equals(other.method) && Objects.equals(argument, other.argument);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + Objects.hashCode(argument);
+        }
+    }
+}
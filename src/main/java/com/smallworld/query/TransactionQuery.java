@@ -0,0 +1,426 @@
+package com.smallworld.query;
+
+import com.smallworld.data.TransactionTime;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * An ad-hoc question over the transactions: which rows to keep, how to group them and what to compute per group.
+ * Every filter is optional and they all have to match. Immutable; use {@link Builder} or
+ * {@link #fromParameters(Function)}.
+ * <p>
+ * The {@link #shape()} of a query is everything but the literal filter values, so {@code amount >= 100} and
+ * {@code amount >= 500} share a shape and, with it, a compiled {@link QueryPlan}.
+ */
+public final class TransactionQuery {
+
+    public static final int DEFAULT_AGE_BAND = 10;
+    public static final int DEFAULT_TOP_K = 3;
+    public static final int MAX_TOP_K = 10_000;
+
+    /**
+     * Issue state of a row: without issue, with an open issue or with a solved one
+     */
+    public enum IssueState {
+        NONE, OPEN, SOLVED
+    }
+
+    public enum GroupBy {
+        NONE, SENDER, BENEFICIARY, ISSUE_STATE, SENDER_AGE_BAND, BENEFICIARY_AGE_BAND
+    }
+
+    public enum Metric {
+        COUNT, SUM, MIN, MAX, AVG, TOP
+    }
+
+    private final Double minAmount;
+    private final Double maxAmount;
+    private final String sender;
+    private final String beneficiary;
+    private final Integer minSenderAge;
+    private final Integer maxSenderAge;
+    private final Integer minBeneficiaryAge;
+    private final Integer maxBeneficiaryAge;
+    private final IssueState issueState;
+    private final Long fromMillis;
+    private final Long toMillis;
+    private final GroupBy groupBy;
+    private final int ageBand;
+    private final Set<Metric> metrics;
+    private final int topK;
+
+    private TransactionQuery(Builder builder) {
+        this.minAmount = builder.minAmount;
+        this.maxAmount = builder.maxAmount;
+        this.sender = builder.sender;
+        this.beneficiary = builder.beneficiary;
+        this.minSenderAge = builder.minSenderAge;
+        this.maxSenderAge = builder.maxSenderAge;
+        this.minBeneficiaryAge = builder.minBeneficiaryAge;
+        this.maxBeneficiaryAge = builder.maxBeneficiaryAge;
+        this.issueState = builder.issueState;
+        this.fromMillis = builder.fromMillis;
+        this.toMillis = builder.toMillis;
+        this.groupBy = builder.groupBy;
+        this.ageBand = builder.ageBand;
+        this.metrics = Collections.unmodifiableSet(builder.metrics.isEmpty()
+                ? EnumSet.of(Metric.COUNT, Metric.SUM) : EnumSet.copyOf(builder.metrics));
+        this.topK = builder.topK;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reads a query from request parameters: {@code minAmount}, {@code maxAmount}, {@code sender},
+     * {@code beneficiary}, {@code minSenderAge}, {@code maxSenderAge}, {@code minBeneficiaryAge},
+     * {@code maxBeneficiaryAge}, {@code issue} (none, open or solved), {@code from} and {@code to} (epoch
+     * milliseconds or ISO-8601), {@code groupBy}, {@code ageBand}, {@code metrics} (comma separated: count, sum,
+     * min, max, avg, top) and {@code k}
+     *
+     * @throws IllegalArgumentException if a parameter is malformed
+     */
+    public static TransactionQuery fromParameters(Function<String, String> parameters) {
+        Builder builder = builder();
+        String value;
+        if ((value = parameters.apply("minAmount")) != null) {
+            builder.minAmount(parseDouble("minAmount", value));
+        }
+        if ((value = parameters.apply("maxAmount")) != null) {
+            builder.maxAmount(parseDouble("maxAmount", value));
+        }
+        builder.sender(parameters.apply("sender"));
+        builder.beneficiary(parameters.apply("beneficiary"));
+        if ((value = parameters.apply("minSenderAge")) != null) {
+            builder.minSenderAge(parseInt("minSenderAge", value));
+        }
+        if ((value = parameters.apply("maxSenderAge")) != null) {
+            builder.maxSenderAge(parseInt("maxSenderAge", value));
+        }
+        if ((value = parameters.apply("minBeneficiaryAge")) != null) {
+            builder.minBeneficiaryAge(parseInt("minBeneficiaryAge", value));
+        }
+        if ((value = parameters.apply("maxBeneficiaryAge")) != null) {
+            builder.maxBeneficiaryAge(parseInt("maxBeneficiaryAge", value));
+        }
+        if ((value = parameters.apply("issue")) != null) {
+            builder.issueState(parseEnum(IssueState.class, "issue", value));
+        }
+        if ((value = parameters.apply("from")) != null) {
+            builder.fromMillis(TransactionTime.parse(value));
+        }
+        if ((value = parameters.apply("to")) != null) {
+            builder.toMillis(TransactionTime.parse(value));
+        }
+        if ((value = parameters.apply("groupBy")) != null) {
+            builder.groupBy(parseEnum(GroupBy.class, "groupBy", value));
+        }
+        if ((value = parameters.apply("ageBand")) != null) {
+            builder.ageBand(parseInt("ageBand", value));
+        }
+        if ((value = parameters.apply("metrics")) != null) {
+            for (String metric : value.split(",")) {
+                if (!metric.trim().isEmpty()) {
+                    builder.metric(parseEnum(Metric.class, "metrics", metric));
+                }
+            }
+        }
+        if ((value = parameters.apply("k")) != null) {
+            builder.topK(parseInt("k", value));
+        }
+        return builder.build();
+    }
+
+    private static double parseDouble(String name, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value, e);
+        }
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value, e);
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value) {
+        String constant = value.trim().replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT);
+        try {
+            return Enum.valueOf(type, constant);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value, e);
+        }
+    }
+
+    /**
+     * Which filters, grouping and metrics the query uses, without their values
+     */
+    public String shape() {
+        StringBuilder shape = new StringBuilder(64);
+        shape.append(minAmount != null ? 'a' : '-').append(maxAmount != null ? 'A' : '-')
+                .append(sender != null ? 's' : '-').append(beneficiary != null ? 'b' : '-')
+                .append(minSenderAge != null ? 'g' : '-').append(maxSenderAge != null ? 'G' : '-')
+                .append(minBeneficiaryAge != null ? 'h' : '-').append(maxBeneficiaryAge != null ? 'H' : '-')
+                .append(issueState != null ? 'i' : '-')
+                .append(fromMillis != null ? 't' : '-').append(toMillis != null ? 'T' : '-');
+        return shape.append('/').append(groupBy).append('/').append(metrics).toString();
+    }
+
+    public Double getMinAmount() {
+        return minAmount;
+    }
+
+    public Double getMaxAmount() {
+        return maxAmount;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getBeneficiary() {
+        return beneficiary;
+    }
+
+    public Integer getMinSenderAge() {
+        return minSenderAge;
+    }
+
+    public Integer getMaxSenderAge() {
+        return maxSenderAge;
+    }
+
+    public Integer getMinBeneficiaryAge() {
+        return minBeneficiaryAge;
+    }
+
+    public Integer getMaxBeneficiaryAge() {
+        return maxBeneficiaryAge;
+    }
+
+    public IssueState getIssueState() {
+        return issueState;
+    }
+
+    public Long getFromMillis() {
+        return fromMillis;
+    }
+
+    public Long getToMillis() {
+        return toMillis;
+    }
+
+    public GroupBy getGroupBy() {
+        return groupBy;
+    }
+
+    public int getAgeBand() {
+        return ageBand;
+    }
+
+    public Set<Metric> getMetrics() {
+        return metrics;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * The query to send to each shard of a sharded deployment: the same filters, grouping and k, computing the count,
+     * and the sum when the average is asked for, so that {@link QueryGroup#merge} can combine the partial groups
+     */
+    public TransactionQuery partial() {
+        Builder builder = new Builder();
+        builder.minAmount = minAmount;
+        builder.maxAmount = maxAmount;
+        builder.sender = sender;
+        builder.beneficiary = beneficiary;
+        builder.minSenderAge = minSenderAge;
+        builder.maxSenderAge = maxSenderAge;
+        builder.minBeneficiaryAge = minBeneficiaryAge;
+        builder.maxBeneficiaryAge = maxBeneficiaryAge;
+        builder.issueState = issueState;
+        builder.fromMillis = fromMillis;
+        builder.toMillis = toMillis;
+        builder.groupBy = groupBy;
+        builder.ageBand = ageBand;
+        builder.topK = topK;
+        builder.metrics.addAll(metrics);
+        builder.metrics.add(Metric.COUNT);
+        if (metrics.contains(Metric.AVG)) {
+            builder.metrics.add(Metric.SUM);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TransactionQuery)) {
+            return false;
+        }
+        TransactionQuery that = (TransactionQuery) o;
+        return ageBand == that.ageBand && topK == that.topK && Objects.equals(minAmount, that.minAmount)
+                && Objects.equals(maxAmount, that.maxAmount) && Objects.equals(sender, that.sender)
+                && Objects.equals(beneficiary, that.beneficiary) && Objects.equals(minSenderAge, that.minSenderAge)
+                && Objects.equals(maxSenderAge, that.maxSenderAge)
+                && Objects.equals(minBeneficiaryAge, that.minBeneficiaryAge)
+                && Objects.equals(maxBeneficiaryAge, that.maxBeneficiaryAge) && issueState == that.issueState
+                && Objects.equals(fromMillis, that.fromMillis) && Objects.equals(toMillis, that.toMillis)
+                && groupBy == that.groupBy && metrics.equals(that.metrics);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minAmount, maxAmount, sender, beneficiary, minSenderAge, maxSenderAge, minBeneficiaryAge,
+                maxBeneficiaryAge, issueState, fromMillis, toMillis, groupBy, ageBand, metrics, topK);
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionQuery{" + shape() + ", amount=" + minAmount + ".." + maxAmount + ", sender=" + sender
+                + ", beneficiary=" + beneficiary + ", senderAge=" + minSenderAge + ".." + maxSenderAge
+                + ", beneficiaryAge=" + minBeneficiaryAge + ".." + maxBeneficiaryAge + ", issue=" + issueState
+                + ", time=" + fromMillis + ".." + toMillis + ", k=" + topK + "}";
+    }
+
+    public static final class Builder {
+        private Double minAmount;
+        private Double maxAmount;
+        private String sender;
+        private String beneficiary;
+        private Integer minSenderAge;
+        private Integer maxSenderAge;
+        private Integer minBeneficiaryAge;
+        private Integer maxBeneficiaryAge;
+        private IssueState issueState;
+        private Long fromMillis;
+        private Long toMillis;
+        private GroupBy groupBy = GroupBy.NONE;
+        private int ageBand = DEFAULT_AGE_BAND;
+        private final Set<Metric> metrics = EnumSet.noneOf(Metric.class);
+        private int topK = DEFAULT_TOP_K;
+
+        private Builder() {
+        }
+
+        /**
+         * Inclusive lower bound of the amount
+         */
+        public Builder minAmount(double minAmount) {
+            this.minAmount = minAmount;
+            return this;
+        }
+
+        /**
+         * Inclusive upper bound of the amount
+         */
+        public Builder maxAmount(double maxAmount) {
+            this.maxAmount = maxAmount;
+            return this;
+        }
+
+        public Builder sender(String sender) {
+            this.sender = sender;
+            return this;
+        }
+
+        public Builder beneficiary(String beneficiary) {
+            this.beneficiary = beneficiary;
+            return this;
+        }
+
+        public Builder minSenderAge(int minSenderAge) {
+            this.minSenderAge = minSenderAge;
+            return this;
+        }
+
+        public Builder maxSenderAge(int maxSenderAge) {
+            this.maxSenderAge = maxSenderAge;
+            return this;
+        }
+
+        public Builder minBeneficiaryAge(int minBeneficiaryAge) {
+            this.minBeneficiaryAge = minBeneficiaryAge;
+            return this;
+        }
+
+        public Builder maxBeneficiaryAge(int maxBeneficiaryAge) {
+            this.maxBeneficiaryAge = maxBeneficiaryAge;
+            return this;
+        }
+
+        public Builder issueState(IssueState issueState) {
+            this.issueState = issueState;
+            return this;
+        }
+
+        /**
+         * Inclusive start of the time range; rows without a time never match a time filter
+         */
+        public Builder fromMillis(long fromMillis) {
+            this.fromMillis = fromMillis;
+            return this;
+        }
+
+        /**
+         * Inclusive end of the time range
+         */
+        public Builder toMillis(long toMillis) {
+            this.toMillis = toMillis;
+            return this;
+        }
+
+        public Builder groupBy(GroupBy groupBy) {
+            this.groupBy = Objects.requireNonNull(groupBy);
+            return this;
+        }
+
+        /**
+         * Width in years of the age bands, for the age band groupings
+         */
+        public Builder ageBand(int ageBand) {
+            if (ageBand < 1) {
+                throw new IllegalArgumentException("ageBand must be positive: " + ageBand);
+            }
+            this.ageBand = ageBand;
+            return this;
+        }
+
+        /**
+         * Adds a metric; without any, count and sum are computed
+         */
+        public Builder metric(Metric metric) {
+            metrics.add(metric);
+            return this;
+        }
+
+        /**
+         * Number of transactions returned per group by {@link Metric#TOP}
+         */
+        public Builder topK(int topK) {
+            if (topK < 0 || topK > MAX_TOP_K) {
+                throw new IllegalArgumentException("k must be between 0 and " + MAX_TOP_K);
+            }
+            this.topK = topK;
+            return this;
+        }
+
+        public TransactionQuery build() {
+            return new TransactionQuery(this);
+        }
+    }
+}
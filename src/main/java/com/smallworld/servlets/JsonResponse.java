@@ -0,0 +1,180 @@
+package com.smallworld.servlets;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.smallworld.util.JSONFileReader;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON body of one response, written through a streaming {@link JsonGenerator} straight to the servlet output
+ * stream so no intermediate string or tree of the result is ever built.
+ * <p>
+ * Collections are written either as a field of a single JSON object or, when the client asks for NDJSON
+ * ({@code ?format=ndjson} or {@code Accept: application/x-ndjson}), one element per line. Either way the output is
+ * flushed every {@link #FLUSH_EVERY} elements, so large results leave as chunks while they are being written. The
+ * body is gzipped when the request accepts it.
+ */
+final class JsonResponse implements Closeable {
+
+    static final String JSON = "application/json";
+    static final String NDJSON = "application/x-ndjson";
+    static final int FLUSH_EVERY = 1024;
+
+    private static final int GZIP_BUFFER_BYTES = 8192;
+
+    /**
+     * Shared and immutable, hence thread-safe. Flushing after each value is turned off, the flushes are batched
+     */
+    private static final ObjectWriter WRITER = JSONFileReader.objectMapper().writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final JsonGenerator generator;
+    private final boolean ndjson;
+
+    private JsonResponse(OutputStream out, boolean ndjson) throws IOException {
+        this.generator = WRITER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        // NDJSON lines are terminated explicitly, plain JSON has a single root value
+        this.generator.setRootValueSeparator(null);
+        this.ndjson = ndjson;
+    }
+
+    static JsonResponse open(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        return open(request, response, HttpServletResponse.SC_OK);
+    }
+
+    static JsonResponse open(HttpServletRequest request, HttpServletResponse response, int status) throws IOException {
+        boolean ndjson = wantsNdjson(request);
+        response.setStatus(status);
+        response.setContentType(ndjson ? NDJSON : JSON);
+        response.setCharacterEncoding("UTF-8");
+        response.addHeader("Vary", "Accept, Accept-Encoding");
+        OutputStream out = response.getOutputStream();
+        if (acceptsGzip(request)) {
+            response.setHeader("Content-Encoding", "gzip");
+            // sync flush, so every chunk flushed by the generator reaches the client
+            out = new GZIPOutputStream(out, GZIP_BUFFER_BYTES, true);
+        }
+        return new JsonResponse(out, ndjson);
+    }
+
+    /**
+     * Writes {@code {"error": message}} with the given status
+     */
+    static void error(HttpServletRequest request, HttpServletResponse response, int status, String message)
+            throws IOException {
+        try (JsonResponse json = open(request, response, status)) {
+            json.value("error", message);
+        }
+    }
+
+    /**
+     * Writes a single named value, {@code {"name": value}}
+     */
+    void value(String name, Object value) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(name);
+        WRITER.writeValue(generator, value);
+        generator.writeEndObject();
+        endLine();
+    }
+
+    /**
+     * Writes a collection as {@code {"name": [...]}}, or as one element per line in NDJSON
+     */
+    void items(String name, Iterable<?> items) throws IOException {
+        if (!ndjson) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart(name);
+        }
+        int written = 0;
+        for (Object item : items) {
+            WRITER.writeValue(generator, item);
+            endLine();
+            if (++written % FLUSH_EVERY == 0) {
+                generator.flush();
+            }
+        }
+        if (!ndjson) {
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes a map as {@code {"name": {key: value, ...}}}, or in NDJSON as one {@code {"key": key, "value": value}}
+     * line per entry
+     */
+    void entries(String name, Map<String, ?> entries) throws IOException {
+        if (!ndjson) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart(name);
+        }
+        int written = 0;
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            if (ndjson) {
+                generator.writeStartObject();
+                generator.writeStringField("key", entry.getKey());
+                generator.writeFieldName("value");
+                WRITER.writeValue(generator, entry.getValue());
+                generator.writeEndObject();
+                endLine();
+            } else {
+                generator.writeFieldName(entry.getKey());
+                WRITER.writeValue(generator, entry.getValue());
+            }
+            if (++written % FLUSH_EVERY == 0) {
+                generator.flush();
+            }
+        }
+        if (!ndjson) {
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    private void endLine() throws IOException {
+        if (ndjson) {
+            generator.writeRaw('\n');
+        }
+    }
+
+    /**
+     * Finishes the body; this also completes the gzip trailer when the body is compressed
+     */
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+
+    static boolean wantsNdjson(HttpServletRequest request) {
+        String format = request.getParameter("format");
+        if (format != null) {
+            return "ndjson".equalsIgnoreCase(format);
+        }
+        String accept = request.getHeader("Accept");
+        return accept != null && accept.contains(NDJSON);
+    }
+
+    static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,162 @@
+package com.smallworld.servlets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs servlet queries off the container threads.
+ * <p>
+ * Admission is bounded: at most {@code maxInFlight} distinct computations are running or waiting for a thread,
+ * and {@link #submit} fails fast with a {@link RejectedExecutionException} beyond that instead of queueing
+ * without limit. Identical requests are collapsed: while a computation for a key is in flight, further requests
+ * for the same key get the same future and do not count against the limit. A finished computation is forgotten
+ * straight away, so results are never served from a stale cache.
+ * <p>
+ * Queries run on virtual threads when the JVM has them (Java 21+), otherwise on a fixed pool of platform threads.
+ */
+public final class QueryExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryExecutor.class);
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final Semaphore admission;
+    private final int maxInFlight;
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public QueryExecutor(ExecutorService executor, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.admission = new Semaphore(maxInFlight);
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("transaction-query-timer"));
+    }
+
+    /**
+     * Creates an executor on virtual threads if available, falling back to {@code platformThreads} platform threads
+     */
+    public static QueryExecutor create(int maxInFlight, int platformThreads) {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(platformThreads, platformThreads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), daemonThreads("transaction-query"));
+            logger.info("Running queries on " + platformThreads + " platform threads");
+        } else {
+            logger.info("Running queries on virtual threads");
+        }
+        return new QueryExecutor(executor, maxInFlight);
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns the result of the query for the key, joining a computation already in flight for that key
+     *
+     * @throws RejectedExecutionException if {@code maxInFlight} computations are already running
+     */
+    public CompletableFuture<Object> submit(String key, Supplier<?> query) {
+        CompletableFuture<Object> running = inFlight.get(key);
+        if (running != null) {
+            collapsed.increment();
+            return running;
+        }
+        if (!admission.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Too many queries in flight, limit is " + maxInFlight);
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            admission.release();
+            collapsed.increment();
+            return running;
+        }
+        try {
+            executor.execute(() -> run(key, query, future));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            admission.release();
+            rejected.increment();
+            throw e;
+        }
+        return future;
+    }
+
+    private void run(String key, Supplier<?> query, CompletableFuture<Object> future) {
+        Object result = null;
+        Throwable failure = null;
+        try {
+            result = query.get();
+        } catch (Throwable t) {
+            failure = t;
+        }
+        // forget the key before completing, so a request arriving after the result triggers a fresh computation
+        inFlight.remove(key, future);
+        admission.release();
+        if (failure == null) {
+            future.complete(result);
+        } else {
+            future.completeExceptionally(failure);
+        }
+    }
+
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public int getInFlight() {
+        return maxInFlight - admission.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getCollapsed() {
+        return collapsed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdown();
+    }
+}
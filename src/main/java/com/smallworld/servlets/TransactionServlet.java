@@ -1,183 +1,603 @@
 package com.smallworld.servlets;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.smallworld.TransactionDataFetcher;
+import com.smallworld.metrics.MetricsRegistry;
+import com.smallworld.data.ClientGraph;
 import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionSnapshot;
+import com.smallworld.data.TransactionTime;
+import com.smallworld.query.Aggregate;
+import com.smallworld.query.QueryEngine;
+import com.smallworld.query.QueryResult;
+import com.smallworld.query.ResultCache;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.sketch.HeavyHitter;
+import com.smallworld.source.DirectoryTransactionSource;
+import com.smallworld.util.JSONFileReader;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
+import javax.servlet.annotation.WebInitParam;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Optional;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Set;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@WebServlet("/transactions/*")
+/**
+ * HTTP front of {@link TransactionDataFetcher}. GET queries run asynchronously on a {@link QueryExecutor} when the
+ * container supports it, which keeps container threads free while long scans run: admission is bounded and excess
+ * requests get an immediate 503, every endpoint has a timeout after which the client gets a 503, and identical
+ * concurrent requests share one computation.
+ * <p>
+ * Init parameters: {@code async} (default true), {@code maxInFlight}, {@code threads} (used when virtual threads
+ * are not available), {@code <endpoint>.timeoutMillis} such as {@code /summary.timeoutMillis}, and
+ * {@code dataDirectory} to serve a directory of partition files instead of the single JSON file, and
+ * {@code perRowSemantics} to count amounts and issues per row instead of per transfer.
+ * <p>
+ * The per-client endpoints take {@code ?approximate=true} to be answered from sketches; {@code /topSenders} always
+ * is, and reports with every sender how far its estimate may be off. {@code /query} answers ad-hoc filter,
+ * group-by and aggregate questions; its parameters are those of {@link TransactionQuery#fromParameters}.
+ * {@code /counterparties}, {@code /exposure} and {@code /reachableFlaggedClients} (with {@code hops} and
+ * {@code direction}) walk the client graph for compliance investigations. {@code /getTransactionsByBeneficiaryName}
+ * lists every transaction of each beneficiary, and {@code /getTransactionsReceivedBy} those of one; bulk extracts
+ * go through {@link TransactionDataFetcher#export} to files instead.
+ */
+@WebServlet(urlPatterns = "/transactions/*", asyncSupported = true, initParams = {
+        @WebInitParam(name = "async", value = "true")
+})
 public class TransactionServlet extends HttpServlet {
 
 
     private static final Logger logger = LoggerFactory.getLogger(TransactionServlet.class);
 
+    private static final int MAX_TOP_K = 10_000;
+    private static final int MAX_WINDOW_HOURS = 24 * 366 * 10;
+    private static final long MAX_WINDOW_MILLIS = MAX_WINDOW_HOURS * 3_600_000L;
+    private static final int DEFAULT_MAX_HOPS = 3;
+    private static final int MAX_HOPS = 16;
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    /**
+     * Endpoints answered from maintained aggregates or indexes
+     */
+    static final long LOOKUP_TIMEOUT_MILLIS = 2_000;
+    /**
+     * Endpoints that may scan or materialize the whole dataset
+     */
+    static final long SCAN_TIMEOUT_MILLIS = 30_000;
+
+    private static final Map<String, Endpoint> ENDPOINTS = new HashMap<>();
+    private static final Set<String> OTHER_PATHS = new HashSet<>(Arrays.asList("/metrics", "/reload", "/append"));
+    private static final int REQUESTS = 0;
+    private static final int ERRORS = 1;
+
+    static {
+        endpoint("/totalTransactionAmount", "totalTransactionAmount", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> fetcher::getTotalTransactionAmount);
+        endpoint("/totalTransactionAmountSentBy", "totalTransactionAmountSentBy", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> {
+                    String senderFullName = request.getParameter("senderFullName");
+                    return approximate(request)
+                            ? () -> fetcher.estimateTotalTransactionAmountSentBy(senderFullName)
+                            : () -> fetcher.getTotalTransactionAmountSentBy(senderFullName);
+                });
+        endpoint("/maxTransactionAmount", "maxTransactionAmount", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> fetcher::getMaxTransactionAmount);
+        endpoint("/countUniqueClients", "uniqueClients", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> approximate(request)
+                        ? fetcher::countUniqueClientsApproximately : fetcher::countUniqueClients);
+        endpoint("/hasOpenComplianceIssues", "hasOpenComplianceIssues", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> {
+                    String clientFullName = request.getParameter("clientFullName");
+                    return () -> fetcher.hasOpenComplianceIssues(clientFullName);
+                });
+        endpoint("/getTransactionsByBeneficiaryName", "transactionsByBeneficiaryName", SCAN_TIMEOUT_MILLIS,
+                (fetcher, request) -> fetcher::getTransactionsByBeneficiaryName);
+        endpoint("/getTransactionsReceivedBy", "transactions", LOOKUP_TIMEOUT_MILLIS, (fetcher, request) -> {
+            String beneficiaryFullName = request.getParameter("beneficiaryFullName");
+            return () -> fetcher.getTransactionsReceivedBy(beneficiaryFullName);
+        });
+        endpoint("/getUnsolvedIssueIds", "unsolvedIssueIds", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> fetcher::getUnsolvedIssueIds);
+        endpoint("/getAllSolvedIssueMessages", "solvedIssueMessages", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> fetcher::getAllSolvedIssueMessages);
+        endpoint("/getTop3TransactionsByAmount", "top3TransactionsByAmount", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> fetcher::getTop3TransactionsByAmount);
+        endpoint("/getTopSender", "topSender", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> approximate(request)
+                        ? () -> topKey(fetcher.getTopSendersApproximately(1))
+                        : () -> fetcher.getTopSender().orElse(null));
+        endpoint("/topSenders", "topSenders", LOOKUP_TIMEOUT_MILLIS, (fetcher, request) -> {
+            int k = parseK(request.getParameter("k"));
+            return () -> fetcher.getTopSendersApproximately(k);
+        });
+        endpoint("/top", "topTransactionsByAmount", SCAN_TIMEOUT_MILLIS, (fetcher, request) -> {
+            int k = parseK(request.getParameter("k"));
+            return () -> fetcher.getTopTransactionsByAmount(k);
+        });
+        endpoint("/cacheStats", "cache", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> () -> cacheStats(fetcher.getResultCache()));
+        endpoint("/summary", "summary", SCAN_TIMEOUT_MILLIS, (fetcher, request) -> {
+            String aggregatesParam = request.getParameter("aggregates");
+            Set<Aggregate> aggregates = QueryEngine.parse(aggregatesParam == null || aggregatesParam.isEmpty()
+                    ? Collections.<String>emptyList() : Arrays.asList(aggregatesParam.split(",")));
+            return () -> summaryByKey(fetcher.getSummary(aggregates));
+        });
+        endpoint("/query", "groups", SCAN_TIMEOUT_MILLIS, (fetcher, request) -> {
+            TransactionQuery query = TransactionQuery.fromParameters(request::getParameter);
+            return () -> fetcher.query(query);
+        });
+        endpoint("/counterparties", "counterparties", LOOKUP_TIMEOUT_MILLIS, (fetcher, request) -> {
+            String clientFullName = request.getParameter("clientFullName");
+            return () -> fetcher.getCounterparties(clientFullName);
+        });
+        endpoint("/exposure", "exposure", LOOKUP_TIMEOUT_MILLIS, (fetcher, request) -> {
+            String clientFullName = request.getParameter("clientFullName");
+            return () -> fetcher.getExposure(clientFullName);
+        });
+        endpoint("/reachableFlaggedClients", "flaggedClients", SCAN_TIMEOUT_MILLIS, (fetcher, request) -> {
+            String clientFullName = request.getParameter("clientFullName");
+            int hops = parseMaxHops(request.getParameter("hops"));
+            ClientGraph.Direction direction = parseDirection(request.getParameter("direction"));
+            return () -> fetcher.findReachableFlaggedClients(clientFullName, hops, direction);
+        });
+        endpoint("/window", "window", LOOKUP_TIMEOUT_MILLIS, (fetcher, request) -> {
+            long from = parseTime("from", request.getParameter("from"));
+            long to = parseTime("to", request.getParameter("to"));
+            if (to < from) {
+                throw new IllegalArgumentException("to must not be before from");
+            }
+            // a negative difference overflowed, the span is wider than a long
+            if (to - from > MAX_WINDOW_MILLIS || to - from < 0) {
+                throw new IllegalArgumentException("window must not be longer than " + MAX_WINDOW_HOURS + " hours");
+            }
+            return () -> fetcher.getWindowSummary(from, to);
+        });
+        endpoint("/window/totalTransactionAmount", "totalTransactionAmount", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> {
+                    int hours = parseHours(request.getParameter("hours"));
+                    return () -> fetcher.getTotalTransactionAmountInLastHours(hours);
+                });
+        endpoint("/window/topSenderToday", "topSender", LOOKUP_TIMEOUT_MILLIS,
+                (fetcher, request) -> () -> fetcher.getTopSenderToday().orElse(null));
+    }
+
     @Autowired
     private TransactionDataFetcher dataFetcher;
 
+    /**
+     * Null until {@link #init()}, or when async mode is off; queries then run on the calling thread
+     */
+    private volatile QueryExecutor queryExecutor;
+    private final Map<String, Long> timeoutMillis = new HashMap<>();
+    private final ConcurrentHashMap<String, LongAdder[]> endpointCounters = new ConcurrentHashMap<>();
+
+    @Override
+    public void init() throws ServletException {
+        if (dataFetcher != null && Boolean.parseBoolean(getInitParameter("perRowSemantics"))) {
+            dataFetcher.setPerRowSemantics(true);
+        }
+        String dataDirectory = getInitParameter("dataDirectory");
+        if (dataDirectory != null && dataFetcher != null) {
+            dataFetcher.getSnapshotManager().setSource(new DirectoryTransactionSource(Paths.get(dataDirectory)));
+            dataFetcher.getSnapshotManager().reload();
+        }
+        for (Map.Entry<String, Endpoint> entry : ENDPOINTS.entrySet()) {
+            String configured = getInitParameter(entry.getKey() + ".timeoutMillis");
+            timeoutMillis.put(entry.getKey(),
+                    configured == null ? entry.getValue().timeoutMillis : Long.parseLong(configured));
+        }
+        if (!Boolean.parseBoolean(initParameter("async", "true"))) {
+            return;
+        }
+        queryExecutor = QueryExecutor.create(
+                Integer.parseInt(initParameter("maxInFlight", String.valueOf(DEFAULT_MAX_IN_FLIGHT))),
+                Integer.parseInt(initParameter("threads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors() * 2))));
+    }
+
+    private String initParameter(String name, String defaultValue) {
+        String value = getInitParameter(name);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public void destroy() {
+        QueryExecutor executor = queryExecutor;
+        queryExecutor = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        counters(request.getPathInfo())[REQUESTS].increment();
+        super.service(request, response);
+    }
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         String pathInfo = request.getPathInfo();
 
+        if ("/metrics".equals(pathInfo)) {
+            response.setContentType(MetricsRegistry.CONTENT_TYPE);
+            dataFetcher.getMetrics().writePrometheusText(response.getWriter());
+            return;
+        }
         if (pathInfo == null) {
-            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            response.getWriter().write("Invalid URL");
+            error(request, response, HttpServletResponse.SC_BAD_REQUEST, "Invalid URL");
             logger.info("Invalid URL");
             return;
         }
+        Endpoint endpoint = ENDPOINTS.get(pathInfo);
+        if (endpoint == null) {
+            error(request, response, HttpServletResponse.SC_NOT_FOUND, "Endpoint not found");
+            return;
+        }
+        Supplier<?> query;
+        try {
+            query = endpoint.query.prepare(dataFetcher, request);
+        } catch (IllegalArgumentException e) {
+            error(request, response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
 
-        switch (pathInfo) {
-            case "/totalTransactionAmount":
-                handleTotalTransactionAmount(request, response);
-                break;
-            case "/totalTransactionAmountSentBy":
-                handleTotalTransactionAmountSentBy(request, response);
-                break;
-            case "/maxTransactionAmount":
-                handleMaxTransactionAmount(request, response);
-                break;
-            case "/countUniqueClients":
-                handleCountUniqueClients(request, response);
-                break;
-            case "/hasOpenComplianceIssues":
-                handleHasOpenComplianceIssues(request, response);
-                break;
-            case "/getTransactionsByBeneficiaryName":
-                handleGetTransactionsByBeneficiaryName(request, response);
-                break;
-            case "/getUnsolvedIssueIds":
-                handleGetUnsolvedIssueIds(request, response);
-                break;
-            case "/getAllSolvedIssueMessages":
-                handleGetAllSolvedIssueMessages(request, response);
-                break;
-            case "/getTop3TransactionsByAmount":
-                handleGetTop3TransactionsByAmount(request, response);
-                break;
-            case "/getTopSender":
-                handleGetTopSender(request, response);
-                break;
-            default:
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                response.getWriter().write("Endpoint not found");
-        }
-    }
-
-    private void handleTotalTransactionAmount(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        QueryExecutor executor = queryExecutor;
+        if (executor == null || !request.isAsyncSupported()) {
+            Object result;
+            try {
+                result = query.get();
+            } catch (RuntimeException e) {
+                writeFailure(request, response, e);
+                return;
+            }
+            writeResult(request, response, endpoint, result);
+            return;
+        }
+
+        CompletableFuture<Object> future;
         try {
-            double totalAmount = dataFetcher.getTotalTransactionAmount();
-            response.getWriter().write("Total Transaction Amount: " + totalAmount);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+            future = executor.submit(collapseKey(pathInfo, request), query);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Rejected " + pathInfo + ": " + e.getMessage());
+            response.setHeader("Retry-After", "1");
+            error(request, response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server is overloaded");
+            return;
         }
+        respondAsync(request.startAsync(), executor, endpoint, future, timeoutFor(pathInfo));
     }
 
-    private void handleTotalTransactionAmountSentBy(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        String senderFullName = request.getParameter("senderFullName");
-        try {
-            double totalAmount = dataFetcher.getTotalTransactionAmountSentBy(senderFullName);
-            response.getWriter().write("Total Transaction Amount Sent By " + senderFullName + ": " + totalAmount);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+    /**
+     * Whichever comes first, the result or the timeout, writes the response; the other is then ignored. The container
+     * timeout is disabled so that it can never race with a response being written
+     */
+    private void respondAsync(AsyncContext async, QueryExecutor executor, Endpoint endpoint,
+                              CompletableFuture<Object> future, long timeout) {
+        async.setTimeout(0);
+        HttpServletRequest request = (HttpServletRequest) async.getRequest();
+        HttpServletResponse response = (HttpServletResponse) async.getResponse();
+        AtomicBoolean responded = new AtomicBoolean();
+        ScheduledFuture<?> timer = executor.schedule(() -> {
+            if (responded.compareAndSet(false, true)) {
+                logger.warn("Timed out after " + timeout + " ms: " + request.getPathInfo());
+                try {
+                    error(request, response, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                            "Timed out after " + timeout + " ms");
+                } catch (IOException e) {
+                    logger.error("Error: " + e.getMessage());
+                } finally {
+                    async.complete();
+                }
+            }
+        }, timeout);
+        // a collapsed query completes every waiting request on one thread, so each response is written on a
+        // container thread of its own rather than one after the other on that one
+        future.whenComplete((result, failure) -> {
+            timer.cancel(false);
+            if (!responded.compareAndSet(false, true)) {
+                return;
+            }
+            async.start(() -> {
+                try {
+                    if (failure == null) {
+                        writeResult(request, response, endpoint, result);
+                    } else {
+                        writeFailure(request, response, failure instanceof CompletionException
+                                ? failure.getCause() : failure);
+                    }
+                } catch (IOException e) {
+                    logger.error("Error: " + e.getMessage());
+                } finally {
+                    async.complete();
+                }
+            });
+        });
+    }
+
+    /**
+     * Writes an error response and counts it against the endpoint
+     */
+    private void error(HttpServletRequest request, HttpServletResponse response, int status, String message)
+            throws IOException {
+        counters(request.getPathInfo())[ERRORS].increment();
+        JsonResponse.error(request, response, status, message);
+    }
+
+    /**
+     * Request and error counters of an endpoint, registered on first use. Unknown paths share one label so that
+     * arbitrary URLs cannot grow the metrics without bound
+     */
+    private LongAdder[] counters(String pathInfo) {
+        String endpoint = pathInfo != null && (ENDPOINTS.containsKey(pathInfo) || OTHER_PATHS.contains(pathInfo))
+                ? pathInfo : "unknown";
+        LongAdder[] counters = endpointCounters.get(endpoint);
+        if (counters != null) {
+            return counters;
         }
+        MetricsRegistry metrics = dataFetcher.getMetrics();
+        registerExecutorMetrics(metrics);
+        return endpointCounters.computeIfAbsent(endpoint, key -> new LongAdder[]{
+                metrics.counter("smallworld_http_requests_total", "Requests per endpoint", "endpoint", key),
+                metrics.counter("smallworld_http_errors_total", "Error responses per endpoint", "endpoint", key)});
     }
 
-    private void handleMaxTransactionAmount(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        try {
-            double maxAmount = dataFetcher.getMaxTransactionAmount();
-            response.getWriter().write("Max Transaction Amount: " + maxAmount);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+    private void registerExecutorMetrics(MetricsRegistry metrics) {
+        metrics.gauge("smallworld_query_in_flight", "Queries running or waiting for a thread",
+                () -> executorFigure(QueryExecutor::getInFlight));
+        metrics.gauge("smallworld_query_max_in_flight", "Admission limit of the query executor",
+                () -> executorFigure(QueryExecutor::getMaxInFlight));
+        metrics.counter("smallworld_query_collapsed_total", "Requests that joined an identical query in flight",
+                () -> executorFigure(QueryExecutor::getCollapsed));
+        metrics.counter("smallworld_query_rejected_total", "Requests rejected because the executor was full",
+                () -> executorFigure(QueryExecutor::getRejected));
+    }
+
+    private double executorFigure(ToDoubleFunction<QueryExecutor> figure) {
+        QueryExecutor executor = queryExecutor;
+        return executor == null ? 0 : figure.applyAsDouble(executor);
+    }
+
+    private static void writeResult(HttpServletRequest request, HttpServletResponse response, Endpoint endpoint,
+                                    Object result) throws IOException {
+        try (JsonResponse json = JsonResponse.open(request, response)) {
+            if (result instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, ?> entries = (Map<String, ?>) result;
+                json.entries(endpoint.field, entries);
+            } else if (result instanceof Collection) {
+                json.items(endpoint.field, (Collection<?>) result);
+            } else {
+                json.value(endpoint.field, result);
+            }
         }
     }
 
-    private void handleCountUniqueClients(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        try {
-            long count = dataFetcher.countUniqueClients();
-            response.getWriter().write("Count of Unique Clients: " + count);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+    private void writeFailure(HttpServletRequest request, HttpServletResponse response, Throwable failure)
+            throws IOException {
+        logger.error("Error: " + failure.getMessage());
+        int status = failure instanceof UnsupportedOperationException
+                ? HttpServletResponse.SC_NOT_IMPLEMENTED : HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        error(request, response, status, String.valueOf(failure.getMessage()));
+    }
+
+    /**
+     * Endpoint plus its parameters in a fixed order; the response format does not change the result, so it is left
+     * out and JSON and NDJSON clients share computations
+     */
+    static String collapseKey(String pathInfo, HttpServletRequest request) {
+        StringBuilder key = new StringBuilder(pathInfo);
+        Map<String, String[]> parameters = new TreeMap<>(request.getParameterMap());
+        parameters.remove("format");
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            key.append('&').append(parameter.getKey()).append('=').append(Arrays.toString(parameter.getValue()));
         }
+        return key.toString();
     }
 
-    private void handleHasOpenComplianceIssues(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        String clientFullName = request.getParameter("clientFullName");
-        try {
-            boolean hasOpenIssues = dataFetcher.hasOpenComplianceIssues(clientFullName);
-            response.getWriter().write("Has Open Compliance Issues: " + hasOpenIssues);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+    private long timeoutFor(String pathInfo) {
+        Long timeout = timeoutMillis.get(pathInfo);
+        return timeout == null ? ENDPOINTS.get(pathInfo).timeoutMillis : timeout;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if ("/reload".equals(request.getPathInfo())) {
+            handleReload(request, response);
+            return;
+        }
+        if ("/append".equals(request.getPathInfo())) {
+            handleAppend(request, response);
+            return;
+        }
+        error(request, response, HttpServletResponse.SC_NOT_FOUND, "Endpoint not found");
+    }
+
+    private void handleReload(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        TransactionSnapshot snapshot = dataFetcher.getSnapshotManager().reload();
+        logger.info("Reload requested, now serving snapshot v" + snapshot.getVersion());
+        Map<String, Object> reloaded = new LinkedHashMap<>();
+        reloaded.put("version", snapshot.getVersion());
+        reloaded.put("transactions", snapshot.size());
+        try (JsonResponse json = JsonResponse.open(request, response)) {
+            json.value("reloaded", reloaded);
         }
     }
 
-    private void handleGetTransactionsByBeneficiaryName(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    /**
+     * Accepts a single transaction object or an array of them as the JSON request body
+     */
+    private void handleAppend(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        List<Transaction> transactions;
         try {
-            Map<String, Transaction> transactions = dataFetcher.getTransactionsByBeneficiaryName();
-            // You can serialize and send the transactions as JSON here
-            response.getWriter().write("Transactions by Beneficiary Name: " + transactions);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+            ObjectMapper objectMapper = JSONFileReader.objectMapper();
+            JsonNode body = objectMapper.readTree(request.getInputStream());
+            if (body != null && body.isArray()) {
+                transactions = objectMapper.convertValue(body, objectMapper.getTypeFactory()
+                        .constructCollectionType(List.class, Transaction.class));
+            } else if (body != null && body.isObject()) {
+                transactions = Collections.singletonList(objectMapper.treeToValue(body, Transaction.class));
+            } else {
+                throw new IllegalArgumentException("expected a transaction or an array of transactions");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            error(request, response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        dataFetcher.appendAll(transactions);
+        try (JsonResponse json = JsonResponse.open(request, response)) {
+            json.value("appended", transactions.size());
         }
     }
 
-    private void handleGetUnsolvedIssueIds(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    private static int parseK(String value) {
         try {
-            Set<Integer> issueIds = dataFetcher.getUnsolvedIssueIds();
-            // You can serialize and send the issueIds as JSON here
-            response.getWriter().write("Unsolved Issue IDs: " + issueIds);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+            int k = Integer.parseInt(value);
+            if (k < 0 || k > MAX_TOP_K) {
+                throw new NumberFormatException("k must be between 0 and " + MAX_TOP_K);
+            }
+            return k;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid k, " + e.getMessage(), e);
         }
     }
 
-    private void handleGetAllSolvedIssueMessages(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    /**
+     * Whether the client asked for the sketch-based estimate with {@code ?approximate=true}
+     */
+    private static boolean approximate(HttpServletRequest request) {
+        return Boolean.parseBoolean(request.getParameter("approximate"));
+    }
+
+    private static String topKey(List<HeavyHitter> top) {
+        return top.isEmpty() ? null : top.get(0).getKey();
+    }
+
+    /**
+     * Epoch milliseconds or an ISO-8601 date-time or date, UTC unless the value has an offset
+     */
+    private static long parseTime(String name, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return TransactionTime.parse(value);
+    }
+
+    private static int parseMaxHops(String value) {
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_MAX_HOPS;
+        }
         try {
-            List<String> issueMessages = dataFetcher.getAllSolvedIssueMessages();
-            // You can serialize and send the issueMessages as JSON here
-            response.getWriter().write("Solved Issue Messages: " + issueMessages);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+            int hops = Integer.parseInt(value);
+            if (hops < 0 || hops > MAX_HOPS) {
+                throw new NumberFormatException("hops must be between 0 and " + MAX_HOPS);
+            }
+            return hops;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid hops, " + e.getMessage(), e);
         }
     }
 
-    private void handleGetTop3TransactionsByAmount(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    /**
+     * sent, received or both (the default)
+     */
+    private static ClientGraph.Direction parseDirection(String value) {
+        if (value == null || value.isEmpty()) {
+            return ClientGraph.Direction.BOTH;
+        }
         try {
-            List<Transaction> top3Transactions = dataFetcher.getTop3TransactionsByAmount();
-            // You can serialize and send the top3Transactions as JSON here
-            response.getWriter().write("Top 3 Transactions by Amount: " + top3Transactions);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+            return ClientGraph.Direction.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid direction " + value, e);
         }
     }
 
-    private void handleGetTopSender(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    private static int parseHours(String value) {
         try {
-            Optional<String> topSender = dataFetcher.getTopSender();
-            response.getWriter().write("Top Sender: " + topSender.orElse("No top sender found"));
-        } catch (UnsupportedOperationException e) {
-            logger.error("Error: " + e.getMessage());
-            response.getWriter().write("Error: " + e.getMessage());
+            int hours = Integer.parseInt(value);
+            if (hours < 0 || hours > MAX_WINDOW_HOURS) {
+                throw new NumberFormatException("hours must be between 0 and " + MAX_WINDOW_HOURS);
+            }
+            return hours;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid hours, " + e.getMessage(), e);
+        }
+    }
+
+    private static Map<String, Object> summaryByKey(QueryResult summary) {
+        Map<String, Object> byKey = new LinkedHashMap<>();
+        for (Map.Entry<Aggregate, Object> entry : summary.asMap().entrySet()) {
+            Object value = entry.getValue();
+            byKey.put(entry.getKey().getKey(), value instanceof Optional ? ((Optional<?>) value).orElse(null) : value);
+        }
+        return byKey;
+    }
+
+    private static Map<String, Object> cacheStats(ResultCache cache) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", cache.getHits());
+        stats.put("misses", cache.getMisses());
+        stats.put("evictions", cache.getEvictions());
+        stats.put("invalidations", cache.getInvalidations());
+        stats.put("size", cache.size());
+        stats.put("maxEntries", cache.getMaxEntries());
+        return stats;
+    }
+
+    private static void endpoint(String path, String field, long timeoutMillis, QueryFactory query) {
+        ENDPOINTS.put(path, new Endpoint(field, timeoutMillis, query));
+    }
+
+    /**
+     * Reads and validates the request parameters, throwing {@link IllegalArgumentException} for a bad request, and
+     * returns the query to run. Validation happens on the request thread, the query wherever it is scheduled
+     */
+    private interface QueryFactory {
+        Supplier<?> prepare(TransactionDataFetcher fetcher, HttpServletRequest request);
+    }
+
+    private static final class Endpoint {
+        /**
+         * Name of the result in the JSON response
+         */
+        final String field;
+        final long timeoutMillis;
+        final QueryFactory query;
+
+        Endpoint(String field, long timeoutMillis, QueryFactory query) {
+            this.field = field;
+            this.timeoutMillis = timeoutMillis;
+            this.query = query;
         }
     }
 }
@@ -0,0 +1,143 @@
+package com.smallworld.shard;
+
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ApproximateAggregates;
+import com.smallworld.data.StringDictionary;
+import com.smallworld.data.Transaction;
+import com.smallworld.query.QueryGroup;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.sketch.ErrorBounds;
+import com.smallworld.source.SourceData;
+import com.smallworld.util.JSONFileReader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.Set;
+
+/**
+ * A shard served by a {@link TransactionDataFetcher} in this JVM, with its caches, indexes and aggregates
+ */
+public final class LocalTransactionShard implements TransactionShard {
+
+    private final TransactionDataFetcher fetcher;
+
+    public LocalTransactionShard(TransactionDataFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * A shard over the given transactions, held in a fetcher of its own
+     */
+    public static LocalTransactionShard of(List<Transaction> transactions) {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        List<Transaction> rows = Collections.unmodifiableList(new ArrayList<>(transactions));
+        fetcher.getSnapshotManager().setSource(() -> SourceData.ofTransactions(rows, 0));
+        fetcher.getSnapshotManager().reload();
+        return new LocalTransactionShard(fetcher);
+    }
+
+    public TransactionDataFetcher getFetcher() {
+        return fetcher;
+    }
+
+    @Override
+    public void appendAll(Collection<? extends Transaction> transactions) {
+        fetcher.appendAll(transactions);
+    }
+
+    @Override
+    public double getTotalTransactionAmount() {
+        return fetcher.getTotalTransactionAmount();
+    }
+
+    @Override
+    public double getTotalTransactionAmountSentBy(String senderFullName) {
+        return fetcher.getTotalTransactionAmountSentBy(senderFullName);
+    }
+
+    @Override
+    public OptionalDouble getMaxTransactionAmount() {
+        // rows are only ever added, so once there are some the fetcher's maximum is one of theirs
+        if (fetcher.getSnapshotManager().current().size() == 0) {
+            return OptionalDouble.empty();
+        }
+        return OptionalDouble.of(fetcher.getMaxTransactionAmount());
+    }
+
+    @Override
+    public Set<String> getClientNames() {
+        StringDictionary clients = fetcher.getSnapshotManager().current().getStore().getClients();
+        int size = clients.size();
+        Set<String> names = new HashSet<>(size * 2);
+        for (int code = 0; code < size; code++) {
+            names.add(clients.decode(code));
+        }
+        return names;
+    }
+
+    @Override
+    public ApproximateAggregates getApproximateAggregates(ErrorBounds bounds) {
+        return fetcher.getSnapshotManager().current().readApproximateAggregates(bounds, aggregates -> {
+            ApproximateAggregates copy = new ApproximateAggregates(bounds);
+            copy.merge(aggregates);
+            return copy;
+        });
+    }
+
+    @Override
+    public double estimateTotalTransactionAmountSentBy(String senderFullName) {
+        return fetcher.estimateTotalTransactionAmountSentBy(senderFullName);
+    }
+
+    @Override
+    public boolean hasOpenComplianceIssues(String clientFullName) {
+        return fetcher.hasOpenComplianceIssues(clientFullName);
+    }
+
+    @Override
+    public Map<String, List<Transaction>> getTransactionsByBeneficiaryName() {
+        return fetcher.getTransactionsByBeneficiaryName();
+    }
+
+    @Override
+    public List<Transaction> getTransactionsSentBy(String senderFullName) {
+        return fetcher.getTransactionsSentBy(senderFullName);
+    }
+
+    @Override
+    public Optional<Transaction> findTransactionByIssueId(int issueId) {
+        return fetcher.findTransactionByIssueId(issueId);
+    }
+
+    @Override
+    public Set<Integer> getUnsolvedIssueIds() {
+        return fetcher.getUnsolvedIssueIds();
+    }
+
+    @Override
+    public List<String> getAllSolvedIssueMessages() {
+        return fetcher.getAllSolvedIssueMessages();
+    }
+
+    @Override
+    public List<Transaction> getTopTransactionsByAmount(int k) {
+        return fetcher.getTopTransactionsByAmount(k);
+    }
+
+    @Override
+    public Optional<SenderTotal> getTopSender() {
+        Optional<String> sender = fetcher.getTopSender();
+        return sender.map(name -> new SenderTotal(name, fetcher.getTotalTransactionAmountSentBy(name)));
+    }
+
+    @Override
+    public List<QueryGroup> query(TransactionQuery query) {
+        return fetcher.query(query);
+    }
+}
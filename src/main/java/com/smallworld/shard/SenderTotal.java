@@ -0,0 +1,28 @@
+package com.smallworld.shard;
+
+/**
+ * A sender with the total amount it sent, as reported by one shard
+ */
+public final class SenderTotal {
+
+    private final String sender;
+    private final double total;
+
+    public SenderTotal(String sender, double total) {
+        this.sender = sender;
+        this.total = total;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "SenderTotal{" + sender + ", total=" + total + "}";
+    }
+}
@@ -0,0 +1,360 @@
+package com.smallworld.shard;
+
+import com.smallworld.data.ApproximateAggregates;
+import com.smallworld.data.Transaction;
+import com.smallworld.metrics.MetricsRegistry;
+import com.smallworld.query.QueryGroup;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.sketch.ErrorBounds;
+import com.smallworld.sketch.HeavyHitter;
+import com.smallworld.util.TopKHeap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Answers the questions of {@link com.smallworld.TransactionDataFetcher} over transactions spread across
+ * {@link TransactionShard shards} by sender hash. Questions about one sender are routed to the shard holding it;
+ * all others are sent to every shard at once and the partial answers are merged: sums add up, maxima are kept,
+ * top transactions are merged through a bounded heap, distinct clients through a union of names or of HyperLogLog
+ * sketches, and the top sender is the best of every shard's leader, since a sender's whole total lives on one shard.
+ * Each shard holds only its part of the data, so the data a deployment can hold grows with the number of shards,
+ * and the per-sender questions spread over them.
+ * <p>
+ * Where the single fetcher breaks ties by data order, the coordinator breaks them by shard order, as it does not
+ * know how the rows of different shards interleave. A failing shard fails the whole question; partial answers are
+ * never returned.
+ */
+public final class ShardCoordinator implements AutoCloseable {
+
+    private final List<TransactionShard> shards;
+    private final ShardRouter router;
+    private final ExecutorService executor;
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LongAdder scattered = metrics.counter("smallworld_shard_scattered_total",
+            "Questions sent to every shard and merged");
+    private final LongAdder routed = metrics.counter("smallworld_shard_routed_total",
+            "Questions answered by the one shard holding the sender");
+
+    private volatile ErrorBounds sketchErrorBounds = ErrorBounds.DEFAULT;
+
+    /**
+     * A coordinator over the shards, which must hold the transactions as {@link ShardRouter} assigns them over this
+     * number of shards
+     */
+    public ShardCoordinator(List<? extends TransactionShard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.router = new ShardRouter(shards.size());
+        this.executor = shards.size() == 1 ? null : Executors.newFixedThreadPool(shards.size(), daemonThreads());
+    }
+
+    /**
+     * Partitions the transactions over the given number of {@link LocalTransactionShard shards} in this JVM
+     */
+    public static ShardCoordinator inProcess(Collection<? extends Transaction> transactions, int shards) {
+        List<TransactionShard> local = new ArrayList<>(shards);
+        for (List<Transaction> partition : new ShardRouter(shards).partition(transactions)) {
+            local.add(LocalTransactionShard.of(partition));
+        }
+        return new ShardCoordinator(local);
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "transaction-shard-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Asks every shard at once and returns the answers in shard order
+     */
+    private <T> List<T> scatter(Function<TransactionShard, T> call) {
+        scattered.increment();
+        if (executor == null) {
+            return Collections.singletonList(call.apply(shards.get(0)));
+        }
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (TransactionShard shard : shards) {
+            futures.add(executor.submit(() -> call.apply(shard)));
+        }
+        List<T> answers = new ArrayList<>(shards.size());
+        try {
+            for (Future<T> future : futures) {
+                answers.add(future.get());
+            }
+            return answers;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("A shard failed", cause);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * The shard holding every transaction of the sender
+     */
+    private TransactionShard shardOf(String senderFullName) {
+        routed.increment();
+        return shards.get(router.shardOf(senderFullName));
+    }
+
+    public void append(Transaction transaction) {
+        appendAll(Collections.singletonList(transaction));
+    }
+
+    /**
+     * Adds the transactions to the shards of their senders; each shard publishes its part atomically, but the
+     * parts of different shards become visible independently
+     */
+    public void appendAll(Collection<? extends Transaction> transactions) {
+        List<List<Transaction>> partitions = router.partition(transactions);
+        for (int shard = 0; shard < partitions.size(); shard++) {
+            if (!partitions.get(shard).isEmpty()) {
+                shards.get(shard).appendAll(partitions.get(shard));
+            }
+        }
+    }
+
+    public double getTotalTransactionAmount() {
+        double total = 0;
+        for (double partial : scatter(TransactionShard::getTotalTransactionAmount)) {
+            total += partial;
+        }
+        return total;
+    }
+
+    public double getTotalTransactionAmountSentBy(String senderFullName) {
+        return shardOf(senderFullName).getTotalTransactionAmountSentBy(senderFullName);
+    }
+
+    /**
+     * Highest amount of any shard, or 0 if no shard has transactions
+     */
+    public double getMaxTransactionAmount() {
+        double max = Double.NEGATIVE_INFINITY;
+        boolean any = false;
+        for (OptionalDouble partial : scatter(TransactionShard::getMaxTransactionAmount)) {
+            if (partial.isPresent()) {
+                max = Math.max(max, partial.getAsDouble());
+                any = true;
+            }
+        }
+        return any ? max : 0;
+    }
+
+    /**
+     * Counts the clients that sent or received a transaction, exactly, from the union of every shard's names; a
+     * beneficiary may appear on many shards
+     */
+    public long countUniqueClients() {
+        Set<String> clients = new HashSet<>();
+        for (Set<String> partial : scatter(TransactionShard::getClientNames)) {
+            clients.addAll(partial);
+        }
+        return clients.size();
+    }
+
+    /**
+     * Estimates the number of distinct clients from the union of every shard's HyperLogLog sketch, which costs the
+     * sketch size per shard instead of a name per client
+     */
+    public long countUniqueClientsApproximately() {
+        return mergedSketches().countUniqueClients();
+    }
+
+    /**
+     * The k senders with the highest estimated totals over all shards
+     */
+    public List<HeavyHitter> getTopSendersApproximately(int k) {
+        return mergedSketches().getTopSenders(k);
+    }
+
+    public double estimateTotalTransactionAmountSentBy(String senderFullName) {
+        return shardOf(senderFullName).estimateTotalTransactionAmountSentBy(senderFullName);
+    }
+
+    private ApproximateAggregates mergedSketches() {
+        ErrorBounds bounds = sketchErrorBounds;
+        ApproximateAggregates merged = new ApproximateAggregates(bounds);
+        for (ApproximateAggregates partial : scatter(shard -> shard.getApproximateAggregates(bounds))) {
+            merged.merge(partial);
+        }
+        return merged;
+    }
+
+    /**
+     * Whether the client has an open issue on any shard, as a sender on its own shard or as a beneficiary anywhere
+     */
+    public boolean hasOpenComplianceIssues(String clientFullName) {
+        for (boolean partial : scatter(shard -> shard.hasOpenComplianceIssues(clientFullName))) {
+            if (partial) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Every transaction of each beneficiary, the shards' lists concatenated in shard order
+     */
+    public Map<String, List<Transaction>> getTransactionsByBeneficiaryName() {
+        Map<String, List<Transaction>> merged = new LinkedHashMap<>();
+        for (Map<String, List<Transaction>> partial : scatter(TransactionShard::getTransactionsByBeneficiaryName)) {
+            for (Map.Entry<String, List<Transaction>> entry : partial.entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), beneficiary -> new ArrayList<>()).addAll(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    public List<Transaction> getTransactionsSentBy(String senderFullName) {
+        return shardOf(senderFullName).getTransactionsSentBy(senderFullName);
+    }
+
+    public Optional<Transaction> findTransactionByIssueId(int issueId) {
+        for (Optional<Transaction> partial : scatter(shard -> shard.findTransactionByIssueId(issueId))) {
+            if (partial.isPresent()) {
+                return partial;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * An issue belongs to one transfer and so to one shard; the union holds each once
+     */
+    public Set<Integer> getUnsolvedIssueIds() {
+        Set<Integer> merged = new LinkedHashSet<>();
+        for (Set<Integer> partial : scatter(TransactionShard::getUnsolvedIssueIds)) {
+            merged.addAll(partial);
+        }
+        return merged;
+    }
+
+    public List<String> getAllSolvedIssueMessages() {
+        List<String> merged = new ArrayList<>();
+        for (List<String> partial : scatter(TransactionShard::getAllSolvedIssueMessages)) {
+            merged.addAll(partial);
+        }
+        return merged;
+    }
+
+    public List<Transaction> getTop3TransactionsByAmount() {
+        return getTopTransactionsByAmount(3);
+    }
+
+    /**
+     * The k highest transactions of all shards: each shard sends its own k best, and a bounded heap keeps the best k
+     * of those
+     */
+    public List<Transaction> getTopTransactionsByAmount(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        List<Transaction> candidates = new ArrayList<>();
+        for (List<Transaction> partial : scatter(shard -> shard.getTopTransactionsByAmount(k))) {
+            candidates.addAll(partial);
+        }
+        TopKHeap heap = new TopKHeap(k);
+        for (int i = 0; i < candidates.size(); i++) {
+            heap.offer(candidates.get(i).getAmount(), i);
+        }
+        List<Transaction> top = new ArrayList<>(heap.size());
+        for (int i : heap.sortedRows()) {
+            top.add(candidates.get(i));
+        }
+        return top;
+    }
+
+    /**
+     * The sender with the highest total. All of a sender's transactions are on its shard, so every shard's leader
+     * carries its complete total and the best of them is the overall leader
+     */
+    public Optional<String> getTopSender() {
+        SenderTotal best = null;
+        for (Optional<SenderTotal> partial : scatter(TransactionShard::getTopSender)) {
+            if (partial.isPresent() && (best == null || partial.get().getTotal() > best.getTotal())) {
+                best = partial.get();
+            }
+        }
+        return best == null ? Optional.empty() : Optional.of(best.getSender());
+    }
+
+    /**
+     * Runs the ad-hoc query on every shard, or only on the sender's shard when it filters by sender, and merges the
+     * groups, see {@link QueryGroup#merge}
+     */
+    public List<QueryGroup> query(TransactionQuery query) {
+        TransactionQuery partial = query.partial();
+        if (query.getSender() != null) {
+            return QueryGroup.merge(query, Collections.singletonList(shardOf(query.getSender()).query(partial)));
+        }
+        return QueryGroup.merge(query, scatter(shard -> shard.query(partial)));
+    }
+
+    public List<TransactionShard> getShards() {
+        return shards;
+    }
+
+    public ShardRouter getRouter() {
+        return router;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public ErrorBounds getSketchErrorBounds() {
+        return sketchErrorBounds;
+    }
+
+    /**
+     * Error bounds of the sketches merged for the approximate questions
+     */
+    public void setSketchErrorBounds(ErrorBounds sketchErrorBounds) {
+        this.sketchErrorBounds = sketchErrorBounds;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
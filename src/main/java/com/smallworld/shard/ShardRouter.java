@@ -0,0 +1,46 @@
+package com.smallworld.shard;
+
+import com.smallworld.data.Transaction;
+import com.smallworld.sketch.HyperLogLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Assigns every transaction to a shard by a stable hash of its sender, so that all transactions of a sender, and
+ * with them every transfer and issue, live on one shard. Transactions without a sender go to the first shard.
+ */
+public final class ShardRouter {
+
+    private final int shards;
+
+    public ShardRouter(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive: " + shards);
+        }
+        this.shards = shards;
+    }
+
+    public int shardOf(String senderFullName) {
+        return senderFullName == null ? 0 : (int) Long.remainderUnsigned(HyperLogLog.hash(senderFullName), shards);
+    }
+
+    /**
+     * Splits the transactions by shard, keeping their order within each shard
+     */
+    public List<List<Transaction>> partition(Collection<? extends Transaction> transactions) {
+        List<List<Transaction>> partitions = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (Transaction transaction : transactions) {
+            partitions.get(shardOf(transaction.getSenderFullName())).add(transaction);
+        }
+        return partitions;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+}
@@ -0,0 +1,68 @@
+package com.smallworld.shard;
+
+import com.smallworld.data.ApproximateAggregates;
+import com.smallworld.data.Transaction;
+import com.smallworld.query.QueryGroup;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.sketch.ErrorBounds;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.Set;
+
+/**
+ * One shard of a sharded deployment as seen by the {@link ShardCoordinator}: the answers of a
+ * {@link com.smallworld.TransactionDataFetcher} over the shard's transactions, in a form the coordinator can merge.
+ * A shard holds every transaction of the senders {@link ShardRouter} assigns to it, so per-sender questions are
+ * answered by that shard alone. Implementations must be thread-safe; the coordinator calls all shards at once.
+ */
+public interface TransactionShard {
+
+    void appendAll(Collection<? extends Transaction> transactions);
+
+    double getTotalTransactionAmount();
+
+    double getTotalTransactionAmountSentBy(String senderFullName);
+
+    /**
+     * Highest amount, empty for a shard without transactions, so that the coordinator does not take it for an
+     * amount of 0
+     */
+    OptionalDouble getMaxTransactionAmount();
+
+    /**
+     * Distinct names of the clients that sent or received a transaction on this shard
+     */
+    Set<String> getClientNames();
+
+    /**
+     * A copy of the shard's sketches, to be merged with those of the other shards
+     */
+    ApproximateAggregates getApproximateAggregates(ErrorBounds bounds);
+
+    double estimateTotalTransactionAmountSentBy(String senderFullName);
+
+    boolean hasOpenComplianceIssues(String clientFullName);
+
+    Map<String, List<Transaction>> getTransactionsByBeneficiaryName();
+
+    List<Transaction> getTransactionsSentBy(String senderFullName);
+
+    Optional<Transaction> findTransactionByIssueId(int issueId);
+
+    Set<Integer> getUnsolvedIssueIds();
+
+    List<String> getAllSolvedIssueMessages();
+
+    List<Transaction> getTopTransactionsByAmount(int k);
+
+    /**
+     * The shard's sender with the highest total, with that total
+     */
+    Optional<SenderTotal> getTopSender();
+
+    List<QueryGroup> query(TransactionQuery query);
+}
@@ -0,0 +1,77 @@
+package com.smallworld.sketch;
+
+/**
+ * Bloom filter over 64-bit hashes (see {@link HyperLogLog#hash(String)}), used to tell cheaply that a value is
+ * certainly not in a set. {@link #mightContain} never answers false for a value that was put; it answers true for
+ * an absent value with about the false positive probability the filter was sized for. The bit positions are
+ * derived from the hash by double hashing. Filters of the same size merge by OR-ing their bits. Not thread-safe.
+ */
+public final class BloomFilter {
+
+    private final long[] bits;
+    private final int hashes;
+    private final long bitCount;
+
+    public BloomFilter(long[] bits, int hashes) {
+        if (bits.length == 0 || hashes < 1) {
+            throw new IllegalArgumentException("a Bloom filter needs bits and at least one hash");
+        }
+        this.bits = bits;
+        this.hashes = hashes;
+        this.bitCount = 64L * bits.length;
+    }
+
+    /**
+     * Filter sized so that, holding {@code expected} values, it gives false positives with probability {@code fpp}
+     */
+    public static BloomFilter forExpected(long expected, double fpp) {
+        if (!(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException("false positive probability must be between 0 and 1: " + fpp);
+        }
+        long n = Math.max(1, expected);
+        long bitCount = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int hashes = (int) Math.max(1, Math.round((double) bitCount / n * Math.log(2)));
+        return new BloomFilter(new long[(int) Math.max(1, (bitCount + 63) >>> 6)], hashes);
+    }
+
+    public void put(long hash) {
+        long h1 = hash;
+        long h2 = HyperLogLog.mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long h1 = hash;
+        long h2 = HyperLogLog.mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void merge(BloomFilter other) {
+        if (other.bits.length != bits.length || other.hashes != hashes) {
+            throw new IllegalArgumentException("Cannot merge Bloom filters of different sizes");
+        }
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+    }
+
+    /**
+     * The bit words, shared with the filter; for serialization
+     */
+    public long[] getBits() {
+        return bits;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+}
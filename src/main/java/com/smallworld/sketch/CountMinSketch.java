@@ -0,0 +1,114 @@
+package com.smallworld.sketch;
+
+/**
+ * Count-Min sketch (Cormode and Muthukrishnan) of weights per key, for point queries such as the total sent by one
+ * client. With {@code width = ceil(e / epsilon)} and {@code depth = ceil(ln(1 / delta))} an estimate never
+ * undercounts and exceeds the true weight by more than {@code epsilon} of the total only with probability
+ * {@code delta}. Memory is {@code width * depth} doubles whatever the number of keys.
+ * <p>
+ * Negative weights, refunds for example, are subtracted. The bounds then hold as long as no key's total is
+ * negative, with the total taken over the absolute weights.
+ * <p>
+ * Keys are given as 64-bit hashes (see {@link HyperLogLog#hash(String)}); the row hashes are derived from it by
+ * double hashing. Sketches with the same dimensions merge by adding their tables. Not thread-safe.
+ */
+public final class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final double[] table;
+    private double totalWeight;
+
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("width and depth must be positive: " + width + "x" + depth);
+        }
+        if ((long) width * depth > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("sketch of " + width + "x" + depth + " is too large");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.table = new double[width * depth];
+    }
+
+    /**
+     * Sketch overestimating by more than {@code epsilon} of the total with probability at most {@code delta}
+     */
+    public static CountMinSketch withError(double epsilon, double delta) {
+        if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+            throw new IllegalArgumentException("epsilon and delta must be between 0 and 1: " + epsilon + ", " + delta);
+        }
+        return new CountMinSketch((int) Math.ceil(Math.E / epsilon), (int) Math.ceil(Math.log(1 / delta)));
+    }
+
+    public void add(long hash, double weight) {
+        totalWeight += Math.abs(weight);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int row = 0; row < depth; row++) {
+            table[row * width + column(h1, h2, row)] += weight;
+        }
+    }
+
+    /**
+     * Upper bound of the weight of the key, tight with high probability
+     */
+    public double estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        double estimate = Double.POSITIVE_INFINITY;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, table[row * width + column(h1, h2, row)]);
+        }
+        return estimate;
+    }
+
+    private int column(int h1, int h2, int row) {
+        int combined = h1 + row * h2;
+        return (combined & Integer.MAX_VALUE) % width;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge a " + other.width + "x" + other.depth
+                    + " sketch into a " + width + "x" + depth + " one");
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] += other.table[i];
+        }
+        totalWeight += other.totalWeight;
+    }
+
+    /**
+     * Additive error bound, {@code epsilon} of the total absolute weight, that holds with probability {@code 1 - delta}
+     */
+    public double getMaxError() {
+        return Math.E / width * totalWeight;
+    }
+
+    /**
+     * Probability that an estimate exceeds the true weight by more than {@link #getMaxError()}
+     */
+    public double getFailureProbability() {
+        return Math.exp(-depth);
+    }
+
+    /**
+     * Sum of the absolute weights added
+     */
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long estimatedBytes() {
+        return 8L * table.length;
+    }
+}
@@ -0,0 +1,96 @@
+package com.smallworld.sketch;
+
+import java.util.Objects;
+
+/**
+ * Accuracy asked of the approximate aggregates, which sizes their sketches:
+ * <ul>
+ * <li>{@code distinctRelativeError}: relative standard error of distinct counts ({@link HyperLogLog})</li>
+ * <li>{@code heavyHitterError}: share of the total amount by which a top-sender total may be overestimated
+ * ({@link SpaceSaving})</li>
+ * <li>{@code pointError} and {@code pointFailureProbability}: share of the total amount by which a per-sender
+ * total may be overestimated, and the probability of exceeding that ({@link CountMinSketch})</li>
+ * </ul>
+ */
+public final class ErrorBounds {
+
+    /**
+     * 1% on distinct counts, 0.1% of the total on sender totals; about 250 KB of sketches
+     */
+    public static final ErrorBounds DEFAULT = new ErrorBounds(0.01, 0.001, 0.001, 0.01);
+
+    private final double distinctRelativeError;
+    private final double heavyHitterError;
+    private final double pointError;
+    private final double pointFailureProbability;
+
+    public ErrorBounds(double distinctRelativeError, double heavyHitterError, double pointError,
+                       double pointFailureProbability) {
+        HyperLogLog.precisionFor(distinctRelativeError);
+        check("heavyHitterError", heavyHitterError);
+        check("pointError", pointError);
+        check("pointFailureProbability", pointFailureProbability);
+        this.distinctRelativeError = distinctRelativeError;
+        this.heavyHitterError = heavyHitterError;
+        this.pointError = pointError;
+        this.pointFailureProbability = pointFailureProbability;
+    }
+
+    private static void check(String name, double value) {
+        if (!(value > 0 && value < 1)) {
+            throw new IllegalArgumentException(name + " must be between 0 and 1: " + value);
+        }
+    }
+
+    public double getDistinctRelativeError() {
+        return distinctRelativeError;
+    }
+
+    public double getHeavyHitterError() {
+        return heavyHitterError;
+    }
+
+    public double getPointError() {
+        return pointError;
+    }
+
+    public double getPointFailureProbability() {
+        return pointFailureProbability;
+    }
+
+    public HyperLogLog newDistinctSketch() {
+        return HyperLogLog.withRelativeError(distinctRelativeError);
+    }
+
+    public SpaceSaving newHeavyHitterSketch() {
+        return SpaceSaving.withError(heavyHitterError);
+    }
+
+    public CountMinSketch newPointSketch() {
+        return CountMinSketch.withError(pointError, pointFailureProbability);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ErrorBounds)) {
+            return false;
+        }
+        ErrorBounds other = (ErrorBounds) o;
+        return distinctRelativeError == other.distinctRelativeError && heavyHitterError == other.heavyHitterError
+                && pointError == other.pointError && pointFailureProbability == other.pointFailureProbability;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(distinctRelativeError, heavyHitterError, pointError, pointFailureProbability);
+    }
+
+    @Override
+    public String toString() {
+        return "ErrorBounds{distinct=" + distinctRelativeError + ", heavyHitter=" + heavyHitterError
+                + ", point=" + pointError + ", pointFailure=" + pointFailureProbability + "}";
+    }
+}
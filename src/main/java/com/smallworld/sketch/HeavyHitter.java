@@ -0,0 +1,45 @@
+package com.smallworld.sketch;
+
+/**
+ * A key reported by {@link SpaceSaving} with its estimated weight. The true weight lies within
+ * {@code [estimate - maxError, estimate]}
+ */
+public final class HeavyHitter {
+
+    private final String key;
+    private final double estimate;
+    private final double maxError;
+
+    public HeavyHitter(String key, double estimate, double maxError) {
+        this.key = key;
+        this.estimate = estimate;
+        this.maxError = maxError;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public double getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * How much the estimate may exceed the true weight
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Lowest weight the key can have
+     */
+    public double getGuaranteed() {
+        return estimate - maxError;
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + estimate + "(-" + maxError + ")";
+    }
+}
@@ -0,0 +1,194 @@
+package com.smallworld.sketch;
+
+/**
+ * HyperLogLog distinct-count sketch (Flajolet et al.) with {@code 2^precision} one-byte registers. The relative
+ * standard error is about {@code 1.04 / sqrt(2^precision)}, i.e. 1.6% at precision 12 for 4 KB of registers, and
+ * small cardinalities are counted exactly enough by the linear-counting correction.
+ * <p>
+ * Sketches built over different data merge into the sketch of the union. Two sketches of different precisions
+ * merge too: the result has the lower precision of the two. Values are offered as 64-bit hashes, so the same value
+ * must always hash the same way; {@link #hash(String)} gives a stable hash for names. Not thread-safe.
+ */
+public final class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and "
+                    + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    private HyperLogLog(int precision, byte[] registers) {
+        this.precision = precision;
+        this.registers = registers;
+    }
+
+    /**
+     * Sketch whose estimates have at most the given relative standard error, e.g. 0.01 for 1%
+     */
+    public static HyperLogLog withRelativeError(double relativeError) {
+        return new HyperLogLog(precisionFor(relativeError));
+    }
+
+    /**
+     * Lowest precision whose relative standard error does not exceed the given one
+     */
+    public static int precisionFor(double relativeError) {
+        if (!(relativeError > 0 && relativeError < 1)) {
+            throw new IllegalArgumentException("relative error must be between 0 and 1: " + relativeError);
+        }
+        int precision = MIN_PRECISION;
+        while (precision < MAX_PRECISION && relativeStandardError(precision) > relativeError) {
+            precision++;
+        }
+        if (relativeStandardError(precision) > relativeError) {
+            throw new IllegalArgumentException("relative error " + relativeError + " needs more than "
+                    + MAX_PRECISION + " bits of precision");
+        }
+        return precision;
+    }
+
+    /**
+     * Stable 64-bit hash of a string, independent of the JVM and of {@link String#hashCode()}. Hashes the UTF-16
+     * code units, so nothing is allocated
+     */
+    public static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads every input bit over the whole output
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Adds a value, given as a well-mixed 64-bit hash
+     */
+    public void offerHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // the remaining bits, with a sentinel so the rank never exceeds 64 - precision + 1
+        long rest = (hash << precision) | (1L << (precision - 1));
+        int rank = Long.numberOfLeadingZeros(rest) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Relative standard error of the estimates of a sketch with this precision
+     */
+    public double getRelativeStandardError() {
+        return relativeStandardError(precision);
+    }
+
+    public static double relativeStandardError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * Estimated number of distinct values offered
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * (double) m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is far more accurate while many registers are still empty
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    /**
+     * Folds another sketch into this one. The other sketch must not have a lower precision; see
+     * {@link #union(HyperLogLog, HyperLogLog)} for that case
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision < precision) {
+            throw new IllegalArgumentException("Cannot merge a sketch of precision " + other.precision
+                    + " into one of precision " + precision);
+        }
+        if (other.precision == precision) {
+            for (int i = 0; i < registers.length; i++) {
+                if (other.registers[i] > registers[i]) {
+                    registers[i] = other.registers[i];
+                }
+            }
+            return;
+        }
+        int shift = other.precision - precision;
+        for (int i = 0; i < other.registers.length; i++) {
+            byte rank = other.registers[i];
+            if (rank == 0) {
+                continue;
+            }
+            int index = i >>> shift;
+            // the dropped index bits become the leading bits of the remainder
+            int dropped = i & ((1 << shift) - 1);
+            int folded = dropped == 0 ? shift + rank : shift - (32 - Integer.numberOfLeadingZeros(dropped)) + 1;
+            if (folded > registers[index]) {
+                registers[index] = (byte) folded;
+            }
+        }
+    }
+
+    /**
+     * Sketch of the union of two sketches, at the lower of their precisions. Neither input is modified
+     */
+    public static HyperLogLog union(HyperLogLog a, HyperLogLog b) {
+        HyperLogLog result = a.precision <= b.precision ? a.copy() : b.copy();
+        result.merge(a.precision <= b.precision ? b : a);
+        return result;
+    }
+
+    public HyperLogLog copy() {
+        return new HyperLogLog(precision, registers.clone());
+    }
+
+    public long estimatedBytes() {
+        return 16L + registers.length;
+    }
+}
@@ -0,0 +1,253 @@
+package com.smallworld.sketch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weighted Space-Saving heavy-hitter summary (Metwally et al.) holding at most {@code capacity} counters. When a
+ * new key arrives and the summary is full, it takes over the counter with the smallest weight and inherits that
+ * weight as its error. Every estimate is at most {@code total / capacity} above the true weight, and every key
+ * heavier than {@code total / capacity} is guaranteed to be in the summary, so {@code capacity = 1 / epsilon}
+ * bounds the error of the top keys to {@code epsilon} of the total weight.
+ * <p>
+ * The counters sit in flat arrays with a binary min-heap over them, so an update costs one hash lookup and
+ * O(log capacity) swaps. Summaries merge (Agarwal et al.): a key missing from a full summary is counted at that
+ * summary's minimum, which keeps the bounds of the merged summary. Weights must not be negative. Not thread-safe.
+ */
+public final class SpaceSaving {
+
+    private final int capacity;
+    private final Map<String, Integer> slots;
+    private final String[] keys;
+    private final double[] counts;
+    private final double[] errors;
+    /**
+     * Min-heap of slots ordered by count, and the heap position of every slot
+     */
+    private final int[] heap;
+    private final int[] heapIndex;
+    private int size;
+    private double totalWeight;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new HashMap<>(capacity * 2);
+        this.keys = new String[capacity];
+        this.counts = new double[capacity];
+        this.errors = new double[capacity];
+        this.heap = new int[capacity];
+        this.heapIndex = new int[capacity];
+    }
+
+    /**
+     * Summary whose estimates are off by at most {@code epsilon} of the total weight
+     */
+    public static SpaceSaving withError(double epsilon) {
+        if (!(epsilon > 0 && epsilon < 1)) {
+            throw new IllegalArgumentException("epsilon must be between 0 and 1: " + epsilon);
+        }
+        return new SpaceSaving((int) Math.ceil(1 / epsilon));
+    }
+
+    public void offer(String key, double weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Space-Saving weights must not be negative: " + weight);
+        }
+        totalWeight += weight;
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            counts[slot] += weight;
+            siftDown(heapIndex[slot]);
+        } else if (size < capacity) {
+            int free = size++;
+            keys[free] = key;
+            counts[free] = weight;
+            errors[free] = 0;
+            slots.put(key, free);
+            heap[free] = free;
+            heapIndex[free] = free;
+            siftUp(free);
+        } else {
+            int smallest = heap[0];
+            double floor = counts[smallest];
+            slots.remove(keys[smallest]);
+            keys[smallest] = key;
+            counts[smallest] = floor + weight;
+            errors[smallest] = floor;
+            slots.put(key, smallest);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Folds another summary in; the result keeps this summary's capacity
+     */
+    public void merge(SpaceSaving other) {
+        double myFloor = floor();
+        double otherFloor = other.floor();
+        Map<String, double[]> merged = new HashMap<>((size + other.size) * 2);
+        for (int slot = 0; slot < size; slot++) {
+            int otherSlot = other.slotOf(keys[slot]);
+            merged.put(keys[slot], new double[]{
+                    counts[slot] + (otherSlot < 0 ? otherFloor : other.counts[otherSlot]),
+                    errors[slot] + (otherSlot < 0 ? otherFloor : other.errors[otherSlot])});
+        }
+        for (int slot = 0; slot < other.size; slot++) {
+            if (!slots.containsKey(other.keys[slot])) {
+                merged.put(other.keys[slot], new double[]{other.counts[slot] + myFloor,
+                        other.errors[slot] + myFloor});
+            }
+        }
+        List<Map.Entry<String, double[]>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort((a, b) -> Double.compare(b.getValue()[0], a.getValue()[0]));
+        double total = totalWeight + other.totalWeight;
+        clear();
+        for (int i = 0; i < entries.size() && i < capacity; i++) {
+            Map.Entry<String, double[]> entry = entries.get(i);
+            keys[size] = entry.getKey();
+            counts[size] = entry.getValue()[0];
+            errors[size] = entry.getValue()[1];
+            slots.put(entry.getKey(), size);
+            heap[size] = size;
+            heapIndex[size] = size;
+            siftUp(size);
+            size++;
+        }
+        totalWeight = total;
+    }
+
+    private void clear() {
+        slots.clear();
+        size = 0;
+        totalWeight = 0;
+    }
+
+    private int slotOf(String key) {
+        Integer slot = slots.get(key);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Weight a key absent from the summary may have; 0 while the summary is not full
+     */
+    private double floor() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    /**
+     * The k keys of highest estimated weight, heaviest first
+     */
+    public List<HeavyHitter> top(int k) {
+        List<HeavyHitter> top = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++) {
+            top.add(new HeavyHitter(keys[slot], counts[slot], errors[slot]));
+        }
+        top.sort(Comparator.comparingDouble(HeavyHitter::getEstimate).reversed()
+                .thenComparing(HeavyHitter::getKey));
+        return top.size() <= k ? top : new ArrayList<>(top.subList(0, k));
+    }
+
+    /**
+     * Key of {@code top(1)}, found without building the list: the highest estimate, ties to the smallest key. Null
+     * while nothing was offered
+     */
+    public String topKey() {
+        String top = null;
+        double topCount = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (top == null || counts[slot] > topCount || (counts[slot] == topCount && keys[slot].compareTo(top) < 0)) {
+                top = keys[slot];
+                topCount = counts[slot];
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Every key whose true weight may exceed {@code fraction} of the total, heaviest first
+     */
+    public List<HeavyHitter> heavierThan(double fraction) {
+        List<HeavyHitter> heavy = new ArrayList<>();
+        for (HeavyHitter hitter : top(size)) {
+            if (hitter.getEstimate() > fraction * totalWeight) {
+                heavy.add(hitter);
+            }
+        }
+        return Collections.unmodifiableList(heavy);
+    }
+
+    /**
+     * Upper bound of the weight of the key
+     */
+    public double estimate(String key) {
+        int slot = slotOf(key);
+        return slot < 0 ? floor() : counts[slot];
+    }
+
+    /**
+     * Largest amount by which any estimate may exceed the true weight
+     */
+    public double getMaxError() {
+        return totalWeight / capacity;
+    }
+
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long estimatedBytes() {
+        return (long) capacity * (8 + 8 + 8 + 4 + 4 + 64);
+    }
+
+    private void siftUp(int position) {
+        int slot = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[slot]) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(slot, position);
+    }
+
+    private void siftDown(int position) {
+        int slot = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[slot] <= counts[heap[child]]) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(slot, position);
+    }
+
+    private void place(int slot, int position) {
+        heap[position] = slot;
+        heapIndex[slot] = position;
+    }
+}
@@ -0,0 +1,267 @@
+package com.smallworld.source;
+
+import com.smallworld.data.AppendableTransactionStore;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Partition;
+import com.smallworld.data.PartitionStats;
+import com.smallworld.util.JSONFileReader;
+import com.smallworld.util.StreamingTransactionReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A directory of partition files, typically one per day, each holding a JSON array or NDJSON of transactions and
+ * optionally gzipped ({@code .json}, {@code .ndjson}, {@code .json.gz}, {@code .ndjson.gz}). Partitions are parsed in
+ * parallel and concatenated in file name order, so naming them by date keeps the rows in time order.
+ * <p>
+ * Next to every partition a {@code .meta} file holds its {@link PartitionStats}. While it matches the partition's
+ * size and modification time, a partition the {@link PartitionFilter} rules out is skipped without being opened;
+ * otherwise the statistics are computed while loading and the metadata file is rewritten, if the directory is
+ * writable. The loaded partitions are kept in the snapshot, so queries can prune them as well.
+ */
+public class DirectoryTransactionSource implements TransactionSource {
+
+    public static final String META_SUFFIX = ".meta";
+
+    private static final Pattern PARTITION_FILE = Pattern.compile(".*\\.(json|ndjson)(\\.gz)?$");
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryTransactionSource.class);
+
+    private final Path directory;
+    private final int threads;
+    private volatile PartitionFilter filter = PartitionFilter.ALL;
+
+    public DirectoryTransactionSource(Path directory) {
+        this(directory, Runtime.getRuntime().availableProcessors());
+    }
+
+    public DirectoryTransactionSource(Path directory, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.directory = directory;
+        this.threads = threads;
+    }
+
+    @Override
+    public SourceData read() throws IOException {
+        List<Path> files = listPartitions();
+        List<LoadedPartition> loaded = loadAll(files, filter);
+        int rows = 0;
+        for (LoadedPartition partition : loaded) {
+            rows += partition.store == null ? 0 : partition.store.size();
+        }
+        AppendableTransactionStore store = new AppendableTransactionStore(rows);
+        List<Partition> partitions = new ArrayList<>();
+        long bytesRead = 0;
+        int skipped = 0;
+        for (LoadedPartition partition : loaded) {
+            bytesRead += partition.bytesRead;
+            if (partition.store == null) {
+                skipped++;
+                continue;
+            }
+            int to = store.appendStore(partition.store).size();
+            partitions.add(new Partition(partition.name, to - partition.store.size(), to, partition.stats));
+        }
+        logger.info("Loaded " + partitions.size() + " of " + files.size() + " partitions from " + directory + ", "
+                + skipped + " skipped by " + filter);
+        return SourceData.ofPartitions(store, partitions, bytesRead, skipped);
+    }
+
+    /**
+     * Partition files of the directory, sorted by name
+     */
+    public List<Path> listPartitions() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (isPartition(file.getFileName()) && Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private List<LoadedPartition> loadAll(List<Path> files, PartitionFilter filter) throws IOException {
+        if (files.size() <= 1 || threads == 1) {
+            List<LoadedPartition> loaded = new ArrayList<>(files.size());
+            for (Path file : files) {
+                loaded.add(load(file, filter));
+            }
+            return loaded;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()), daemonThreads());
+        try {
+            List<Future<LoadedPartition>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> load(file, filter)));
+            }
+            List<LoadedPartition> loaded = new ArrayList<>(files.size());
+            for (Future<LoadedPartition> future : futures) {
+                loaded.add(future.get());
+            }
+            return loaded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading partitions of " + directory, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not load partitions of " + directory, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "transaction-partition-loader-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private LoadedPartition load(Path file, PartitionFilter filter) throws IOException {
+        String name = file.getFileName().toString();
+        long bytes = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        Path metaFile = metaFile(file);
+        PartitionStats stats = readStats(metaFile, bytes, modified);
+        if (stats != null && !filter.mightMatch(stats)) {
+            return new LoadedPartition(name, null, stats, 0);
+        }
+        ColumnarTransactionStore.Builder builder = new ColumnarTransactionStore.Builder();
+        try (InputStream in = open(file)) {
+            new StreamingTransactionReader().read(in, builder, true);
+        } catch (IOException e) {
+            throw new IOException("Could not read partition " + file + ": " + e.getMessage(), e);
+        }
+        ColumnarTransactionStore store = builder.build();
+        if (stats == null) {
+            stats = PartitionStats.of(store, bytes, modified);
+            writeStats(metaFile, stats);
+        }
+        return new LoadedPartition(name, filter.mightMatch(stats) ? store : null, stats, bytes);
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), READ_BUFFER_BYTES);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            try {
+                return new GZIPInputStream(in, READ_BUFFER_BYTES);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Reads the metadata file, returning null if it is missing, unreadable or does not describe the file anymore
+     */
+    private static PartitionStats readStats(Path metaFile, long bytes, long modified) {
+        if (!Files.isRegularFile(metaFile)) {
+            return null;
+        }
+        try {
+            PartitionStats stats = JSONFileReader.objectMapper().readValue(metaFile.toFile(), PartitionStats.class);
+            return stats.describes(bytes, modified) ? stats : null;
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable partition metadata " + metaFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Best effort: a read-only directory only costs computing the statistics again on the next load
+     */
+    private static void writeStats(Path metaFile, PartitionStats stats) {
+        try {
+            Path partial = metaFile.resolveSibling(metaFile.getFileName() + ".tmp");
+            JSONFileReader.objectMapper().writeValue(partial.toFile(), stats);
+            Files.move(partial, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not write partition metadata " + metaFile + ": " + e.getMessage());
+        }
+    }
+
+    public static Path metaFile(Path partitionFile) {
+        return partitionFile.resolveSibling(partitionFile.getFileName() + META_SUFFIX);
+    }
+
+    static boolean isPartition(Path fileName) {
+        return PARTITION_FILE.matcher(fileName.toString()).matches();
+    }
+
+    @Override
+    public Path watchDirectory() {
+        return directory.toAbsolutePath();
+    }
+
+    /**
+     * Partition files only; metadata written while loading must not trigger another load
+     */
+    @Override
+    public boolean affectedBy(Path fileName) {
+        return isPartition(fileName);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public PartitionFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Restricts the next reads to the partitions the filter may match
+     */
+    public void setFilter(PartitionFilter filter) {
+        this.filter = filter;
+    }
+
+    private static final class LoadedPartition {
+        private final String name;
+        /**
+         * Null when the partition was skipped
+         */
+        private final ColumnarTransactionStore store;
+        private final PartitionStats stats;
+        private final long bytesRead;
+
+        LoadedPartition(String name, ColumnarTransactionStore store, PartitionStats stats, long bytesRead) {
+            this.name = name;
+            this.store = store;
+            this.stats = stats;
+            this.bytesRead = bytesRead;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.smallworld.source;
+
+import com.smallworld.data.BinarySnapshotFile;
+import com.smallworld.data.Transaction;
+import com.smallworld.util.JSONFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The single file of a {@link JSONFileReader}: a {@link BinarySnapshotFile} is mapped, anything else is parsed as
+ * JSON. As with {@link JSONFileReader#loadDataFromJson()}, a JSON file that cannot be read yields the data of the
+ * last successful read.
+ */
+public class JsonFileTransactionSource implements TransactionSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonFileTransactionSource.class);
+
+    private final JSONFileReader jsonFileReader;
+
+    public JsonFileTransactionSource(JSONFileReader jsonFileReader) {
+        this.jsonFileReader = jsonFileReader;
+    }
+
+    @Override
+    public SourceData read() {
+        Path file = jsonFileReader.getDataFile();
+        if (file != null && BinarySnapshotFile.isSnapshot(file)) {
+            try {
+                return SourceData.ofBinary(BinarySnapshotFile.map(file, false));
+            } catch (IOException e) {
+                logger.error("Error: " + e.getMessage());
+            }
+        }
+        List<Transaction> transactions = jsonFileReader.loadDataFromJson();
+        return SourceData.ofTransactions(transactions, jsonFileReader.getLastBytesRead());
+    }
+
+    @Override
+    public Path watchDirectory() {
+        Path file = jsonFileReader.resolveDataFile();
+        return file == null ? null : file.toAbsolutePath().getParent();
+    }
+
+    @Override
+    public boolean affectedBy(Path fileName) {
+        Path file = jsonFileReader.resolveDataFile();
+        return file != null && file.getFileName().equals(fileName);
+    }
+
+    public JSONFileReader getJsonFileReader() {
+        return jsonFileReader;
+    }
+}
@@ -0,0 +1,93 @@
+package com.smallworld.source;
+
+import com.smallworld.data.PartitionStats;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Decides from {@link PartitionStats} alone which partition files are worth loading. It works at the granularity of
+ * whole files: a partition is loaded when some of its transactions may match, and then all of its rows are loaded.
+ * Immutable; every condition is added through a {@code with} method returning a new filter.
+ */
+public final class PartitionFilter {
+
+    /**
+     * Loads every partition
+     */
+    public static final PartitionFilter ALL = new PartitionFilter(Double.NEGATIVE_INFINITY, Long.MIN_VALUE,
+            Long.MAX_VALUE, false, null);
+
+    private final double minAmount;
+    private final long fromMillis;
+    private final long toMillis;
+    private final boolean timeBounded;
+    /**
+     * Null for any sender
+     */
+    private final Set<String> senders;
+
+    private PartitionFilter(double minAmount, long fromMillis, long toMillis, boolean timeBounded,
+                            Set<String> senders) {
+        this.minAmount = minAmount;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.timeBounded = timeBounded;
+        this.senders = senders;
+    }
+
+    /**
+     * Only partitions holding a transaction of at least this amount
+     */
+    public PartitionFilter withMinAmount(double minAmount) {
+        return new PartitionFilter(minAmount, fromMillis, toMillis, timeBounded, senders);
+    }
+
+    /**
+     * Only partitions holding a transaction timed within {@code [fromMillis, toMillis]}; partitions without times
+     * are left out
+     */
+    public PartitionFilter withTimeRange(long fromMillis, long toMillis) {
+        if (toMillis < fromMillis) {
+            throw new IllegalArgumentException("toMillis must not be before fromMillis");
+        }
+        return new PartitionFilter(minAmount, fromMillis, toMillis, true, senders);
+    }
+
+    /**
+     * Only partitions that may hold a transaction sent by one of these clients
+     */
+    public PartitionFilter withSenders(Collection<String> senders) {
+        return new PartitionFilter(minAmount, fromMillis, toMillis, timeBounded,
+                Collections.unmodifiableSet(new LinkedHashSet<>(senders)));
+    }
+
+    /**
+     * False when the partition certainly holds no matching transaction
+     */
+    public boolean mightMatch(PartitionStats stats) {
+        if (stats.getRows() == 0 || stats.getMaxAmount() < minAmount) {
+            return false;
+        }
+        if (timeBounded && !stats.mightOverlap(fromMillis, toMillis)) {
+            return false;
+        }
+        if (senders != null) {
+            for (String sender : senders) {
+                if (stats.mightContainSender(sender)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionFilter{minAmount=" + minAmount + (timeBounded ? ", time=" + fromMillis + ".." + toMillis : "")
+                + (senders == null ? "" : ", senders=" + senders) + "}";
+    }
+}
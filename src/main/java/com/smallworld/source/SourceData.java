@@ -0,0 +1,96 @@
+package com.smallworld.source;
+
+import com.smallworld.data.AppendableTransactionStore;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Partition;
+import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionSnapshot;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of one {@link TransactionSource#read()}: parsed rows, a prebuilt store, or a store assembled from
+ * partition files, together with what reading it cost.
+ */
+public final class SourceData {
+
+    public static final String JSON = "json";
+    public static final String BINARY = "binary";
+    public static final String DIRECTORY = "directory";
+
+    private final String format;
+    private final List<Transaction> transactions;
+    private final ColumnarTransactionStore store;
+    private final AppendableTransactionStore partitioned;
+    private final List<Partition> partitions;
+    private final long bytesRead;
+    private final int skippedPartitions;
+
+    private SourceData(String format, List<Transaction> transactions, ColumnarTransactionStore store,
+                       AppendableTransactionStore partitioned, List<Partition> partitions, long bytesRead,
+                       int skippedPartitions) {
+        this.format = format;
+        this.transactions = transactions;
+        this.store = store;
+        this.partitioned = partitioned;
+        this.partitions = partitions;
+        this.bytesRead = bytesRead;
+        this.skippedPartitions = skippedPartitions;
+    }
+
+    public static SourceData ofTransactions(List<Transaction> transactions, long bytesRead) {
+        return new SourceData(JSON, transactions, null, null, Collections.emptyList(), bytesRead, 0);
+    }
+
+    /**
+     * A store mapped from a binary snapshot; the mapped bytes count as read
+     */
+    public static SourceData ofBinary(ColumnarTransactionStore store) {
+        return new SourceData(BINARY, null, store, null, Collections.emptyList(), store.mappedBytes(), 0);
+    }
+
+    public static SourceData ofPartitions(AppendableTransactionStore store, List<Partition> partitions,
+                                          long bytesRead, int skippedPartitions) {
+        return new SourceData(DIRECTORY, null, null, store, partitions, bytesRead, skippedPartitions);
+    }
+
+    public TransactionSnapshot toSnapshot(long version) {
+        if (transactions != null) {
+            return new TransactionSnapshot(version, transactions);
+        }
+        if (store != null) {
+            return new TransactionSnapshot(version, store);
+        }
+        return new TransactionSnapshot(version, partitioned, partitions);
+    }
+
+    /**
+     * Label of the kind of source, for metrics: {@link #JSON}, {@link #BINARY} or {@link #DIRECTORY}
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public int getRows() {
+        if (transactions != null) {
+            return transactions.size();
+        }
+        return store != null ? store.size() : partitioned.size();
+    }
+
+    public List<Partition> getPartitions() {
+        return partitions;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Partition files left out because their metadata ruled them out
+     */
+    public int getSkippedPartitions() {
+        return skippedPartitions;
+    }
+}
@@ -0,0 +1,27 @@
+package com.smallworld.source;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where a {@link com.smallworld.data.TransactionSnapshotManager} reads its data from. Every {@link #read()} reads
+ * the source from scratch; the manager turns the result into the next snapshot.
+ */
+public interface TransactionSource {
+
+    SourceData read() throws IOException;
+
+    /**
+     * Directory to watch for changes of the source, or null if the source cannot be watched
+     */
+    default Path watchDirectory() {
+        return null;
+    }
+
+    /**
+     * Whether a change of this file, named relative to {@link #watchDirectory()}, calls for a reload
+     */
+    default boolean affectedBy(Path fileName) {
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+package com.smallworld.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from int to double with linear probing, for running totals keyed by a dictionary code.
+ * Keys and values live in two flat arrays, so updates neither box nor allocate until the map grows. Removal is not
+ * supported.
+ */
+public final class IntDoubleHashMap {
+
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    /**
+     * Receives the entries of {@link #forEach}
+     */
+    public interface EntryConsumer {
+        void accept(int key, double value);
+    }
+
+    private int[] keys;
+    private double[] values;
+    private int size;
+    private int mask;
+
+    public IntDoubleHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new double[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Adds the delta to the value of the key, which starts at 0. {@link Integer#MIN_VALUE} cannot be used as a key
+     */
+    public void add(int key, double delta) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key " + key + " is reserved");
+        }
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                values[i] += delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash();
+            add(key, delta);
+            return;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        size++;
+    }
+
+    /**
+     * Adds every entry of the other map to this one
+     */
+    public void addAll(IntDoubleHashMap other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                add(other.keys[i], other.values[i]);
+            }
+        }
+    }
+
+    public double get(int key, double defaultValue) {
+        if (key == EMPTY) {
+            return defaultValue;
+        }
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == EMPTY) {
+            return false;
+        }
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Visits every entry, in no particular order
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                add(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long estimatedBytes() {
+        return (4L + 8L) * keys.length;
+    }
+}
@@ -3,7 +3,6 @@ package com.smallworld.util;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.smallworld.data.Transaction;
-import com.smallworld.servlets.TransactionServlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -11,29 +10,51 @@ import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
 @Component
 public class JSONFileReader {
-    List<Transaction> transactions = new ArrayList<>();
 
-    private static final Logger logger = LoggerFactory.getLogger(TransactionServlet.class);
+    public static final String DEFAULT_RESOURCE = "transactions.json";
 
     /**
-     * Loads the data from the Transaction.json
+     * ObjectMapper is thread-safe once configured, so a single instance is shared instead of building one per load
      */
-    public List<Transaction> loadDataFromJson() {
-        try {
-            // Load the JSON file from resources
-            ClassLoader classLoader = getClass().getClassLoader();
-            InputStream jsonFile = classLoader.getResourceAsStream("transactions.json");
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Logger logger = LoggerFactory.getLogger(JSONFileReader.class);
+
+    private volatile List<Transaction> transactions = new ArrayList<>();
+
+    /**
+     * Optional file on disk to read instead of the classpath resource
+     */
+    private volatile Path dataFile;
+
+    /**
+     * Size of the input consumed by the last {@link #readTransactions()}
+     */
+    private volatile long lastBytesRead;
+
+    public JSONFileReader() {
+    }
 
-            // Parse JSON using Jackson
-            ObjectMapper objectMapper = new ObjectMapper();
-            transactions = objectMapper.readValue(jsonFile, objectMapper.getTypeFactory()
-                    .constructCollectionType(List.class, Transaction.class));
+    public JSONFileReader(Path dataFile) {
+        this.dataFile = dataFile;
+    }
 
+    /**
+     * Loads the data from the Transaction.json. On failure the last successfully loaded data is returned
+     */
+    public List<Transaction> loadDataFromJson() {
+        try {
+            transactions = readTransactions();
         } catch (IOException e) {
             logger.error("Error: " + e.getMessage());
             e.printStackTrace();
@@ -42,4 +63,75 @@ public class JSONFileReader {
         return transactions;
     }
 
+    /**
+     * Reads and parses the configured data file (or the classpath resource), propagating any I/O failure
+     */
+    public List<Transaction> readTransactions() throws IOException {
+        Path file = dataFile;
+        if (file != null) {
+            try (CountingInputStream jsonFile = new CountingInputStream(Files.newInputStream(file))) {
+                return readCounting(jsonFile);
+            }
+        }
+
+        // Load the JSON file from resources
+        ClassLoader classLoader = getClass().getClassLoader();
+        try (InputStream resource = classLoader.getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (resource == null) {
+                throw new IOException("Resource not found: " + DEFAULT_RESOURCE);
+            }
+            return readCounting(new CountingInputStream(resource));
+        }
+    }
+
+    private List<Transaction> readCounting(CountingInputStream jsonFile) throws IOException {
+        List<Transaction> read = readTransactions(jsonFile);
+        lastBytesRead = jsonFile.getCount();
+        return read;
+    }
+
+    /**
+     * Parses a JSON array of transactions from the given stream
+     */
+    public List<Transaction> readTransactions(InputStream jsonFile) throws IOException {
+        return OBJECT_MAPPER.readValue(jsonFile, OBJECT_MAPPER.getTypeFactory()
+                .constructCollectionType(List.class, Transaction.class));
+    }
+
+    /**
+     * Returns the file backing the data, if it lives on the local filesystem, so that it can be watched for changes
+     */
+    public Path resolveDataFile() {
+        Path file = dataFile;
+        if (file != null) {
+            return file;
+        }
+        URL resource = getClass().getClassLoader().getResource(DEFAULT_RESOURCE);
+        if (resource == null || !"file".equals(resource.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(resource.toURI());
+        } catch (URISyntaxException e) {
+            logger.error("Error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public long getLastBytesRead() {
+        return lastBytesRead;
+    }
+
+    public Path getDataFile() {
+        return dataFile;
+    }
+
+    public void setDataFile(Path dataFile) {
+        this.dataFile = dataFile;
+    }
+
+    public static ObjectMapper objectMapper() {
+        return OBJECT_MAPPER;
+    }
+
 }
@@ -0,0 +1,139 @@
+package com.smallworld.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionTime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Reads a JSON array of transactions token by token and hands every record to a consumer, so memory use does not
+ * grow with the size of the file. Only the record being parsed is kept in memory. NDJSON, one transaction object
+ * per line, is read as well: the input is taken as NDJSON when it starts with an object instead of an array.
+ */
+public class StreamingTransactionReader {
+
+    private final JsonFactory jsonFactory;
+
+    public StreamingTransactionReader() {
+        this(JSONFileReader.objectMapper().getFactory());
+    }
+
+    public StreamingTransactionReader(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Streams every transaction of the file to the consumer, returning the number of records read
+     */
+    public long read(Path file, Consumer<? super Transaction> consumer, boolean reuseRecord) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in, consumer, reuseRecord);
+        }
+    }
+
+    /**
+     * Streams every transaction to the consumer, returning the number of records read. When {@code reuseRecord}
+     * is set the same {@link Transaction} instance is refilled for every record, so the consumer must copy anything
+     * it wants to keep; this removes the per-record allocation entirely.
+     */
+    public long read(InputStream in, Consumer<? super Transaction> consumer, boolean reuseRecord) throws IOException {
+        long count = 0;
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return 0;
+            }
+            boolean array = token == JsonToken.START_ARRAY;
+            if (!array && token != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON array of transactions or NDJSON objects but found " + token);
+            }
+            if (array) {
+                token = parser.nextToken();
+            }
+            Transaction record = reuseRecord ? new Transaction() : null;
+            for (; array ? token != JsonToken.END_ARRAY : token != null; token = parser.nextToken()) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IOException("Expected a transaction object but found " + token);
+                }
+                Transaction transaction;
+                if (reuseRecord) {
+                    reset(record);
+                    transaction = record;
+                } else {
+                    transaction = new Transaction();
+                }
+                readFields(parser, transaction);
+                consumer.accept(transaction);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fills the transaction from the fields of the current object, leaving the parser on its END_OBJECT token
+     */
+    static void readFields(JsonParser parser, Transaction transaction) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "mtn":
+                    transaction.setMtn(parser.getLongValue());
+                    break;
+                case "amount":
+                    transaction.setAmount(parser.getDoubleValue());
+                    break;
+                case "senderFullName":
+                    transaction.setSenderFullName(parser.getText());
+                    break;
+                case "senderAge":
+                    transaction.setSenderAge(parser.getIntValue());
+                    break;
+                case "beneficiaryFullName":
+                    transaction.setBeneficiaryFullName(parser.getText());
+                    break;
+                case "beneficiaryAge":
+                    transaction.setBeneficiaryAge(parser.getIntValue());
+                    break;
+                case "issueId":
+                    transaction.setIssueId(parser.getIntValue());
+                    break;
+                case "issueSolved":
+                    transaction.setIssueSolved(parser.getBooleanValue());
+                    break;
+                case "issueMessage":
+                    transaction.setIssueMessage(parser.getText());
+                    break;
+                case "transactionTime":
+                    transaction.setTransactionTime(TransactionTime.read(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    static void reset(Transaction transaction) {
+        transaction.setMtn(0);
+        transaction.setAmount(0);
+        transaction.setSenderFullName(null);
+        transaction.setSenderAge(0);
+        transaction.setBeneficiaryFullName(null);
+        transaction.setBeneficiaryAge(0);
+        transaction.setIssueId(0);
+        transaction.setIssueSolved(false);
+        transaction.setIssueMessage(null);
+        transaction.setTransactionTime(null);
+    }
+}
@@ -0,0 +1,150 @@
+package com.smallworld.util;
+
+import java.util.Arrays;
+
+/**
+ * Bounded min-heap keeping the {@code k} best (amount, row) pairs offered to it, in O(log k) per offer and without
+ * boxing. A pair is better than another when its amount is higher, or, for equal amounts, when its row comes first;
+ * this is the order a stable descending sort would produce. Heaps built over different row ranges of the same data
+ * can be merged in any order.
+ */
+public final class TopKHeap {
+
+    private final int k;
+    private final double[] amounts;
+    private final int[] rows;
+    private int size;
+
+    public TopKHeap(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        this.k = k;
+        this.amounts = new double[k];
+        this.rows = new int[k];
+    }
+
+    /**
+     * Offers a pair, returning whether it made it into the heap
+     */
+    public boolean offer(double amount, int row) {
+        if (Double.isNaN(amount) || k == 0) {
+            return false;
+        }
+        if (size < k) {
+            amounts[size] = amount;
+            rows[size] = row;
+            siftUp(size++);
+            return true;
+        }
+        if (better(amount, row, amounts[0], rows[0])) {
+            amounts[0] = amount;
+            rows[0] = row;
+            siftDown(0);
+            return true;
+        }
+        return false;
+    }
+
+    public void merge(TopKHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.amounts[i], other.rows[i]);
+        }
+    }
+
+    /**
+     * Once full, only pairs better than the current worst one are taken in
+     */
+    public boolean isFull() {
+        return size == k;
+    }
+
+    /**
+     * Amount of the worst pair kept, or negative infinity while the heap is empty
+     */
+    public double worstAmount() {
+        return size == 0 ? Double.NEGATIVE_INFINITY : amounts[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return k;
+    }
+
+    /**
+     * Returns the rows from best to worst
+     */
+    public int[] sortedRows() {
+        TopKHeap copy = copy();
+        int[] sorted = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            sorted[i] = copy.rows[0];
+            copy.pollWorst();
+        }
+        return sorted;
+    }
+
+    public TopKHeap copy() {
+        TopKHeap copy = new TopKHeap(k);
+        System.arraycopy(amounts, 0, copy.amounts, 0, size);
+        System.arraycopy(rows, 0, copy.rows, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    private void pollWorst() {
+        size--;
+        amounts[0] = amounts[size];
+        rows[0] = rows[size];
+        siftDown(0);
+    }
+
+    private static boolean better(double amount, int row, double otherAmount, int otherRow) {
+        return amount > otherAmount || (amount == otherAmount && row < otherRow);
+    }
+
+    private void siftUp(int i) {
+        double amount = amounts[i];
+        int row = rows[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(amounts[parent], rows[parent], amount, row)) {
+                break;
+            }
+            amounts[i] = amounts[parent];
+            rows[i] = rows[parent];
+            i = parent;
+        }
+        amounts[i] = amount;
+        rows[i] = row;
+    }
+
+    private void siftDown(int i) {
+        double amount = amounts[i];
+        int row = rows[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && better(amounts[child], rows[child], amounts[right], rows[right])) {
+                child = right;
+            }
+            if (!better(amount, row, amounts[child], rows[child])) {
+                break;
+            }
+            amounts[i] = amounts[child];
+            rows[i] = rows[child];
+            i = child;
+        }
+        amounts[i] = amount;
+        rows[i] = row;
+    }
+
+    @Override
+    public String toString() {
+        return "TopKHeap" + Arrays.toString(sortedRows());
+    }
+}
@@ -0,0 +1,84 @@
+package com.smallworld.util;
+
+import com.smallworld.data.Transaction;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Computes the fetcher's scalar aggregates (total, max, top sender) in a single pass over a stream of transactions.
+ * Memory is bounded by the number of distinct senders, never by the number of records, and no reference to the
+ * consumed records is kept, so it can be fed by {@link StreamingTransactionReader} in record-reuse mode.
+ */
+public class TransactionStreamAggregator implements Consumer<Transaction> {
+
+    private long count;
+    private double totalAmount;
+    private double maxAmount;
+    // double[1] holders so the running total is updated in place instead of boxing a new Double per record; kept in
+    // order of first appearance so that ties go to the sender seen first
+    private final Map<String, double[]> senderTotals = new LinkedHashMap<>();
+
+    @Override
+    public void accept(Transaction transaction) {
+        double amount = transaction.getAmount();
+        if (count == 0 || amount > maxAmount) {
+            maxAmount = amount;
+        }
+        count++;
+        totalAmount += amount;
+        String sender = transaction.getSenderFullName();
+        if (sender != null) {
+            double[] senderTotal = senderTotals.get(sender);
+            if (senderTotal == null) {
+                senderTotal = new double[1];
+                senderTotals.put(sender, senderTotal);
+            }
+            senderTotal[0] += amount;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of the amounts of all transactions seen so far
+     */
+    public double getTotalTransactionAmount() {
+        return totalAmount;
+    }
+
+    /**
+     * Returns the highest transaction amount seen so far, or 0 if there were none
+     */
+    public double getMaxTransactionAmount() {
+        return count == 0 ? 0 : maxAmount;
+    }
+
+    /**
+     * Returns the sum of the amounts sent by the given client
+     */
+    public double getTotalTransactionAmountSentBy(String senderFullName) {
+        double[] senderTotal = senderTotals.get(senderFullName);
+        return senderTotal == null ? 0 : senderTotal[0];
+    }
+
+    /**
+     * Returns the sender with the most total sent amount, the one seen first among equals
+     */
+    public Optional<String> getTopSender() {
+        String topSender = null;
+        double topAmount = 0;
+        for (Map.Entry<String, double[]> entry : senderTotals.entrySet()) {
+            double amount = entry.getValue()[0];
+            if (topSender == null || amount > topAmount) {
+                topSender = entry.getKey();
+                topAmount = amount;
+            }
+        }
+        return Optional.ofNullable(topSender);
+    }
+}
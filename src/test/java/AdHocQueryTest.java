@@ -0,0 +1,158 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Partition;
+import com.smallworld.data.PartitionStats;
+import com.smallworld.data.Transaction;
+import com.smallworld.query.QueryCompiler;
+import com.smallworld.query.QueryGroup;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AdHocQueryTest {
+
+    private final List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+
+    @Test
+    public void testFiltersAndMetrics() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+
+        List<QueryGroup> groups = fetcher.query(TransactionQuery.builder()
+                .sender("Tom Shelby").minAmount(100)
+                .metric(TransactionQuery.Metric.COUNT).metric(TransactionQuery.Metric.SUM)
+                .metric(TransactionQuery.Metric.MIN).metric(TransactionQuery.Metric.MAX)
+                .metric(TransactionQuery.Metric.AVG).build());
+
+        assertEquals(1, groups.size());
+        QueryGroup all = groups.get(0);
+        assertEquals("all", all.getKey());
+        assertEquals(3L, all.getCount());
+        assertEquals(430.2 + 150.2 + 150.2, all.getSum(), 0.0001);
+        assertEquals(150.2, all.getMin());
+        assertEquals(430.2, all.getMax());
+        assertEquals((430.2 + 150.2 + 150.2) / 3, all.getAvg(), 0.0001);
+        assertNull(all.getTop());
+
+        QueryGroup unknown = fetcher.query(TransactionQuery.builder().sender("Nobody").build()).get(0);
+        assertEquals(0L, unknown.getCount());
+        assertEquals(0.0, unknown.getSum());
+    }
+
+    @Test
+    public void testGroupings() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+
+        Map<String, Double> expectedBySender = new HashMap<>();
+        for (Transaction transaction : transactions) {
+            expectedBySender.merge(transaction.getSenderFullName(), transaction.getAmount(), Double::sum);
+        }
+        Map<String, Double> bySender = new HashMap<>();
+        for (QueryGroup group : fetcher.query(TransactionQuery.builder()
+                .groupBy(TransactionQuery.GroupBy.SENDER).build())) {
+            bySender.put(group.getKey(), group.getSum());
+        }
+        assertEquals(expectedBySender, bySender);
+
+        assertEquals(Arrays.asList("none=5", "open=5", "solved=3"), keyedCounts(fetcher.query(
+                TransactionQuery.builder().groupBy(TransactionQuery.GroupBy.ISSUE_STATE).build())));
+        assertEquals(Arrays.asList("20-29=4", "30-39=5", "50-59=3", "60-69=1"), keyedCounts(fetcher.query(
+                TransactionQuery.builder().groupBy(TransactionQuery.GroupBy.SENDER_AGE_BAND).build())));
+        assertEquals(Collections.singletonList("open=2"), keyedCounts(fetcher.query(TransactionQuery.builder()
+                .sender("Grace Burgess").issueState(TransactionQuery.IssueState.OPEN)
+                .groupBy(TransactionQuery.GroupBy.ISSUE_STATE).build())));
+
+        List<QueryGroup> top = fetcher.query(TransactionQuery.builder()
+                .groupBy(TransactionQuery.GroupBy.BENEFICIARY).metric(TransactionQuery.Metric.TOP).topK(1)
+                .minBeneficiaryAge(58).maxBeneficiaryAge(58).build());
+        assertEquals(2, top.size());
+        assertEquals("Aberama Gold", top.get(0).getKey());
+        assertEquals(Collections.singletonList(transactions.get(7)), top.get(1).getTop());
+    }
+
+    @Test
+    public void testPlansAreSharedByShape() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        QueryCompiler compiler = fetcher.getQueryCompiler();
+
+        fetcher.query(TransactionQuery.builder().minAmount(100).build());
+        fetcher.query(TransactionQuery.builder().minAmount(500).build());
+        fetcher.query(TransactionQuery.builder().minAmount(500).maxAmount(700).build());
+
+        assertEquals(2, compiler.size());
+        assertEquals(1, compiler.getHits());
+        assertEquals(2, compiler.getMisses());
+    }
+
+    @Test
+    public void testPartitionsAreSkippedByTheirStatistics() {
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(transactions);
+        PartitionStats small = PartitionStats.of(ColumnarTransactionStore.of(transactions.subList(0, 4)), 0, 0);
+        PartitionStats rest = PartitionStats.of(ColumnarTransactionStore.of(transactions.subList(4, 10)), 0, 0);
+        // claims amounts the partition does not have, so only pruning explains the missing row
+        small.setMaxAmount(10);
+        List<Partition> partitions = new ArrayList<>(Arrays.asList(
+                new Partition("first", 0, 4, small), new Partition("second", 4, 10, rest)));
+        TransactionQuery query = TransactionQuery.builder().minAmount(400).build();
+
+        List<QueryGroup> groups = new QueryCompiler().compile(query).execute(store, partitions, query);
+
+        // 985 and three times 666 from the second partition, none of the three unpartitioned rows
+        assertEquals(4L, groups.get(0).getCount());
+    }
+
+    @Test
+    public void testAgeBandsAreBounded() {
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(Arrays.asList(
+                new Transaction(1, 10.0, "Tom Shelby", 30, "Ada Shelby", 30, 0, true, null),
+                new Transaction(2, 20.0, "Ada Shelby", Integer.MAX_VALUE, "Tom Shelby", 30, 0, true, null),
+                new Transaction(3, 40.0, "Polly Gray", -5, "Tom Shelby", 30, 0, true, null)));
+        TransactionQuery query = TransactionQuery.builder()
+                .groupBy(TransactionQuery.GroupBy.SENDER_AGE_BAND).ageBand(1).build();
+
+        assertEquals(Arrays.asList("0-0=1", "30-30=1", "199+=1"), keyedCounts(
+                new QueryCompiler().compile(query).execute(store, Collections.emptyList(), query)));
+    }
+
+    @Test
+    public void testParameters() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("minAmount", "100");
+        parameters.put("issue", "open");
+        parameters.put("groupBy", "senderAgeBand");
+        parameters.put("ageBand", "5");
+        parameters.put("metrics", "count,top");
+        parameters.put("k", "2");
+        parameters.put("from", "2024-01-01");
+
+        TransactionQuery query = TransactionQuery.fromParameters(parameters::get);
+
+        assertEquals(TransactionQuery.builder().minAmount(100).issueState(TransactionQuery.IssueState.OPEN)
+                .groupBy(TransactionQuery.GroupBy.SENDER_AGE_BAND).ageBand(5)
+                .metric(TransactionQuery.Metric.COUNT).metric(TransactionQuery.Metric.TOP).topK(2)
+                .fromMillis(1704067200000L).build(), query);
+        parameters.put("groupBy", "colour");
+        assertThrows(IllegalArgumentException.class, () -> TransactionQuery.fromParameters(parameters::get));
+        parameters.put("groupBy", "sender");
+        parameters.put("minAmount", "lots");
+        assertThrows(IllegalArgumentException.class, () -> TransactionQuery.fromParameters(parameters::get));
+    }
+
+    private static List<String> keyedCounts(List<QueryGroup> groups) {
+        List<String> counts = new ArrayList<>();
+        for (QueryGroup group : groups) {
+            counts.add(group.getKey() + "=" + group.getCount());
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,125 @@
+import com.smallworld.data.BinarySnapshotFile;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionSnapshot;
+import com.smallworld.data.TransactionSnapshotManager;
+import com.smallworld.query.Aggregate;
+import com.smallworld.query.QueryEngine;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BinarySnapshotFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testMappedSnapshotMatchesJson() throws IOException {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+        Path file = tempDir.resolve("transactions.snap");
+        BinarySnapshotFile.write(ColumnarTransactionStore.of(transactions), file);
+
+        ColumnarTransactionStore mapped = BinarySnapshotFile.map(file, true);
+
+        assertEquals(transactions, mapped.asList());
+        assertTrue(mapped.mappedBytes() > 0);
+        QueryEngine engine = new QueryEngine();
+        assertEquals(engine.execute(ColumnarTransactionStore.of(transactions), Aggregate.values()).asMap(),
+                engine.execute(mapped, Aggregate.values()).asMap());
+        assertArrayEquals(ColumnarTransactionStore.of(transactions).topRows(3), mapped.topRows(3));
+    }
+
+    @Test
+    public void testTransactionTimeRoundTrips() throws IOException {
+        List<Transaction> transactions = Arrays.asList(
+                new Transaction(1, 10.0, "Tom Shelby", 22, "Ada Shelby", 30, 0, true, null, 1700000000000L),
+                new Transaction(2, 20.0, "Ada Shelby", 30, "Tom Shelby", 22, 5, false, "Pending", null));
+        Path file = tempDir.resolve("timed.snap");
+        BinarySnapshotFile.write(ColumnarTransactionStore.of(transactions), file);
+
+        assertEquals(transactions, BinarySnapshotFile.map(file, true).asList());
+    }
+
+    @Test
+    public void testRewritingAMappedSnapshotLeavesItIntact() throws IOException {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+        List<Transaction> replacement = transactions.subList(0, 2);
+        Path file = tempDir.resolve("transactions.snap");
+        BinarySnapshotFile.write(ColumnarTransactionStore.of(transactions), file);
+        ColumnarTransactionStore mapped = BinarySnapshotFile.map(file, true);
+
+        BinarySnapshotFile.write(ColumnarTransactionStore.of(replacement), file);
+
+        assertEquals(transactions, mapped.asList());
+        assertEquals(replacement, BinarySnapshotFile.map(file, true).asList());
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(Arrays.asList(file), files.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testManagerLoadsSnapshotFile() throws IOException {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+        Path file = tempDir.resolve("transactions.snap");
+        BinarySnapshotFile.convert(new JSONFileReader().resolveDataFile(), file);
+
+        try (TransactionSnapshotManager manager = new TransactionSnapshotManager(new JSONFileReader(file))) {
+            assertTrue(BinarySnapshotFile.isSnapshot(file));
+            assertTrue(manager.current().getStore().mappedBytes() > 0);
+            assertEquals(transactions, manager.current().getTransactions());
+        }
+    }
+
+    @Test
+    public void testCorruptColumnsAreRejected() throws IOException {
+        Path file = tempDir.resolve("transactions.snap");
+        BinarySnapshotFile.write(ColumnarTransactionStore.of(new JSONFileReader().loadDataFromJson()), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+
+        assertThrows(IOException.class, () -> BinarySnapshotFile.map(file, true));
+    }
+
+    @Test
+    public void testBadMagicIsRejected() throws IOException {
+        Path file = tempDir.resolve("bogus.snap");
+        byte[] bytes = new byte[128];
+        Arrays.fill(bytes, (byte) 7);
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> BinarySnapshotFile.map(file, false));
+    }
+
+    @Test
+    public void testAppendToMappedSnapshot() throws IOException {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+        Path file = tempDir.resolve("transactions.snap");
+        BinarySnapshotFile.write(ColumnarTransactionStore.of(transactions), file);
+        TransactionSnapshot snapshot = new TransactionSnapshot(1, BinarySnapshotFile.map(file, false));
+
+        snapshot.append(new Transaction(1, 2000.0, "Tom Shelby", 22, "Ada Shelby", 30, 0, true, null));
+
+        assertEquals(transactions.size() + 1, snapshot.size());
+        assertEquals(2000.0, snapshot.getLiveAggregates().getMaxTransactionAmount());
+        assertEquals(transactions.get(0), snapshot.getStore().row(0));
+    }
+}
@@ -0,0 +1,143 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ClientExposure;
+import com.smallworld.data.ClientGraph;
+import com.smallworld.data.Counterparty;
+import com.smallworld.data.ReachableClient;
+import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionSnapshot;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClientGraphTest {
+
+    private static List<Transaction> chain() {
+        return Arrays.asList(
+                new Transaction(1, 100.0, "Ada", 30, "Bob", 40, 0, true, null),
+                new Transaction(2, 50.0, "Ada", 30, "Bob", 40, 0, true, null),
+                new Transaction(3, 30.0, "Bob", 40, "Cid", 50, 0, true, null),
+                new Transaction(4, 10.0, "Cid", 50, "Dan", 60, 7, false, "Pending"),
+                new Transaction(5, 20.0, "Eve", 20, "Ada", 30, 0, true, null));
+    }
+
+    @Test
+    public void testCounterpartiesAndExposure() {
+        TransactionSnapshot snapshot = new TransactionSnapshot(1, chain());
+        ClientGraph graph = snapshot.getGraph();
+
+        assertEquals(5, graph.getClientCount());
+        assertEquals(4, graph.getEdgeCount());
+        List<Counterparty> ofAda = graph.counterparties("Ada");
+        assertEquals(Arrays.asList("Bob", "Eve"), names(ofAda));
+        assertEquals(150.0, ofAda.get(0).getSentAmount());
+        assertEquals(2, ofAda.get(0).getTransactions());
+        assertEquals(20.0, ofAda.get(1).getReceivedAmount());
+
+        ClientExposure bob = graph.exposure("Bob");
+        assertEquals(30.0, bob.getTotalSent());
+        assertEquals(150.0, bob.getTotalReceived());
+        assertEquals(2, bob.getCounterparties());
+        assertEquals(1, bob.getFlaggedCounterparties());
+        assertEquals(30.0, bob.getFlaggedAmount());
+        assertFalse(bob.isOpenIssues());
+        assertTrue(graph.hasOpenIssues("Dan"));
+        assertEquals(Collections.emptyList(), graph.counterparties("Nobody"));
+        assertEquals(0.0, graph.exposure("Nobody").getTotalExposure());
+    }
+
+    @Test
+    public void testReachability() {
+        ClientGraph graph = new TransactionSnapshot(1, chain()).getGraph();
+
+        List<ReachableClient> reachable = graph.reachableFlaggedClients("Ada", 3, ClientGraph.Direction.SENT);
+        assertEquals(Arrays.asList("Cid", "Dan"), reachableNames(reachable));
+        assertEquals(2, reachable.get(0).getHops());
+        assertEquals(Arrays.asList("Ada", "Bob", "Cid", "Dan"), reachable.get(1).getPath());
+        assertEquals(Collections.singletonList("Cid"), reachableNames(
+                graph.reachableFlaggedClients("Ada", 2, ClientGraph.Direction.SENT)));
+        assertEquals(Collections.emptyList(), graph.reachableFlaggedClients("Ada", 3, ClientGraph.Direction.RECEIVED));
+        assertEquals(Collections.singletonList("Cid"), reachableNames(
+                graph.reachableFlaggedClients("Dan", 1, ClientGraph.Direction.BOTH)));
+    }
+
+    @Test
+    public void testAppendedRowsReachTheGraph() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        assertEquals(fetcher.countUniqueClients(),
+                fetcher.getSnapshotManager().current().getGraph().getClientCount());
+        assertEquals(Collections.emptyList(), fetcher.getCounterparties("Ada Thorne"));
+
+        fetcher.append(new Transaction(1, 75.0, "Ada Thorne", 35, "Grace Burgess", 31, 0, true, null));
+
+        assertEquals(Collections.singletonList("Grace Burgess"), names(fetcher.getCounterparties("Ada Thorne")));
+        assertEquals(75.0, fetcher.getExposure("Ada Thorne").getFlaggedAmount());
+        assertEquals(Arrays.asList("Grace Burgess", "Michael Gray"), reachableNames(
+                fetcher.findReachableFlaggedClients("Ada Thorne", 2, ClientGraph.Direction.SENT)));
+        assertEquals(fetcher.countUniqueClients(),
+                fetcher.getSnapshotManager().current().getGraph().getClientCount());
+    }
+
+    @Test
+    public void testDeltaAnswersLikeARebuild() {
+        TransactionSnapshot snapshot = new TransactionSnapshot(1, chain());
+        ClientGraph base = snapshot.getGraph();
+        List<List<Transaction>> batches = Arrays.asList(
+                Arrays.asList(
+                        new Transaction(6, 5.0, "Ada", 30, "Bob", 40, 0, true, null),
+                        new Transaction(7, 40.0, "Dan", 60, "Fay", 25, 0, true, null),
+                        new Transaction(8, 15.0, "Fay", 25, "Ada", 30, 9, false, "Pending")),
+                Arrays.asList(
+                        new Transaction(9, 8.0, "Gus", 45, null, 0, 0, true, null),
+                        new Transaction(10, 12.0, "Ada", 30, "Eve", 20, 0, true, null),
+                        new Transaction(11, 3.0, "Dan", 60, "Fay", 25, 0, true, null),
+                        new Transaction(12, 7.0, "Hal", 50, "Ada", 30, 0, true, null)));
+
+        ClientGraph previous = base;
+        for (List<Transaction> batch : batches) {
+            snapshot.appendAll(batch);
+            // each update extends the delta of the graph before it
+            ClientGraph extended = snapshot.getGraph();
+            ClientGraph rebuilt = ClientGraph.build(snapshot.getStore());
+
+            assertTrue(extended != previous && extended != rebuilt);
+            assertEquals(rebuilt.getRows(), extended.getRows());
+            assertEquals(rebuilt.getClientCount(), extended.getClientCount());
+            assertEquals(rebuilt.getEdgeCount(), extended.getEdgeCount());
+            for (String client : Arrays.asList("Ada", "Bob", "Cid", "Dan", "Eve", "Fay", "Gus", "Hal", "Nobody")) {
+                assertEquals(String.valueOf(rebuilt.counterparties(client)),
+                        String.valueOf(extended.counterparties(client)));
+                assertEquals(String.valueOf(rebuilt.exposure(client)), String.valueOf(extended.exposure(client)));
+                assertEquals(rebuilt.hasOpenIssues(client), extended.hasOpenIssues(client));
+                for (ClientGraph.Direction direction : ClientGraph.Direction.values()) {
+                    assertEquals(String.valueOf(rebuilt.reachableFlaggedClients(client, 3, direction)),
+                            String.valueOf(extended.reachableFlaggedClients(client, 3, direction)));
+                }
+            }
+            previous = extended;
+        }
+    }
+
+    private static List<String> names(List<Counterparty> counterparties) {
+        List<String> names = new ArrayList<>();
+        for (Counterparty counterparty : counterparties) {
+            names.add(counterparty.getName());
+        }
+        return names;
+    }
+
+    private static List<String> reachableNames(List<ReachableClient> reachable) {
+        List<String> names = new ArrayList<>();
+        for (ReachableClient client : reachable) {
+            names.add(client.getName());
+        }
+        return names;
+    }
+}
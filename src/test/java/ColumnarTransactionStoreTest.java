@@ -0,0 +1,37 @@
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.StringDictionary;
+import com.smallworld.data.Transaction;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ColumnarTransactionStoreTest {
+
+    @Test
+    public void testRowsRoundTrip() {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(transactions);
+
+        assertEquals(transactions.size(), store.size());
+        assertEquals(transactions, store.asList());
+    }
+
+    @Test
+    public void testSendersAndBeneficiariesShareDictionary() {
+        ColumnarTransactionStore store = new ColumnarTransactionStore.Builder()
+                .add(new Transaction(1, 10.0, "Tom Shelby", 22, "Arthur Shelby", 60, 0, false, null))
+                .add(new Transaction(2, 20.0, "Arthur Shelby", 60, "Tom Shelby", 22, 4, true, "done"))
+                .build();
+
+        assertEquals(2, store.getClients().size());
+        assertEquals(store.senderCode(0), store.beneficiaryCode(1));
+        assertEquals(StringDictionary.NULL_CODE, store.issueMessageCode(0));
+        assertTrue(store.issueSolved(1));
+        assertTrue(store.estimatedBytes() > 0);
+    }
+}
@@ -0,0 +1,135 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.Partition;
+import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionSnapshot;
+import com.smallworld.query.QueryEngine;
+import com.smallworld.source.DirectoryTransactionSource;
+import com.smallworld.source.PartitionFilter;
+import com.smallworld.source.SourceData;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DirectoryTransactionSourceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testPartitionsAreConcatenatedInNameOrder() throws IOException {
+        List<Transaction> expected = writeDays();
+
+        SourceData data = new DirectoryTransactionSource(tempDir, 2).read();
+        TransactionSnapshot snapshot = data.toSnapshot(1);
+
+        assertEquals(expected, snapshot.getTransactions());
+        assertEquals(3, snapshot.getPartitions().size());
+        Partition second = snapshot.getPartitions().get(1);
+        assertEquals("2024-01-02.ndjson.gz", second.getName());
+        assertEquals(2, second.getFromRow());
+        assertEquals(4, second.getToRow());
+        assertEquals(900.0, second.getStats().getMaxAmount());
+        assertTrue(Files.isRegularFile(tempDir.resolve("2024-01-01.json" + DirectoryTransactionSource.META_SUFFIX)));
+    }
+
+    @Test
+    public void testMetadataSkipsPartitionsWithoutOpeningThem() throws IOException {
+        writeDays();
+        DirectoryTransactionSource source = new DirectoryTransactionSource(tempDir);
+        source.read();
+        // same size and modification time, so the metadata still applies, but the rows can no longer be parsed
+        Path first = tempDir.resolve("2024-01-01.json");
+        FileTime modified = Files.getLastModifiedTime(first);
+        byte[] garbage = new byte[(int) Files.size(first)];
+        Arrays.fill(garbage, (byte) '#');
+        Files.write(first, garbage);
+        Files.setLastModifiedTime(first, modified);
+
+        source.setFilter(PartitionFilter.ALL.withMinAmount(500.0));
+        SourceData data = source.read();
+
+        assertEquals(1, data.getSkippedPartitions());
+        assertEquals(4, data.getRows());
+        source.setFilter(PartitionFilter.ALL.withSenders(Collections.singletonList("Grace Burgess")));
+        assertEquals(Collections.singletonList("2024-01-03.ndjson"), partitionNames(source.read()));
+    }
+
+    @Test
+    public void testTopTransactionsPruneByPartition() throws IOException {
+        List<Transaction> rows = new ArrayList<>();
+        for (int day = 1; day <= 9; day++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 10; i++) {
+                Transaction transaction = new Transaction(day * 100 + i, day * 10.0 + i % 3, "Tom Shelby", 22,
+                        "Ada Shelby", 30, 0, true, null);
+                rows.add(transaction);
+                json.append(i == 0 ? "" : ",").append(JSONFileReader.objectMapper().writeValueAsString(transaction));
+            }
+            Files.write(tempDir.resolve("2024-01-0" + day + ".json"),
+                    json.append(']').toString().getBytes(StandardCharsets.UTF_8));
+        }
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        fetcher.setPerRowSemantics(true);
+        fetcher.getSnapshotManager().setSource(new DirectoryTransactionSource(tempDir));
+        fetcher.getSnapshotManager().reload();
+
+        List<Transaction> top = fetcher.getTopTransactionsByAmount(20);
+
+        assertEquals(new QueryEngine().topTransactions(
+                fetcher.getSnapshotManager().current().getStore(), 20), top);
+        assertEquals(rows.get(80 + 2), top.get(0));
+    }
+
+    private List<Transaction> writeDays() throws IOException {
+        List<Transaction> day1 = Arrays.asList(
+                new Transaction(1, 100.0, "Tom Shelby", 22, "Ada Shelby", 30, 1, false, "Pending", 1704067200000L),
+                new Transaction(2, 200.0, "Arthur Shelby", 60, "Tom Shelby", 22, 0, true, null, 1704070800000L));
+        List<Transaction> day2 = Arrays.asList(
+                new Transaction(3, 900.0, "Tom Shelby", 22, "Polly Gray", 50, 0, true, null, 1704153600000L),
+                new Transaction(4, 50.0, "Polly Gray", 50, "Arthur Shelby", 60, 2, true, "Done", 1704157200000L));
+        List<Transaction> day3 = Arrays.asList(
+                new Transaction(5, 700.0, "Grace Burgess", 30, "Tom Shelby", 22, 0, true, null, 1704240000000L),
+                new Transaction(6, 10.0, "Ada Shelby", 30, "Grace Burgess", 30, 0, true, null, 1704243600000L));
+        Files.write(tempDir.resolve("2024-01-01.json"), JSONFileReader.objectMapper().writeValueAsBytes(day1));
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempDir.resolve("2024-01-02.ndjson.gz")))) {
+            out.write(ndjson(day2));
+        }
+        Files.write(tempDir.resolve("2024-01-03.ndjson"), ndjson(day3));
+        Files.write(tempDir.resolve("notes.txt"), "not a partition".getBytes(StandardCharsets.UTF_8));
+        List<Transaction> all = new ArrayList<>(day1);
+        all.addAll(day2);
+        all.addAll(day3);
+        return all;
+    }
+
+    private static byte[] ndjson(List<Transaction> transactions) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Transaction transaction : transactions) {
+            lines.append(JSONFileReader.objectMapper().writeValueAsString(transaction)).append('\n');
+        }
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> partitionNames(SourceData data) {
+        List<String> names = new ArrayList<>();
+        for (Partition partition : data.getPartitions()) {
+            names.add(partition.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,90 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Transaction;
+import com.smallworld.query.Aggregate;
+import com.smallworld.query.QueryEngine;
+import com.smallworld.query.QueryResult;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LiveAggregatesTest {
+
+    @Test
+    public void testAppendUpdatesEveryFigure() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        double total = fetcher.getTotalTransactionAmount();
+
+        fetcher.append(new Transaction(1, 5000.0, "Michael Gray", 30, "Polly Gray", 55, 777, false, "Pending"));
+        fetcher.appendAll(java.util.Arrays.asList(
+                new Transaction(2, 10.0, "Michael Gray", 30, "Tom Shelby", 22, 778, true, "Cleared"),
+                new Transaction(3, 20.0, "Ada Thorne", 35, "Tom Shelby", 22, 0, true, null)));
+
+        assertEquals(total + 5030.0, fetcher.getTotalTransactionAmount(), 0.0001);
+        assertEquals(5000.0, fetcher.getMaxTransactionAmount());
+        assertEquals(16, fetcher.countUniqueClients());
+        assertEquals("Michael Gray", fetcher.getTopSender().orElse(null));
+        // the leader's result is made once, not per call
+        assertSame(fetcher.getTopSender(), fetcher.getTopSender());
+        assertEquals(5010.0, fetcher.getTotalTransactionAmountSentBy("Michael Gray"));
+        assertTrue(fetcher.hasOpenComplianceIssues("Polly Gray"));
+        assertTrue(fetcher.getUnsolvedIssueIds().contains(777));
+        assertTrue(fetcher.getAllSolvedIssueMessages().contains("Cleared"));
+        assertEquals(5000.0, fetcher.getTop3TransactionsByAmount().get(0).getAmount());
+        assertEquals(2, fetcher.getTransactionsSentBy("Michael Gray").size());
+        assertEquals(777, fetcher.findTransactionByIssueId(777).map(Transaction::getIssueId).orElse(0));
+    }
+
+    @Test
+    public void testConcurrentWritersMatchFullRecomputation() throws Exception {
+        JSONFileReader jsonFileReader = mock(JSONFileReader.class);
+        when(jsonFileReader.loadDataFromJson()).thenReturn(Collections.emptyList());
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(jsonFileReader);
+        int writers = 8;
+        int perWriter = 5_000;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perWriter; i++) {
+                    int id = writer * perWriter + i;
+                    fetcher.append(new Transaction(id, (id % 97) + 0.25, "Sender " + id % 13, 30,
+                            "Beneficiary " + id % 17, 40, id % 5 == 0 ? id : 0, id % 10 == 0, "Issue " + id % 3));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        ColumnarTransactionStore store = fetcher.getSnapshotManager().current().getStore();
+        QueryResult expected = new QueryEngine().execute(store, EnumSet.allOf(Aggregate.class));
+        assertEquals(writers * perWriter, store.size());
+        assertEquals(expected.getTotalTransactionAmount(), fetcher.getTotalTransactionAmount(), 0.001);
+        assertEquals(expected.getMaxTransactionAmount(), fetcher.getMaxTransactionAmount());
+        assertEquals(expected.countUniqueClients(), fetcher.countUniqueClients());
+        assertEquals(expected.getUnsolvedIssueIds(), fetcher.getUnsolvedIssueIds());
+        assertEquals(expected.getAllSolvedIssueMessages().size(), fetcher.getAllSolvedIssueMessages().size());
+        assertEquals(expected.getTopSender(), fetcher.getTopSender());
+        List<Transaction> top3 = new ArrayList<>(fetcher.getTop3TransactionsByAmount());
+        assertEquals(expected.getTop3TransactionsByAmount(), top3);
+    }
+}
@@ -0,0 +1,62 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.NormalizedTransactions;
+import com.smallworld.data.Transaction;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class NormalizedTransactionsTest {
+
+    @Test
+    public void testTransfersAndIssuesAreCountedOnce() {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+        NormalizedTransactions normalized = NormalizedTransactions.of(ColumnarTransactionStore.of(transactions));
+
+        assertEquals(10, normalized.getTransferCount());
+        assertEquals(8, normalized.getIssueCount());
+        assertEquals(new HashSet<>(Arrays.asList(1, 3, 15, 54, 99)), normalized.getUnsolvedIssueIds());
+        assertEquals(Arrays.asList("Never gonna give you up", "Never gonna let you down",
+                "Never gonna run around and desert you"), normalized.getAllSolvedIssueMessages());
+        double rowTotal = transactions.stream().mapToDouble(Transaction::getAmount).sum();
+        assertEquals(rowTotal - 150.2 - 2 * 666.0, normalized.getTotalTransactionAmount(), 0.0001);
+    }
+
+    @Test
+    public void testReusedMtnWithOtherFieldsIsAnotherTransfer() {
+        NormalizedTransactions normalized = NormalizedTransactions.of(ColumnarTransactionStore.of(Arrays.asList(
+                new Transaction(1, 100.0, "Tom Shelby", 22, "Ada Shelby", 30, 1, false, "Pending"),
+                new Transaction(1, 100.0, "Tom Shelby", 22, "Ada Shelby", 30, 2, true, "Cleared"),
+                new Transaction(1, 250.0, "Polly Gray", 50, "Ada Shelby", 30, 0, true, null))));
+
+        assertEquals(2, normalized.getTransferCount());
+        assertEquals(350.0, normalized.getTotalTransactionAmount());
+        assertEquals(0, normalized.transferRowOfIssue(2));
+    }
+
+    @Test
+    public void testFetcherSwitchesBetweenTransferAndRowSemantics() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        fetcher.append(new Transaction(32612651, 666.0, "Grace Burgess", 31, "Michael Gray", 58, 100, false,
+                "Yet another issue"));
+
+        assertEquals(Arrays.asList(985.0, 666.0, 430.2), amounts(fetcher.getTop3TransactionsByAmount()));
+        assertEquals(6, fetcher.getUnsolvedIssueIds().size());
+        double transferTotal = fetcher.getTotalTransactionAmount();
+
+        fetcher.setPerRowSemantics(true);
+
+        assertEquals(Arrays.asList(985.0, 666.0, 666.0), amounts(fetcher.getTop3TransactionsByAmount()));
+        assertEquals(transferTotal + 150.2 + 3 * 666.0, fetcher.getTotalTransactionAmount(), 0.0001);
+    }
+
+    private static List<Double> amounts(List<Transaction> transactions) {
+        return transactions.stream().map(Transaction::getAmount).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,64 @@
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Transaction;
+import com.smallworld.query.Aggregate;
+import com.smallworld.query.QueryEngine;
+import com.smallworld.query.QueryResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParallelQueryExecutionTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testParallelMatchesSequentialExactly() {
+        ColumnarTransactionStore store = buildStore(300_000);
+        QueryEngine sequential = new QueryEngine(pool, Integer.MAX_VALUE);
+        QueryEngine parallel = new QueryEngine(pool, 0);
+
+        QueryResult expected = sequential.execute(store, EnumSet.allOf(Aggregate.class));
+        QueryResult actual = parallel.execute(store, EnumSet.allOf(Aggregate.class));
+
+        assertEquals(expected.asMap(), actual.asMap());
+    }
+
+    @Test
+    public void testTiesAreBrokenByDataOrder() {
+        ColumnarTransactionStore.Builder builder = new ColumnarTransactionStore.Builder();
+        for (int i = 0; i < 100_000; i++) {
+            builder.add(new Transaction(i, 50.0, i % 2 == 0 ? "Tom Shelby" : "Arthur Shelby", 30,
+                    "Polly Gray", 50, 0, true, null));
+        }
+        ColumnarTransactionStore store = builder.build();
+
+        QueryResult result = new QueryEngine(pool, 0).execute(store, Aggregate.TOP3_TRANSACTIONS, Aggregate.TOP_SENDER);
+
+        assertEquals("Tom Shelby", result.getTopSender().orElse(null));
+        assertEquals(0, result.getTop3TransactionsByAmount().get(0).getMtn());
+        assertEquals(2, result.getTop3TransactionsByAmount().get(2).getMtn());
+    }
+
+    private ColumnarTransactionStore buildStore(int rows) {
+        Random random = new Random(42);
+        ColumnarTransactionStore.Builder builder = new ColumnarTransactionStore.Builder(rows);
+        for (int i = 0; i < rows; i++) {
+            int issueId = random.nextInt(4) == 0 ? random.nextInt(5_000) + 1 : 0;
+            builder.add(new Transaction(i, Math.round(random.nextDouble() * 100_000) / 100.0,
+                    "Sender " + random.nextInt(2_000), 20 + random.nextInt(60),
+                    "Beneficiary " + random.nextInt(5_000), 20 + random.nextInt(60),
+                    issueId, issueId == 0 || random.nextBoolean(), issueId == 0 ? null : "Issue " + issueId % 50));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,66 @@
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Transaction;
+import com.smallworld.query.Accumulator;
+import com.smallworld.query.Aggregate;
+import com.smallworld.query.QueryEngine;
+import com.smallworld.query.QueryResult;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class QueryEngineTest {
+
+    private final QueryEngine queryEngine = new QueryEngine();
+
+    @Test
+    public void testFusedScanComputesEveryAggregate() {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+
+        QueryResult summary = queryEngine.execute(ColumnarTransactionStore.of(transactions), EnumSet.allOf(Aggregate.class));
+
+        assertEquals(transactions.stream().mapToDouble(Transaction::getAmount).sum(),
+                summary.getTotalTransactionAmount(), 0.0001);
+        assertEquals(985.0, summary.getMaxTransactionAmount());
+        assertEquals(14, summary.countUniqueClients());
+        assertEquals(new java.util.HashSet<>(Arrays.asList(1, 3, 15, 54, 99)), summary.getUnsolvedIssueIds());
+        assertEquals(Arrays.asList("Never gonna give you up", "Never gonna let you down",
+                "Never gonna run around and desert you"), summary.getAllSolvedIssueMessages());
+        assertEquals(Arrays.asList(985.0, 666.0, 666.0), Arrays.asList(
+                summary.getTop3TransactionsByAmount().get(0).getAmount(),
+                summary.getTop3TransactionsByAmount().get(1).getAmount(),
+                summary.getTop3TransactionsByAmount().get(2).getAmount()));
+        assertEquals("Grace Burgess", summary.getTopSender().orElse(null));
+    }
+
+    @Test
+    public void testOnlyRequestedAggregatesAreComputed() {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+
+        QueryResult summary = queryEngine.execute(ColumnarTransactionStore.of(transactions), Aggregate.MAX_AMOUNT);
+
+        assertFalse(summary.contains(Aggregate.TOP_SENDER));
+        assertThrows(IllegalStateException.class, summary::getTopSender);
+    }
+
+    @Test
+    public void testMergedPartitionsMatchSingleScan() {
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(new JSONFileReader().loadDataFromJson());
+        Set<Aggregate> aggregates = EnumSet.allOf(Aggregate.class);
+
+        QueryResult single = queryEngine.execute(store, aggregates);
+        Map<Aggregate, Accumulator<?>> merged = queryEngine.accumulate(store, 0, 4, aggregates);
+        queryEngine.merge(merged, queryEngine.accumulate(store, 4, 9, aggregates));
+        queryEngine.merge(merged, queryEngine.accumulate(store, 9, store.size(), aggregates));
+
+        assertEquals(single.asMap(), queryEngine.finish(merged).asMap());
+    }
+}
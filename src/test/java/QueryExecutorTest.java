@@ -0,0 +1,79 @@
+import com.smallworld.servlets.QueryExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class QueryExecutorTest {
+
+    private final QueryExecutor executor = new QueryExecutor(Executors.newFixedThreadPool(4), 2);
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneComputation() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+
+        CompletableFuture<Object> first = executor.submit("/getTopSender", () -> {
+            computations.incrementAndGet();
+            await(release);
+            return "Grace Burgess";
+        });
+        CompletableFuture<Object> second = executor.submit("/getTopSender", () -> computations.incrementAndGet());
+        release.countDown();
+
+        assertSame(first, second);
+        assertEquals("Grace Burgess", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, computations.get());
+        assertEquals(1, executor.getCollapsed());
+    }
+
+    @Test
+    public void testRejectsBeyondAdmissionLimit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> first = executor.submit("a", () -> await(release));
+        executor.submit("b", () -> await(release));
+
+        assertThrows(RejectedExecutionException.class, () -> executor.submit("c", () -> 1));
+        assertEquals(1, executor.getRejected());
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        // the key is forgotten once finished, so the same request computes again
+        assertEquals(3, executor.submit("a", () -> 3).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailureReachesAllWaiters() {
+        CompletableFuture<Object> failed = executor.submit("x", () -> {
+            throw new UnsupportedOperationException("nope");
+        });
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof UnsupportedOperationException);
+    }
+
+    private static Object await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.Transaction;
+import com.smallworld.query.ResultCache;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResultCacheTest {
+
+    @Test
+    public void testHitsAndMissesPerArgument() {
+        ResultCache cache = new ResultCache();
+        AtomicInteger computations = new AtomicInteger();
+
+        cache.get(1, 0, "getTransactionsSentBy", "Tom Shelby", computations::incrementAndGet);
+        cache.get(1, 0, "getTransactionsSentBy", "Tom Shelby", computations::incrementAndGet);
+        cache.get(1, 0, "getTransactionsSentBy", "Grace Burgess", computations::incrementAndGet);
+
+        assertEquals(2, computations.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testNewerVersionInvalidatesAndOlderBypasses() {
+        ResultCache cache = new ResultCache();
+        cache.get(1, 0, "m", null, () -> "v1");
+
+        assertEquals("v1.1", cache.get(1, 1, "m", null, () -> "v1.1"));
+        assertEquals(1, cache.getInvalidations());
+        // a query still running on the old data neither reads nor pollutes the cache
+        assertEquals("old", cache.get(1, 0, "m", null, () -> "old"));
+        assertEquals("v1.1", cache.get(1, 1, "m", null, () -> "unexpected"));
+        assertEquals("v2", cache.get(2, 0, "m", null, () -> "v2"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ResultCache cache = new ResultCache(2);
+        cache.get(1, 0, "m", "a", () -> "a");
+        cache.get(1, 0, "m", "b", () -> "b");
+        cache.get(1, 0, "m", "a", () -> "unexpected");
+        cache.get(1, 0, "m", "c", () -> "c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("a", cache.get(1, 0, "m", "a", () -> "unexpected"));
+        assertEquals("b again", cache.get(1, 0, "m", "b", () -> "b again"));
+    }
+
+    @Test
+    public void testFetcherResultsFollowAppends() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        Set<Integer> first = fetcher.getUnsolvedIssueIds();
+
+        assertSame(first, fetcher.getUnsolvedIssueIds());
+        assertThrows(UnsupportedOperationException.class, () -> first.add(1000));
+
+        fetcher.append(new Transaction(1, 10.0, "Tom Shelby", 22, "Ada Shelby", 30, 1000, false, "Pending"));
+
+        assertTrue(fetcher.getUnsolvedIssueIds().contains(1000));
+        assertFalse(first.contains(1000));
+        assertEquals(1, fetcher.getResultCache().getHits());
+        assertEquals(1, fetcher.getResultCache().getInvalidations());
+    }
+
+    @Test
+    public void testCachedTransactionsAreCopied() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        fetcher.getTopTransactionsByAmount(2).get(0).setAmount(-1);
+        fetcher.getTransactionsSentBy("Tom Shelby").get(0).setSenderFullName("Nobody");
+        fetcher.query(TransactionQuery.builder().metric(TransactionQuery.Metric.TOP).build())
+                .get(0).getTop().get(0).setAmount(-1);
+
+        assertEquals(985.0, fetcher.getTopTransactionsByAmount(2).get(0).getAmount());
+        assertEquals("Tom Shelby", fetcher.getTransactionsSentBy("Tom Shelby").get(0).getSenderFullName());
+        assertEquals(985.0, fetcher.query(TransactionQuery.builder().metric(TransactionQuery.Metric.TOP).build())
+                .get(0).getTop().get(0).getAmount());
+        assertEquals(3, fetcher.getResultCache().getHits());
+    }
+}
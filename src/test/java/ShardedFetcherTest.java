@@ -0,0 +1,167 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.Transaction;
+import com.smallworld.query.QueryGroup;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.shard.LocalTransactionShard;
+import com.smallworld.shard.ShardCoordinator;
+import com.smallworld.shard.ShardRouter;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardedFetcherTest {
+
+    private final List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+
+    @Test
+    public void testRouterKeepsEverySenderOnOneShard() {
+        ShardRouter router = new ShardRouter(3);
+        List<List<Transaction>> partitions = router.partition(transactions);
+
+        int rows = 0;
+        Map<String, Integer> shardOfSender = new HashMap<>();
+        for (int shard = 0; shard < partitions.size(); shard++) {
+            rows += partitions.get(shard).size();
+            for (Transaction transaction : partitions.get(shard)) {
+                assertEquals(shard, (int) shardOfSender.computeIfAbsent(transaction.getSenderFullName(),
+                        router::shardOf));
+            }
+        }
+        assertEquals(transactions.size(), rows);
+        assertTrue(new HashSet<>(shardOfSender.values()).size() > 1);
+    }
+
+    @Test
+    public void testMergedAnswersMatchOneFetcher() {
+        TransactionDataFetcher single = new TransactionDataFetcher(new JSONFileReader());
+        try (ShardCoordinator sharded = ShardCoordinator.inProcess(transactions, 3)) {
+            assertEquals(single.getTotalTransactionAmount(), sharded.getTotalTransactionAmount(), 0.0001);
+            assertEquals(single.getMaxTransactionAmount(), sharded.getMaxTransactionAmount());
+            assertEquals(single.countUniqueClients(), sharded.countUniqueClients());
+            assertEquals(single.countUniqueClientsApproximately(), sharded.countUniqueClientsApproximately());
+            assertEquals(single.getTopSender(), sharded.getTopSender());
+            assertEquals(single.getUnsolvedIssueIds(), sharded.getUnsolvedIssueIds());
+            assertEquals(sorted(single.getAllSolvedIssueMessages()), sorted(sharded.getAllSolvedIssueMessages()));
+            assertEquals(amounts(single.getTopTransactionsByAmount(5)), amounts(sharded.getTopTransactionsByAmount(5)));
+            assertEquals(single.findTransactionByIssueId(3), sharded.findTransactionByIssueId(3));
+            for (Transaction transaction : transactions) {
+                String sender = transaction.getSenderFullName();
+                String beneficiary = transaction.getBeneficiaryFullName();
+                assertEquals(single.getTotalTransactionAmountSentBy(sender),
+                        sharded.getTotalTransactionAmountSentBy(sender));
+                assertEquals(single.getTransactionsSentBy(sender), sharded.getTransactionsSentBy(sender));
+                assertEquals(single.hasOpenComplianceIssues(sender), sharded.hasOpenComplianceIssues(sender));
+                assertEquals(single.hasOpenComplianceIssues(beneficiary),
+                        sharded.hasOpenComplianceIssues(beneficiary));
+            }
+            assertEquals(single.getTransactionsByBeneficiaryName().keySet(),
+                    sharded.getTransactionsByBeneficiaryName().keySet());
+            for (Map.Entry<String, List<Transaction>> entry : single.getTransactionsByBeneficiaryName().entrySet()) {
+                assertEquals(new HashSet<>(entry.getValue()),
+                        new HashSet<>(sharded.getTransactionsByBeneficiaryName().get(entry.getKey())));
+            }
+        }
+    }
+
+    @Test
+    public void testQueriesMergeTheirPartialGroups() {
+        TransactionDataFetcher single = new TransactionDataFetcher(new JSONFileReader());
+        try (ShardCoordinator sharded = ShardCoordinator.inProcess(transactions, 3)) {
+            TransactionQuery bySender = TransactionQuery.builder().groupBy(TransactionQuery.GroupBy.SENDER)
+                    .metric(TransactionQuery.Metric.AVG).metric(TransactionQuery.Metric.MAX).build();
+            assertEquals(byKey(single.query(bySender)), byKey(sharded.query(bySender)));
+
+            TransactionQuery byBand = TransactionQuery.builder().groupBy(TransactionQuery.GroupBy.SENDER_AGE_BAND)
+                    .metric(TransactionQuery.Metric.COUNT).metric(TransactionQuery.Metric.MIN)
+                    .metric(TransactionQuery.Metric.TOP).topK(2).build();
+            List<QueryGroup> expected = single.query(byBand);
+            List<QueryGroup> merged = sharded.query(byBand);
+            assertEquals(keys(expected), keys(merged));
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getCount(), merged.get(i).getCount());
+                assertEquals(expected.get(i).getMin(), merged.get(i).getMin());
+                assertEquals(amounts(expected.get(i).getTop()), amounts(merged.get(i).getTop()));
+                assertEquals(null, merged.get(i).getSum());
+            }
+
+            TransactionQuery open = TransactionQuery.builder().sender("Grace Burgess")
+                    .groupBy(TransactionQuery.GroupBy.ISSUE_STATE).build();
+            assertEquals(byKey(single.query(open)), byKey(sharded.query(open)));
+        }
+    }
+
+    @Test
+    public void testAppendsGoToTheSendersShard() {
+        try (ShardCoordinator sharded = ShardCoordinator.inProcess(transactions, 3)) {
+            Transaction appended = new Transaction(99, 5000.0, "Ada Thorne", 35, "Tom Shelby", 22, 0, true, null);
+            int owner = sharded.getRouter().shardOf("Ada Thorne");
+
+            sharded.append(appended);
+
+            for (int shard = 0; shard < sharded.getShards().size(); shard++) {
+                int size = ((LocalTransactionShard) sharded.getShards().get(shard)).getFetcher()
+                        .getSnapshotManager().current().size();
+                int expected = sharded.getRouter().partition(transactions).get(shard).size();
+                assertEquals(shard == owner ? expected + 1 : expected, size);
+            }
+            assertEquals(Collections.singletonList(appended), sharded.getTransactionsSentBy("Ada Thorne"));
+            assertEquals("Ada Thorne", sharded.getTopSender().orElse(null));
+            assertEquals(5000.0, sharded.getMaxTransactionAmount());
+        }
+    }
+
+    @Test
+    public void testMaxOfNegativeAmountsIgnoresEmptyShards() {
+        List<Transaction> refunds = Arrays.asList(
+                new Transaction(1, -20.0, "Ada Thorne", 35, "Tom Shelby", 22, 0, true, null),
+                new Transaction(2, -5.0, "Ada Thorne", 35, "Tom Shelby", 22, 0, true, null));
+        try (ShardCoordinator sharded = ShardCoordinator.inProcess(refunds, 3)) {
+            assertEquals(-5.0, sharded.getMaxTransactionAmount());
+        }
+        try (ShardCoordinator sharded = ShardCoordinator.inProcess(Collections.emptyList(), 3)) {
+            assertEquals(0.0, sharded.getMaxTransactionAmount());
+        }
+    }
+
+    private static Map<String, List<Object>> byKey(List<QueryGroup> groups) {
+        Map<String, List<Object>> byKey = new HashMap<>();
+        for (QueryGroup group : groups) {
+            byKey.put(group.getKey(), Arrays.asList(group.getCount(), group.getSum() == null ? null
+                    : Math.round(group.getSum() * 100) / 100.0, group.getMax(), group.getAvg() == null ? null
+                    : Math.round(group.getAvg() * 100) / 100.0));
+        }
+        return byKey;
+    }
+
+    private static List<String> keys(List<QueryGroup> groups) {
+        List<String> keys = new ArrayList<>();
+        for (QueryGroup group : groups) {
+            keys.add(group.getKey());
+        }
+        return keys;
+    }
+
+    private static List<Double> amounts(List<Transaction> transactions) {
+        List<Double> amounts = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            amounts.add(transaction.getAmount());
+        }
+        return amounts;
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,206 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ApproximateAggregates;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Transaction;
+import com.smallworld.sketch.CountMinSketch;
+import com.smallworld.sketch.ErrorBounds;
+import com.smallworld.sketch.HeavyHitter;
+import com.smallworld.sketch.HyperLogLog;
+import com.smallworld.sketch.SpaceSaving;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SketchAccuracyTest {
+
+    @Test
+    public void testHyperLogLogStaysWithinReportedError() {
+        for (double relativeError : new double[]{0.05, 0.01}) {
+            for (int distinct : new int[]{100, 10_000, 300_000}) {
+                HyperLogLog whole = HyperLogLog.withRelativeError(relativeError);
+                HyperLogLog[] partitions = new HyperLogLog[4];
+                for (int p = 0; p < partitions.length; p++) {
+                    partitions[p] = HyperLogLog.withRelativeError(relativeError);
+                }
+                for (int i = 0; i < distinct; i++) {
+                    long hash = HyperLogLog.hash("client " + i);
+                    whole.offerHash(hash);
+                    // every value twice, in different partitions
+                    partitions[i % 4].offerHash(hash);
+                    partitions[(i + 1) % 4].offerHash(hash);
+                }
+                HyperLogLog merged = HyperLogLog.withRelativeError(relativeError);
+                for (HyperLogLog partition : partitions) {
+                    merged.merge(partition);
+                }
+
+                assertTrue(whole.getRelativeStandardError() <= relativeError);
+                assertEquals(whole.estimate(), merged.estimate());
+                // 4 standard errors: a deterministic test that does not flake on an unlucky hash
+                assertEquals(distinct, whole.estimate(), 4 * relativeError * distinct + 1,
+                        "error " + relativeError + ", distinct " + distinct);
+            }
+        }
+    }
+
+    @Test
+    public void testSpaceSavingBoundsHoldAcrossMergedPartitions() {
+        double epsilon = 0.002;
+        Map<String, Double> exact = new HashMap<>();
+        SpaceSaving whole = SpaceSaving.withError(epsilon);
+        SpaceSaving[] partitions = {SpaceSaving.withError(epsilon), SpaceSaving.withError(epsilon),
+                SpaceSaving.withError(epsilon)};
+        Random random = new Random(11);
+        double total = 0;
+        for (int i = 0; i < 300_000; i++) {
+            String sender = "Sender " + zipf(random, 50_000);
+            double amount = Math.round(Math.exp(4 + random.nextGaussian()) * 100) / 100.0;
+            exact.merge(sender, amount, Double::sum);
+            whole.offer(sender, amount);
+            partitions[i % partitions.length].offer(sender, amount);
+            total += amount;
+        }
+        SpaceSaving merged = SpaceSaving.withError(epsilon);
+        for (SpaceSaving partition : partitions) {
+            merged.merge(partition);
+        }
+
+        for (SpaceSaving summary : new SpaceSaving[]{whole, merged}) {
+            assertEquals(total, summary.getTotalWeight(), 0.01);
+            assertTrue(summary.getMaxError() <= epsilon * total + 1e-6);
+            for (HeavyHitter hitter : summary.top(summary.size())) {
+                double truth = exact.get(hitter.getKey());
+                assertTrue(hitter.getEstimate() >= truth - 1e-6, hitter.toString());
+                assertTrue(hitter.getGuaranteed() <= truth + 1e-6, hitter.toString());
+                assertTrue(hitter.getEstimate() - truth <= epsilon * total + 1e-6, hitter.toString());
+            }
+            Set<String> reported = new HashSet<>();
+            summary.heavierThan(epsilon).forEach(hitter -> reported.add(hitter.getKey()));
+            for (Map.Entry<String, Double> entry : exact.entrySet()) {
+                if (entry.getValue() > epsilon * total) {
+                    assertTrue(reported.contains(entry.getKey()),
+                            entry.getKey() + " holds " + entry.getValue() + " but was not reported");
+                }
+            }
+            String trueTop = exact.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+            assertEquals(trueTop, summary.top(1).get(0).getKey());
+        }
+    }
+
+    @Test
+    public void testCountMinOvershootsWithinBound() {
+        double epsilon = 0.001;
+        double delta = 0.01;
+        CountMinSketch[] partitions = {CountMinSketch.withError(epsilon, delta),
+                CountMinSketch.withError(epsilon, delta)};
+        Map<String, Double> exact = new HashMap<>();
+        Random random = new Random(5);
+        double total = 0;
+        for (int i = 0; i < 200_000; i++) {
+            String sender = "Sender " + zipf(random, 20_000);
+            double amount = 1 + random.nextInt(500);
+            exact.merge(sender, amount, Double::sum);
+            partitions[i % 2].add(HyperLogLog.hash(sender), amount);
+            total += amount;
+        }
+        CountMinSketch merged = CountMinSketch.withError(epsilon, delta);
+        merged.merge(partitions[0]);
+        merged.merge(partitions[1]);
+
+        int beyondBound = 0;
+        for (Map.Entry<String, Double> entry : exact.entrySet()) {
+            double estimate = merged.estimate(HyperLogLog.hash(entry.getKey()));
+            assertTrue(estimate >= entry.getValue(), entry.getKey());
+            if (estimate - entry.getValue() > merged.getMaxError()) {
+                beyondBound++;
+            }
+        }
+        assertEquals(epsilon * total, merged.getMaxError(), 0.01 * epsilon * total);
+        assertTrue(beyondBound <= delta * exact.size(), beyondBound + " of " + exact.size() + " beyond the bound");
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new CountMinSketch(10, 2)));
+    }
+
+    @Test
+    public void testApproximateModeMatchesExactFetcher() throws IOException {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        long uniqueClients = fetcher.countUniqueClients();
+        String topSender = fetcher.getTopSender().orElse(null);
+        double sentByTop = fetcher.getTotalTransactionAmountSentBy(topSender);
+
+        fetcher.setApproximate(true);
+
+        assertEquals(uniqueClients, fetcher.countUniqueClients());
+        assertEquals(topSender, fetcher.getTopSender().orElse(null));
+        assertEquals(sentByTop, fetcher.getTotalTransactionAmountSentBy(topSender), 0.001);
+        fetcher.append(new Transaction(1, 100_000.0, "New Sender", 30, "Tom Shelby", 22, 0, true, null));
+        assertEquals(uniqueClients + 1, fetcher.countUniqueClients());
+        assertEquals("New Sender", fetcher.getTopSendersApproximately(2).get(0).getKey());
+
+        ApproximateAggregates streamed;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("transactions.json")) {
+            streamed = TransactionDataFetcher.approximateStream(in, ErrorBounds.DEFAULT);
+        }
+        assertEquals(uniqueClients, streamed.countUniqueClients());
+        assertEquals(topSender, streamed.getTopSender().orElse(null));
+    }
+
+    @Test
+    public void testNegativeAmountsReachTheTotalsOnly() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        fetcher.setApproximate(true);
+        fetcher.append(new Transaction(1, 100_000.0, "New Sender", 30, "Tom Shelby", 22, 0, true, null));
+        fetcher.append(new Transaction(2, -40_000.0, "New Sender", 30, "Tom Shelby", 22, 0, true, null));
+
+        for (int read = 0; read < 2; read++) {
+            assertEquals(60_000.0, fetcher.getTotalTransactionAmountSentBy("New Sender"), 0.001);
+            assertEquals("New Sender", fetcher.getTopSender().orElse(null));
+        }
+        // the summary of the heaviest senders saw the payment but not the refund
+        assertEquals(100_000.0, fetcher.getTopSendersApproximately(1).get(0).getEstimate(), 0.001);
+    }
+
+    @Test
+    public void testPartitionsMergeIntoWholeAggregates() {
+        List<Transaction> transactions = new ArrayList<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 50_000; i++) {
+            transactions.add(new Transaction(i, 1 + random.nextInt(1000), "Sender " + zipf(random, 5_000), 30,
+                    "Beneficiary " + random.nextInt(100), 40, 0, true, null));
+        }
+        ErrorBounds bounds = new ErrorBounds(0.02, 0.005, 0.005, 0.05);
+        ApproximateAggregates whole = ApproximateAggregates.of(ColumnarTransactionStore.of(transactions), bounds);
+        ApproximateAggregates merged = new ApproximateAggregates(bounds);
+        for (int from = 0; from < transactions.size(); from += 12_500) {
+            // separate stores, hence separate dictionaries with different codes
+            merged.merge(ApproximateAggregates.of(ColumnarTransactionStore.of(
+                    transactions.subList(from, from + 12_500)), bounds));
+        }
+
+        assertEquals(whole.countUniqueClients(), merged.countUniqueClients());
+        assertEquals(whole.getTotalTransactionAmount(), merged.getTotalTransactionAmount(), 0.001);
+        assertEquals(whole.getTopSender(), merged.getTopSender());
+        assertEquals(whole.estimateTotalTransactionAmountSentBy("Sender 0"),
+                merged.estimateTotalTransactionAmountSentBy("Sender 0"), 0.001);
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new ApproximateAggregates(ErrorBounds.DEFAULT)));
+    }
+
+    /**
+     * Zipf-like skew: a few values are very frequent, most are rare
+     */
+    private static int zipf(Random random, int n) {
+        return (int) Math.min(n - 1, Math.floor(Math.pow(n, random.nextDouble())) - 1);
+    }
+}
@@ -0,0 +1,102 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.Transaction;
+import com.smallworld.util.JSONFileReader;
+import com.smallworld.util.StreamingTransactionReader;
+import com.smallworld.util.TransactionStreamAggregator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class StreamingTransactionReaderTest {
+
+    @Test
+    public void testReadMatchesDataBinding() throws IOException {
+        List<Transaction> expected = new JSONFileReader().loadDataFromJson();
+        List<Transaction> streamed = new ArrayList<>();
+
+        long count;
+        try (InputStream in = resource()) {
+            count = new StreamingTransactionReader().read(in, streamed::add, false);
+        }
+
+        assertEquals(expected.size(), count);
+        assertEquals(expected, streamed);
+    }
+
+    @Test
+    public void testReuseRecordResetsMissingFields() throws IOException {
+        String json = "[{\"mtn\":1,\"amount\":5.0,\"issueId\":3,\"issueMessage\":\"x\",\"extra\":{\"a\":[1,2]}},"
+                + "{\"mtn\":2,\"amount\":7.5,\"issueId\":null}]";
+        List<Transaction> copies = new ArrayList<>();
+
+        new StreamingTransactionReader().read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                transaction -> copies.add(copy(transaction)), true);
+
+        assertEquals(2, copies.size());
+        assertEquals(3, copies.get(0).getIssueId());
+        assertEquals(0, copies.get(1).getIssueId());
+        assertNull(copies.get(1).getIssueMessage());
+    }
+
+    @Test
+    public void testTransactionTimeMatchesDataBinding() throws IOException {
+        String json = "[{\"mtn\":1,\"transactionTime\":1700000000000},"
+                + "{\"mtn\":2,\"transactionTime\":\"2023-11-14T22:13:20Z\"},"
+                + "{\"mtn\":3,\"transactionTime\":\"2023-11-14T23:13:20+01:00\"},"
+                + "{\"mtn\":4,\"transactionTime\":\"2023-11-14\"},{\"mtn\":5,\"transactionTime\":null}]";
+        List<Transaction> streamed = new ArrayList<>();
+
+        new StreamingTransactionReader().read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                transaction -> streamed.add(copy(transaction)), true);
+
+        List<Transaction> bound = JSONFileReader.objectMapper().readValue(json,
+                JSONFileReader.objectMapper().getTypeFactory().constructCollectionType(List.class, Transaction.class));
+        assertEquals(bound, streamed);
+        assertEquals(1700000000000L, streamed.get(0).getTransactionTime());
+        assertEquals(1700000000000L, streamed.get(1).getTransactionTime());
+        assertEquals(1700000000000L, streamed.get(2).getTransactionTime());
+        assertEquals(1699920000000L, streamed.get(3).getTransactionTime());
+        assertNull(streamed.get(4).getTransactionTime());
+    }
+
+    @Test
+    public void testAggregateStream() throws IOException {
+        TransactionStreamAggregator aggregator;
+        try (InputStream in = resource()) {
+            aggregator = TransactionDataFetcher.aggregateStream(in);
+        }
+
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+        assertEquals(transactions.stream().mapToDouble(Transaction::getAmount).sum(),
+                aggregator.getTotalTransactionAmount(), 0.0001);
+        assertEquals(985.0, aggregator.getMaxTransactionAmount(), 0.0001);
+        assertEquals("Grace Burgess", aggregator.getTopSender().orElse(null));
+
+        // a tie goes to the sender seen first, whichever of the two it is
+        for (String[] senders : new String[][]{{"Ada Shelby", "Tom Shelby"}, {"Tom Shelby", "Ada Shelby"}}) {
+            TransactionStreamAggregator tied = new TransactionStreamAggregator();
+            for (String sender : senders) {
+                tied.accept(new Transaction(1, 50.0, sender, 30, "Polly Gray", 55, 0, true, null));
+            }
+            assertEquals(senders[0], tied.getTopSender().orElse(null));
+        }
+    }
+
+    private InputStream resource() {
+        return getClass().getClassLoader().getResourceAsStream("transactions.json");
+    }
+
+    private Transaction copy(Transaction t) {
+        return new Transaction(t.getMtn(), t.getAmount(), t.getSenderFullName(), t.getSenderAge(),
+                t.getBeneficiaryFullName(), t.getBeneficiaryAge(), t.getIssueId(), t.isIssueSolved(), t.getIssueMessage(),
+                t.getTransactionTime());
+    }
+}
@@ -0,0 +1,166 @@
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.TimeRollups;
+import com.smallworld.data.Transaction;
+import com.smallworld.data.WindowAggregate;
+import com.smallworld.sketch.HyperLogLog;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TimeRollupsTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long START = 1_700_006_400_000L; // 2023-11-15T00:00:00Z
+
+    @Test
+    public void testWindowsMatchFullScan() {
+        Random random = new Random(7);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            long time = START + (long) (random.nextDouble() * 5 * DAY);
+            transactions.add(new Transaction(i, Math.round(random.nextDouble() * 100_000) / 100.0,
+                    "Sender " + random.nextInt(40), 30, "Beneficiary " + random.nextInt(40), 40, 0, true, null,
+                    i % 50 == 0 ? null : time));
+        }
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(transactions);
+        TimeRollups rollups = new TimeRollups(10 * DAY, 10 * DAY);
+        rollups.addRows(store, 0, store.size());
+
+        long[][] windows = {{START, START + 5 * DAY}, {START + 7 * MINUTE, START + DAY + 3 * HOUR + 11 * MINUTE},
+                {START + 2 * DAY + 59 * MINUTE, START + 2 * DAY + 61 * MINUTE}, {START + HOUR, START + HOUR}};
+        for (long[] window : windows) {
+            WindowAggregate aggregate = rollups.window(window[0], window[1]);
+            double total = 0;
+            double max = 0;
+            long count = 0;
+            Set<String> clients = new HashSet<>();
+            Map<String, Double> senders = new HashMap<>();
+            for (Transaction transaction : transactions) {
+                Long time = transaction.getTransactionTime();
+                if (time != null && time >= window[0] && time < window[1]) {
+                    count++;
+                    total += transaction.getAmount();
+                    max = Math.max(max, transaction.getAmount());
+                    clients.add(transaction.getSenderFullName());
+                    clients.add(transaction.getBeneficiaryFullName());
+                    senders.merge(transaction.getSenderFullName(), transaction.getAmount(), Double::sum);
+                }
+            }
+            assertTrue(aggregate.isExact());
+            assertEquals(count, aggregate.getCount());
+            assertEquals(total, aggregate.getTotalAmount(), 0.01);
+            assertEquals(max, aggregate.getMaxAmount());
+            assertEquals(clients.size(), aggregate.getDistinctClients(),
+                    Math.max(1, 3 * aggregate.getDistinctClientsRelativeError() * clients.size()));
+            String top = senders.entrySet().stream().max(Map.Entry.comparingByValue())
+                    .map(Map.Entry::getKey).orElse(null);
+            assertEquals(top, aggregate.getTopSender());
+        }
+        assertEquals(transactions.size() / 50, rollups.getUntimedRows());
+    }
+
+    @Test
+    public void testOldMinutesFallBackToHours() {
+        TimeRollups rollups = new TimeRollups(HOUR, 30 * DAY);
+        List<Transaction> transactions = Arrays.asList(
+                new Transaction(1, 10.0, "Tom Shelby", 22, "Ada Shelby", 30, 0, true, null, START + 5 * MINUTE),
+                new Transaction(2, 20.0, "Ada Shelby", 30, "Tom Shelby", 22, 0, true, null, START + 50 * MINUTE),
+                new Transaction(3, 40.0, "Ada Shelby", 30, "Tom Shelby", 22, 0, true, null, START + 3 * HOUR));
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(transactions);
+        rollups.addRows(store, 0, store.size());
+
+        assertEquals(START + 3 * HOUR, (long) rollups.getOldestBucket(TimeRollups.Granularity.MINUTE));
+        assertEquals(START, (long) rollups.getOldestBucket(TimeRollups.Granularity.HOUR));
+        WindowAggregate widened = rollups.window(START + 30 * MINUTE, START + 40 * MINUTE);
+        assertFalse(widened.isExact());
+        assertEquals(START, widened.getFromMillis());
+        assertEquals(START + HOUR, widened.getToMillis());
+        assertEquals(30.0, widened.getTotalAmount());
+
+        WindowAggregate recent = rollups.window(START + 3 * HOUR, START + 3 * HOUR + MINUTE);
+        assertTrue(recent.isExact());
+        assertEquals(40.0, recent.getTotalAmount());
+        assertEquals("Ada Shelby", recent.getTopSender());
+
+        WindowAggregate everything = rollups.window(Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(3, everything.getCount());
+        assertEquals(70.0, everything.getTotalAmount());
+    }
+
+    @Test
+    public void testWideningToADayCountsItOnce() {
+        TimeRollups rollups = new TimeRollups(HOUR, HOUR);
+        List<Transaction> transactions = Arrays.asList(
+                new Transaction(1, 10.0, "Tom Shelby", 22, "Ada Shelby", 30, 0, true, null, START + 10 * HOUR),
+                new Transaction(2, 20.0, "Ada Shelby", 30, "Tom Shelby", 22, 0, true, null, START + 11 * HOUR),
+                new Transaction(3, 40.0, "Ada Shelby", 30, "Tom Shelby", 22, 0, true, null,
+                        START + 12 * HOUR + 10 * MINUTE));
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(transactions);
+        rollups.addRows(store, 0, store.size());
+
+        WindowAggregate day = rollups.window(START + 10 * HOUR + 30 * MINUTE, START + DAY);
+        assertFalse(day.isExact());
+        assertEquals(START, day.getFromMillis());
+        assertEquals(START + DAY, day.getToMillis());
+        assertEquals(3, day.getCount());
+        assertEquals(70.0, day.getTotalAmount());
+    }
+
+    @Test
+    public void testFetcherWindowsFollowAppends() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        fetcher.setClock(Clock.fixed(Instant.ofEpochMilli(START + 10 * HOUR + 30 * MINUTE), ZoneOffset.UTC));
+        assertEquals(0.0, fetcher.getTotalTransactionAmountInLastHours(24));
+        assertFalse(fetcher.getTopSenderToday().isPresent());
+
+        fetcher.appendAll(Arrays.asList(
+                new Transaction(1, 100.0, "Tom Shelby", 22, "Ada Shelby", 30, 0, true, null, START + 10 * HOUR),
+                new Transaction(2, 300.0, "Ada Shelby", 30, "Tom Shelby", 22, 0, true, null, START + HOUR),
+                new Transaction(3, 900.0, "Polly Gray", 55, "Tom Shelby", 22, 0, true, null, START - HOUR)));
+        fetcher.append(new Transaction(4, 50.0, "Tom Shelby", 22, "Ada Shelby", 30, 0, true, null,
+                START + 10 * HOUR + 30 * MINUTE));
+
+        assertEquals(150.0, fetcher.getTotalTransactionAmountInLastHours(2));
+        assertEquals(450.0, fetcher.getTotalTransactionAmountInLastHours(11));
+        assertEquals(1350.0, fetcher.getTotalTransactionAmountInLastHours(12));
+        assertEquals("Ada Shelby", fetcher.getTopSenderToday().orElse(null));
+        assertNull(fetcher.getWindowSummary(START + 11 * HOUR, START + 12 * HOUR).getTopSender());
+    }
+
+    @Test
+    public void testSketchesOfDifferentPrecisionMerge() {
+        HyperLogLog fine = new HyperLogLog(12);
+        HyperLogLog coarse = new HyperLogLog(8);
+        HyperLogLog direct = new HyperLogLog(8);
+        for (int i = 0; i < 50_000; i++) {
+            long hash = HyperLogLog.hash("client " + i);
+            (i % 2 == 0 ? fine : coarse).offerHash(hash);
+            direct.offerHash(hash);
+        }
+
+        HyperLogLog union = HyperLogLog.union(fine, coarse);
+
+        assertEquals(8, union.getPrecision());
+        assertEquals(direct.estimate(), union.estimate());
+        assertEquals(50_000, union.estimate(), 50_000 * 3 * union.getRelativeStandardError());
+    }
+}
@@ -0,0 +1,48 @@
+import com.smallworld.util.TopKHeap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TopKHeapTest {
+
+    @Test
+    public void testMatchesStableDescendingSort() {
+        Random random = new Random(7);
+        double[] amounts = new double[10_000];
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = random.nextInt(500);
+        }
+
+        for (int k : new int[]{0, 1, 3, 16, 100}) {
+            TopKHeap heap = new TopKHeap(k);
+            for (int row = 0; row < amounts.length; row++) {
+                heap.offer(amounts[row], row);
+            }
+            int[] expected = IntStream.range(0, amounts.length).boxed()
+                    .sorted(Comparator.comparingDouble((Integer row) -> amounts[row]).reversed())
+                    .limit(k).mapToInt(Integer::intValue).toArray();
+
+            assertArrayEquals(expected, heap.sortedRows(), "k=" + k);
+        }
+    }
+
+    @Test
+    public void testMergeIsOrderIndependent() {
+        TopKHeap left = new TopKHeap(3);
+        TopKHeap right = new TopKHeap(3);
+        left.offer(10, 0);
+        left.offer(5, 1);
+        right.offer(10, 2);
+        right.offer(20, 3);
+
+        right.merge(left);
+
+        assertArrayEquals(new int[]{3, 0, 2}, right.sortedRows());
+        assertEquals(3, right.size());
+    }
+}
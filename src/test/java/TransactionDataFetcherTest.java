@@ -70,7 +70,7 @@ public class TransactionDataFetcherTest {
         when(jsonFileReader.loadDataFromJson()).thenReturn(transactions);
 
         long count = transactionDataFetcher.countUniqueClients();
-        assertEquals(3, count); // Assuming there are 3 unique clients in the mock data
+        assertEquals(6, count); // 3 senders and 3 more clients who only received
     }
 
     @Test
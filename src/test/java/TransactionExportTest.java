@@ -0,0 +1,176 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Transaction;
+import com.smallworld.export.ExportCheckpoint;
+import com.smallworld.export.ExportFormat;
+import com.smallworld.export.ExportOptions;
+import com.smallworld.export.ExportResult;
+import com.smallworld.export.ExportedPart;
+import com.smallworld.export.TransactionExporter;
+import com.smallworld.query.QueryCompiler;
+import com.smallworld.query.TransactionQuery;
+import com.smallworld.source.DirectoryTransactionSource;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TransactionExportTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<Transaction> transactions() {
+        return Arrays.asList(
+                new Transaction(1, 100.5, "Tom Shelby", 22, "Ada Shelby", 30, 1, false, "Pending", 1704067200000L),
+                new Transaction(2, 200.0, "Arthur Shelby", 60, "Tom Shelby", 22, 0, true, null),
+                new Transaction(3, 900.0, "Tom Shelby", 22, "Polly Gray", 50, 2, true, "Said \"no\", twice"),
+                new Transaction(4, 50.0, "Polly Gray", 50, "Arthur Shelby", 60, 0, true, null, 1704157200000L),
+                new Transaction(5, 700.0, "Grace Burgess", 30, "Tom Shelby", 22, 0, true, null),
+                new Transaction(6, 10.0, "Ada Shelby", 30, "Grace Burgess", 30, 3, false, "Pending"),
+                new Transaction(7, 25.0, "Tom Shelby", 22, "Grace Burgess", 30, 0, true, null));
+    }
+
+    @Test
+    public void testNdjsonPartsLoadBackThroughTheDirectorySource() throws IOException {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        List<Transaction> expected = fetcher.getSnapshotManager().current().getTransactions();
+
+        ExportResult result = fetcher.export(tempDir, ExportOptions.builder()
+                .gzip(true).parts(3).writers(2).batchRows(2).build());
+
+        assertEquals(expected.size(), result.getRows());
+        assertEquals(Arrays.asList("transactions-00000.ndjson.gz", "transactions-00001.ndjson.gz",
+                "transactions-00002.ndjson.gz"), fileNames(result));
+        assertEquals(expected, new DirectoryTransactionSource(tempDir).read().toSnapshot(1).getTransactions());
+        assertTrue(Files.isRegularFile(tempDir.resolve("transactions" + TransactionExporter.MANIFEST_SUFFIX)));
+        assertEquals(Collections.emptyList(), leftovers());
+        assertEquals(expected.size(), fetcher.getExporter().getRowsWritten());
+    }
+
+    @Test
+    public void testCsvOfTheFilteredRows() throws IOException {
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(transactions());
+        ExportOptions options = ExportOptions.builder().format(ExportFormat.CSV).parts(2).writers(2)
+                .filter(TransactionQuery.builder().sender("Tom Shelby").minAmount(50).build()).build();
+
+        ExportResult result = new TransactionExporter(new QueryCompiler()).export(store, tempDir, options);
+
+        assertEquals(2, result.getRows());
+        // rows 0..3 in the first part, 3..7 in the second, which has none that match
+        assertEquals(Arrays.asList(
+                "mtn,amount,senderFullName,senderAge,beneficiaryFullName,beneficiaryAge,issueId,issueSolved,"
+                        + "issueMessage,transactionTime",
+                "1,100.5,Tom Shelby,22,Ada Shelby,30,1,false,Pending,1704067200000",
+                "3,900.0,Tom Shelby,22,Polly Gray,50,2,true,\"Said \"\"no\"\", twice\","),
+                lines("transactions-00000.csv"));
+        assertEquals(1, lines("transactions-00001.csv").size());
+
+        ExportOptions unknownSender = ExportOptions.builder().format(ExportFormat.CSV).parts(1).prefix("none")
+                .filter(TransactionQuery.builder().sender("Nobody").build()).build();
+        ExportResult none = new TransactionExporter(new QueryCompiler()).export(store, tempDir, unknownSender);
+        assertEquals(0, none.getRows());
+        assertEquals(1, lines("none-00000.csv").size());
+    }
+
+    @Test
+    public void testInterruptedExportResumesFromItsCheckpoints() throws IOException {
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(transactions());
+        ExportOptions options = ExportOptions.builder().parts(2).writers(1).batchRows(2).build();
+        TransactionExporter exporter = new TransactionExporter(new QueryCompiler());
+        // the manifest cannot be written, so the export fails after its parts with the checkpoints still in place
+        Path blocked = Files.createDirectories(tempDir.resolve("transactions.manifest.tmp"));
+        Files.write(blocked.resolve("file"), new byte[1]);
+        assertThrows(IOException.class, () -> exporter.export(store, tempDir, options));
+        Files.delete(blocked.resolve("file"));
+        Files.delete(blocked);
+        List<String> complete = lines("transactions-00000.ndjson");
+
+        // part 0 as if the writer died after its first batch, halfway through writing the second
+        Path checkpointFile = tempDir.resolve("transactions-00000.ndjson" + TransactionExporter.CHECKPOINT_SUFFIX);
+        ObjectMapper mapper = JSONFileReader.objectMapper();
+        ExportCheckpoint checkpoint = mapper.readValue(checkpointFile.toFile(), ExportCheckpoint.class);
+        byte[] firstBatch = (complete.get(0) + "\n" + complete.get(1) + "\n").getBytes(StandardCharsets.UTF_8);
+        checkpoint.setNextRow(2);
+        checkpoint.setRows(2);
+        checkpoint.setBytes(firstBatch.length);
+        checkpoint.setComplete(false);
+        mapper.writeValue(checkpointFile.toFile(), checkpoint);
+        Files.delete(tempDir.resolve("transactions-00000.ndjson"));
+        Files.write(tempDir.resolve("transactions-00000.ndjson" + TransactionExporter.PARTIAL_SUFFIX),
+                (new String(firstBatch, StandardCharsets.UTF_8) + "{\"mtn\":3,\"am").getBytes(StandardCharsets.UTF_8));
+
+        ExportResult result = exporter.export(store, tempDir, options);
+
+        assertTrue(result.getParts().get(0).isResumed());
+        assertTrue(result.getParts().get(1).isResumed());
+        assertEquals(7, result.getRows());
+        assertEquals(complete, lines("transactions-00000.ndjson"));
+        assertEquals(transactions(), new DirectoryTransactionSource(tempDir).read().toSnapshot(1).getTransactions());
+        assertEquals(Collections.emptyList(), leftovers());
+
+        // without checkpoints an export starts over
+        assertFalse(exporter.export(store, tempDir, options).getParts().get(0).isResumed());
+    }
+
+    @Test
+    public void testBeneficiaryIndexKeepsEveryTransaction() {
+        TransactionDataFetcher fetcher = new TransactionDataFetcher(new JSONFileReader());
+        List<Transaction> all = fetcher.getSnapshotManager().current().getTransactions();
+        Map<String, List<Transaction>> expected = all.stream().collect(Collectors.groupingBy(
+                Transaction::getBeneficiaryFullName, LinkedHashMap::new, Collectors.toList()));
+
+        assertEquals(expected, fetcher.getTransactionsByBeneficiaryName());
+        assertEquals(new ArrayList<>(expected.keySet()),
+                new ArrayList<>(fetcher.getTransactionsByBeneficiaryName().keySet()));
+
+        Transaction appended = new Transaction(99, 5.0, "Tom Shelby", 22, "Ada Thorne", 35, 0, true, null);
+        fetcher.append(appended);
+        assertEquals(Collections.singletonList(appended), fetcher.getTransactionsReceivedBy("Ada Thorne"));
+        assertEquals(Collections.singletonList(appended), fetcher.getTransactionsByBeneficiaryName().get("Ada Thorne"));
+        String first = expected.keySet().iterator().next();
+        assertEquals(expected.get(first), fetcher.getTransactionsReceivedBy(first));
+        assertEquals(all.size() + 1, fetcher.getTransactionsByBeneficiaryName().values().stream()
+                .mapToInt(List::size).sum());
+        assertEquals(Collections.emptyList(), fetcher.getTransactionsReceivedBy("Nobody"));
+    }
+
+    private List<String> lines(String file) throws IOException {
+        return Files.readAllLines(tempDir.resolve(file), StandardCharsets.UTF_8);
+    }
+
+    private List<String> leftovers() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(TransactionExporter.CHECKPOINT_SUFFIX)
+                            || name.endsWith(TransactionExporter.PARTIAL_SUFFIX) || name.endsWith(".tmp"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> fileNames(ExportResult result) {
+        List<String> names = new ArrayList<>();
+        for (ExportedPart part : result.getParts()) {
+            names.add(part.getFile());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,50 @@
+import com.smallworld.data.ColumnarTransactionStore;
+import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionIndexes;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TransactionIndexesTest {
+
+    @Test
+    public void testIndexesAgreeWithFullScan() {
+        List<Transaction> transactions = new JSONFileReader().loadDataFromJson();
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(transactions);
+        TransactionIndexes indexes = TransactionIndexes.build(store);
+
+        for (int client = 0; client < store.getClients().size(); client++) {
+            String name = store.getClients().decode(client);
+            long expectedSent = transactions.stream()
+                    .filter(transaction -> name.equals(transaction.getSenderFullName())).count();
+            long expectedReceived = transactions.stream()
+                    .filter(transaction -> name.equals(transaction.getBeneficiaryFullName())).count();
+
+            assertEquals(expectedSent, indexes.senderPostingsEnd(client) - indexes.senderPostingsStart(client), name);
+            assertEquals(expectedReceived, indexes.beneficiaryPostingsEnd(client) - indexes.beneficiaryPostingsStart(client), name);
+            for (int i = indexes.senderPostingsStart(client); i < indexes.senderPostingsEnd(client); i++) {
+                assertEquals(client, store.senderCode(indexes.senderRow(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testIssueIdLookup() {
+        ColumnarTransactionStore store = ColumnarTransactionStore.of(new JSONFileReader().loadDataFromJson());
+        TransactionIndexes indexes = TransactionIndexes.build(store);
+
+        assertEquals(54, store.issueId(indexes.issueRow(54)));
+        assertEquals(-1, indexes.issueRow(12345));
+
+        ColumnarTransactionStore extremes = ColumnarTransactionStore.of(Arrays.asList(
+                new Transaction(1, 10.0, "Tom Shelby", 22, "Ada Shelby", 30, Integer.MAX_VALUE, false, "High"),
+                new Transaction(2, 20.0, "Ada Shelby", 30, "Tom Shelby", 22, Integer.MIN_VALUE, false, "Low")));
+        TransactionIndexes extremeIndexes = TransactionIndexes.build(extremes);
+        assertEquals(0, extremeIndexes.issueRow(Integer.MAX_VALUE));
+        assertEquals(1, extremeIndexes.issueRow(Integer.MIN_VALUE));
+    }
+}
@@ -0,0 +1,271 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.smallworld.TransactionDataFetcher;
+import com.smallworld.metrics.MetricsRegistry;
+import com.smallworld.servlets.TransactionServlet;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransactionServletTest {
+
+    @Spy
+    private TransactionDataFetcher dataFetcher = new TransactionDataFetcher(new JSONFileReader());
+
+    @InjectMocks
+    private TransactionServlet servlet;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        when(request.getMethod()).thenReturn("GET");
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void testTopTransactionsAreJson() throws Exception {
+        when(request.getPathInfo()).thenReturn("/getTop3TransactionsByAmount");
+
+        servlet.service(request, response);
+
+        JsonNode top = objectMapper.readTree(body.toByteArray()).get("top3TransactionsByAmount");
+        assertEquals(3, top.size());
+        assertEquals(985.0, top.get(0).get("amount").asDouble());
+        verify(response).setContentType("application/json");
+    }
+
+    @Test
+    public void testSummaryMatchesTheEndpoints() throws Exception {
+        String[][] endpoints = {
+                {"totalTransactionAmount", "/totalTransactionAmount", "totalTransactionAmount"},
+                {"maxTransactionAmount", "/maxTransactionAmount", "maxTransactionAmount"},
+                {"countUniqueClients", "/countUniqueClients", "uniqueClients"},
+                {"unsolvedIssueIds", "/getUnsolvedIssueIds", "unsolvedIssueIds"},
+                {"solvedIssueMessages", "/getAllSolvedIssueMessages", "solvedIssueMessages"},
+                {"top3TransactionsByAmount", "/getTop3TransactionsByAmount", "top3TransactionsByAmount"},
+                {"topSender", "/getTopSender", "topSender"}};
+        for (boolean perRow : new boolean[]{false, true}) {
+            dataFetcher.setPerRowSemantics(perRow);
+            JsonNode summary = get("/summary").get("summary");
+            assertEquals(endpoints.length, summary.size());
+            for (String[] endpoint : endpoints) {
+                JsonNode expected = get(endpoint[1]).get(endpoint[2]);
+                JsonNode actual = summary.get(endpoint[0]);
+                String message = endpoint[0] + (perRow ? " per row" : " per transfer");
+                if (endpoint[0].equals("unsolvedIssueIds")) {
+                    assertEquals(elements(expected), elements(actual), message);
+                } else {
+                    assertEquals(expected, actual, message);
+                }
+            }
+        }
+        dataFetcher.setPerRowSemantics(false);
+        assertEquals(2889.17, get("/summary").get("summary").get("totalTransactionAmount").asDouble(), 1e-9);
+    }
+
+    private static Set<JsonNode> elements(JsonNode array) {
+        Set<JsonNode> elements = new HashSet<>();
+        array.forEach(elements::add);
+        return elements;
+    }
+
+    private JsonNode get(String path) throws Exception {
+        body.reset();
+        when(request.getPathInfo()).thenReturn(path);
+        servlet.service(request, response);
+        return objectMapper.readTree(body.toByteArray());
+    }
+
+    @Test
+    public void testNdjsonWritesOneLinePerItem() throws Exception {
+        when(request.getPathInfo()).thenReturn("/getUnsolvedIssueIds");
+        when(request.getParameter("format")).thenReturn("ndjson");
+
+        servlet.service(request, response);
+
+        String[] lines = new String(body.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(dataFetcher.getUnsolvedIssueIds().size(), lines.length);
+        for (String line : lines) {
+            assertTrue(dataFetcher.getUnsolvedIssueIds().contains(Integer.parseInt(line)));
+        }
+        verify(response).setContentType("application/x-ndjson");
+    }
+
+    @Test
+    public void testGzipWhenAccepted() throws Exception {
+        when(request.getPathInfo()).thenReturn("/totalTransactionAmount");
+        when(request.getHeader("Accept-Encoding")).thenReturn("deflate, gzip;q=0.8");
+
+        servlet.service(request, response);
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+            assertEquals(dataFetcher.getTotalTransactionAmount(),
+                    objectMapper.readTree(in).get("totalTransactionAmount").asDouble());
+        }
+        verify(response).setHeader("Content-Encoding", "gzip");
+    }
+
+    @Test
+    public void testAsyncRequestCompletes() throws Exception {
+        AsyncContext async = asyncContext();
+        servlet.init(config(Collections.emptyMap()));
+        try {
+            when(request.getPathInfo()).thenReturn("/getTopSender");
+
+            servlet.service(request, response);
+
+            verify(async, timeout(5000)).complete();
+            verify(async).start(any(Runnable.class));
+            assertEquals("Grace Burgess", objectMapper.readTree(body.toByteArray()).get("topSender").asText());
+        } finally {
+            servlet.destroy();
+        }
+    }
+
+    @Test
+    public void testSlowQueryTimesOut() throws Exception {
+        AsyncContext async = asyncContext();
+        servlet.init(config(Collections.singletonMap("/getTopSender.timeoutMillis", "50")));
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(dataFetcher).getTopSender();
+        try {
+            when(request.getPathInfo()).thenReturn("/getTopSender");
+
+            servlet.service(request, response);
+
+            verify(async, timeout(5000)).complete();
+            verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } finally {
+            release.countDown();
+            servlet.destroy();
+        }
+    }
+
+    private AsyncContext asyncContext() {
+        AsyncContext async = mock(AsyncContext.class);
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync()).thenReturn(async);
+        when(async.getRequest()).thenReturn(request);
+        when(async.getResponse()).thenReturn(response);
+        // like a container, runs the response writer on a thread of its own
+        doAnswer(invocation -> {
+            new Thread(invocation.<Runnable>getArgument(0)).start();
+            return null;
+        }).when(async).start(any(Runnable.class));
+        return async;
+    }
+
+    private static ServletConfig config(Map<String, String> parameters) {
+        ServletConfig config = mock(ServletConfig.class);
+        when(config.getInitParameter(anyString()))
+                .thenAnswer(invocation -> parameters.get(invocation.<String>getArgument(0)));
+        when(config.getInitParameterNames()).thenReturn(Collections.enumeration(parameters.keySet()));
+        return config;
+    }
+
+    @Test
+    public void testMetricsInPrometheusFormat() throws Exception {
+        StringWriter text = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(text));
+        for (String path : new String[]{"/getTopSender", "/getTop3TransactionsByAmount", "/nope", "/metrics"}) {
+            when(request.getPathInfo()).thenReturn(path);
+            servlet.service(request, response);
+        }
+
+        String metrics = text.toString();
+        assertTrue(metrics.contains("# TYPE smallworld_fetcher_latency_seconds summary"));
+        assertTrue(metrics.contains("smallworld_fetcher_latency_seconds_count{method=\"getTopSender\"} 1"));
+        // the top 3 are recorded once, not also as a call of getTopTransactionsByAmount
+        assertTrue(metrics.contains(
+                "smallworld_fetcher_latency_seconds_count{method=\"getTop3TransactionsByAmount\"} 1"));
+        assertTrue(metrics.contains(
+                "smallworld_fetcher_latency_seconds_count{method=\"getTopTransactionsByAmount\"} 0"));
+        assertTrue(metrics.contains("smallworld_http_requests_total{endpoint=\"/getTopSender\"} 1"));
+        assertTrue(metrics.contains("smallworld_http_errors_total{endpoint=\"unknown\"} 1"));
+        assertTrue(metrics.contains("smallworld_ingest_rows_total 13"));
+        assertTrue(metrics.contains("smallworld_cache_misses_total"));
+        verify(response).setContentType(MetricsRegistry.CONTENT_TYPE);
+    }
+
+    @Test
+    public void testWindowSpanIsCapped() throws Exception {
+        when(request.getPathInfo()).thenReturn("/window");
+        when(request.getParameter("from")).thenReturn("0");
+        when(request.getParameter("to")).thenReturn(String.valueOf(Long.MAX_VALUE));
+
+        servlet.service(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void testUnknownEndpoint() throws Exception {
+        when(request.getPathInfo()).thenReturn("/nope");
+
+        servlet.service(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_NOT_FOUND);
+        assertEquals("Endpoint not found", objectMapper.readTree(body.toByteArray()).get("error").asText());
+    }
+}
@@ -0,0 +1,97 @@
+import com.smallworld.data.Transaction;
+import com.smallworld.data.TransactionSnapshot;
+import com.smallworld.data.TransactionSnapshotManager;
+import com.smallworld.util.JSONFileReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransactionSnapshotManagerTest {
+
+    @Mock
+    JSONFileReader jsonFileReader;
+
+    private TransactionSnapshotManager snapshotManager;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        snapshotManager = new TransactionSnapshotManager(jsonFileReader);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        snapshotManager.close();
+    }
+
+    @Test
+    public void testLoadsOnlyOnce() {
+        when(jsonFileReader.loadDataFromJson()).thenReturn(buildTransactions());
+
+        TransactionSnapshot first = snapshotManager.current();
+        TransactionSnapshot second = snapshotManager.current();
+
+        assertSame(first, second);
+        assertEquals(2, first.size());
+        verify(jsonFileReader, times(1)).loadDataFromJson();
+    }
+
+    @Test
+    public void testReloadSwapsSnapshotAndKeepsOldOneIntact() {
+        when(jsonFileReader.loadDataFromJson()).thenReturn(buildTransactions())
+                .thenReturn(Collections.emptyList());
+
+        TransactionSnapshot inFlight = snapshotManager.current();
+        TransactionSnapshot reloaded = snapshotManager.reload();
+
+        assertEquals(2, inFlight.size());
+        assertEquals(0, reloaded.size());
+        assertTrue(reloaded.getVersion() > inFlight.getVersion());
+        assertSame(reloaded, snapshotManager.current());
+    }
+
+    @Test
+    public void testWatchModeReloadsOnFileChange(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("transactions.json");
+        Files.write(file, "[]".getBytes(StandardCharsets.UTF_8));
+        JSONFileReader fileReader = new JSONFileReader(file);
+
+        try (TransactionSnapshotManager watchingManager = new TransactionSnapshotManager(fileReader)) {
+            assertEquals(0, watchingManager.current().size());
+            assertTrue(watchingManager.startWatching());
+
+            Files.write(file, ("[{\"mtn\":1,\"amount\":10.0,\"senderFullName\":\"Tom Shelby\","
+                    + "\"beneficiaryFullName\":\"Arthur Shelby\"}]").getBytes(StandardCharsets.UTF_8));
+
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (watchingManager.current().size() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, watchingManager.current().size());
+        }
+    }
+
+    private List<Transaction> buildTransactions() {
+        return Arrays.asList(
+                new Transaction(1234567, 100.0, "Ahmed", 23, "Ali", 20, 12678, true, "issue solved"),
+                new Transaction(1234568, 200.0, "Abdullah", 23, "Asad", 20, 0, false, null)
+        );
+    }
+}